@@ -0,0 +1,263 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+// Arnés de benchmarks sin dependencias externas (el proyecto no tiene sistema de build para traer JMH).
+// Cada benchmark se calienta con varias iteraciones descartadas y luego se mide en iteraciones de duración fija;
+// las operaciones muy lentas (generar parámetros DH) se miden una a una con medirUnaVez.
+// Opciones: -wi <iteraciones de calentamiento> -i <iteraciones medidas> -t <ms por iteración>
+//           -f csv|json -o <archivo> -b <filtro por nombre> -p <parametro>=<v1,v2,...> (repetible)
+// Mientras mide, System.out se descarta para que los mensajes del servidor y del cliente no ensucien los resultados.
+public class Arnes {
+    public interface Operacion {
+        Object ejecutar() throws Exception;
+    }
+
+    private static volatile int sumidero;
+
+    private final String grupo;
+    private final PrintStream salidaResultados;
+    private final PrintStream salidaOriginal;
+    private final List<Map<String, Object>> resultados;
+    private final Map<String, String> parametrosForzados;
+    private int iteracionesCalentamiento;
+    private int iteracionesMedidas;
+    private long milisegundosPorIteracion;
+    private String formato;
+    private String archivo;
+    private String filtro;
+
+    public Arnes(String grupo, String[] args) throws IOException {
+        this.grupo = grupo;
+        this.iteracionesCalentamiento = 3;
+        this.iteracionesMedidas = 5;
+        this.milisegundosPorIteracion = 1000;
+        this.formato = "csv";
+        this.resultados = new ArrayList<>();
+        this.parametrosForzados = new LinkedHashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "-wi": iteracionesCalentamiento = Integer.parseInt(args[++i]); break;
+                case "-i": iteracionesMedidas = Integer.parseInt(args[++i]); break;
+                case "-t": milisegundosPorIteracion = Long.parseLong(args[++i]); break;
+                case "-f": formato = args[++i]; break;
+                case "-o": archivo = args[++i]; break;
+                case "-b": filtro = args[++i]; break;
+                case "-p":
+                    String[] par = args[++i].split("=", 2);
+                    parametrosForzados.put(par[0], par[1]);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Opción desconocida: " + args[i]);
+            }
+        }
+        if (!"csv".equals(formato) && !"json".equals(formato)) {
+            throw new IllegalArgumentException("Formato no soportado: " + formato);
+        }
+        this.salidaOriginal = System.out;
+        this.salidaResultados = archivo != null
+                ? new PrintStream(new FileOutputStream(archivo), true, "UTF-8") : System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    }
+
+    // Valores de un parámetro: los de la línea de comandos (-p nombre=...) o los que propone el benchmark
+    public String[] valores(String nombre, String porDefecto) {
+        return parametrosForzados.getOrDefault(nombre, porDefecto).split(",");
+    }
+
+    public int[] enteros(String nombre, String porDefecto) {
+        String[] texto = valores(nombre, porDefecto);
+        int[] numeros = new int[texto.length];
+        for (int i = 0; i < texto.length; i++) {
+            numeros[i] = Integer.parseInt(texto[i].trim());
+        }
+        return numeros;
+    }
+
+    public static Map<String, Object> parametros(Object... claveValor) {
+        Map<String, Object> parametros = new LinkedHashMap<>();
+        for (int i = 0; i + 1 < claveValor.length; i += 2) {
+            parametros.put(String.valueOf(claveValor[i]), claveValor[i + 1]);
+        }
+        return parametros;
+    }
+
+    public boolean incluido(String nombre) {
+        return filtro == null || nombre.contains(filtro);
+    }
+
+    // Throughput: cuántas veces cabe la operación en cada iteración de duración fija
+    public void medir(String nombre, Map<String, Object> parametros, Operacion operacion) throws Exception {
+        if (!incluido(nombre)) {
+            return;
+        }
+        progreso(nombre, parametros);
+        for (int i = 0; i < iteracionesCalentamiento; i++) {
+            iteracion(operacion);
+        }
+        double[] nsPorOperacion = new double[iteracionesMedidas];
+        long operacionesTotales = 0;
+        for (int i = 0; i < iteracionesMedidas; i++) {
+            long[] medida = iteracion(operacion);
+            nsPorOperacion[i] = (double) medida[1] / medida[0];
+            operacionesTotales += medida[0];
+        }
+        registrar(nombre, parametros, "throughput", operacionesTotales, nsPorOperacion);
+    }
+
+    // Una ejecución por muestra, para operaciones de cientos de milisegundos o más
+    public void medirUnaVez(String nombre, Map<String, Object> parametros, int muestras, Operacion operacion)
+            throws Exception {
+        if (!incluido(nombre)) {
+            return;
+        }
+        progreso(nombre, parametros);
+        for (int i = 0; i < Math.min(iteracionesCalentamiento, muestras); i++) {
+            consumir(operacion.ejecutar());
+        }
+        double[] nsPorOperacion = new double[muestras];
+        for (int i = 0; i < muestras; i++) {
+            long inicio = System.nanoTime();
+            consumir(operacion.ejecutar());
+            nsPorOperacion[i] = System.nanoTime() - inicio;
+        }
+        registrar(nombre, parametros, "una_vez", muestras, nsPorOperacion);
+    }
+
+    // Escribe los resultados en el formato pedido y después restaura System.out, para que los hilos
+    // del servidor que sigan escribiendo no se mezclen con los resultados
+    public void terminar() {
+        if ("json".equals(formato)) {
+            escribirJSON();
+        } else {
+            escribirCSV();
+        }
+        salidaResultados.flush();
+        System.setOut(salidaOriginal);
+        if (archivo != null) {
+            salidaResultados.close();
+            System.out.println("Resultados de " + grupo + " guardados en " + archivo);
+        }
+    }
+
+    public static void consumir(Object resultado) {
+        if (resultado != null) {
+            sumidero ^= resultado.hashCode();
+        }
+    }
+
+    // Devuelve {operaciones, nanosegundos}; revisa el reloj cada 8 operaciones para no medir nanoTime
+    private long[] iteracion(Operacion operacion) throws Exception {
+        long limite = milisegundosPorIteracion * 1_000_000L;
+        long operaciones = 0;
+        long inicio = System.nanoTime();
+        long transcurrido;
+        do {
+            for (int i = 0; i < 8; i++) {
+                consumir(operacion.ejecutar());
+            }
+            operaciones += 8;
+            transcurrido = System.nanoTime() - inicio;
+        } while (transcurrido < limite);
+        return new long[]{operaciones, transcurrido};
+    }
+
+    private void progreso(String nombre, Map<String, Object> parametros) {
+        System.err.println("[" + grupo + "] " + nombre + " " + textoParametros(parametros));
+    }
+
+    private void registrar(String nombre, Map<String, Object> parametros, String modo, long operaciones,
+                           double[] nsPorOperacion) {
+        double suma = 0;
+        double minimo = Double.MAX_VALUE;
+        double maximo = 0;
+        for (double ns : nsPorOperacion) {
+            suma += ns;
+            minimo = Math.min(minimo, ns);
+            maximo = Math.max(maximo, ns);
+        }
+        double media = suma / nsPorOperacion.length;
+        double varianza = 0;
+        for (double ns : nsPorOperacion) {
+            varianza += (ns - media) * (ns - media);
+        }
+        double desviacion = nsPorOperacion.length > 1 ? Math.sqrt(varianza / (nsPorOperacion.length - 1)) : 0;
+
+        Map<String, Object> fila = new LinkedHashMap<>();
+        fila.put("grupo", grupo);
+        fila.put("benchmark", nombre);
+        fila.put("parametros", textoParametros(parametros));
+        fila.put("modo", modo);
+        fila.put("operaciones", operaciones);
+        fila.put("ns_por_op", Math.round(media));
+        fila.put("desviacion_ns", Math.round(desviacion));
+        fila.put("min_ns", Math.round(minimo));
+        fila.put("max_ns", Math.round(maximo));
+        fila.put("ops_por_segundo", Math.round(1_000_000_000.0 / media));
+        resultados.add(fila);
+    }
+
+    private static String textoParametros(Map<String, Object> parametros) {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> entrada : parametros.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(';');
+            }
+            sb.append(entrada.getKey()).append('=').append(entrada.getValue());
+        }
+        return sb.toString();
+    }
+
+    private void escribirCSV() {
+        if (resultados.isEmpty()) {
+            return;
+        }
+        salidaResultados.println(String.join(",", resultados.get(0).keySet()));
+        for (Map<String, Object> fila : resultados) {
+            StringBuilder sb = new StringBuilder();
+            for (Object valor : fila.values()) {
+                if (sb.length() > 0) {
+                    sb.append(',');
+                }
+                sb.append(valor);
+            }
+            salidaResultados.println(sb);
+        }
+    }
+
+    private void escribirJSON() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\"grupo\":\"").append(grupo).append("\",")
+                .append("\"jvm\":\"").append(System.getProperty("java.vm.name")).append(' ')
+                .append(System.getProperty("java.version")).append("\",")
+                .append("\"procesadores\":").append(Runtime.getRuntime().availableProcessors()).append(',')
+                .append("\"fecha\":\"").append(Instant.now()).append("\",")
+                .append("\"resultados\":[");
+        for (int i = 0; i < resultados.size(); i++) {
+            sb.append(i > 0 ? ",\n" : "\n").append('{');
+            boolean primero = true;
+            for (Map.Entry<String, Object> entrada : resultados.get(i).entrySet()) {
+                if (!primero) {
+                    sb.append(',');
+                }
+                primero = false;
+                sb.append('"').append(entrada.getKey()).append("\":");
+                Object valor = entrada.getValue();
+                if (valor instanceof Number) {
+                    sb.append(valor);
+                } else {
+                    sb.append('"').append(String.valueOf(valor).replace("\\", "\\\\").replace("\"", "\\\"")).append('"');
+                }
+            }
+            sb.append('}');
+        }
+        sb.append("\n]}");
+        salidaResultados.println(sb);
+    }
+}
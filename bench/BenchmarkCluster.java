@@ -0,0 +1,185 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Escalado de un cluster de 1 a N nodos en esta máquina: levanta N procesos ServidorPrincipal (transporte NIO)
+// en puertos consecutivos, cada uno con su fragmento de un registro de prueba, y mide el total de handshakes
+// completos por segundo (sin reanudación, contra un nodo al azar cada uno) y de consultas por segundo
+// a través de ClienteCluster. El cliente corre en este proceso y compite por la CPU con los servidores: con
+// pocos núcleos el escalado se aplana en cuanto la suma de los procesos los satura.
+// Uso: java -cp out BenchmarkCluster [nodos] [hilos] [segundos] [puerto base] [servicios]
+//      (desde la raíz del repositorio: los servidores cargan o generan sus claves en el directorio actual)
+public class BenchmarkCluster {
+    private interface Operacion {
+        void ejecutar(int hilo, Random random) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int maximoNodos = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+        int hilos = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        double segundos = args.length > 2 ? Double.parseDouble(args[2]) : 5;
+        int puertoBase = args.length > 3 ? Integer.parseInt(args[3]) : 18101;
+        int servicios = args.length > 4 ? Integer.parseInt(args[4]) : 1000;
+        Bitacora.setNivel(Bitacora.Nivel.ERROR);
+
+        Path registro = Files.createTempFile("cluster-servicios", ".csv");
+        try (PrintWriter salida = new PrintWriter(Files.newBufferedWriter(registro, StandardCharsets.UTF_8))) {
+            for (int i = 0; i < servicios; i++) {
+                salida.println("S" + i + ",Servicio " + i + ",10.0." + (i / 250 % 250) + "." + (i % 250) + "," + (9000 + i % 1000));
+            }
+        }
+
+        System.out.println("nodos,escenario,hilos,operaciones,segundos,ops_por_segundo,escalado");
+        double[] base = new double[2];
+        for (int n = 1; n <= maximoNodos; n++) {
+            List<String> nodos = new ArrayList<>();
+            for (int i = 0; i < n; i++) {
+                nodos.add("localhost:" + (puertoBase + i));
+            }
+            List<Process> procesos = levantar(nodos, registro);
+            try {
+                double[] resultado = new double[2];
+                resultado[0] = medir(n, "handshake", hilos, segundos, (hilo, random) -> {
+                    String nodo = nodos.get(random.nextInt(nodos.size()));
+                    Cliente cliente = crearCliente(AnilloConsistente.host(nodo), AnilloConsistente.puerto(nodo));
+                    cliente.abrirSesion();
+                    cliente.cerrarSesion();
+                }, base[0]);
+
+                MiembrosCluster miembros = new MiembrosCluster(String.join(",", nodos), 128);
+                ClienteCluster cluster = new ClienteCluster(miembros, "servidor_publica.key");
+                cluster.setLimites(hilos, 5000);
+                cluster.setReplicas(Math.min(2, n));
+                try {
+                    resultado[1] = medir(n, "consulta", hilos, segundos, (hilo, random) -> {
+                        if (cluster.consultar("S" + random.nextInt(servicios)) == null) {
+                            throw new IllegalStateException("Un servicio del registro no apareció en su nodo");
+                        }
+                    }, base[1]);
+                } finally {
+                    cluster.cerrar();
+                }
+                if (n == 1) {
+                    base = resultado;
+                }
+            } finally {
+                detener(procesos);
+            }
+        }
+        Files.deleteIfExists(registro);
+    }
+
+    private static Cliente crearCliente(String host, int puerto) throws Exception {
+        Cliente cliente = new Cliente(host, puerto);
+        cliente.setFormato("binario");
+        cliente.setSuites(SuiteCifrado.lista("x25519"));
+        cliente.setModosRegistro(ModoRegistro.lista(ModoRegistro.preferenciaPorDefecto()));
+        cliente.setReanudacion(false);
+        cliente.cargarClavePublica("servidor_publica.key");
+        cliente.cargarClavesSuites(ClienteManager.directorioClaves("servidor_publica.key"));
+        return cliente;
+    }
+
+    // Calienta un tercio del tiempo sin contar y después mide
+    private static double medir(int nodos, String escenario, int hilos, double segundos, Operacion operacion,
+                                double base) throws InterruptedException {
+        correr(hilos, segundos / 3, operacion);
+        long inicio = System.nanoTime();
+        long[] conteo = correr(hilos, segundos, operacion);
+        double duracion = (System.nanoTime() - inicio) / 1_000_000_000.0;
+        if (conteo[1] > 0) {
+            System.err.println(escenario + " con " + nodos + " nodos: " + conteo[1] + " errores");
+        }
+        double porSegundo = conteo[0] / duracion;
+        System.out.println(nodos + "," + escenario + "," + hilos + "," + conteo[0] + "," + String.format("%.2f", duracion)
+                + "," + String.format("%.1f", porSegundo) + "," + (base > 0 ? String.format("%.2f", porSegundo / base) : "1.00"));
+        return porSegundo;
+    }
+
+    private static long[] correr(int hilos, double segundos, Operacion operacion) throws InterruptedException {
+        AtomicLong hechas = new AtomicLong();
+        AtomicLong errores = new AtomicLong();
+        long fin = System.nanoTime() + (long) (segundos * 1_000_000_000L);
+        List<Thread> trabajadores = new ArrayList<>(hilos);
+        for (int i = 0; i < hilos; i++) {
+            int hilo = i;
+            Thread trabajador = new Thread(() -> {
+                Random random = new Random(hilo);
+                while (System.nanoTime() < fin) {
+                    try {
+                        operacion.ejecutar(hilo, random);
+                        hechas.incrementAndGet();
+                    } catch (Exception e) {
+                        errores.incrementAndGet();
+                    }
+                }
+            }, "bench-cluster-" + i);
+            trabajadores.add(trabajador);
+            trabajador.start();
+        }
+        for (Thread trabajador : trabajadores) {
+            trabajador.join();
+        }
+        return new long[]{hechas.get(), errores.get()};
+    }
+
+    // El primero se levanta solo: si faltan las claves las genera él, y los demás las encuentran ya escritas
+    private static List<Process> levantar(List<String> nodos, Path registro) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        List<Process> procesos = new ArrayList<>();
+        for (int i = 0; i < nodos.size(); i++) {
+            int puerto = AnilloConsistente.puerto(nodos.get(i));
+            ProcessBuilder constructor = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "-Dservidor.puerto=" + puerto, "-Dservidor.transporte=nio", "-Dservidor.servicios=" + registro,
+                    "-Dservidor.cluster=" + String.join(",", nodos), "-Dservidor.nodo=" + nodos.get(i),
+                    "-Dservidor.metricas.intervalo=0", "-Dbitacora.nivel=aviso", "ServidorPrincipal");
+            constructor.redirectErrorStream(true);
+            constructor.redirectOutput(ProcessBuilder.Redirect.DISCARD);
+            procesos.add(constructor.start());
+            if (i == 0) {
+                esperarPuerto(puerto, procesos.get(0));
+            }
+        }
+        for (int i = 1; i < nodos.size(); i++) {
+            esperarPuerto(AnilloConsistente.puerto(nodos.get(i)), procesos.get(i));
+        }
+        return procesos;
+    }
+
+    private static void esperarPuerto(int puerto, Process proceso) throws IOException, InterruptedException {
+        long limite = System.currentTimeMillis() + 30000;
+        while (System.currentTimeMillis() < limite) {
+            if (!proceso.isAlive()) {
+                throw new IOException("El servidor del puerto " + puerto + " terminó al arrancar (código " + proceso.exitValue() + ")");
+            }
+            try (Socket socket = new Socket()) {
+                socket.connect(new InetSocketAddress("localhost", puerto), 200);
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IOException("El servidor del puerto " + puerto + " no abrió el puerto en 30 s");
+    }
+
+    private static void detener(List<Process> procesos) throws InterruptedException {
+        for (Process proceso : procesos) {
+            proceso.destroy();
+        }
+        for (Process proceso : procesos) {
+            if (!proceso.waitFor(10, TimeUnit.SECONDS)) {
+                proceso.destroyForcibly();
+            }
+        }
+    }
+}
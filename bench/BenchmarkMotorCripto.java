@@ -0,0 +1,136 @@
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.DHParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+
+// Compara las primitivas con getInstance() y SecureRandom nuevos en cada llamada (como estaba CryptoUtils)
+// con las de CryptoUtils sobre MotorCripto y, para AES y HMAC, con la variante sobre buffers del llamador.
+// Uso: java -cp out:bench BenchmarkMotorCripto [iteraciones por hilo] [hilos] [bytes]
+public class BenchmarkMotorCripto {
+    private interface Operacion {
+        void ejecutar() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int iteraciones = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+        int hilos = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        int bytes = args.length > 2 ? Integer.parseInt(args[2]) : 256;
+
+        SecretKey[] claves = CryptoUtils.generarClavesSesion(CryptoUtils.generarNonce(64));
+        byte[] datos = CryptoUtils.generarNonce(bytes);
+        byte[] iv = CryptoUtils.generarIV();
+        KeyPairGenerator generadorRSA = KeyPairGenerator.getInstance("RSA");
+        generadorRSA.initialize(1024);
+        KeyPair rsa = generadorRSA.generateKeyPair();
+        byte[] firma = CryptoUtils.firmarRSA(datos, rsa.getPrivate());
+        DHParameterSpec dh = ParametrosDH.generar(1024).getSpec();
+        KeyPair dhPropio = CryptoUtils.generarClavesDH(dh);
+        byte[] dhOtro = CryptoUtils.generarClavesDH(dh).getPublic().getEncoded();
+
+        System.out.println("operacion,variante,hilos,bytes,ops_por_segundo,ns_por_op");
+
+        medir("aes-cbc", "por-llamada", hilos, iteraciones, bytes, () -> {
+            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, claves[0], new IvParameterSpec(iv));
+            cipher.doFinal(datos);
+        });
+        medir("aes-cbc", "motor", hilos, iteraciones, bytes, () -> CryptoUtils.cifrarAES(datos, claves[0], iv));
+        ThreadLocal<byte[]> salidas = ThreadLocal.withInitial(() -> new byte[CryptoUtils.tamanoCifradoAES(bytes)]);
+        medir("aes-cbc", "buffers", hilos, iteraciones, bytes,
+                () -> CryptoUtils.cifrarAES(datos, 0, datos.length, claves[0], iv, salidas.get(), 0));
+
+        medir("hmac-sha256", "por-llamada", hilos, iteraciones, bytes, () -> {
+            Mac mac = Mac.getInstance("HmacSHA256");
+            mac.init(claves[1]);
+            mac.doFinal(datos);
+        });
+        medir("hmac-sha256", "motor", hilos, iteraciones, bytes, () -> CryptoUtils.generarHMAC(datos, claves[1]));
+        medir("hmac-sha256", "buffers", hilos, iteraciones, bytes,
+                () -> CryptoUtils.generarHMAC(claves[1], salidas.get(), 0, datos));
+
+        medir("iv", "por-llamada", hilos, iteraciones, 16, () -> new SecureRandom().nextBytes(new byte[16]));
+        medir("iv", "motor", hilos, iteraciones, 16, CryptoUtils::generarIV);
+
+        int iteracionesAsimetricas = Math.max(100, iteraciones / 50);
+        medir("firma-rsa1024", "por-llamada", hilos, iteracionesAsimetricas, bytes, () -> {
+            Signature s = Signature.getInstance("SHA256withRSA");
+            s.initSign(rsa.getPrivate());
+            s.update(datos);
+            s.sign();
+        });
+        medir("firma-rsa1024", "motor", hilos, iteracionesAsimetricas, bytes,
+                () -> CryptoUtils.firmarRSA(datos, rsa.getPrivate()));
+        medir("verificar-rsa1024", "por-llamada", hilos, iteraciones, bytes, () -> {
+            Signature s = Signature.getInstance("SHA256withRSA");
+            s.initVerify(rsa.getPublic());
+            s.update(datos);
+            s.verify(firma);
+        });
+        medir("verificar-rsa1024", "motor", hilos, iteraciones, bytes,
+                () -> CryptoUtils.verificarFirma(datos, firma, rsa.getPublic()));
+
+        medir("acuerdo-dh1024", "por-llamada", hilos, iteracionesAsimetricas, 0, () -> {
+            PublicKey otra = KeyFactory.getInstance("DH").generatePublic(new X509EncodedKeySpec(dhOtro));
+            KeyAgreement acuerdo = KeyAgreement.getInstance("DH");
+            acuerdo.init(dhPropio.getPrivate());
+            acuerdo.doPhase(otra, true);
+            acuerdo.generateSecret();
+        });
+        medir("acuerdo-dh1024", "motor", hilos, iteracionesAsimetricas, 0,
+                () -> CryptoUtils.acordarSecreto(SuiteCifrado.DH_RSA, dhPropio.getPrivate(), dhOtro));
+    }
+
+    private static void medir(String operacion, String variante, int hilos, int iteraciones, int bytes,
+                              Operacion op) throws Exception {
+        // Calentamiento en el hilo principal para que el JIT compile antes de medir
+        for (int i = 0; i < Math.max(200, iteraciones / 5); i++) {
+            op.ejecutar();
+        }
+
+        CountDownLatch salida = new CountDownLatch(1);
+        List<Thread> trabajadores = new ArrayList<>();
+        List<Exception> errores = new ArrayList<>();
+        for (int h = 0; h < hilos; h++) {
+            Thread t = new Thread(() -> {
+                try {
+                    salida.await();
+                    for (int i = 0; i < iteraciones; i++) {
+                        op.ejecutar();
+                    }
+                } catch (Exception e) {
+                    synchronized (errores) {
+                        errores.add(e);
+                    }
+                }
+            });
+            trabajadores.add(t);
+            t.start();
+        }
+        long inicio = System.nanoTime();
+        salida.countDown();
+        for (Thread t : trabajadores) {
+            t.join();
+        }
+        long duracion = System.nanoTime() - inicio;
+        if (!errores.isEmpty()) {
+            throw errores.get(0);
+        }
+
+        long total = (long) iteraciones * hilos;
+        System.out.println(operacion + "," + variante + "," + hilos + "," + bytes + ","
+                + String.format("%.0f", total / (duracion / 1_000_000_000.0)) + "," + duracion * hilos / total);
+    }
+}
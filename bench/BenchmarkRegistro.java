@@ -0,0 +1,57 @@
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.List;
+
+import javax.crypto.SecretKey;
+
+// CPU por mensaje de cada modo de registro: proteger en un extremo y abrir en el otro, sin red.
+// CBC_HMAC hace AES-CBC + HMAC-SHA256 (dos pasadas y un IV aleatorio por mensaje); los modos AEAD una sola pasada.
+// Uso: java -cp out:bench BenchmarkRegistro [iteraciones] [modos] [tamaños]
+public class BenchmarkRegistro {
+    public static void main(String[] args) {
+        int iteraciones = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        List<ModoRegistro> modos = ModoRegistro.lista(args.length > 1 ? args[1] : "cbc,gcm,chacha20");
+        String[] tamanos = (args.length > 2 ? args[2] : "64,256,1024,16384").split(",");
+
+        ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+        SecretKey[] claves = CryptoUtils.generarClavesSesion(CryptoUtils.generarNonce(64));
+        byte[] datosAsociados = MensajeSesion.datosAsociadosRespuesta(1);
+
+        System.out.println("modo,bytes,iteraciones,ns_cpu_por_mensaje,mb_por_segundo");
+        for (String tamano : tamanos) {
+            byte[] datos = CryptoUtils.generarNonce(Integer.parseInt(tamano.trim()));
+            for (ModoRegistro modo : modos) {
+                CifradoAEAD emisor = modo.isAEAD() ? new CifradoAEAD(modo, claves[0], true) : null;
+                CifradoAEAD receptor = modo.isAEAD() ? new CifradoAEAD(modo, claves[0], false) : null;
+                int calentamiento = Math.max(1000, iteraciones / 5);
+                for (int i = 0; i < calentamiento; i++) {
+                    idaYVuelta(datos, datosAsociados, claves, emisor, receptor);
+                }
+
+                long inicio = hilos.getCurrentThreadCpuTime();
+                for (int i = 0; i < iteraciones; i++) {
+                    idaYVuelta(datos, datosAsociados, claves, emisor, receptor);
+                }
+                long cpu = hilos.getCurrentThreadCpuTime() - inicio;
+                double megabytes = (double) datos.length * iteraciones / (1024 * 1024);
+                System.out.println(modo.getNombre() + "," + datos.length + "," + iteraciones + ","
+                        + cpu / iteraciones + "," + String.format("%.1f", megabytes / (cpu / 1_000_000_000.0)));
+            }
+        }
+    }
+
+    private static void idaYVuelta(byte[] datos, byte[] datosAsociados, SecretKey[] claves,
+                                   CifradoAEAD emisor, CifradoAEAD receptor) {
+        if (emisor != null) {
+            receptor.descifrar(emisor.cifrar(datos, datosAsociados), datosAsociados);
+            return;
+        }
+        byte[] iv = CryptoUtils.generarIV();
+        byte[] cifrado = CryptoUtils.cifrarAES(datos, claves[0], iv);
+        byte[] hmac = CryptoUtils.generarHMAC(MensajeSesion.datosHMACRespuesta(1, iv, cifrado), claves[1]);
+        if (!CryptoUtils.verificarHMAC(MensajeSesion.datosHMACRespuesta(1, iv, cifrado), hmac, claves[1])) {
+            throw new IllegalStateException("HMAC inválido");
+        }
+        CryptoUtils.descifrarAES(cifrado, claves[0], iv);
+    }
+}
@@ -0,0 +1,76 @@
+import java.security.KeyPair;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.List;
+
+import javax.crypto.spec.DHParameterSpec;
+
+// Handshakes completos por segundo en un solo hilo para cada suite, sin red: solo el trabajo
+// criptográfico de ambos extremos (claves efímeras, firma/verificación, acuerdo y derivación).
+// En DH_RSA los parámetros vienen ya generados del pool, como en el servidor con servidor.dh.modo=pool.
+// Uso: java -cp out:bench BenchmarkSuites [iteraciones] [suites]
+public class BenchmarkSuites {
+    public static void main(String[] args) throws Exception {
+        int iteraciones = args.length > 0 ? Integer.parseInt(args[0]) : 500;
+        List<SuiteCifrado> suites = SuiteCifrado.lista(args.length > 1 ? args[1] : "x25519,p256,dh");
+
+        System.out.println("suite,iteraciones,handshakes_por_segundo,ns_por_handshake");
+        for (SuiteCifrado suite : suites) {
+            KeyPair parFirma = suite.generarParFirma();
+            ParametrosDH parametros = suite == SuiteCifrado.DH_RSA ? ParametrosDH.generar(1024) : null;
+
+            // Calentamiento para que el JIT compile los caminos de la suite antes de medir
+            for (int i = 0; i < Math.max(50, iteraciones / 5); i++) {
+                handshake(suite, parFirma, parametros);
+            }
+
+            long inicio = System.nanoTime();
+            for (int i = 0; i < iteraciones; i++) {
+                handshake(suite, parFirma, parametros);
+            }
+            long duracion = System.nanoTime() - inicio;
+            System.out.println(suite.getNombre() + "," + iteraciones + ","
+                    + String.format("%.1f", iteraciones / (duracion / 1_000_000_000.0)) + "," + duracion / iteraciones);
+        }
+    }
+
+    private static void handshake(SuiteCifrado suite, KeyPair parFirma, ParametrosDH parametros) throws Exception {
+        byte[] suiteElegida = {suite.getId()};
+        byte[] helloCliente = new MensajeHello(MensajeHello.COMPLETO, suiteElegida, new byte[0], 0,
+                CryptoUtils.generarNonce(MensajeHello.TAMANO_NONCE), null).codificar();
+        byte[] helloServidor = new MensajeHello(MensajeHello.COMPLETO, suiteElegida, new byte[0], 0,
+                CryptoUtils.generarNonce(MensajeHello.TAMANO_NONCE), null).codificar();
+        byte[] transcripcion = MensajeHello.transcripcion(helloCliente, helloServidor);
+        PrivateKey clavePrivadaFirma = parFirma.getPrivate();
+        PublicKey clavePublicaFirma = parFirma.getPublic();
+
+        KeyPair efimeroServidor;
+        KeyPair efimeroCliente;
+        if (suite.isCurvaEliptica()) {
+            efimeroServidor = suite.generarParEfimero();
+            byte[] datos = MensajeHello.datosFirmaHandshake(transcripcion, efimeroServidor.getPublic().getEncoded());
+            byte[] firma = CryptoUtils.firmar(suite.getAlgoritmoFirma(), datos, clavePrivadaFirma);
+            if (!CryptoUtils.verificarFirma(suite.getAlgoritmoFirma(), datos, firma, clavePublicaFirma)) {
+                throw new IllegalStateException("Firma inválida en " + suite.getNombre());
+            }
+            efimeroCliente = suite.generarParEfimero();
+        } else {
+            DHParameterSpec spec = parametros.getSpec();
+            efimeroServidor = CryptoUtils.generarClavesDH(spec);
+            efimeroCliente = CryptoUtils.generarClavesDH(spec);
+            byte[] datos = MensajeHello.datosFirmaHandshake(transcripcion, efimeroServidor.getPublic().getEncoded(),
+                    efimeroCliente.getPublic().getEncoded());
+            byte[] firma = CryptoUtils.firmarRSA(datos, clavePrivadaFirma);
+            if (!CryptoUtils.verificarFirma(datos, firma, clavePublicaFirma)) {
+                throw new IllegalStateException("Firma inválida en " + suite.getNombre());
+            }
+        }
+
+        byte[] secretoServidor = CryptoUtils.acordarSecreto(suite, efimeroServidor.getPrivate(),
+                efimeroCliente.getPublic().getEncoded());
+        byte[] secretoCliente = CryptoUtils.acordarSecreto(suite, efimeroCliente.getPrivate(),
+                efimeroServidor.getPublic().getEncoded());
+        CryptoUtils.generarClavesSesion(secretoServidor);
+        CryptoUtils.generarClavesSesion(secretoCliente);
+    }
+}
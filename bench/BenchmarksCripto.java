@@ -0,0 +1,62 @@
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+
+import javax.crypto.SecretKey;
+
+// Primitivas de CryptoUtils y de los modos de registro, por tamaño de mensaje y de clave RSA.
+// Parámetros: tamano (bytes del mensaje), rsa (bits), registro (modos AEAD)
+// Uso: java -cp out BenchmarksCripto [opciones de Arnes]
+public class BenchmarksCripto {
+    public static void main(String[] args) throws Exception {
+        Arnes arnes = new Arnes("cripto", args);
+        SecretKey[] claves = CryptoUtils.generarClavesSesion(CryptoUtils.generarNonce(64));
+
+        arnes.medir("generarIV", Arnes.parametros(), CryptoUtils::generarIV);
+        arnes.medir("generarClavesSesion", Arnes.parametros(),
+                () -> CryptoUtils.generarClavesSesion(claves[1].getEncoded()));
+
+        for (int tamano : arnes.enteros("tamano", "64,1024,16384")) {
+            byte[] datos = CryptoUtils.generarNonce(tamano);
+            byte[] iv = CryptoUtils.generarIV();
+            byte[] cifrado = CryptoUtils.cifrarAES(datos, claves[0], iv);
+            byte[] hmac = CryptoUtils.generarHMAC(datos, claves[1]);
+            byte[] salida = new byte[CryptoUtils.tamanoCifradoAES(tamano)];
+
+            arnes.medir("cifrarAES", Arnes.parametros("tamano", tamano),
+                    () -> CryptoUtils.cifrarAES(datos, claves[0], iv));
+            arnes.medir("cifrarAES.buffers", Arnes.parametros("tamano", tamano),
+                    () -> CryptoUtils.cifrarAES(datos, 0, datos.length, claves[0], iv, salida, 0));
+            arnes.medir("descifrarAES", Arnes.parametros("tamano", tamano),
+                    () -> CryptoUtils.descifrarAES(cifrado, claves[0], iv));
+            arnes.medir("generarHMAC", Arnes.parametros("tamano", tamano),
+                    () -> CryptoUtils.generarHMAC(datos, claves[1]));
+            arnes.medir("verificarHMAC", Arnes.parametros("tamano", tamano),
+                    () -> CryptoUtils.verificarHMAC(datos, hmac, claves[1]));
+
+            for (String nombreModo : arnes.valores("registro", "gcm,chacha20")) {
+                ModoRegistro modo = ModoRegistro.porNombre(nombreModo);
+                CifradoAEAD emisor = new CifradoAEAD(modo, claves[0], true);
+                arnes.medir("aead.cifrar", Arnes.parametros("tamano", tamano, "registro", modo.getNombre()),
+                        () -> emisor.cifrar(datos, null));
+            }
+        }
+
+        for (int bits : arnes.enteros("rsa", "1024,2048")) {
+            KeyPairGenerator generador = KeyPairGenerator.getInstance("RSA");
+            generador.initialize(bits);
+            KeyPair rsa = generador.generateKeyPair();
+            byte[] datos = CryptoUtils.generarNonce(117);
+            byte[] firma = CryptoUtils.firmarRSA(datos, rsa.getPrivate());
+            byte[] cifradoRSA = CryptoUtils.cifrarRSA(datos, rsa.getPublic());
+
+            arnes.medir("firmarRSA", Arnes.parametros("rsa", bits), () -> CryptoUtils.firmarRSA(datos, rsa.getPrivate()));
+            arnes.medir("verificarFirma", Arnes.parametros("rsa", bits),
+                    () -> CryptoUtils.verificarFirma(datos, firma, rsa.getPublic()));
+            arnes.medir("cifrarRSA", Arnes.parametros("rsa", bits), () -> CryptoUtils.cifrarRSA(datos, rsa.getPublic()));
+            arnes.medir("descifrarRSA", Arnes.parametros("rsa", bits),
+                    () -> CryptoUtils.descifrarRSA(cifradoRSA, rsa.getPrivate()));
+        }
+
+        arnes.terminar();
+    }
+}
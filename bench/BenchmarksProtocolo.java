@@ -0,0 +1,98 @@
+import java.io.IOException;
+import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.spec.DHParameterSpec;
+
+// Generación de parámetros y claves, codificación de la tabla y de las respuestas, y el handshake
+// completo contra un ServidorPrincipal levantado en este mismo proceso sobre loopback.
+// Parámetros: dh (bits de los parámetros DH), suite, reanudacion (true/false), transporte (bloqueante/nio)
+// Uso: java -cp out BenchmarksProtocolo [opciones de Arnes]   (desde la raíz del repositorio, por las claves)
+public class BenchmarksProtocolo {
+    public static void main(String[] args) throws Exception {
+        Arnes arnes = new Arnes("protocolo", args);
+
+        for (int bits : arnes.enteros("dh", "1024")) {
+            arnes.medirUnaVez("ParametrosDH.generar", Arnes.parametros("dh", bits), 5, () -> ParametrosDH.generar(bits));
+
+            DHParameterSpec spec = ParametrosDH.generar(bits).getSpec();
+            arnes.medir("generarClavesDH", Arnes.parametros("dh", bits), () -> CryptoUtils.generarClavesDH(spec));
+        }
+        for (String nombre : arnes.valores("suite", "x25519,p256")) {
+            SuiteCifrado suite = SuiteCifrado.porNombre(nombre);
+            if (suite.isCurvaEliptica()) {
+                arnes.medir("generarParEfimero", Arnes.parametros("suite", suite.getNombre()), suite::generarParEfimero);
+            }
+        }
+
+        Map<String, String> tabla = new HashMap<>();
+        tabla.put("S1", "Estado vuelo");
+        tabla.put("S2", "Disponibilidad vuelos");
+        tabla.put("S3", "Costo de un vuelo");
+        InfoServicio info = new InfoServicio("Estado vuelo", "IPS1", "PS1");
+        byte[] tablaObjetos = CryptoUtils.serializarObjeto(tabla);
+        byte[] tablaBinaria = CodecServicios.codificarTabla(tabla);
+        byte[] infoBinaria = CodecServicios.codificarInfoServicio(info);
+        arnes.medir("tabla.serializarObjeto", Arnes.parametros("bytes", tablaObjetos.length),
+                () -> CryptoUtils.serializarObjeto(tabla));
+        arnes.medir("tabla.CodecServicios", Arnes.parametros("bytes", tablaBinaria.length),
+                () -> CodecServicios.codificarTabla(tabla));
+        arnes.medir("tabla.decodificar", Arnes.parametros("bytes", tablaBinaria.length),
+                () -> CodecServicios.decodificarTabla(tablaBinaria));
+        arnes.medir("respuesta.serializarObjeto", Arnes.parametros(), () -> CryptoUtils.serializarObjeto(info));
+        arnes.medir("respuesta.CodecServicios", Arnes.parametros("bytes", infoBinaria.length),
+                () -> CodecServicios.codificarInfoServicio(info));
+
+        if (arnes.incluido("handshake")) {
+            int puerto = 18001;
+            for (String transporte : arnes.valores("transporte", "bloqueante,nio")) {
+                iniciarServidor(puerto, transporte);
+                for (String nombre : arnes.valores("suite", "x25519,p256,dh")) {
+                    for (String reanudacion : arnes.valores("reanudacion", "false,true")) {
+                        Cliente cliente = new Cliente("localhost", puerto);
+                        cliente.setSuites(SuiteCifrado.lista(nombre));
+                        cliente.setReanudacion(Boolean.parseBoolean(reanudacion));
+                        cliente.cargarClavePublica("servidor_publica.key");
+                        cliente.cargarClavesSuites(".");
+                        arnes.medir("handshake", Arnes.parametros("transporte", transporte, "suite", nombre,
+                                "reanudacion", reanudacion), () -> {
+                            cliente.abrirSesion();
+                            cliente.cerrarSesion();
+                            return cliente.getTiempoHandshake();
+                        });
+                    }
+                }
+                puerto++;
+            }
+        }
+
+        arnes.terminar();
+        // Los servidores del benchmark no tienen forma de detenerse
+        System.exit(0);
+    }
+
+    private static void iniciarServidor(int puerto, String transporte) throws Exception {
+        ServidorPrincipal servidor = new ServidorPrincipal(puerto);
+        servidor.inicializarTablaServicios();
+        servidor.setTransporte(transporte, Runtime.getRuntime().availableProcessors());
+        servidor.cargarClaves("servidor_privada.key", "servidor_publica.key");
+        servidor.cargarOGenerarClavesFirma(SuiteCifrado.X25519_ED25519, "servidor_ed25519_privada.key",
+                "servidor_ed25519_publica.key");
+        servidor.cargarOGenerarClavesFirma(SuiteCifrado.P256_ECDSA, "servidor_ecdsa_privada.key",
+                "servidor_ecdsa_publica.key");
+        Thread hilo = new Thread(servidor::iniciar, "servidor-benchmark-" + puerto);
+        hilo.setDaemon(true);
+        hilo.start();
+        // El pool DH llena su primer conjunto antes de abrir el puerto; se espera a que acepte conexiones
+        for (int intento = 0; intento < 300; intento++) {
+            try {
+                new Socket("localhost", puerto).close();
+                return;
+            } catch (IOException e) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IOException("El servidor del benchmark no abrió el puerto " + puerto);
+    }
+}
@@ -0,0 +1,23 @@
+#!/bin/sh
+# Compila src/ y bench/ con javac y ejecuta los benchmarks desde la raíz del repositorio.
+# Uso: bench/ejecutar.sh [Clase] [opciones de Arnes]
+#   bench/ejecutar.sh                                   -> BenchmarksCripto y BenchmarksProtocolo, CSV en bench/resultados/
+#   bench/ejecutar.sh BenchmarksCripto -f json -p tamano=1024 -i 10
+set -e
+cd "$(dirname "$0")/.."
+SALIDA=bench/out
+rm -rf "$SALIDA"
+mkdir -p "$SALIDA"
+javac -encoding UTF-8 -d "$SALIDA" src/*.java bench/*.java
+
+if [ $# -gt 0 ]; then
+    clase=$1
+    shift
+    exec java -cp "$SALIDA" "$clase" "$@"
+fi
+
+mkdir -p bench/resultados
+fecha=$(date +%Y%m%d-%H%M%S)
+for clase in BenchmarksCripto BenchmarksProtocolo; do
+    java -cp "$SALIDA" "$clase" -o "bench/resultados/$clase-$fecha.csv"
+done
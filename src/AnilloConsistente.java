@@ -0,0 +1,200 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.TreeSet;
+
+// Reparto de ids de servicio entre los nodos de un cluster por hash consistente. Cada nodo ("host:puerto")
+// pone nodosVirtuales puntos en un anillo de 64 bits; un id le toca al dueño del primer punto igual o mayor a su
+// hash, y sus réplicas a los siguientes dueños distintos recorriendo el anillo. Al entrar o salir un nodo solo
+// cambian de dueño los ids de los arcos que ganó o perdió (~1/N del total), el resto se queda donde estaba.
+// Inmutable: con y sin arman un anillo nuevo, así quien lo comparte solo cambia una referencia volatile.
+// Lo usan igual el servidor (qué parte del registro carga) y ClienteCluster (a qué nodo pregunta).
+public final class AnilloConsistente {
+    private final List<String> nodos;
+    private final int nodosVirtuales;
+    private final long[] puntos;
+    private final int[] duenos;
+
+    public AnilloConsistente(Collection<String> nodos, int nodosVirtuales) {
+        if (nodosVirtuales <= 0) {
+            throw new IllegalArgumentException("nodosVirtuales debe ser positivo: " + nodosVirtuales);
+        }
+        this.nodos = Collections.unmodifiableList(new ArrayList<>(new TreeSet<>(nodos)));
+        this.nodosVirtuales = nodosVirtuales;
+        int total = this.nodos.size() * nodosVirtuales;
+        long[] claves = new long[total];
+        for (int n = 0; n < this.nodos.size(); n++) {
+            for (int v = 0; v < nodosVirtuales; v++) {
+                claves[n * nodosVirtuales + v] = hash(this.nodos.get(n) + "#" + v);
+            }
+        }
+        // Se ordenan los puntos y se arrastra el dueño de cada uno; un empate (improbable) se lo queda el
+        // nodo de menor nombre en todos los procesos por igual
+        Integer[] orden = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            orden[i] = i;
+        }
+        Arrays.sort(orden, (a, b) -> claves[a] != claves[b] ? Long.compareUnsigned(claves[a], claves[b]) : Integer.compare(a, b));
+        this.puntos = new long[total];
+        this.duenos = new int[total];
+        for (int i = 0; i < total; i++) {
+            puntos[i] = claves[orden[i]];
+            duenos[i] = orden[i] / nodosVirtuales;
+        }
+    }
+
+    // Lista de nodos de un archivo (uno por línea, # comenta) o escrita directamente separada por comas
+    public static List<String> leerNodos(String origen) throws IOException {
+        List<String> lineas;
+        Path ruta = Paths.get(origen);
+        if (Files.isRegularFile(ruta)) {
+            lineas = Files.readAllLines(ruta, StandardCharsets.UTF_8);
+        } else {
+            lineas = Arrays.asList(origen.split(","));
+        }
+        List<String> nodos = new ArrayList<>();
+        for (String linea : lineas) {
+            int comentario = linea.indexOf('#');
+            String nodo = (comentario >= 0 ? linea.substring(0, comentario) : linea).trim();
+            if (nodo.isEmpty()) {
+                continue;
+            }
+            int separador = nodo.lastIndexOf(':');
+            if (separador <= 0) {
+                throw new IOException(origen + ": se esperaba host:puerto y no " + nodo);
+            }
+            try {
+                Integer.parseInt(nodo.substring(separador + 1));
+            } catch (NumberFormatException e) {
+                throw new IOException(origen + ": puerto inválido en " + nodo);
+            }
+            nodos.add(nodo);
+        }
+        return nodos;
+    }
+
+    public static String host(String nodo) {
+        return nodo.substring(0, nodo.lastIndexOf(':'));
+    }
+
+    public static int puerto(String nodo) {
+        return Integer.parseInt(nodo.substring(nodo.lastIndexOf(':') + 1));
+    }
+
+    public String nodoDe(String idServicio) {
+        if (puntos.length == 0) {
+            return null;
+        }
+        return nodos.get(duenos[indice(hash(idServicio))]);
+    }
+
+    // El dueño y las réplicas del id, en el orden en que hay que probarlos (como mucho cantidad nodos)
+    public List<String> nodosDe(String idServicio, int cantidad) {
+        int buscados = Math.min(cantidad, nodos.size());
+        List<String> resultado = new ArrayList<>(buscados);
+        if (buscados == 0) {
+            return resultado;
+        }
+        boolean[] vistos = new boolean[nodos.size()];
+        for (int i = indice(hash(idServicio)), pasos = 0; resultado.size() < buscados && pasos < puntos.length; pasos++) {
+            int dueno = duenos[i];
+            if (!vistos[dueno]) {
+                vistos[dueno] = true;
+                resultado.add(nodos.get(dueno));
+            }
+            i = i + 1 == puntos.length ? 0 : i + 1;
+        }
+        return resultado;
+    }
+
+    public boolean esReplica(String nodo, String idServicio, int replicas) {
+        return nodosDe(idServicio, replicas).contains(nodo);
+    }
+
+    public AnilloConsistente con(String nodo) {
+        if (nodos.contains(nodo)) {
+            return this;
+        }
+        List<String> nuevos = new ArrayList<>(nodos);
+        nuevos.add(nodo);
+        return new AnilloConsistente(nuevos, nodosVirtuales);
+    }
+
+    public AnilloConsistente sin(String nodo) {
+        if (!nodos.contains(nodo)) {
+            return this;
+        }
+        List<String> nuevos = new ArrayList<>(nodos);
+        nuevos.remove(nodo);
+        return new AnilloConsistente(nuevos, nodosVirtuales);
+    }
+
+    public List<String> getNodos() {
+        return nodos;
+    }
+
+    public boolean contiene(String nodo) {
+        return nodos.contains(nodo);
+    }
+
+    public int getNodosVirtuales() {
+        return nodosVirtuales;
+    }
+
+    // Primer punto con hash >= h, volviendo al principio al pasar el último
+    private int indice(long h) {
+        int bajo = 0;
+        int alto = puntos.length;
+        while (bajo < alto) {
+            int medio = (bajo + alto) >>> 1;
+            if (Long.compareUnsigned(puntos[medio], h) < 0) {
+                bajo = medio + 1;
+            } else {
+                alto = medio;
+            }
+        }
+        return bajo == puntos.length ? 0 : bajo;
+    }
+
+    // FNV-1a de 64 bits sobre los bytes UTF-8 más el mezclado final de MurmurHash3: FNV solo reparte mal las
+    // claves que difieren en el último carácter (S1, S2, ...), y el mezclado lo corrige
+    static long hash(String clave) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : clave.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    // Fracción del espacio de hash que le toca a cada nodo como dueño
+    public String resumen() {
+        double[] fraccion = new double[nodos.size()];
+        for (int i = 0; i < puntos.length; i++) {
+            long anterior = i == 0 ? puntos[puntos.length - 1] : puntos[i - 1];
+            double arco = (double) (puntos[i] - anterior);
+            if (arco < 0) {
+                arco += 18446744073709551616.0;
+            }
+            fraccion[duenos[i]] += arco / 18446744073709551616.0;
+        }
+        StringBuilder sb = new StringBuilder("Anillo de ").append(nodos.size()).append(" nodos (")
+                .append(nodosVirtuales).append(" virtuales c/u):");
+        for (int n = 0; n < nodos.size(); n++) {
+            sb.append(' ').append(nodos.get(n)).append(String.format(" %.1f%%", fraccion[n] * 100));
+        }
+        return sb.toString();
+    }
+}
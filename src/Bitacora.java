@@ -0,0 +1,221 @@
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+// Mensajes de diagnóstico con niveles, fuera del camino de las conexiones.
+// Quien registra solo arma la entrada y la deja en un anillo acotado (ArrayBlockingQueue, sin nodos por
+// entrada); un hilo aparte les da formato y las escribe por lotes, con un solo flush por lote. Si el anillo
+// está lleno la entrada se descarta y se cuenta: una consola lenta nunca frena una consulta.
+// Lo que es por consulta va en DEPURACION y solo se arma si el nivel lo deja pasar: con un Supplier o
+// preguntando antes por depuracion(). ERROR y AVISO salen por System.err, el resto por System.out.
+// Los resúmenes de estadísticas no pasan por aquí: son la salida del programa, no diagnóstico.
+public final class Bitacora {
+    public enum Nivel {
+        ERROR, AVISO, INFO, DEPURACION;
+
+        public static Nivel porNombre(String nombre) {
+            switch (nombre.trim().toLowerCase()) {
+                case "error": return ERROR;
+                case "aviso": return AVISO;
+                case "info": return INFO;
+                case "depuracion": return DEPURACION;
+                default: throw new IllegalArgumentException("Nivel de bitácora desconocido: " + nombre);
+            }
+        }
+    }
+
+    private static final int CAPACIDAD = 8192;
+    private static final int MAXIMO_LOTE = 256;
+    private static final DateTimeFormatter HORA = DateTimeFormatter.ofPattern("HH:mm:ss.SSS").withZone(ZoneId.systemDefault());
+
+    private static final ArrayBlockingQueue<Entrada> anillo = new ArrayBlockingQueue<>(CAPACIDAD);
+    private static final AtomicLong escritas = new AtomicLong(0);
+    private static final AtomicLong descartadas = new AtomicLong(0);
+    private static final Object escritura = new Object();
+    private static volatile int nivel = Nivel.INFO.ordinal();
+    private static volatile boolean asincrona = true;
+    private static long descartadasAvisadas;
+    private static volatile Thread escritor;
+
+    static {
+        Runtime.getRuntime().addShutdownHook(new Thread(Bitacora::vaciar, "bitacora-cierre"));
+    }
+
+    private Bitacora() {
+    }
+
+    public static void setNivel(Nivel nuevo) {
+        nivel = nuevo.ordinal();
+    }
+
+    public static Nivel getNivel() {
+        return Nivel.values()[nivel];
+    }
+
+    // Síncrona: cada mensaje se escribe en el hilo que lo registra (para no perder nada si el proceso muere)
+    public static void setAsincrona(boolean valor) {
+        asincrona = valor;
+    }
+
+    public static boolean activo(Nivel consultado) {
+        return consultado.ordinal() <= nivel;
+    }
+
+    public static boolean depuracion() {
+        return Nivel.DEPURACION.ordinal() <= nivel;
+    }
+
+    public static void error(String mensaje) {
+        registrar(Nivel.ERROR, mensaje, null);
+    }
+
+    public static void error(String mensaje, Throwable causa) {
+        registrar(Nivel.ERROR, mensaje, causa);
+    }
+
+    public static void aviso(String mensaje) {
+        registrar(Nivel.AVISO, mensaje, null);
+    }
+
+    public static void info(String mensaje) {
+        registrar(Nivel.INFO, mensaje, null);
+    }
+
+    public static void info(Supplier<String> mensaje) {
+        if (activo(Nivel.INFO)) {
+            registrar(Nivel.INFO, mensaje.get(), null);
+        }
+    }
+
+    public static void depuracion(String mensaje) {
+        registrar(Nivel.DEPURACION, mensaje, null);
+    }
+
+    public static void depuracion(Supplier<String> mensaje) {
+        if (depuracion()) {
+            registrar(Nivel.DEPURACION, mensaje.get(), null);
+        }
+    }
+
+    private static void registrar(Nivel nivelMensaje, String mensaje, Throwable causa) {
+        if (!activo(nivelMensaje)) {
+            return;
+        }
+        Entrada entrada = new Entrada(nivelMensaje, System.currentTimeMillis(), Thread.currentThread().getName(), mensaje, causa);
+        if (!asincrona) {
+            synchronized (escritura) {
+                escribir(List.of(entrada));
+            }
+            return;
+        }
+        if (!anillo.offer(entrada)) {
+            descartadas.incrementAndGet();
+            return;
+        }
+        if (escritor == null) {
+            iniciarEscritor();
+        }
+    }
+
+    private static synchronized void iniciarEscritor() {
+        if (escritor != null) {
+            return;
+        }
+        Thread hilo = new Thread(Bitacora::escribirPendientes, "bitacora");
+        hilo.setDaemon(true);
+        hilo.start();
+        escritor = hilo;
+    }
+
+    private static void escribirPendientes() {
+        List<Entrada> lote = new ArrayList<>(MAXIMO_LOTE);
+        while (true) {
+            try {
+                lote.add(anillo.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            anillo.drainTo(lote, MAXIMO_LOTE - 1);
+            synchronized (escritura) {
+                escribir(lote);
+            }
+            lote.clear();
+        }
+    }
+
+    // Escribe lo que quede en el anillo; la llama el hook de cierre, y quien quiera ver los mensajes antes de
+    // imprimir algo por su cuenta
+    public static void vaciar() {
+        List<Entrada> lote = new ArrayList<>(MAXIMO_LOTE);
+        synchronized (escritura) {
+            while (anillo.drainTo(lote, MAXIMO_LOTE) > 0) {
+                escribir(lote);
+                lote.clear();
+            }
+        }
+    }
+
+    // Llamado con el candado de escritura
+    private static void escribir(List<Entrada> lote) {
+        StringBuilder salida = new StringBuilder();
+        StringBuilder errores = new StringBuilder();
+        long perdidas = descartadas.get() - descartadasAvisadas;
+        if (perdidas > 0) {
+            descartadasAvisadas += perdidas;
+            errores.append(HORA.format(Instant.now())).append(" AVISO [bitacora] ")
+                   .append(perdidas).append(" mensajes descartados: el anillo estaba lleno\n");
+        }
+        for (Entrada entrada : lote) {
+            StringBuilder destino = entrada.nivel.ordinal() <= Nivel.AVISO.ordinal() ? errores : salida;
+            destino.append(HORA.format(Instant.ofEpochMilli(entrada.instante))).append(' ').append(entrada.nivel)
+                   .append(" [").append(entrada.hilo).append("] ").append(entrada.mensaje).append('\n');
+            if (entrada.causa != null) {
+                StringWriter traza = new StringWriter();
+                entrada.causa.printStackTrace(new PrintWriter(traza));
+                destino.append(traza);
+            }
+        }
+        volcar(System.out, salida);
+        volcar(System.err, errores);
+        escritas.addAndGet(lote.size());
+    }
+
+    private static void volcar(PrintStream flujo, StringBuilder texto) {
+        if (texto.length() > 0) {
+            flujo.print(texto);
+            flujo.flush();
+        }
+    }
+
+    public static long getEscritas() {
+        return escritas.get();
+    }
+
+    public static long getDescartadas() {
+        return descartadas.get();
+    }
+
+    private static final class Entrada {
+        private final Nivel nivel;
+        private final long instante;
+        private final String hilo;
+        private final String mensaje;
+        private final Throwable causa;
+
+        private Entrada(Nivel nivel, long instante, String hilo, String mensaje, Throwable causa) {
+            this.nivel = nivel;
+            this.instante = instante;
+            this.hilo = hilo;
+            this.mensaje = mensaje;
+            this.causa = causa;
+        }
+    }
+}
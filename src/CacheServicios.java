@@ -0,0 +1,340 @@
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Caché en el cliente de las respuestas de una FuenteServicios (PoolSesiones o ClienteCluster): mientras una
+// entrada está vigente, consultar la devuelve de memoria sin sesión, ni consulta cifrada, ni ida y vuelta.
+//   ttl               vigencia de un servicio encontrado
+//   ttlNegativo       vigencia de un "Servicio no encontrado" (ip y puerto "-1"); 0 no los guarda
+//   fraccionRefresco  pasada esta fracción del ttl, el primer acierto pide la entrada de nuevo en segundo
+//                     plano y los demás siguen leyendo la vieja hasta que llega la nueva; >= 1 no refresca
+//   maximoEntradas    con más, se desalojan las vencidas y después las usadas hace más tiempo
+// Varios hilos que fallan con el mismo id esperan a una sola consulta a la fuente. La tabla de servicios
+// (servicios) se guarda igual, como una entrada más con el ttl de los encontrados.
+public class CacheServicios {
+    // Al desalojar se baja hasta esta fracción del máximo, para no volver a recorrer el mapa en cada alta
+    private static final double LLENADO_TRAS_DESALOJO = 0.9;
+
+    private final FuenteServicios fuente;
+    private long ttl;
+    private long ttlNegativo;
+    private double fraccionRefresco;
+    private int maximoEntradas;
+
+    private final ConcurrentHashMap<String, Entrada<InfoServicio>> entradas = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, CompletableFuture<InfoServicio>> cargando = new ConcurrentHashMap<>();
+    private volatile Entrada<Map<String, String>> tabla;
+    private final ThreadPoolExecutor refresco;
+
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong aciertosNegativos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong esperasCarga = new AtomicLong();
+    private final AtomicLong refrescos = new AtomicLong();
+    private final AtomicLong refrescosFallidos = new AtomicLong();
+    private final AtomicLong desalojadas = new AtomicLong();
+
+    public CacheServicios(FuenteServicios fuente) {
+        this.fuente = fuente;
+        this.ttl = 30000;
+        this.ttlNegativo = 5000;
+        this.fraccionRefresco = 0.75;
+        this.maximoEntradas = 10000;
+        this.refresco = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(256), r -> {
+            Thread t = new Thread(r, "cache-refresco");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // Milisegundos; afectan a las entradas que se carguen desde ahora
+    public void setTiempos(long ttl, long ttlNegativo, double fraccionRefresco) {
+        this.ttl = ttl;
+        this.ttlNegativo = ttlNegativo;
+        this.fraccionRefresco = fraccionRefresco;
+    }
+
+    public void setMaximoEntradas(int maximoEntradas) {
+        this.maximoEntradas = maximoEntradas;
+    }
+
+    public InfoServicio consultar(String idServicio) throws IOException, GeneralSecurityException,
+            ClassNotFoundException, InterruptedException {
+        long ahora = System.nanoTime();
+        Entrada<InfoServicio> entrada = entradas.get(idServicio);
+        if (entrada != null && entrada.isVigente(ahora)) {
+            entrada.ultimoUso = ahora;
+            aciertos.incrementAndGet();
+            if (esNoEncontrado(entrada.valor)) {
+                aciertosNegativos.incrementAndGet();
+            }
+            if (entrada.debeRefrescarse(ahora)) {
+                refrescar(idServicio, entrada);
+            }
+            return entrada.valor;
+        }
+        fallos.incrementAndGet();
+        return cargar(idServicio);
+    }
+
+    // Como mucho una consulta a la fuente por id a la vez; los demás hilos esperan su resultado
+    private InfoServicio cargar(String idServicio) throws IOException, GeneralSecurityException,
+            ClassNotFoundException, InterruptedException {
+        CompletableFuture<InfoServicio> propia = new CompletableFuture<>();
+        CompletableFuture<InfoServicio> enCurso = cargando.putIfAbsent(idServicio, propia);
+        if (enCurso != null) {
+            esperasCarga.incrementAndGet();
+            return esperar(enCurso);
+        }
+        try {
+            InfoServicio info = fuente.consultar(idServicio);
+            Entrada<InfoServicio> guardada = guardar(idServicio, info, null);
+            // invalidar saca la carga de cargando antes que la entrada: si ya no está, la respuesta puede ser
+            // anterior a la invalidación y no se deja en la caché (los que ya esperaban la reciben igual)
+            if (guardada != null && cargando.get(idServicio) != propia) {
+                entradas.remove(idServicio, guardada);
+            }
+            propia.complete(info);
+            return info;
+        } catch (IOException | GeneralSecurityException | ClassNotFoundException | InterruptedException | RuntimeException e) {
+            propia.completeExceptionally(e);
+            throw e;
+        } finally {
+            cargando.remove(idServicio, propia);
+        }
+    }
+
+    private static InfoServicio esperar(CompletableFuture<InfoServicio> carga) throws IOException,
+            GeneralSecurityException, ClassNotFoundException, InterruptedException {
+        try {
+            return carga.get();
+        } catch (ExecutionException e) {
+            Throwable causa = e.getCause();
+            if (causa instanceof IOException) {
+                throw (IOException) causa;
+            }
+            if (causa instanceof GeneralSecurityException) {
+                throw (GeneralSecurityException) causa;
+            }
+            if (causa instanceof ClassNotFoundException) {
+                throw (ClassNotFoundException) causa;
+            }
+            if (causa instanceof RuntimeException) {
+                throw (RuntimeException) causa;
+            }
+            throw new IOException("La consulta en curso falló: " + causa, causa);
+        }
+    }
+
+    // Reemplaza anterior si se pasa (refresco): si mientras tanto la entrada se desalojó o invalidó, no vuelve.
+    // Devuelve la entrada guardada, o null si no se guardó nada
+    private Entrada<InfoServicio> guardar(String idServicio, InfoServicio info, Entrada<InfoServicio> anterior) {
+        boolean negativo = esNoEncontrado(info);
+        if (negativo && ttlNegativo <= 0 || !negativo && ttl <= 0) {
+            if (anterior != null) {
+                entradas.remove(idServicio, anterior);
+            }
+            return null;
+        }
+        Entrada<InfoServicio> nueva = new Entrada<>(info, System.nanoTime(), negativo ? ttlNegativo : ttl,
+                fraccionRefresco);
+        if (anterior != null) {
+            return entradas.replace(idServicio, anterior, nueva) ? nueva : null;
+        }
+        entradas.put(idServicio, nueva);
+        if (entradas.size() > maximoEntradas) {
+            desalojar();
+        }
+        return nueva;
+    }
+
+    private void refrescar(String idServicio, Entrada<InfoServicio> entrada) {
+        if (!entrada.refrescando.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            refresco.execute(() -> {
+                try {
+                    guardar(idServicio, fuente.consultar(idServicio), entrada);
+                    refrescos.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    // La entrada sigue sirviéndose hasta vencer; el próximo acierto vuelve a intentarlo
+                    refrescosFallidos.incrementAndGet();
+                    entrada.refrescando.set(false);
+                    Bitacora.aviso("[CacheServicios] No se pudo refrescar " + idServicio + ": " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            entrada.refrescando.set(false);
+        }
+    }
+
+    private synchronized void desalojar() {
+        if (entradas.size() <= maximoEntradas) {
+            return;
+        }
+        long ahora = System.nanoTime();
+        int antes = entradas.size();
+        entradas.values().removeIf(entrada -> !entrada.isVigente(ahora));
+        int objetivo = (int) (maximoEntradas * LLENADO_TRAS_DESALOJO);
+        if (entradas.size() > objetivo) {
+            List<Map.Entry<String, Entrada<InfoServicio>>> porUso = new ArrayList<>(entradas.entrySet());
+            porUso.sort((a, b) -> Long.compare(a.getValue().ultimoUso, b.getValue().ultimoUso));
+            for (int i = 0; i < porUso.size() - objetivo; i++) {
+                entradas.remove(porUso.get(i).getKey(), porUso.get(i).getValue());
+            }
+        }
+        desalojadas.addAndGet(Math.max(0, antes - entradas.size()));
+    }
+
+    // Tabla de servicios de la fuente, de memoria mientras esté vigente
+    public Map<String, String> servicios() throws IOException, GeneralSecurityException, InterruptedException {
+        long ahora = System.nanoTime();
+        Entrada<Map<String, String>> actual = tabla;
+        if (actual != null && actual.isVigente(ahora)) {
+            aciertos.incrementAndGet();
+            if (actual.debeRefrescarse(ahora) && actual.refrescando.compareAndSet(false, true)) {
+                refrescarTabla(actual);
+            }
+            return actual.valor;
+        }
+        fallos.incrementAndGet();
+        Entrada<Map<String, String>> nueva = cargarTabla();
+        return nueva.valor;
+    }
+
+    private Entrada<Map<String, String>> cargarTabla() throws IOException, GeneralSecurityException, InterruptedException {
+        Entrada<Map<String, String>> nueva = new Entrada<>(Collections.unmodifiableMap(fuente.servicios()),
+                System.nanoTime(), ttl, fraccionRefresco);
+        if (ttl > 0) {
+            tabla = nueva;
+        }
+        return nueva;
+    }
+
+    private void refrescarTabla(Entrada<Map<String, String>> actual) {
+        try {
+            refresco.execute(() -> {
+                try {
+                    cargarTabla();
+                    refrescos.incrementAndGet();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    refrescosFallidos.incrementAndGet();
+                    actual.refrescando.set(false);
+                    Bitacora.aviso("[CacheServicios] No se pudo refrescar la tabla de servicios: " + e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            actual.refrescando.set(false);
+        }
+    }
+
+    // Primero la carga en curso: así la consulta siguiente va a la fuente y cargar descarta lo que traiga la vieja
+    public void invalidar(String idServicio) {
+        cargando.remove(idServicio);
+        entradas.remove(idServicio);
+    }
+
+    public void limpiar() {
+        cargando.clear();
+        entradas.clear();
+        tabla = null;
+    }
+
+    // También cierra la fuente
+    public void cerrar() {
+        refresco.shutdownNow();
+        fuente.cerrar();
+    }
+
+    private static boolean esNoEncontrado(InfoServicio info) {
+        return "-1".equals(info.getIp()) && "-1".equals(info.getPuerto());
+    }
+
+    public int getEntradas() {
+        return entradas.size();
+    }
+
+    public long getAciertos() {
+        return aciertos.get();
+    }
+
+    public long getAciertosNegativos() {
+        return aciertosNegativos.get();
+    }
+
+    public long getFallos() {
+        return fallos.get();
+    }
+
+    public long getRefrescos() {
+        return refrescos.get();
+    }
+
+    public long getRefrescosFallidos() {
+        return refrescosFallidos.get();
+    }
+
+    public long getDesalojadas() {
+        return desalojadas.get();
+    }
+
+    public String resumen() {
+        long consultas = aciertos.get() + fallos.get();
+        StringBuilder sb = new StringBuilder("=== Caché de servicios ===\n");
+        sb.append("Entradas: ").append(entradas.size()).append(" (máximo ").append(maximoEntradas).append("), ttl: ")
+          .append(ttl).append(" ms, ttl negativo: ").append(ttlNegativo).append(" ms\n");
+        sb.append("Consultas: ").append(consultas).append(" (aciertos ").append(aciertos.get())
+          .append(", de ellos negativos ").append(aciertosNegativos.get()).append(", fallos ").append(fallos.get());
+        if (consultas > 0) {
+            sb.append(String.format(", %.1f %% de aciertos", aciertos.get() * 100.0 / consultas));
+        }
+        sb.append(")\n");
+        sb.append("Esperas a una carga en curso: ").append(esperasCarga.get()).append(", refrescos: ").append(refrescos.get())
+          .append(" (fallidos ").append(refrescosFallidos.get()).append("), desalojadas: ").append(desalojadas.get());
+        return sb.toString();
+    }
+
+    // Inmutable salvo ultimoUso (para desalojar) y refrescando (un solo refresco en curso por entrada)
+    private static final class Entrada<T> {
+        private final T valor;
+        private final long vence;
+        private final long refrescarDesde;
+        private final boolean refrescable;
+        private final AtomicBoolean refrescando = new AtomicBoolean();
+        private volatile long ultimoUso;
+
+        private Entrada(T valor, long cargada, long ttlMilisegundos, double fraccionRefresco) {
+            this.valor = valor;
+            long vida = ttlMilisegundos * 1_000_000L;
+            this.vence = cargada + vida;
+            this.refrescable = fraccionRefresco < 1;
+            this.refrescarDesde = cargada + (long) (vida * Math.max(0, fraccionRefresco));
+            this.ultimoUso = cargada;
+        }
+
+        private boolean isVigente(long ahora) {
+            return ahora - vence < 0;
+        }
+
+        private boolean debeRefrescarse(long ahora) {
+            return refrescable && ahora - refrescarDesde >= 0 && !refrescando.get();
+        }
+    }
+}
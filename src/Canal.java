@@ -0,0 +1,17 @@
+import java.io.Closeable;
+import java.io.IOException;
+
+// Canal bloqueante de mensajes del protocolo sobre un socket
+public interface Canal extends SalidaMensajes, Closeable {
+    Object leer() throws IOException;
+
+    // true si los datos de la tabla y de InfoServicio viajan con CodecServicios en vez de serialización Java
+    boolean isBinario();
+
+    // true si ya llegaron bytes de otro mensaje (un cliente que encadena consultas sin esperar las respuestas)
+    boolean hayDatosPendientes() throws IOException;
+
+    long getBytesLeidos();
+
+    long getBytesEscritos();
+}
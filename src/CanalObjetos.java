@@ -0,0 +1,70 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+
+// Transporte original: cada mensaje viaja como un objeto Java serializado
+public class CanalObjetos implements Canal {
+    private final FlujosContados.Entrada contadorEntrada;
+    private final FlujosContados.Salida contadorSalida;
+    private final ObjectOutputStream salida;
+    private final ObjectInputStream entrada;
+
+    public CanalObjetos(InputStream in, OutputStream out) throws IOException {
+        this.contadorEntrada = new FlujosContados.Entrada(in);
+        this.contadorSalida = new FlujosContados.Salida(out);
+        this.salida = new ObjectOutputStream(new BufferedOutputStream(contadorSalida));
+        this.salida.flush(); // Este flush es importante: el otro extremo espera la cabecera del stream
+        this.entrada = new ObjectInputStream(contadorEntrada);
+    }
+
+    @Override
+    public Object leer() throws IOException {
+        try {
+            return entrada.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Mensaje con clase desconocida: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void enviar(Object mensaje) throws IOException {
+        salida.writeObject(mensaje);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        salida.flush();
+    }
+
+    @Override
+    public boolean isBinario() {
+        return false;
+    }
+
+    @Override
+    public boolean hayDatosPendientes() throws IOException {
+        return entrada.available() > 0 || contadorEntrada.available() > 0;
+    }
+
+    @Override
+    public long getBytesLeidos() {
+        return contadorEntrada.getBytes();
+    }
+
+    @Override
+    public long getBytesEscritos() {
+        return contadorSalida.getBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            entrada.close();
+        } finally {
+            salida.close();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Transporte binario por tramas (ver CodecTramas), compatible con ServidorNIO
+public class CanalTramas implements Canal {
+    private final FlujosContados.Entrada contadorEntrada;
+    private final FlujosContados.Salida contadorSalida;
+    private final DataOutputStream salida;
+    private final DataInputStream entrada;
+
+    public CanalTramas(InputStream in, OutputStream out) throws IOException {
+        this.contadorEntrada = new FlujosContados.Entrada(in);
+        this.contadorSalida = new FlujosContados.Salida(out);
+        this.salida = new DataOutputStream(new BufferedOutputStream(contadorSalida));
+        this.entrada = new DataInputStream(new BufferedInputStream(contadorEntrada));
+
+        // Igual que ObjectOutputStream: cada extremo escribe su prefacio antes de leer el del otro
+        salida.write(CodecTramas.prefacio());
+        salida.flush();
+        byte[] prefacio = new byte[CodecTramas.TAMANO_PREFACIO];
+        entrada.readFully(prefacio);
+        CodecTramas.validarPrefacio(prefacio);
+    }
+
+    @Override
+    public Object leer() throws IOException {
+        return CodecTramas.leer(entrada);
+    }
+
+    @Override
+    public void enviar(Object mensaje) throws IOException {
+        CodecTramas.escribir(salida, mensaje);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        salida.flush();
+    }
+
+    @Override
+    public boolean isBinario() {
+        return true;
+    }
+
+    @Override
+    public boolean hayDatosPendientes() throws IOException {
+        return entrada.available() > 0;
+    }
+
+    @Override
+    public long getBytesLeidos() {
+        return contadorEntrada.getBytes();
+    }
+
+    @Override
+    public long getBytesEscritos() {
+        return contadorSalida.getBytes();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            entrada.close();
+        } finally {
+            salida.close();
+        }
+    }
+}
@@ -0,0 +1,334 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Catálogo de servicios en un archivo mapeado en memoria (lo arma CompiladorCatalogo), para registros de millones
+// de entradas: nada queda en el heap salvo el MappedByteBuffer. Al abrirlo se recorren el índice y los datos una vez
+// para comprobar que todo cae dentro del archivo; después las búsquedas no vuelven a validar nada.
+// Formato, big-endian:
+//   cabecera: [magia "CATS"][versión: int][registros: int][cubetas: int][inicio del índice: long][inicio de datos: long]
+//   índice:   cubetas x [hash FNV-1a del id: int][posición del registro: long, 0 = vacía], sondeo lineal
+//   datos:    registros x [id: varint + UTF-8][InfoServicio ya codificado con CodecServicios: varint + bytes]
+// Como los registros guardan la respuesta binaria tal cual, buscarCodificado resuelve una consulta sin crear
+// Strings ni InfoServicio: solo compara bytes del mapa y copia el valor.
+// Un solo mapeo, así que el archivo no puede pasar de 2 GiB.
+public class CatalogoMapeado {
+    private static final byte[] MAGIA = {'C', 'A', 'T', 'S'};
+    private static final int VERSION_FORMATO = 1;
+    private static final int TAMANO_CABECERA = 32;
+    private static final int TAMANO_CUBETA = 12;
+
+    private final Path ruta;
+    private final MappedByteBuffer mapa;
+    private final int registros;
+    private final int mascara;
+    private final int inicioIndice;
+    private final int inicioDatos;
+
+    private CatalogoMapeado(Path ruta, MappedByteBuffer mapa) throws IOException {
+        this.ruta = ruta;
+        this.mapa = mapa;
+        if (mapa.capacity() < TAMANO_CABECERA || !esCatalogo(mapa)) {
+            throw new IOException(ruta + " no es un catálogo de servicios");
+        }
+        if (mapa.getInt(4) != VERSION_FORMATO) {
+            throw new IOException(ruta + ": versión de catálogo no soportada " + mapa.getInt(4));
+        }
+        this.registros = mapa.getInt(8);
+        int cubetas = mapa.getInt(12);
+        long indice = mapa.getLong(16);
+        long datos = mapa.getLong(24);
+        if (Integer.bitCount(cubetas) != 1 || indice != TAMANO_CABECERA
+                || datos != indice + (long) cubetas * TAMANO_CUBETA || datos > mapa.capacity()) {
+            throw new IOException(ruta + ": cabecera de catálogo inconsistente");
+        }
+        this.mascara = cubetas - 1;
+        this.inicioIndice = (int) indice;
+        this.inicioDatos = (int) datos;
+        if (registros < 0 || registros > cubetas) {
+            throw new IOException(ruta + ": cantidad de registros inválida " + registros);
+        }
+        validarDatos();
+        validarIndice();
+    }
+
+    // Un catálogo truncado o corrupto se rechaza acá con IOException, no en una búsqueda con IndexOutOfBoundsException
+    private void validarDatos() throws IOException {
+        int posicion = inicioDatos;
+        for (int i = 0; i < registros; i++) {
+            posicion = finRegistro(posicion);
+            if (posicion < 0) {
+                throw new IOException(ruta + ": el registro " + i + " sale del archivo");
+            }
+        }
+    }
+
+    private void validarIndice() throws IOException {
+        for (int i = 0; i <= mascara; i++) {
+            long registro = mapa.getLong(inicioIndice + i * TAMANO_CUBETA + 4);
+            if (registro != 0 && (registro < inicioDatos || registro >= mapa.capacity() || finRegistro((int) registro) < 0)) {
+                throw new IOException(ruta + ": la cubeta " + i + " apunta fuera de los datos (" + registro + ")");
+            }
+        }
+    }
+
+    // Fin del registro que empieza en posicion, o -1 si el id o el valor no caben en el mapa
+    private int finRegistro(int posicion) {
+        for (int campo = 0; campo < 2 && posicion >= 0; campo++) {
+            int longitud = leerVarintAcotado(posicion);
+            if (longitud < 0) {
+                return -1;
+            }
+            long fin = (long) posicion + CodecTramas.tamanoVarint(longitud) + longitud;
+            posicion = fin <= mapa.capacity() ? (int) fin : -1;
+        }
+        return posicion;
+    }
+
+    // Como leerVarint, pero -1 si se sale del mapa, da negativo o no está en su forma más corta
+    // (las búsquedas saltan el varint con tamanoVarint, así que tiene que medir eso)
+    private int leerVarintAcotado(int posicion) {
+        int valor = 0;
+        for (int desplazamiento = 0, leidos = 1; desplazamiento < 35; desplazamiento += 7, leidos++) {
+            if (posicion >= mapa.capacity()) {
+                return -1;
+            }
+            byte b = mapa.get(posicion++);
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                return valor >= 0 && CodecTramas.tamanoVarint(valor) == leidos ? valor : -1;
+            }
+        }
+        return -1;
+    }
+
+    public static CatalogoMapeado abrir(Path ruta) throws IOException {
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            if (canal.size() > Integer.MAX_VALUE) {
+                throw new IOException(ruta + ": el catálogo pasa de 2 GiB");
+            }
+            // El mapeo sigue válido después de cerrar el canal
+            return new CatalogoMapeado(ruta, canal.map(FileChannel.MapMode.READ_ONLY, 0, canal.size()));
+        }
+    }
+
+    public static boolean esCatalogo(Path ruta) throws IOException {
+        byte[] inicio = new byte[MAGIA.length];
+        try (FileChannel canal = FileChannel.open(ruta, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.wrap(inicio);
+            while (buffer.hasRemaining() && canal.read(buffer) > 0) {
+                // leer los primeros bytes
+            }
+            return !buffer.hasRemaining() && esCatalogo(ByteBuffer.wrap(inicio));
+        }
+    }
+
+    private static boolean esCatalogo(ByteBuffer buffer) {
+        for (int i = 0; i < MAGIA.length; i++) {
+            if (buffer.get(i) != MAGIA[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // id en UTF-8 dentro de un arreglo (por ejemplo el cuerpo de un MensajeSesion, sin copiarlo);
+    // devuelve el InfoServicio codificado con CodecServicios, o null si no está
+    public byte[] buscarCodificado(byte[] id, int desde, int longitud) {
+        ByteBuffer valor = valorCodificado(id, desde, longitud);
+        if (valor == null) {
+            return null;
+        }
+        byte[] copia = new byte[valor.remaining()];
+        valor.get(copia);
+        return copia;
+    }
+
+    // Igual que buscarCodificado pero sin copiar: una vista de solo lectura del valor dentro del mapa
+    public ByteBuffer valorCodificado(byte[] id, int desde, int longitud) {
+        int posicion = posicionValor(id, desde, longitud);
+        if (posicion < 0) {
+            return null;
+        }
+        int longitudValor = leerVarint(posicion);
+        return mapa.slice(posicion + CodecTramas.tamanoVarint(longitudValor), longitudValor);
+    }
+
+    public InfoServicio buscar(String idServicio) throws IOException {
+        byte[] id = idServicio.getBytes(StandardCharsets.UTF_8);
+        byte[] valor = buscarCodificado(id, 0, id.length);
+        return valor != null ? CodecServicios.decodificarInfoServicio(valor) : null;
+    }
+
+    // Posición del varint de longitud del valor, o -1
+    private int posicionValor(byte[] id, int desde, int longitud) {
+        int hash = hash(id, desde, longitud);
+        for (int i = hash & mascara, vistas = 0; vistas <= mascara; i = (i + 1) & mascara, vistas++) {
+            int cubeta = inicioIndice + i * TAMANO_CUBETA;
+            long registro = mapa.getLong(cubeta + 4);
+            if (registro == 0) {
+                return -1;
+            }
+            if (mapa.getInt(cubeta) != hash) {
+                continue;
+            }
+            int posicion = (int) registro;
+            int longitudId = leerVarint(posicion);
+            if (longitudId != longitud) {
+                continue;
+            }
+            int inicioId = posicion + CodecTramas.tamanoVarint(longitudId);
+            boolean igual = true;
+            for (int j = 0; j < longitud && igual; j++) {
+                igual = mapa.get(inicioId + j) == id[desde + j];
+            }
+            if (igual) {
+                return inicioId + longitud;
+            }
+        }
+        return -1;
+    }
+
+    // Recorre los registros en orden de archivo: nombres de los primeros servicios para la tabla del handshake
+    public Map<String, String> nombres(int tamanoMaximo) throws IOException {
+        Map<String, String> nombres = new LinkedHashMap<>();
+        int posicion = inicioDatos;
+        int tamano = 8;
+        for (int i = 0; i < registros; i++) {
+            int longitudId = leerVarint(posicion);
+            posicion += CodecTramas.tamanoVarint(longitudId);
+            byte[] id = new byte[longitudId];
+            mapa.get(posicion, id);
+            posicion += longitudId;
+            int longitudValor = leerVarint(posicion);
+            posicion += CodecTramas.tamanoVarint(longitudValor);
+            byte[] valor = new byte[longitudValor];
+            mapa.get(posicion, valor);
+            posicion += longitudValor;
+
+            String nombre = CodecServicios.decodificarInfoServicio(valor).getServicio();
+            byte[] nombreUTF8 = nombre.getBytes(StandardCharsets.UTF_8);
+            tamano += CodecTramas.tamanoVarint(longitudId) + longitudId
+                    + CodecTramas.tamanoVarint(nombreUTF8.length) + nombreUTF8.length;
+            if (tamano > tamanoMaximo) {
+                break;
+            }
+            nombres.put(new String(id, StandardCharsets.UTF_8), nombre);
+        }
+        return nombres;
+    }
+
+    public int getRegistros() {
+        return registros;
+    }
+
+    public long getTamanoArchivo() {
+        return mapa.capacity();
+    }
+
+    public Path getRuta() {
+        return ruta;
+    }
+
+    private int leerVarint(int posicion) {
+        int valor = 0;
+        for (int desplazamiento = 0; ; desplazamiento += 7) {
+            byte b = mapa.get(posicion++);
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                return valor;
+            }
+        }
+    }
+
+    // FNV-1a de 32 bits sobre los bytes UTF-8 del id
+    static int hash(byte[] datos, int desde, int longitud) {
+        int hash = 0x811C9DC5;
+        for (int i = desde; i < desde + longitud; i++) {
+            hash ^= datos[i] & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    // Escribe el catálogo en un temporal junto al destino y lo renombra al final: un servidor que vigila el
+    // archivo nunca ve uno a medio escribir, y el que ya lo tenía mapeado sigue leyendo el anterior
+    public static void escribir(Map<String, InfoServicio> servicios, Path destino) throws IOException {
+        int cubetas = Integer.highestOneBit(Math.max(1, servicios.size()) * 2 - 1) << 1;
+        long inicioDatos = TAMANO_CABECERA + (long) cubetas * TAMANO_CUBETA;
+        ByteBuffer indice = ByteBuffer.allocate(cubetas * TAMANO_CUBETA);
+        int mascara = cubetas - 1;
+
+        Path temporal = Files.createTempFile(destino.toAbsolutePath().getParent(), destino.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel canal = FileChannel.open(temporal, StandardOpenOption.WRITE)) {
+                canal.position(inicioDatos);
+                OutputStream salidaCanal = Channels.newOutputStream(canal);
+                DataOutputStream datos = new DataOutputStream(new BufferedOutputStream(salidaCanal, 1 << 16));
+                long posicion = inicioDatos;
+                for (Map.Entry<String, InfoServicio> entrada : servicios.entrySet()) {
+                    byte[] id = entrada.getKey().getBytes(StandardCharsets.UTF_8);
+                    byte[] valor = CodecServicios.codificarInfoServicio(entrada.getValue());
+                    int hash = hash(id, 0, id.length);
+                    int i = hash & mascara;
+                    while (indice.getLong(i * TAMANO_CUBETA + 4) != 0) {
+                        i = (i + 1) & mascara;
+                    }
+                    indice.putInt(i * TAMANO_CUBETA, hash).putLong(i * TAMANO_CUBETA + 4, posicion);
+
+                    posicion += escribirCampo(datos, id) + escribirCampo(datos, valor);
+                    if (posicion > Integer.MAX_VALUE) {
+                        throw new IOException("El catálogo pasa de 2 GiB");
+                    }
+                }
+                datos.flush();
+
+                ByteBuffer cabecera = ByteBuffer.allocate(TAMANO_CABECERA);
+                cabecera.put(MAGIA).putInt(VERSION_FORMATO).putInt(servicios.size()).putInt(cubetas)
+                        .putLong(TAMANO_CABECERA).putLong(inicioDatos).flip();
+                canal.write(cabecera, 0);
+                indice.rewind();
+                long escrito = TAMANO_CABECERA;
+                while (indice.hasRemaining()) {
+                    escrito += canal.write(indice, escrito);
+                }
+                canal.force(true);
+            }
+            try {
+                // createTempFile lo deja solo para el dueño
+                Files.setPosixFilePermissions(temporal, PosixFilePermissions.fromString("rw-r--r--"));
+            } catch (UnsupportedOperationException e) {
+                // sistema de archivos sin permisos POSIX
+            }
+            Files.move(temporal, destino, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            Files.deleteIfExists(temporal);
+        }
+    }
+
+    private static int escribirCampo(DataOutputStream salida, byte[] campo) throws IOException {
+        int valor = campo.length;
+        int bytes = 0;
+        while ((valor & ~0x7F) != 0) {
+            salida.write((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+            bytes++;
+        }
+        salida.write(valor);
+        salida.write(campo);
+        return bytes + 1 + campo.length;
+    }
+}
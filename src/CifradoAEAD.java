@@ -0,0 +1,139 @@
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.spec.AlgorithmParameterSpec;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.IvParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+// Cifrado de los mensajes de una sesión con AES-GCM o ChaCha20-Poly1305.
+// El nonce no viaja: son 4 bytes con el sentido (servidor->cliente o cliente->servidor) y 8 con un contador
+// que cada extremo lleva por su cuenta, así que un mensaje repetido, perdido o reordenado no autentica.
+// Envío y recepción usan Cipher distintos: un hilo puede cifrar mientras otro descifra (ClienteAsincrono),
+// pero cada sentido no es seguro para hilos por sí solo.
+public class CifradoAEAD {
+    public static final int TAMANO_NONCE = 12;
+    public static final int TAMANO_TAG = 16;
+
+    private static final int SENTIDO_SERVIDOR = 0;
+    private static final int SENTIDO_CLIENTE = 1;
+
+    private final ModoRegistro modo;
+    private final SecretKey clave;
+    private final Cipher cipherEnvio;
+    private final Cipher cipherRecepcion;
+    private final int sentidoEnvio;
+    private final int sentidoRecepcion;
+    private long contadorEnvio;
+    private long contadorRecepcion;
+    // Se reescriben en cada mensaje: GCMParameterSpec e IvParameterSpec guardan su propia copia
+    private final byte[] nonceEnvio = new byte[TAMANO_NONCE];
+    private final byte[] nonceRecepcion = new byte[TAMANO_NONCE];
+
+    public CifradoAEAD(ModoRegistro modo, SecretKey claveCifrado, boolean esServidor) {
+        if (!modo.isAEAD()) {
+            throw new IllegalArgumentException("El modo " + modo.getNombre() + " no es AEAD");
+        }
+        this.modo = modo;
+        this.clave = modo == ModoRegistro.CHACHA20_POLY1305
+                ? new SecretKeySpec(claveCifrado.getEncoded(), "ChaCha20") : claveCifrado;
+        try {
+            this.cipherEnvio = Cipher.getInstance(modo.getTransformacion());
+            this.cipherRecepcion = Cipher.getInstance(modo.getTransformacion());
+        } catch (GeneralSecurityException e) {
+            throw new RuntimeException("Modo de registro no disponible: " + modo.getNombre(), e);
+        }
+        this.sentidoEnvio = esServidor ? SENTIDO_SERVIDOR : SENTIDO_CLIENTE;
+        this.sentidoRecepcion = esServidor ? SENTIDO_CLIENTE : SENTIDO_SERVIDOR;
+    }
+
+    // Devuelve cifrado || tag
+    public byte[] cifrar(byte[] datosPlanos, byte[] datosAsociados) {
+        try {
+            iniciarEnvio(datosAsociados);
+            return cipherEnvio.doFinal(datosPlanos);
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al cifrar " + modo.getNombre() + ": " + e.getMessage());
+            throw new RuntimeException("Error al cifrar " + modo.getNombre(), e);
+        }
+    }
+
+    // Lanza SecurityException si el tag no corresponde (mensaje alterado, repetido o fuera de orden)
+    public byte[] descifrar(byte[] datosCifrados, byte[] datosAsociados) {
+        try {
+            iniciarRecepcion(datosAsociados);
+            return cipherRecepcion.doFinal(datosCifrados);
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("Error en la sesión: autenticación " + modo.getNombre() + " inválida.");
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al descifrar " + modo.getNombre() + ": " + e.getMessage());
+            throw new RuntimeException("Error al descifrar " + modo.getNombre(), e);
+        }
+    }
+
+    // Sin arreglos intermedios: cifra lo que queda en plano y escribe cifrado || tag en destino, que puede ser
+    // un buffer directo (la trama de salida de ServidorNIO). Hacen falta plano.remaining() + TAMANO_TAG bytes libres.
+    public int cifrar(ByteBuffer plano, ByteBuffer destino, byte[] datosAsociados) {
+        try {
+            iniciarEnvio(datosAsociados);
+            return cipherEnvio.doFinal(plano, destino);
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al cifrar " + modo.getNombre() + ": " + e.getMessage());
+            throw new RuntimeException("Error al cifrar " + modo.getNombre(), e);
+        }
+    }
+
+    // Descifra lo que queda en cifrado directamente al destino; devuelve los bytes escritos
+    public int descifrar(ByteBuffer cifrado, ByteBuffer destino, byte[] datosAsociados) {
+        try {
+            iniciarRecepcion(datosAsociados);
+            return cipherRecepcion.doFinal(cifrado, destino);
+        } catch (AEADBadTagException e) {
+            throw new SecurityException("Error en la sesión: autenticación " + modo.getNombre() + " inválida.");
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al descifrar " + modo.getNombre() + ": " + e.getMessage());
+            throw new RuntimeException("Error al descifrar " + modo.getNombre(), e);
+        }
+    }
+
+    public ModoRegistro getModo() {
+        return modo;
+    }
+
+    private AlgorithmParameterSpec parametros(byte[] nonce) {
+        if (modo == ModoRegistro.AES_GCM) {
+            return new GCMParameterSpec(TAMANO_TAG * 8, nonce);
+        }
+        return new IvParameterSpec(nonce);
+    }
+
+    private void iniciarEnvio(byte[] datosAsociados) throws GeneralSecurityException {
+        cipherEnvio.init(Cipher.ENCRYPT_MODE, clave, parametros(nonce(nonceEnvio, sentidoEnvio, contadorEnvio++)));
+        if (datosAsociados != null) {
+            cipherEnvio.updateAAD(datosAsociados);
+        }
+    }
+
+    private void iniciarRecepcion(byte[] datosAsociados) throws GeneralSecurityException {
+        cipherRecepcion.init(Cipher.DECRYPT_MODE, clave, parametros(nonce(nonceRecepcion, sentidoRecepcion, contadorRecepcion++)));
+        if (datosAsociados != null) {
+            cipherRecepcion.updateAAD(datosAsociados);
+        }
+    }
+
+    private static byte[] nonce(byte[] nonce, int sentido, long contador) {
+        if (contador < 0) {
+            throw new IllegalStateException("Contador de nonces agotado");
+        }
+        for (int i = 0; i < 4; i++) {
+            nonce[i] = (byte) (sentido >>> (24 - 8 * i));
+        }
+        for (int i = 0; i < 8; i++) {
+            nonce[4 + i] = (byte) (contador >>> (56 - 8 * i));
+        }
+        return nonce;
+    }
+}
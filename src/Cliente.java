@@ -1,30 +1,32 @@
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.math.BigInteger;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketTimeoutException;
 import java.security.GeneralSecurityException;
-import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.PublicKey;
 import java.security.spec.X509EncodedKeySpec;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 //import java.util.Scanner;
 
-import javax.crypto.KeyAgreement;
 import javax.crypto.SecretKey;
+import javax.crypto.interfaces.DHPublicKey;
 import javax.crypto.spec.DHParameterSpec;
 
 public class Cliente {
+    // Bits mínimos del exponente privado DH si el servidor manda un l distinto de 0 (0 = el del proveedor)
+    private static final int LONGITUD_MINIMA_EXPONENTE_DH = 256;
 
     private String host;
     private int puerto;
@@ -33,13 +35,71 @@ public class Cliente {
     private SecretKey claveHMAC;
     private long tiempoCifradoSimetrico;
     private long tiempoCifradoAsimetrico;
-
+    private String formato;
+    private long tiempoHandshake;
+    private long bytesSesion;
+    private Socket socket;
+    private Canal canal;
+    private Map<String, String> servicios;
+    private long versionTabla;
+    private boolean tablaSinCambios;
+    private long secuencia;
+    private int tiempoConexion;
+    private int tiempoLectura;
+    private boolean reanudacion;
+    private byte[] ticket;
+    private byte[] secretoReanudacion;
+    private boolean sesionReanudada;
+    private List<SuiteCifrado> suites;
+    private Map<SuiteCifrado, PublicKey> clavesFirmaServidor;
+    private SuiteCifrado suite;
+    private List<ModoRegistro> modosRegistro;
+    private CifradoAEAD aead;
+    private ModoRegistro modoRegistroSesion;
+    // Hash de los dos hellos del handshake en curso
+    private byte[] transcripcion;
 
     public Cliente(String host, int puerto) {
         this.host = host;
         this.puerto = puerto;
         this.tiempoCifradoSimetrico = 0;
         this.tiempoCifradoAsimetrico = 0;  
+        this.formato = "binario";
+        this.reanudacion = true;
+        this.suites = SuiteCifrado.lista("x25519,p256,dh");
+        this.clavesFirmaServidor = new EnumMap<>(SuiteCifrado.class);
+        this.modosRegistro = ModoRegistro.lista(ModoRegistro.preferenciaPorDefecto());
+        this.tiempoConexion = 5000;
+        this.tiempoLectura = 10000;
+    }
+
+    // Milisegundos para conectar y para esperar cada mensaje del servidor
+    public void setTiemposEspera(int conexion, int lectura) {
+        this.tiempoConexion = conexion;
+        this.tiempoLectura = lectura;
+    }
+
+    // Suites ofrecidas en el hello, en orden de preferencia; solo se ofrecen las que tienen clave del servidor cargada
+    public void setSuites(List<SuiteCifrado> suites) {
+        this.suites = suites;
+    }
+
+    // Con reanudación activa el cliente guarda el ticket de la última sesión y lo presenta al reconectar
+    public void setReanudacion(boolean reanudacion) {
+        this.reanudacion = reanudacion;
+        if (!reanudacion) {
+            this.ticket = null;
+            this.secretoReanudacion = null;
+        }
+    }
+
+    // "binario" (CodecTramas/CodecServicios) o "objetos" (serialización Java original).
+    // El servidor bloqueante acepta ambos; ServidorNIO solo el binario.
+    public void setFormato(String formato) {
+        if (!"objetos".equals(formato) && !"binario".equals(formato)) {
+            throw new IllegalArgumentException("Formato no soportado: " + formato);
+        }
+        this.formato = formato;
     }
 
     public void cargarClavePublica(String archivoClavePublica) throws IOException, GeneralSecurityException {
@@ -51,6 +111,7 @@ public class Cliente {
                 throw new ClassCastException("El archivo no contiene una clave pública válida");
             }
             this.clavePublicaServidor = (PublicKey) obj;
+            clavesFirmaServidor.put(SuiteCifrado.DH_RSA, clavePublicaServidor);
             
         } catch (ClassNotFoundException e) {
             throw new GeneralSecurityException("Error al cargar la clave pública: formato inválido", e);
@@ -59,77 +120,317 @@ public class Cliente {
         }
     }
 
-    public void conectar() {
-        Socket socket = null;
-        ObjectInputStream entrada = null;
-        ObjectOutputStream salida = null;   
-        try {
-            socket = new Socket();
+    // Modos de registro ofrecidos en el hello, en orden de preferencia (ver ModoRegistro)
+    public void setModosRegistro(List<ModoRegistro> modosRegistro) {
+        this.modosRegistro = modosRegistro;
+    }
 
-            socket.setSoTimeout(10000);
-            socket.connect(new InetSocketAddress(host,puerto),5000);
+    // Claves públicas Ed25519 y ECDSA del servidor, junto a la RSA; si falta alguna esa suite no se ofrece
+    public void cargarClavesSuites(String directorio) throws IOException, GeneralSecurityException {
+        cargarClaveFirma(SuiteCifrado.X25519_ED25519, new File(directorio, "servidor_ed25519_publica.key"));
+        cargarClaveFirma(SuiteCifrado.P256_ECDSA, new File(directorio, "servidor_ecdsa_publica.key"));
+    }
 
-            salida = new ObjectOutputStream(socket.getOutputStream());
-            salida.flush();
-            entrada = new ObjectInputStream(socket.getInputStream());
-            
-            establecerClavesSeguras(entrada, salida);
-            Map<String, String> servicios = recibirTablaServicios(entrada);
+    private void cargarClaveFirma(SuiteCifrado suite, File archivo) throws IOException, GeneralSecurityException {
+        if (!archivo.exists()) {
+            return;
+        }
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(archivo))) {
+            Object obj = ois.readObject();
+            if (!(obj instanceof PublicKey)) {
+                throw new ClassCastException("El archivo no contiene una clave pública válida");
+            }
+            clavesFirmaServidor.put(suite, (PublicKey) obj);
+        } catch (ClassNotFoundException e) {
+            throw new GeneralSecurityException("Error al cargar la clave pública " + suite.getNombre() + ": formato inválido", e);
+        }
+    }
+
+    // Una sesión con una sola consulta aleatoria, mostrando la tabla y el resultado
+    public void conectar() {
+        try {
+            abrirSesion();
             mostrarServicios(servicios);
             String idServicio = seleccionarServicioAleatorio(servicios);
-            enviarConsulta(idServicio, salida);
-            InfoServicio infoServicio = recibirRespuesta(entrada);
+            InfoServicio infoServicio = consultar(idServicio);
             mostrarResultado(infoServicio);
+            cerrarSesion();
             medirTiempoCifradoAsimetrico();
             
         } catch (SocketTimeoutException e) {
-        System.err.println("Timeout al conectar o recibir datos del servidor: " + e.getMessage());
-        e.printStackTrace();
+        Bitacora.error("Timeout al conectar o recibir datos del servidor: " + e.getMessage(), e);
         } catch (IOException e) {
-            System.err.println("Error al conectar al servidor: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al conectar al servidor: " + e.getMessage(), e);
         } catch (Exception e) {
-            System.err.println("Error inesperado: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error inesperado: " + e.getMessage(), e);
+        } finally {
+            liberarRecursos();
+        }
+    }
+
+    // Conecta, hace el handshake y recibe la tabla; la sesión queda abierta para varias consultas
+    public void abrirSesion() throws IOException, GeneralSecurityException, ClassNotFoundException {
+        if (canal != null) {
+            throw new IllegalStateException("Ya hay una sesión abierta");
+        }
+        try {
+            socket = new Socket();
+
+            socket.setSoTimeout(tiempoLectura);
+            // Cada mensaje ya sale completo con flush; Nagle solo añade la espera del ACK retrasado del servidor
+            socket.setTcpNoDelay(true);
+            socket.connect(new InetSocketAddress(host,puerto),tiempoConexion);
+
+            long inicioHandshake = System.nanoTime();
+            if ("binario".equals(formato)) {
+                canal = new CanalTramas(socket.getInputStream(), socket.getOutputStream());
+            } else {
+                canal = new CanalObjetos(socket.getInputStream(), socket.getOutputStream());
+            }
+            
+            this.sesionReanudada = enviarHello(canal);
+            if (!sesionReanudada) {
+                if (suite.isCurvaEliptica()) {
+                    establecerClavesCurvaEliptica(canal);
+                } else {
+                    establecerClavesSeguras(canal);
+                }
+            }
+            this.tiempoHandshake = System.nanoTime() - inicioHandshake;
+            this.servicios = recibirTablaServicios(canal);
+            recibirTicket(canal);
+            this.secuencia = 0;
+        } catch (IOException | GeneralSecurityException | ClassNotFoundException | RuntimeException e) {
+            liberarRecursos();
+            throw e;
+        }
+    }
+
+    public InfoServicio consultar(String idServicio) throws IOException, GeneralSecurityException, ClassNotFoundException {
+        return recibirRespuesta(enviarConsulta(idServicio));
+    }
+
+    // Mitad de envío de consultar: no espera la respuesta y devuelve la secuencia que la identifica.
+    // Se pueden enviar varias seguidas; el servidor responde en el mismo orden (ver ClienteAsincrono).
+    public long enviarConsulta(String idServicio) throws IOException, GeneralSecurityException {
+        if (canal == null) {
+            throw new IllegalStateException("No hay una sesión abierta");
+        }
+        long secuenciaConsulta = ++secuencia;
+        enviarMensajeSesion(MensajeSesion.CONSULTA, secuenciaConsulta, idServicio.getBytes("UTF-8"), canal);
+        return secuenciaConsulta;
+    }
+
+    // Mitad de recepción: lee la siguiente respuesta y la verifica contra la secuencia de su consulta;
+    // puede correr en otro hilo que el de enviarConsulta
+    public InfoServicio recibirRespuesta(long secuenciaConsulta) throws IOException, GeneralSecurityException,
+                                            ClassNotFoundException {
+        Canal canal = this.canal;
+        if (canal == null) {
+            throw new IllegalStateException("No hay una sesión abierta");
+        }
+        return recibirRespuesta(secuenciaConsulta, canal);
+    }
+
+    // Varias consultas en un solo mensaje y una sola respuesta, en el orden de los ids. Un id desconocido
+    // vuelve con la marca "Servicio no encontrado" (ip y puerto "-1"), igual que en consultar.
+    // El servidor cierra la sesión si el lote pasa de sus límites (servidor.lote.maximo / servidor.lote.bytes).
+    public List<InfoServicio> consultarLote(List<String> idsServicios) throws IOException, GeneralSecurityException,
+                                            ClassNotFoundException {
+        if (canal == null) {
+            throw new IllegalStateException("No hay una sesión abierta");
+        }
+        long secuenciaLote = ++secuencia;
+        enviarMensajeSesion(MensajeSesion.LOTE, secuenciaLote, CodecServicios.codificarLote(idsServicios), canal);
+        byte[] respuestaPlano = recibirRespuestaPlana(secuenciaLote, canal);
+        List<InfoServicio> resultados = canal.isBinario() ? CodecServicios.decodificarResultadosLote(respuestaPlano)
+                : Arrays.asList((InfoServicio[]) deserializar(respuestaPlano));
+        if (resultados.size() != idsServicios.size()) {
+            throw new IOException("El lote devolvió " + resultados.size() + " resultados para "
+                    + idsServicios.size() + " consultas");
+        }
+        return resultados;
+    }
+
+    // Mantiene viva la sesión frente a la inactividad del servidor y comprueba que sigue respondiendo
+    public void ping() throws IOException, GeneralSecurityException {
+        if (canal == null) {
+            throw new IllegalStateException("No hay una sesión abierta");
+        }
+        long secuenciaPing = ++secuencia;
+        enviarMensajeSesion(MensajeSesion.PING, secuenciaPing, new byte[0], canal);
+        if (recibirRespuestaPlana(secuenciaPing, canal).length != 0) {
+            throw new IOException("Respuesta inesperada al ping");
+        }
+    }
+
+    // Avisa al servidor para que libere la sesión de inmediato en vez de esperar la inactividad
+    public void cerrarSesion() {
+        if (canal == null) {
+            return;
+        }
+        try {
+            enviarMensajeSesion(MensajeSesion.CIERRE, ++secuencia, new byte[0], canal);
+        } catch (IOException | GeneralSecurityException e) {
+            Bitacora.error("Error al cerrar la sesión: " + e.getMessage());
+        } finally {
+            liberarRecursos();
+        }
+    }
+
+    public boolean isSesionAbierta() {
+        return canal != null;
+    }
+
+    public Map<String, String> getServicios() {
+        return servicios;
+    }
+
+    public long getVersionTabla() {
+        return versionTabla;
+    }
+
+    // true si en la última sesión el servidor solo confirmó la versión de tabla que el cliente ya tenía
+    public boolean isTablaSinCambios() {
+        return tablaSinCambios;
+    }
+
+    private void liberarRecursos() {
+        // Cerrar recursos en orden inverso
+        try {
+            if (canal != null) {
+                this.bytesSesion = canal.getBytesLeidos() + canal.getBytesEscritos();
+                canal.close();
+            }
+            if (socket != null && !socket.isClosed()) socket.close();
+        } catch (IOException e) {
+            Bitacora.error("Error al cerrar recursos: " + e.getMessage());
         } finally {
-            // Cerrar recursos en orden inverso
-            try {
-                if (entrada != null) entrada.close();
-                if (salida != null) salida.close();
-                if (socket != null && !socket.isClosed()) socket.close();
-            } catch (IOException e) {
-                System.err.println("Error al cerrar recursos: " + e.getMessage());
+            canal = null;
+            socket = null;
+        }
+    }
+
+    // Devuelve true si el servidor aceptó el ticket y las claves ya quedaron derivadas sin Diffie-Hellman
+    private boolean enviarHello(Canal canal) throws IOException {
+        byte[] nonceCliente = CryptoUtils.generarNonce(MensajeHello.TAMANO_NONCE);
+        // El ticket es de un solo uso: se descarta aunque el servidor lo rechace
+        byte[] ticketUsado = reanudacion ? ticket : null;
+        byte[] secretoUsado = secretoReanudacion;
+        ticket = null;
+        secretoReanudacion = null;
+
+        byte modo = ticketUsado != null ? MensajeHello.REANUDADO : MensajeHello.COMPLETO;
+        // La tabla de la sesión anterior se conserva; si sigue vigente el servidor no la vuelve a enviar
+        long versionConocida = servicios != null ? versionTabla : 0;
+        byte[] datosHello = new MensajeHello(modo, suitesOfrecidas(), modosOfrecidos(), versionConocida, nonceCliente,
+                ticketUsado).codificar();
+        canal.enviar(datosHello);
+        canal.flush();
+
+        byte[] datosRespuesta = (byte[]) canal.leer();
+        MensajeHello respuesta = MensajeHello.decodificar(datosRespuesta);
+        if (respuesta.getModo() == MensajeHello.RECHAZADO) {
+            // El servidor ni miró el ticket: sigue valiendo para el reintento
+            ticket = ticketUsado;
+            secretoReanudacion = secretoUsado;
+            throw new ConexionRechazadaException(host + ":" + puerto, respuesta.getEsperaSugerida());
+        }
+        this.transcripcion = MensajeHello.transcripcion(datosHello, datosRespuesta);
+        this.suite = respuesta.getSuites().length == 1 ? SuiteCifrado.porId(respuesta.getSuites()[0]) : null;
+        if (suite == null || !clavesFirmaServidor.containsKey(suite)) {
+            throw new SecurityException("El servidor eligió una suite de cifrado que el cliente no ofreció.");
+        }
+        ModoRegistro modoRegistro = respuesta.getModosRegistro().length == 1
+                ? ModoRegistro.porId(respuesta.getModosRegistro()[0]) : null;
+        if (modoRegistro == null || !modosRegistro.contains(modoRegistro)) {
+            throw new SecurityException("El servidor eligió un modo de registro que el cliente no ofreció.");
+        }
+        this.aead = null;
+        this.modoRegistroSesion = modoRegistro;
+        if (respuesta.getModo() != MensajeHello.REANUDADO) {
+            return false;
+        }
+        if (ticketUsado == null) {
+            throw new SecurityException("El servidor reanudó una sesión que el cliente no pidió.");
+        }
+        establecerClaves(CryptoUtils.generarClavesReanudacion(secretoUsado, transcripcion));
+        Bitacora.depuracion("Sesión reanudada con ticket.");
+        return true;
+    }
+
+    private void establecerClaves(SecretKey[] clavesSesion) {
+        this.claveCifrado = clavesSesion[0];
+        this.claveHMAC = clavesSesion[1];
+        if (modoRegistroSesion.isAEAD()) {
+            this.aead = new CifradoAEAD(modoRegistroSesion, claveCifrado, false);
+        }
+    }
+
+    private byte[] modosOfrecidos() {
+        byte[] ids = new byte[modosRegistro.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = modosRegistro.get(i).getId();
+        }
+        return ids;
+    }
+
+    private byte[] suitesOfrecidas() {
+        byte[] ids = new byte[suites.size()];
+        int n = 0;
+        for (SuiteCifrado ofrecida : suites) {
+            if (clavesFirmaServidor.containsKey(ofrecida)) {
+                ids[n++] = ofrecida.getId();
             }
         }
+        byte[] resultado = new byte[n];
+        System.arraycopy(ids, 0, resultado, 0, n);
+        return resultado;
     }
 
-    private void establecerClavesSeguras(ObjectInputStream entrada, ObjectOutputStream salida) throws IOException,
+    // X25519/Ed25519 o P-256/ECDSA: el servidor manda su clave efímera firmada junto con la transcripción
+    private void establecerClavesCurvaEliptica(Canal canal) throws IOException {
+        byte[] clavePublicaEfimeraServidor = (byte[]) canal.leer();
+        byte[] firma = (byte[]) canal.leer();
+
+        byte[] datosFirmados = MensajeHello.datosFirmaHandshake(transcripcion, clavePublicaEfimeraServidor);
+        if (!CryptoUtils.verificarFirma(suite.getAlgoritmoFirma(), datosFirmados, firma, clavesFirmaServidor.get(suite))) {
+            throw new SecurityException("La firma de la clave efímera " + suite.getNombre() + " no es válida.");
+        }
+
+        KeyPair miParEfimero = suite.generarParEfimero();
+        canal.enviar(miParEfimero.getPublic().getEncoded());
+        canal.flush();
+
+        byte[] secretoCompartido = CryptoUtils.acordarSecreto(suite, miParEfimero.getPrivate(), clavePublicaEfimeraServidor);
+        establecerClaves(CryptoUtils.generarClavesSesion(secretoCompartido));
+        Bitacora.depuracion(() -> "Claves de sesión establecidas con " + suite.getNombre() + ".");
+    }
+
+    private void recibirTicket(Canal canal) throws IOException {
+        byte[] nuevoTicket = (byte[]) canal.leer();
+        if (reanudacion && nuevoTicket.length > 0) {
+            this.ticket = nuevoTicket;
+            this.secretoReanudacion = CryptoUtils.derivarSecretoReanudacion(claveHMAC);
+        }
+    }
+
+    private void establecerClavesSeguras(Canal canal) throws IOException,
         GeneralSecurityException, ClassNotFoundException {
     try {
-        System.out.println("Esperando parámetros DH del servidor...");
+        Bitacora.depuracion("Esperando parámetros DH del servidor...");
 
         // Leer p, g, l separados
-        BigInteger p = (BigInteger) entrada.readObject();
-        BigInteger g = (BigInteger) entrada.readObject();
-        int l = (int) entrada.readObject();
-
-        System.out.println("Parámetros DH recibidos: p, g, l.");
+        BigInteger p = (BigInteger) canal.leer();
+        BigInteger g = (BigInteger) canal.leer();
+        int l = (int) canal.leer();
 
-        // Leer la firma
-        byte[] firmaParametros = (byte[]) entrada.readObject();
-        System.out.println("Firma de parámetros DH recibida.");
+        Bitacora.depuracion("Parámetros DH recibidos: p, g, l.");
 
-        // Crear los mismos datos serializados para verificar la firma
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(p);
-        oos.writeObject(g);
-        oos.writeObject(l);
-        oos.flush();
-        byte[] parametrosSerializados = baos.toByteArray();
-
-        if (!CryptoUtils.verificarFirma(parametrosSerializados, firmaParametros, clavePublicaServidor)) {
-            throw new SecurityException("Error en la consulta: La firma de los parámetros DH no es válida.");
+        // Los parámetros llegan sin firma; p y g quedan autenticados más abajo con la clave firmada del servidor.
+        // l no va en esa clave, así que se rechaza un l tan chico que debilite el exponente propio
+        if (l != 0 && l < LONGITUD_MINIMA_EXPONENTE_DH) {
+            throw new SecurityException("Longitud de exponente DH demasiado chica: " + l);
         }
 
         DHParameterSpec dhParams = new DHParameterSpec(p, g, l);
@@ -138,63 +439,83 @@ public class Cliente {
         KeyPair miParClavesDH = CryptoUtils.generarClavesDH(dhParams);
         byte[] clavePublicaDH = miParClavesDH.getPublic().getEncoded();
 
-        salida.writeObject(clavePublicaDH);
-        salida.flush();
-
-        byte[] clavePublicaDHServidor = (byte[]) entrada.readObject();
+        canal.enviar(clavePublicaDH);
+        canal.flush();
 
-        KeyFactory keyFactory = KeyFactory.getInstance("DH");
-        X509EncodedKeySpec specDH = new X509EncodedKeySpec(clavePublicaDHServidor);
-        PublicKey clavePublicaServidorDH = keyFactory.generatePublic(specDH);
+        byte[] clavePublicaDHServidor = (byte[]) canal.leer();
+        byte[] firmaClave = (byte[]) canal.leer();
+        // Sin esto un intermediario podría forzar DH_RSA quitando las demás suites y poner su propia clave
+        if (!CryptoUtils.verificarFirma(MensajeHello.datosFirmaHandshake(transcripcion, clavePublicaDHServidor,
+                clavePublicaDH), firmaClave, clavePublicaServidor)) {
+            throw new SecurityException("La firma de la clave DH del servidor no es válida.");
+        }
+        DHParameterSpec parametrosFirmados = ((DHPublicKey) MotorCripto.fabricaClaves("DH")
+                .generatePublic(new X509EncodedKeySpec(clavePublicaDHServidor))).getParams();
+        if (!p.equals(parametrosFirmados.getP()) || !g.equals(parametrosFirmados.getG())) {
+            throw new SecurityException("Los parámetros DH recibidos no coinciden con la clave firmada del servidor.");
+        }
 
-        KeyAgreement keyAgreement = KeyAgreement.getInstance("DH");
-        keyAgreement.init(miParClavesDH.getPrivate());
-        keyAgreement.doPhase(clavePublicaServidorDH, true);
+        byte[] secretoCompartido = CryptoUtils.acordarSecreto(SuiteCifrado.DH_RSA, miParClavesDH.getPrivate(),
+                clavePublicaDHServidor);
 
-        byte[] secretoCompartido = keyAgreement.generateSecret();
+        establecerClaves(CryptoUtils.generarClavesSesion(secretoCompartido));
 
-        SecretKey[] clavesSesion = CryptoUtils.generarClavesSesion(secretoCompartido);
-        this.claveCifrado = clavesSesion[0];
-        this.claveHMAC = clavesSesion[1];
-
-        System.out.println("Claves de sesión establecidas exitosamente.");
+        Bitacora.depuracion("Claves de sesión establecidas exitosamente.");
     } catch (IOException e) {
-        System.err.println("Error de IO al establecer claves seguras: " + e.getMessage());
-        if (e instanceof EOFException) {
-            System.err.println("Conexión cerrada por el servidor prematuramente");
-        }
-        e.printStackTrace();
+        Bitacora.error("Error de IO al establecer claves seguras: " + e.getMessage()
+                + (e instanceof EOFException ? " (conexión cerrada por el servidor prematuramente)" : ""), e);
         throw new RuntimeException("Error al establecer claves seguras", e);
     } catch (Exception e) {
-        System.err.println("Error inesperado al establecer claves seguras: " + e.getMessage());
-        e.printStackTrace();
+        Bitacora.error("Error inesperado al establecer claves seguras: " + e.getMessage(), e);
         throw new RuntimeException("Error al establecer claves seguras", e);
         }
     }
 
 
-    private Map<String, String> recibirTablaServicios(ObjectInputStream entrada) throws IOException, 
+    private Map<String, String> recibirTablaServicios(Canal canal) throws IOException, 
             GeneralSecurityException, ClassNotFoundException {
-        byte[] IV = (byte[]) entrada.readObject();
-        byte[] datosTablaServiciosCifrados = (byte[]) entrada.readObject();
-        byte[] HMACTabla = (byte[]) entrada.readObject();
+        byte[] datosTablaServicios;
+        if (aead != null) {
+            datosTablaServicios = aead.descifrar((byte[]) canal.leer(), null);
+        } else {
+            byte[] IV = (byte[]) canal.leer();
+            byte[] datosTablaServiciosCifrados = (byte[]) canal.leer();
+            byte[] HMACTabla = (byte[]) canal.leer();
 
-        if (!CryptoUtils.verificarHMAC(datosTablaServiciosCifrados, HMACTabla, claveHMAC)) {
-            throw new SecurityException("Error en la consulta: HMAC de la tabla de servicios no válida.");
-        }
+            if (!CryptoUtils.verificarHMAC(MensajeTabla.datosHMACTabla(IV, datosTablaServiciosCifrados), HMACTabla, claveHMAC)) {
+                throw new SecurityException("Error en la consulta: HMAC de la tabla de servicios no válida.");
+            }
 
-        byte[] datosTablaServicios = CryptoUtils.descifrarAES(datosTablaServiciosCifrados, claveCifrado, IV);
+            datosTablaServicios = CryptoUtils.descifrarAES(datosTablaServiciosCifrados, claveCifrado, IV);
+        }
 
-        return deserializarTablaServicios(datosTablaServicios);
+        this.tablaSinCambios = MensajeTabla.estado(datosTablaServicios) == MensajeTabla.SIN_CAMBIOS;
+        long version = MensajeTabla.version(datosTablaServicios);
+        if (tablaSinCambios) {
+            if (servicios == null || version != versionTabla) {
+                throw new IOException("El servidor indicó tabla sin cambios para una versión que el cliente no tiene");
+            }
+            return servicios;
+        }
+        this.versionTabla = version;
+        byte[] tabla = MensajeTabla.tabla(datosTablaServicios);
+        if (canal.isBinario()) {
+            return CodecServicios.decodificarTabla(tabla);
+        }
+        return deserializarTablaServicios(tabla);
     }
 
+    // La tabla puede tener cientos de servicios: solo con la bitácora en depuración
     private void mostrarServicios(Map<String,String> servicios) {
+        if (!Bitacora.depuracion()) {
+            return;
+        }
         StringBuilder sb = new StringBuilder("\nServicios disponibles:\n");
         for (Map.Entry<String, String> entrada : servicios.entrySet()) {
             sb.append("ID: ").append(entrada.getKey()).append(", Nombre: ")
                 .append(entrada.getValue()).append("\n");
         }
-        System.out.println(sb);
+        Bitacora.depuracion(sb.toString());
     }
     
     /* 
@@ -219,37 +540,57 @@ public class Cliente {
         int indiceAleatorio = random.nextInt(idsServicios.size());
         String idSeleccionado = idsServicios.get(indiceAleatorio);
 
-        System.out.println("Seleccionado automáticamente el servicio: " + idSeleccionado +
+        Bitacora.depuracion(() -> "Seleccionado automáticamente el servicio: " + idSeleccionado +
                 " - " + servicios.get(idSeleccionado));
 
         return idSeleccionado;
     }
 
-    private void enviarConsulta(String idServicio, ObjectOutputStream salida) throws IOException, GeneralSecurityException {
-        byte[] datosConsulta = idServicio.getBytes("UTF-8");
-        byte[] HMACConsulta = CryptoUtils.generarHMAC(datosConsulta, claveHMAC);        
-        
-        salida.writeObject(datosConsulta);
-        salida.writeObject(HMACConsulta);
-        salida.flush();
+    private void enviarMensajeSesion(byte tipo, long secuenciaMensaje, byte[] cuerpo, Canal canal)
+            throws IOException, GeneralSecurityException {
+        byte[] datosConsulta = MensajeSesion.construir(tipo, secuenciaMensaje, cuerpo);
+        if (aead != null) {
+            canal.enviar(aead.cifrar(datosConsulta, null));
+        } else {
+            byte[] HMACConsulta = CryptoUtils.generarHMAC(datosConsulta, claveHMAC);
+            canal.enviar(datosConsulta);
+            canal.enviar(HMACConsulta);
+        }
+        canal.flush();
     }
 
-    private InfoServicio recibirRespuesta(ObjectInputStream entrada) throws IOException, GeneralSecurityException, 
+    private InfoServicio recibirRespuesta(long secuenciaConsulta, Canal canal) throws IOException, GeneralSecurityException, 
                                             ClassNotFoundException {
-        byte[] IV = (byte[]) entrada.readObject();
-        byte[] respuestaCifrada = (byte[]) entrada.readObject();
-        byte[] HMACRespuesta = (byte[]) entrada.readObject();
-
-        if (!CryptoUtils.verificarHMAC(respuestaCifrada, HMACRespuesta, claveHMAC)) {
-            throw new SecurityException("Error en la consulta: HMAC de la respuesta no válida.");
+        byte[] respuestaPlano = recibirRespuestaPlana(secuenciaConsulta, canal);
+        if (canal.isBinario()) {
+            return CodecServicios.decodificarInfoServicio(respuestaPlano);
         }
+        return deserializarRespuesta(respuestaPlano);
+    }
 
-        long inicio = System.nanoTime();
-        byte[] respuestaPlano = CryptoUtils.descifrarAES(respuestaCifrada, claveCifrado, IV);
-        long fin = System.nanoTime();
-        this.tiempoCifradoSimetrico = fin - inicio;
+    private byte[] recibirRespuestaPlana(long secuenciaConsulta, Canal canal) throws IOException, GeneralSecurityException {
+        byte[] respuestaPlano;
+        if (aead != null) {
+            byte[] respuestaSellada = (byte[]) canal.leer();
+            long inicio = System.nanoTime();
+            respuestaPlano = aead.descifrar(respuestaSellada, MensajeSesion.datosAsociadosRespuesta(secuenciaConsulta));
+            this.tiempoCifradoSimetrico = System.nanoTime() - inicio;
+        } else {
+            byte[] IV = (byte[]) canal.leer();
+            byte[] respuestaCifrada = (byte[]) canal.leer();
+            byte[] HMACRespuesta = (byte[]) canal.leer();
 
-        return deserializarRespuesta(respuestaPlano);
+            byte[] datosHMAC = MensajeSesion.datosHMACRespuesta(secuenciaConsulta, IV, respuestaCifrada);
+            if (!CryptoUtils.verificarHMAC(datosHMAC, HMACRespuesta, claveHMAC)) {
+                throw new SecurityException("Error en la consulta: HMAC de la respuesta no válida.");
+            }
+
+            long inicio = System.nanoTime();
+            respuestaPlano = CryptoUtils.descifrarAES(respuestaCifrada, claveCifrado, IV);
+            long fin = System.nanoTime();
+            this.tiempoCifradoSimetrico = fin - inicio;
+        }
+        return respuestaPlano;
     }
 
     private void mostrarResultado(InfoServicio info) {
@@ -264,13 +605,7 @@ public class Cliente {
 
     private void medirTiempoCifradoAsimetrico() {
         try {
-            byte[] datosSimulados = new byte[117]; 
-            new Random().nextBytes(datosSimulados);
-
-            long incio = System.nanoTime();
-            CryptoUtils.cifrarRSA(datosSimulados, clavePublicaServidor);
-            long fin = System.nanoTime();
-            this.tiempoCifradoAsimetrico = fin - incio;
+            medirCifradoRSA();
 
             StringBuilder sb = new StringBuilder("\nComparación de tiempos de cifrado: \n");
             sb.append("Tiempo cifrado simétrico (AES): ").append(tiempoCifradoSimetrico).append(" ns\n");
@@ -280,12 +615,23 @@ public class Cliente {
             System.out.println(sb);
         
         } catch (Exception e) {
-            System.err.println("Error al medir el tiempo de cifrado asimétrico: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al medir el tiempo de cifrado asimétrico: " + e.getMessage(), e);
         }
     }
 
 
+    // Cifra un bloque RSA de 117 bytes con la clave del servidor, para comparar con el descifrado AES de la respuesta
+    public long medirCifradoRSA() {
+        byte[] datosSimulados = new byte[117];
+        new Random().nextBytes(datosSimulados);
+
+        long incio = System.nanoTime();
+        CryptoUtils.cifrarRSA(datosSimulados, clavePublicaServidor);
+        long fin = System.nanoTime();
+        this.tiempoCifradoAsimetrico = fin - incio;
+        return tiempoCifradoAsimetrico;
+    }
+
     public long getTiempoCifradoSimetrico() {
         return tiempoCifradoSimetrico;
     }
@@ -293,17 +639,32 @@ public class Cliente {
     public long getTiempoCifradoAsimetrico() {
         return tiempoCifradoAsimetrico;
     }
+
+    public long getTiempoHandshake() {
+        return tiempoHandshake;
+    }
+
+    public long getBytesSesion() {
+        return bytesSesion;
+    }
+
+    public boolean isSesionReanudada() {
+        return sesionReanudada;
+    }
+
+    public ModoRegistro getModoRegistroSesion() {
+        return modoRegistroSesion;
+    }
     
 
     private DHParameterSpec deserializarParametrosDH(byte[] datos) throws IOException, ClassNotFoundException {
         try (ByteArrayInputStream bais = new ByteArrayInputStream(datos);
              ObjectInputStream ois = new ObjectInputStream(bais)) {
             DHParameterSpec result = (DHParameterSpec) ois.readObject();
-            System.out.println("Parámetros DH deserializados correctamente. Tamaño de los datos: " + datos.length + " bytes");
+            Bitacora.depuracion(() -> "Parámetros DH deserializados correctamente. Tamaño de los datos: " + datos.length + " bytes");
             return result;
         } catch (Exception e) {
-            System.err.println("Error al deserializar parámetros DH: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al deserializar parámetros DH: " + e.getMessage(), e);
             throw e;
         }
     }
@@ -321,9 +682,13 @@ public class Cliente {
     }
 
     private InfoServicio deserializarRespuesta(byte[] datos) throws IOException, ClassNotFoundException {
+        return (InfoServicio) deserializar(datos);
+    }
+
+    private Object deserializar(byte[] datos) throws IOException, ClassNotFoundException {
         try (ByteArrayInputStream bais = new ByteArrayInputStream(datos);
              ObjectInputStream ois = new ObjectInputStream(bais)) {
-            return (InfoServicio) ois.readObject();
+            return ois.readObject();
         }
     }
 }
@@ -0,0 +1,157 @@
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Sesión de Cliente con consultas encadenadas: consultar no bloquea, envía la consulta y devuelve un
+// CompletableFuture que se completa al llegar su respuesta. Varias consultas pueden estar en vuelo a la vez;
+// el servidor las atiende en orden y cada respuesta va ligada (HMAC o dato asociado AEAD) a la secuencia
+// de su consulta, así que la secuencia hace de id de la petición.
+// Un solo hilo lector por sesión recibe las respuestas y completa los futuros: los callbacks no async
+// (thenApply, thenAccept...) corren en ese hilo, lo pesado conviene pasarlo con las variantes *Async.
+public class ClienteAsincrono {
+    private static final AtomicInteger contadorLectores = new AtomicInteger();
+    private static final Consulta FIN = new Consulta(0, null);
+
+    private final Cliente cliente;
+    // Consultas enviadas y sin respuesta, en el orden en que salieron
+    private final LinkedBlockingQueue<Consulta> enVuelo = new LinkedBlockingQueue<>();
+    private final Thread lector;
+    private CompletableFuture<InfoServicio> ultimaConsulta = CompletableFuture.completedFuture(null);
+    private CompletableFuture<Void> cierre;
+    private Throwable error;
+
+    private ClienteAsincrono(Cliente cliente) {
+        this.cliente = cliente;
+        this.lector = new Thread(this::leerRespuestas, "cliente-asincrono-" + contadorLectores.incrementAndGet());
+        lector.setDaemon(true);
+    }
+
+    // El cliente ya configurado (formato, suites, claves); el handshake corre en el ejecutor común
+    public static CompletableFuture<ClienteAsincrono> conectar(Cliente cliente) {
+        return CompletableFuture.supplyAsync(() -> abrir(cliente));
+    }
+
+    public static CompletableFuture<ClienteAsincrono> conectar(Cliente cliente, Executor ejecutor) {
+        return CompletableFuture.supplyAsync(() -> abrir(cliente), ejecutor);
+    }
+
+    private static ClienteAsincrono abrir(Cliente cliente) {
+        try {
+            cliente.abrirSesion();
+        } catch (IOException | GeneralSecurityException | ClassNotFoundException e) {
+            throw new CompletionException(e);
+        }
+        ClienteAsincrono sesion = new ClienteAsincrono(cliente);
+        sesion.lector.start();
+        return sesion;
+    }
+
+    public CompletableFuture<InfoServicio> consultar(String idServicio) {
+        CompletableFuture<InfoServicio> futuro = new CompletableFuture<>();
+        synchronized (this) {
+            if (error != null) {
+                futuro.completeExceptionally(error);
+                return futuro;
+            }
+            if (cierre != null) {
+                futuro.completeExceptionally(new IllegalStateException("La sesión se está cerrando"));
+                return futuro;
+            }
+            // Envío y encolado bajo el mismo candado: el orden de la cola es el orden en que salen las consultas
+            try {
+                enVuelo.add(new Consulta(cliente.enviarConsulta(idServicio), futuro));
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                fallar(e);
+                futuro.completeExceptionally(e);
+                return futuro;
+            }
+            ultimaConsulta = futuro;
+        }
+        return futuro;
+    }
+
+    // Espera las respuestas pendientes y después envía el cierre de sesión
+    public synchronized CompletableFuture<Void> cerrar() {
+        if (cierre == null) {
+            cierre = ultimaConsulta.handle((info, e) -> {
+                enVuelo.add(FIN);
+                synchronized (this) {
+                    if (error == null) {
+                        cliente.cerrarSesion();
+                    }
+                }
+                return null;
+            });
+        }
+        return cierre;
+    }
+
+    public Map<String, String> getServicios() {
+        return cliente.getServicios();
+    }
+
+    public int getConsultasEnVuelo() {
+        return enVuelo.size();
+    }
+
+    public Cliente getCliente() {
+        return cliente;
+    }
+
+    private void leerRespuestas() {
+        try {
+            while (true) {
+                Consulta consulta = enVuelo.take();
+                if (consulta == FIN) {
+                    return;
+                }
+                InfoServicio info;
+                try {
+                    info = cliente.recibirRespuesta(consulta.secuencia);
+                } catch (Exception e) {
+                    consulta.futuro.completeExceptionally(e);
+                    synchronized (this) {
+                        fallar(e);
+                    }
+                    return;
+                }
+                consulta.futuro.complete(info);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Un error de lectura o escritura deja el canal en un estado desconocido: se cierra la sesión y
+    // fallan todas las consultas en vuelo. Se llama con el candado tomado.
+    private void fallar(Throwable causa) {
+        if (error != null) {
+            return;
+        }
+        error = causa;
+        Bitacora.error("[ClienteAsincrono] Sesión interrumpida: " + causa);
+        cliente.cerrarSesion();
+        Consulta consulta;
+        while ((consulta = enVuelo.poll()) != null) {
+            if (consulta != FIN) {
+                consulta.futuro.completeExceptionally(causa);
+            }
+        }
+        enVuelo.add(FIN);
+    }
+
+    private static class Consulta {
+        private final long secuencia;
+        private final CompletableFuture<InfoServicio> futuro;
+
+        private Consulta(long secuencia, CompletableFuture<InfoServicio> futuro) {
+            this.secuencia = secuencia;
+            this.futuro = futuro;
+        }
+    }
+}
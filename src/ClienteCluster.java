@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Cliente de un cluster de servidores que se reparten el registro por hash consistente (ver AnilloConsistente).
+// Cada consulta va directo al dueño del id, sin proxy en el medio: el cifrado es de punta a punta con cada
+// servidor, así que un intermediario tendría que descifrar y volver a cifrar. Mantiene un PoolSesiones por nodo.
+// Si un nodo no responde se lo saca del anillo (sus ids pasan a la réplica siguiente, que ya los tiene cargados)
+// y la consulta se repite ahí; pasado reintentoCaidos ms el nodo vuelve al anillo y se prueba de nuevo.
+// Los nodos que entran o salen del cluster llegan por MiembrosCluster (o por agregarNodo/quitarNodo) y el anillo
+// se rearma sin cortar las consultas en curso.
+public class ClienteCluster implements FuenteServicios {
+    private final MiembrosCluster miembros;
+    private final String archivoClavePublica;
+    private String formato;
+    private String suites;
+    private String modosRegistro;
+    private int sesionesPorNodo;
+    private long esperaMaxima;
+    private int replicas;
+    private long reintentoCaidos;
+
+    private final ConcurrentHashMap<String, PoolSesiones> pools = new ConcurrentHashMap<>();
+    // Nodo caído -> instante (ms) desde el que se vuelve a probar
+    private final Map<String, Long> caidos = new HashMap<>();
+    private final ConcurrentHashMap<String, AtomicLong> consultasPorNodo = new ConcurrentHashMap<>();
+    private volatile AnilloConsistente anillo;
+    private volatile long proximoReintento = Long.MAX_VALUE;
+    private volatile boolean cerrado;
+
+    private final AtomicLong consultas = new AtomicLong();
+    private final AtomicLong reenviadas = new AtomicLong();
+    private final AtomicLong fallidas = new AtomicLong();
+    private final AtomicLong caidas = new AtomicLong();
+    private final AtomicLong rechazadas = new AtomicLong();
+
+    public ClienteCluster(MiembrosCluster miembros, String archivoClavePublica) {
+        this.miembros = miembros;
+        this.archivoClavePublica = archivoClavePublica;
+        this.formato = "binario";
+        this.suites = "x25519,p256,dh";
+        this.modosRegistro = ModoRegistro.preferenciaPorDefecto();
+        this.sesionesPorNodo = 8;
+        this.esperaMaxima = 5000;
+        this.replicas = 2;
+        this.reintentoCaidos = 5000;
+        this.anillo = miembros.getAnillo();
+        miembros.alCambiar(nuevo -> rearmar());
+    }
+
+    public void setFormato(String formato) {
+        this.formato = formato;
+    }
+
+    public void setSuites(String suites) {
+        this.suites = suites;
+    }
+
+    public void setModosRegistro(String modosRegistro) {
+        this.modosRegistro = modosRegistro;
+    }
+
+    // Límites del PoolSesiones de cada nodo
+    public void setLimites(int sesionesPorNodo, long esperaMaxima) {
+        this.sesionesPorNodo = sesionesPorNodo;
+        this.esperaMaxima = esperaMaxima;
+    }
+
+    // Nodos a probar por consulta; tiene que coincidir con servidor.cluster.replicas para que la réplica tenga el id
+    public void setReplicas(int replicas) {
+        this.replicas = replicas;
+    }
+
+    public void setReintentoCaidos(long milisegundos) {
+        this.reintentoCaidos = milisegundos;
+    }
+
+    public void agregarNodo(String nodo) {
+        miembros.agregar(nodo);
+    }
+
+    public void quitarNodo(String nodo) {
+        miembros.quitar(nodo);
+    }
+
+    public AnilloConsistente getAnillo() {
+        return anillo;
+    }
+
+    @Override
+    public InfoServicio consultar(String idServicio) throws IOException, GeneralSecurityException,
+            ClassNotFoundException, InterruptedException {
+        if (System.currentTimeMillis() >= proximoReintento) {
+            devolverCaidos();
+        }
+        consultas.incrementAndGet();
+        List<String> candidatos = anillo.nodosDe(idServicio, replicas);
+        IOException ultimo = null;
+        InfoServicio noEncontrado = null;
+        for (String nodo : candidatos) {
+            if (ultimo != null || noEncontrado != null) {
+                reenviadas.incrementAndGet();
+            }
+            try {
+                InfoServicio info = pool(nodo).consultar(idServicio);
+                consultasPorNodo.computeIfAbsent(nodo, n -> new AtomicLong()).incrementAndGet();
+                // Durante un alta o baja los nodos refiltran su tabla recién en la próxima recarga: el dueño nuevo
+                // puede no tener todavía un id que la réplica sí tiene, así que se pregunta a la siguiente
+                if (!esNoEncontrado(info)) {
+                    return info;
+                }
+                noEncontrado = info;
+            } catch (ConexionRechazadaException e) {
+                // El nodo está vivo pero saturado: no se lo saca del anillo, la réplica contesta esta vez
+                ultimo = e;
+                rechazadas.incrementAndGet();
+            } catch (IOException e) {
+                ultimo = e;
+                marcarCaido(nodo, e);
+            }
+        }
+        if (noEncontrado != null) {
+            return noEncontrado;
+        }
+        fallidas.incrementAndGet();
+        throw ultimo != null ? ultimo : new IOException("No hay nodos disponibles para " + idServicio);
+    }
+
+    private static boolean esNoEncontrado(InfoServicio info) {
+        return "-1".equals(info.getIp()) && "-1".equals(info.getPuerto());
+    }
+
+    // Ids que listan las tablas de todos los nodos vivos (cada una es el fragmento de ese nodo)
+    @Override
+    public Map<String, String> servicios() throws IOException, GeneralSecurityException, InterruptedException {
+        Map<String, String> servicios = new HashMap<>();
+        for (String nodo : anillo.getNodos()) {
+            try {
+                PoolSesiones pool = pool(nodo);
+                PoolSesiones.Sesion sesion = pool.prestar();
+                servicios.putAll(sesion.getCliente().getServicios());
+                pool.devolver(sesion);
+            } catch (IOException e) {
+                marcarCaido(nodo, e);
+            }
+        }
+        return servicios;
+    }
+
+    private PoolSesiones pool(String nodo) {
+        PoolSesiones pool = pools.get(nodo);
+        if (pool != null) {
+            return pool;
+        }
+        synchronized (this) {
+            if (cerrado) {
+                throw new IllegalStateException("El cliente del cluster está cerrado");
+            }
+            return pools.computeIfAbsent(nodo, n -> {
+                PoolSesiones nuevo = new PoolSesiones(AnilloConsistente.host(n), AnilloConsistente.puerto(n), archivoClavePublica);
+                nuevo.setFormato(formato);
+                nuevo.setSuites(suites);
+                nuevo.setModosRegistro(modosRegistro);
+                nuevo.setLimites(sesionesPorNodo, esperaMaxima);
+                nuevo.iniciar();
+                return nuevo;
+            });
+        }
+    }
+
+    private void marcarCaido(String nodo, IOException causa) {
+        synchronized (this) {
+            if (caidos.containsKey(nodo) || !anillo.contiene(nodo)) {
+                return;
+            }
+            caidos.put(nodo, System.currentTimeMillis() + reintentoCaidos);
+            caidas.incrementAndGet();
+            rearmar();
+        }
+        Bitacora.aviso("[ClienteCluster] " + nodo + " no responde, sus servicios pasan a la réplica siguiente: " + causa);
+        PoolSesiones pool = pools.remove(nodo);
+        if (pool != null) {
+            pool.cerrar();
+        }
+    }
+
+    private void devolverCaidos() {
+        synchronized (this) {
+            long ahora = System.currentTimeMillis();
+            if (!caidos.values().removeIf(desde -> desde <= ahora)) {
+                return;
+            }
+            rearmar();
+        }
+        Bitacora.info("[ClienteCluster] Se vuelven a probar nodos caídos. " + anillo.resumen());
+    }
+
+    // Anillo efectivo: los miembros menos los caídos. Los pools de nodos que salieron del cluster se cierran
+    private synchronized void rearmar() {
+        AnilloConsistente nuevo = miembros.getAnillo();
+        caidos.keySet().retainAll(nuevo.getNodos());
+        long proximo = Long.MAX_VALUE;
+        for (Map.Entry<String, Long> caido : caidos.entrySet()) {
+            nuevo = nuevo.sin(caido.getKey());
+            proximo = Math.min(proximo, caido.getValue());
+        }
+        anillo = nuevo;
+        proximoReintento = proximo;
+        for (String nodo : pools.keySet()) {
+            if (!miembros.getAnillo().contiene(nodo)) {
+                PoolSesiones pool = pools.remove(nodo);
+                if (pool != null) {
+                    pool.cerrar();
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized void cerrar() {
+        cerrado = true;
+        miembros.detener();
+        for (PoolSesiones pool : pools.values()) {
+            pool.cerrar();
+        }
+        pools.clear();
+    }
+
+    public String resumen() {
+        StringBuilder sb = new StringBuilder("=== Cluster ===\n");
+        sb.append(anillo.resumen()).append("\n");
+        sb.append("Consultas: ").append(consultas.get()).append(", reenviadas a una réplica: ").append(reenviadas.get())
+          .append(", fallidas: ").append(fallidas.get()).append(", nodos marcados caídos: ").append(caidas.get())
+          .append(", rechazos por admisión: ").append(rechazadas.get()).append("\n");
+        sb.append("Por nodo:");
+        for (Map.Entry<String, AtomicLong> entrada : new TreeMap<>(consultasPorNodo).entrySet()) {
+            sb.append(' ').append(entrada.getKey()).append('=').append(entrada.getValue().get());
+        }
+        return sb.toString();
+    }
+}
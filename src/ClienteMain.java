@@ -1,15 +1,115 @@
 public class ClienteMain {
-    public static void main(String[] args) {
+    public static void main(String[] args) throws Exception {
         String host = "localhost";
-        int puerto = 8001;
+        int puerto = Integer.getInteger("cliente.puerto", 8001);
+        Bitacora.setNivel(Bitacora.Nivel.porNombre(System.getProperty("bitacora.nivel", "info")));
+        Bitacora.setAsincrona(Boolean.parseBoolean(System.getProperty("bitacora.asincrona", "true")));
         String archivoClavePublica = "servidor_publica.key";
+        String formato = System.getProperty("cliente.formato", "binario");
+        String suites = System.getProperty("cliente.suites", "x25519,p256,dh");
+        String modosRegistro = System.getProperty("cliente.registro", ModoRegistro.preferenciaPorDefecto());
         ClienteManager manager = new ClienteManager(host, puerto, archivoClavePublica);
+        manager.setFormato(formato);
+        manager.setSuites(suites);
+        manager.setModosRegistro(modosRegistro);
 
-        //Escenario 1: Cliente único con múltiples consultas
-        manager.ejecutarClienteUnico(32);
-
-        //Escenario 2: Múltiples clientes con múltiples consultas
-        //manager.ejecutarClientesConcurrentes(4);
-
+        switch (System.getProperty("cliente.escenario", "unico")) {
+            case "unico":
+                //Escenario 1: Cliente único con múltiples consultas
+                manager.ejecutarClienteUnico(Integer.getInteger("cliente.consultas", 32));
+                break;
+            case "concurrente":
+                //Escenario 2: Múltiples clientes con múltiples consultas
+                manager.ejecutarClientesConcurrentes(Integer.getInteger("cliente.clientes", 4));
+                break;
+            case "sesion":
+                //Escenario 3: Cliente único con múltiples consultas sobre una sola sesión
+                manager.ejecutarClienteSesion(Integer.getInteger("cliente.consultas", 32));
+                break;
+            case "asincrono":
+                //Escenario 4: una sesión con todas las consultas en vuelo a la vez (ClienteAsincrono)
+                manager.ejecutarClienteAsincrono(Integer.getInteger("cliente.consultas", 32));
+                break;
+            case "pool":
+                //Escenario 5: varios hilos compartiendo un pool de sesiones (PoolSesiones)
+                PoolSesiones pool = new PoolSesiones(host, puerto, archivoClavePublica);
+                pool.setFormato(formato);
+                pool.setSuites(suites);
+                pool.setModosRegistro(modosRegistro);
+                pool.setLimites(Integer.getInteger("pool.sesiones", 4), Long.getLong("pool.espera", 5000));
+                pool.setTiempos(Long.getLong("pool.inactividad", 60000), Long.getLong("pool.ping", 20000),
+                        Long.getLong("pool.vida", 600000));
+                manager.ejecutarClientesPool(pool, Integer.getInteger("cliente.clientes", 16),
+                        Integer.getInteger("cliente.consultas", 32));
+                break;
+            case "lote":
+                //Escenario 6: una sesión con las consultas agrupadas en lotes de cliente.lote ids
+                manager.ejecutarClienteLote(Integer.getInteger("cliente.consultas", 32), Integer.getInteger("cliente.lote", 16));
+                break;
+            case "carga":
+                // Generador de carga: ver GeneradorCarga. Ejemplo, 200 op/s durante 60 s con 64 en vuelo:
+                // -Dcliente.escenario=carga -Dcarga.modo=abierto -Dcarga.tasa=200 -Dcarga.concurrencia=64 -Dcarga.duracion=60
+                GeneradorCarga generador = new GeneradorCarga(host, puerto, archivoClavePublica);
+                generador.setFormato(formato);
+                generador.setSuites(suites);
+                generador.setModosRegistro(modosRegistro);
+                generador.setReanudacion(Boolean.parseBoolean(System.getProperty("carga.reanudacion", "true")));
+                generador.setEscenario(System.getProperty("carga.escenario", "handshake"));
+                generador.setModo(System.getProperty("carga.modo", "cerrado"),
+                        Double.parseDouble(System.getProperty("carga.tasa", "100")),
+                        Integer.getInteger("carga.concurrencia", 4));
+                generador.setTiempos(Double.parseDouble(System.getProperty("carga.duracion", "30")),
+                        Double.parseDouble(System.getProperty("carga.calentamiento", "5")),
+                        Double.parseDouble(System.getProperty("carga.rampa", "0")));
+                generador.ejecutar(System.getProperty("carga.salida"), System.getProperty("carga.formato", "csv"));
+                break;
+            case "cluster":
+                //Escenario 7: varios hilos contra un cluster, cada consulta al nodo dueño del id (ClienteCluster).
+                // cliente.cluster: archivo de nodos o lista host:puerto,... (la misma que servidor.cluster)
+                MiembrosCluster miembros = new MiembrosCluster(System.getProperty("cliente.cluster", host + ":" + puerto),
+                        Integer.getInteger("cluster.virtuales", 128));
+                miembros.vigilar(Long.getLong("cluster.recarga", 2000L));
+                ClienteCluster cluster = new ClienteCluster(miembros, archivoClavePublica);
+                cluster.setFormato(formato);
+                cluster.setSuites(suites);
+                cluster.setModosRegistro(modosRegistro);
+                cluster.setLimites(Integer.getInteger("pool.sesiones", 4), Long.getLong("pool.espera", 5000));
+                cluster.setReplicas(Integer.getInteger("cluster.replicas", 2));
+                cluster.setReintentoCaidos(Long.getLong("cluster.reintento", 5000L));
+                manager.ejecutarClientesCluster(cluster, Integer.getInteger("cliente.clientes", 16),
+                        Integer.getInteger("cliente.consultas", 32));
+                break;
+            case "cache":
+                //Escenario 8: varios hilos repitiendo unos pocos ids a través de CacheServicios, sobre un pool o,
+                // con cliente.cluster, sobre un cluster
+                FuenteServicios fuente;
+                if (System.getProperty("cliente.cluster") != null) {
+                    ClienteCluster fuenteCluster = new ClienteCluster(new MiembrosCluster(System.getProperty("cliente.cluster"),
+                            Integer.getInteger("cluster.virtuales", 128)), archivoClavePublica);
+                    fuenteCluster.setFormato(formato);
+                    fuenteCluster.setSuites(suites);
+                    fuenteCluster.setModosRegistro(modosRegistro);
+                    fuenteCluster.setLimites(Integer.getInteger("pool.sesiones", 4), Long.getLong("pool.espera", 5000));
+                    fuenteCluster.setReplicas(Integer.getInteger("cluster.replicas", 2));
+                    fuente = fuenteCluster;
+                } else {
+                    PoolSesiones fuentePool = new PoolSesiones(host, puerto, archivoClavePublica);
+                    fuentePool.setFormato(formato);
+                    fuentePool.setSuites(suites);
+                    fuentePool.setModosRegistro(modosRegistro);
+                    fuentePool.setLimites(Integer.getInteger("pool.sesiones", 4), Long.getLong("pool.espera", 5000));
+                    fuentePool.iniciar();
+                    fuente = fuentePool;
+                }
+                CacheServicios cache = new CacheServicios(fuente);
+                cache.setTiempos(Long.getLong("cache.ttl", 30000L), Long.getLong("cache.ttl.negativo", 5000L),
+                        Double.parseDouble(System.getProperty("cache.refresco", "0.75")));
+                cache.setMaximoEntradas(Integer.getInteger("cache.entradas", 10000));
+                manager.ejecutarClientesCache(cache, Integer.getInteger("cliente.clientes", 16),
+                        Integer.getInteger("cliente.consultas", 32), Integer.getInteger("cache.ids", 16));
+                break;
+            default:
+                System.err.println("Escenario desconocido: " + System.getProperty("cliente.escenario"));
+        }
     }
 }
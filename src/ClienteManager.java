@@ -1,26 +1,67 @@
+import java.io.File;
 import java.io.IOException;
 import java.security.GeneralSecurityException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class ClienteManager {
     private String host;
     private int puerto;
     private String archivoClavePublica;
+    private String formato;
+    private String suites;
+    private String modosRegistro;
 
     public ClienteManager(String host, int puerto, String archivoClavePublica) {
         this.host = host;
         this.puerto = puerto;
         this.archivoClavePublica = archivoClavePublica;
+        this.formato = "binario";
+        this.suites = "x25519,p256,dh";
+        this.modosRegistro = ModoRegistro.preferenciaPorDefecto();
+    }
+
+    public void setFormato(String formato) {
+        this.formato = formato;
+    }
+
+    // Lista separada por comas, ver SuiteCifrado.lista
+    public void setSuites(String suites) {
+        this.suites = suites;
+    }
+
+    // Lista separada por comas, ver ModoRegistro.lista
+    public void setModosRegistro(String modosRegistro) {
+        this.modosRegistro = modosRegistro;
+    }
+
+    // Las claves Ed25519 y ECDSA del servidor se buscan en la misma carpeta que la clave RSA
+    static String directorioClaves(String archivoClavePublica) {
+        File padre = new File(archivoClavePublica).getAbsoluteFile().getParentFile();
+        return padre != null ? padre.getPath() : ".";
     }
 
     public void ejecutarClienteUnico(int numConsultas){
         try {
             Cliente cliente = new Cliente(host, puerto);
+            cliente.setFormato(formato);
+            cliente.setSuites(SuiteCifrado.lista(suites));
+            cliente.setModosRegistro(ModoRegistro.lista(modosRegistro));
             cliente.cargarClavePublica(archivoClavePublica);
+            cliente.cargarClavesSuites(directorioClaves(archivoClavePublica));
 
             long tiempoTotalSimetrico = 0;
             long tiempoTotalAsimetrico = 0;
+            long tiempoTotalHandshake = 0;
+            long bytesTotales = 0;
+            long tiempoTotalReanudados = 0;
+            int reanudados = 0;
+            long inicio = System.nanoTime();
 
             for (int i=0; i< numConsultas; i++){
                 System.out.println("\n--- Consulta "+(i+1)+" de "+numConsultas+" ---");
@@ -28,9 +69,29 @@ public class ClienteManager {
 
                 tiempoTotalSimetrico += cliente.getTiempoCifradoSimetrico();
                 tiempoTotalAsimetrico += cliente.getTiempoCifradoAsimetrico();               ;
+                tiempoTotalHandshake += cliente.getTiempoHandshake();
+                bytesTotales += cliente.getBytesSesion();
+                if (cliente.isSesionReanudada()) {
+                    reanudados++;
+                    tiempoTotalReanudados += cliente.getTiempoHandshake();
+                }
             }
 
             StringBuilder estadisticas = mostrarEstadisticas(tiempoTotalSimetrico, tiempoTotalAsimetrico, numConsultas);
+            estadisticas.append("\nFormato: ").append(formato).append(", suites: ").append(suites).append(", registro: ").append(modosRegistro);
+            estadisticas.append("\nTiempo promedio de handshake: ").append(tiempoTotalHandshake / numConsultas).append(" ns");
+            int completos = numConsultas - reanudados;
+            estadisticas.append("\nHandshakes completos: ").append(completos);
+            if (completos > 0) {
+                estadisticas.append(" (promedio ").append((tiempoTotalHandshake - tiempoTotalReanudados) / completos).append(" ns)");
+            }
+            estadisticas.append(", reanudados: ").append(reanudados);
+            if (reanudados > 0) {
+                estadisticas.append(" (promedio ").append(tiempoTotalReanudados / reanudados).append(" ns)");
+            }
+            estadisticas.append("\nBytes promedio por sesión: ").append(bytesTotales / numConsultas);
+            estadisticas.append("\nThroughput (una consulta por sesión): ")
+                .append(String.format("%.2f", numConsultas / ((System.nanoTime() - inicio) / 1_000_000_000.0))).append(" consultas/s");
             System.out.println(estadisticas.toString());
 
         } catch (Exception e) {
@@ -42,8 +103,301 @@ public class ClienteManager {
             } else {
                 errorType = "Error inesperado";
             }
-            System.err.println("Error en ejecución de cliente único: "+ errorType + " - " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error en ejecución de cliente único: "+ errorType + " - " + e.getMessage(), e);
+        }
+    }
+
+    // Un solo handshake y todas las consultas sobre la misma sesión
+    public void ejecutarClienteSesion(int numConsultas) {
+        Cliente cliente = new Cliente(host, puerto);
+        try {
+            cliente.setFormato(formato);
+            cliente.setSuites(SuiteCifrado.lista(suites));
+            cliente.setModosRegistro(ModoRegistro.lista(modosRegistro));
+            cliente.cargarClavePublica(archivoClavePublica);
+            cliente.cargarClavesSuites(directorioClaves(archivoClavePublica));
+
+            long inicio = System.nanoTime();
+            cliente.abrirSesion();
+            List<String> idsServicios = new ArrayList<>(cliente.getServicios().keySet());
+            Random random = new Random();
+
+            long tiempoTotalSimetrico = 0;
+            for (int i = 0; i < numConsultas; i++) {
+                String idServicio = idsServicios.get(random.nextInt(idsServicios.size()));
+                InfoServicio info = cliente.consultar(idServicio);
+                tiempoTotalSimetrico += cliente.getTiempoCifradoSimetrico();
+                // Escribir en consola dentro de la ventana medida pesaría más que la consulta misma
+                if (Bitacora.depuracion()) {
+                    Bitacora.depuracion("Consulta " + (i + 1) + " de " + numConsultas + ": " + info);
+                }
+            }
+            cliente.cerrarSesion();
+            long duracion = System.nanoTime() - inicio;
+
+            StringBuilder estadisticas = new StringBuilder("\n=== Estadísticas de Sesión ===\n");
+            estadisticas.append("Formato: ").append(formato).append(", suites: ").append(suites).append(", registro: ").append(modosRegistro).append("\n");
+            estadisticas.append("Consultas: ").append(numConsultas).append("\n");
+            estadisticas.append("Tiempo de handshake: ").append(cliente.getTiempoHandshake()).append(" ns\n");
+            estadisticas.append("Tiempo promedio de descifrado de respuesta: ").append(tiempoTotalSimetrico / numConsultas).append(" ns\n");
+            estadisticas.append("Bytes de la sesión: ").append(cliente.getBytesSesion()).append("\n");
+            estadisticas.append("Throughput (sesión persistente): ")
+                .append(String.format("%.2f", numConsultas / (duracion / 1_000_000_000.0))).append(" consultas/s");
+            System.out.println(estadisticas.toString());
+
+        } catch (Exception e) {
+            cliente.cerrarSesion();
+            Bitacora.error("Error en ejecución de cliente con sesión: " + e.getMessage(), e);
+        }
+    }
+
+    // Una sola sesión con las consultas agrupadas en lotes (MensajeSesion.LOTE): un cifrado y un HMAC por lote
+    public void ejecutarClienteLote(int numConsultas, int tamanoLote) {
+        Cliente cliente = new Cliente(host, puerto);
+        try {
+            cliente.setFormato(formato);
+            cliente.setSuites(SuiteCifrado.lista(suites));
+            cliente.setModosRegistro(ModoRegistro.lista(modosRegistro));
+            cliente.cargarClavePublica(archivoClavePublica);
+            cliente.cargarClavesSuites(directorioClaves(archivoClavePublica));
+
+            long inicio = System.nanoTime();
+            cliente.abrirSesion();
+            List<String> idsServicios = new ArrayList<>(cliente.getServicios().keySet());
+            Random random = new Random();
+
+            int lotes = 0;
+            int noEncontrados = 0;
+            for (int enviadas = 0; enviadas < numConsultas; enviadas += tamanoLote) {
+                List<String> lote = new ArrayList<>(tamanoLote);
+                for (int i = enviadas; i < Math.min(numConsultas, enviadas + tamanoLote); i++) {
+                    lote.add(idsServicios.get(random.nextInt(idsServicios.size())));
+                }
+                List<InfoServicio> resultados = cliente.consultarLote(lote);
+                lotes++;
+                for (int i = 0; i < resultados.size(); i++) {
+                    InfoServicio info = resultados.get(i);
+                    if ("-1".equals(info.getPuerto())) {
+                        noEncontrados++;
+                    }
+                    if (Bitacora.depuracion()) {
+                        Bitacora.depuracion("Consulta " + (enviadas + i + 1) + " de " + numConsultas + ": " + info);
+                    }
+                }
+            }
+            cliente.cerrarSesion();
+            long duracion = System.nanoTime() - inicio;
+
+            StringBuilder estadisticas = new StringBuilder("\n=== Estadísticas de Sesión por Lotes ===\n");
+            estadisticas.append("Formato: ").append(formato).append(", suites: ").append(suites).append(", registro: ").append(modosRegistro).append("\n");
+            estadisticas.append("Consultas: ").append(numConsultas).append(" en ").append(lotes).append(" lotes de hasta ")
+                .append(tamanoLote).append(" (no encontradas: ").append(noEncontrados).append(")\n");
+            estadisticas.append("Tiempo de handshake: ").append(cliente.getTiempoHandshake()).append(" ns\n");
+            estadisticas.append("Bytes de la sesión: ").append(cliente.getBytesSesion()).append("\n");
+            estadisticas.append("Throughput (lotes): ")
+                .append(String.format("%.2f", numConsultas / (duracion / 1_000_000_000.0))).append(" consultas/s");
+            System.out.println(estadisticas.toString());
+
+        } catch (Exception e) {
+            cliente.cerrarSesion();
+            Bitacora.error("Error en ejecución de cliente por lotes: " + e.getMessage(), e);
+        }
+    }
+
+    // Todas las consultas se envían de una vez sobre una sola sesión, sin esperar cada respuesta
+    public void ejecutarClienteAsincrono(int numConsultas) {
+        Cliente cliente = new Cliente(host, puerto);
+        try {
+            cliente.setFormato(formato);
+            cliente.setSuites(SuiteCifrado.lista(suites));
+            cliente.setModosRegistro(ModoRegistro.lista(modosRegistro));
+            cliente.cargarClavePublica(archivoClavePublica);
+            cliente.cargarClavesSuites(directorioClaves(archivoClavePublica));
+
+            long inicio = System.nanoTime();
+            ClienteAsincrono sesion = ClienteAsincrono.conectar(cliente).join();
+            List<String> idsServicios = new ArrayList<>(sesion.getServicios().keySet());
+            Random random = new Random();
+
+            List<CompletableFuture<InfoServicio>> respuestas = new ArrayList<>(numConsultas);
+            for (int i = 0; i < numConsultas; i++) {
+                respuestas.add(sesion.consultar(idsServicios.get(random.nextInt(idsServicios.size()))));
+            }
+            int maximoEnVuelo = sesion.getConsultasEnVuelo();
+            for (int i = 0; i < numConsultas; i++) {
+                InfoServicio info = respuestas.get(i).join();
+                if (Bitacora.depuracion()) {
+                    Bitacora.depuracion("Consulta " + (i + 1) + " de " + numConsultas + ": " + info);
+                }
+            }
+            sesion.cerrar().join();
+            long duracion = System.nanoTime() - inicio;
+
+            StringBuilder estadisticas = new StringBuilder("\n=== Estadísticas de Sesión Asíncrona ===\n");
+            estadisticas.append("Formato: ").append(formato).append(", suites: ").append(suites).append(", registro: ").append(modosRegistro).append("\n");
+            estadisticas.append("Consultas: ").append(numConsultas).append(" (en vuelo tras enviarlas: ").append(maximoEnVuelo).append(")\n");
+            estadisticas.append("Tiempo de handshake: ").append(cliente.getTiempoHandshake()).append(" ns\n");
+            estadisticas.append("Bytes de la sesión: ").append(cliente.getBytesSesion()).append("\n");
+            estadisticas.append("Throughput (consultas encadenadas): ")
+                .append(String.format("%.2f", numConsultas / (duracion / 1_000_000_000.0))).append(" consultas/s");
+            System.out.println(estadisticas.toString());
+
+        } catch (Exception e) {
+            cliente.cerrarSesion();
+            Bitacora.error("Error en ejecución de cliente asíncrono: " + e.getMessage(), e);
+        }
+    }
+
+    // Varios hilos de la aplicación consultando a través del mismo pool de sesiones
+    public void ejecutarClientesPool(PoolSesiones pool, int numHilos, int consultasPorHilo) {
+        try {
+            pool.iniciar();
+            Map<String, String> servicios;
+            PoolSesiones.Sesion primera = pool.prestar();
+            servicios = primera.getCliente().getServicios();
+            pool.devolver(primera);
+            List<String> idsServicios = new ArrayList<>(servicios.keySet());
+
+            AtomicLong errores = new AtomicLong();
+            List<Thread> hilos = new ArrayList<>(numHilos);
+            long inicio = System.nanoTime();
+            for (int i = 0; i < numHilos; i++) {
+                Thread hilo = new Thread(() -> {
+                    Random random = new Random();
+                    for (int j = 0; j < consultasPorHilo; j++) {
+                        try {
+                            pool.consultar(idsServicios.get(random.nextInt(idsServicios.size())));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            errores.incrementAndGet();
+                            Bitacora.error("Error en consulta del pool: " + e);
+                        }
+                    }
+                }, "hilo-pool-" + i);
+                hilos.add(hilo);
+                hilo.start();
+            }
+            for (Thread hilo : hilos) {
+                hilo.join();
+            }
+            long duracion = System.nanoTime() - inicio;
+            long consultas = (long) numHilos * consultasPorHilo;
+
+            StringBuilder estadisticas = new StringBuilder("\n=== Estadísticas de Pool ===\n");
+            estadisticas.append("Formato: ").append(formato).append(", suites: ").append(suites).append(", registro: ").append(modosRegistro).append("\n");
+            estadisticas.append("Hilos: ").append(numHilos).append(", consultas: ").append(consultas)
+                .append(", errores: ").append(errores.get()).append("\n");
+            estadisticas.append("Throughput (pool): ")
+                .append(String.format("%.2f", consultas / (duracion / 1_000_000_000.0))).append(" consultas/s\n");
+            estadisticas.append(pool.resumen());
+            System.out.println(estadisticas.toString());
+        } catch (Exception e) {
+            Bitacora.error("Error en ejecución con pool de sesiones: " + e.getMessage(), e);
+        } finally {
+            pool.cerrar();
+        }
+    }
+
+    // Igual que ejecutarClientesPool pero contra un cluster: cada consulta va al nodo dueño del id
+    public void ejecutarClientesCluster(ClienteCluster cluster, int numHilos, int consultasPorHilo) {
+        try {
+            List<String> idsServicios = new ArrayList<>(cluster.servicios().keySet());
+            if (idsServicios.isEmpty()) {
+                Bitacora.error("Ningún nodo del cluster listó servicios");
+                return;
+            }
+
+            AtomicLong errores = new AtomicLong();
+            List<Thread> hilos = new ArrayList<>(numHilos);
+            long inicio = System.nanoTime();
+            for (int i = 0; i < numHilos; i++) {
+                Thread hilo = new Thread(() -> {
+                    Random random = new Random();
+                    for (int j = 0; j < consultasPorHilo; j++) {
+                        try {
+                            cluster.consultar(idsServicios.get(random.nextInt(idsServicios.size())));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            errores.incrementAndGet();
+                            Bitacora.error("Error en consulta al cluster: " + e);
+                        }
+                    }
+                }, "hilo-cluster-" + i);
+                hilos.add(hilo);
+                hilo.start();
+            }
+            for (Thread hilo : hilos) {
+                hilo.join();
+            }
+            long duracion = System.nanoTime() - inicio;
+            long consultas = (long) numHilos * consultasPorHilo;
+
+            StringBuilder estadisticas = new StringBuilder("\n=== Estadísticas de Cluster ===\n");
+            estadisticas.append("Formato: ").append(formato).append(", suites: ").append(suites).append(", registro: ").append(modosRegistro).append("\n");
+            estadisticas.append("Servicios: ").append(idsServicios.size()).append(", hilos: ").append(numHilos)
+                .append(", consultas: ").append(consultas).append(", errores: ").append(errores.get()).append("\n");
+            estadisticas.append("Throughput (cluster): ")
+                .append(String.format("%.2f", consultas / (duracion / 1_000_000_000.0))).append(" consultas/s\n");
+            estadisticas.append(cluster.resumen());
+            System.out.println(estadisticas.toString());
+        } catch (Exception e) {
+            Bitacora.error("Error en ejecución contra el cluster: " + e.getMessage(), e);
+        } finally {
+            cluster.cerrar();
+        }
+    }
+
+    // Pocos ids repetidos muchas veces, más uno inexistente de vez en cuando (lo que guarda la caché negativa)
+    public void ejecutarClientesCache(CacheServicios cache, int numHilos, int consultasPorHilo, int idsDistintos) {
+        try {
+            List<String> idsServicios = new ArrayList<>(cache.servicios().keySet());
+            Collections.shuffle(idsServicios);
+            List<String> frecuentes = new ArrayList<>(idsServicios.subList(0, Math.min(idsDistintos, idsServicios.size())));
+            frecuentes.add("NO-REGISTRADO");
+
+            AtomicLong errores = new AtomicLong();
+            List<Thread> hilos = new ArrayList<>(numHilos);
+            long inicio = System.nanoTime();
+            for (int i = 0; i < numHilos; i++) {
+                Thread hilo = new Thread(() -> {
+                    Random random = new Random();
+                    for (int j = 0; j < consultasPorHilo; j++) {
+                        try {
+                            cache.consultar(frecuentes.get(random.nextInt(frecuentes.size())));
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        } catch (Exception e) {
+                            errores.incrementAndGet();
+                            Bitacora.error("Error en consulta con caché: " + e);
+                        }
+                    }
+                }, "hilo-cache-" + i);
+                hilos.add(hilo);
+                hilo.start();
+            }
+            for (Thread hilo : hilos) {
+                hilo.join();
+            }
+            long duracion = System.nanoTime() - inicio;
+            long consultas = (long) numHilos * consultasPorHilo;
+
+            StringBuilder estadisticas = new StringBuilder("\n=== Estadísticas de Caché ===\n");
+            estadisticas.append("Formato: ").append(formato).append(", suites: ").append(suites).append(", registro: ").append(modosRegistro).append("\n");
+            estadisticas.append("Ids distintos: ").append(frecuentes.size()).append(", hilos: ").append(numHilos)
+                .append(", consultas: ").append(consultas).append(", errores: ").append(errores.get()).append("\n");
+            estadisticas.append("Throughput (caché): ")
+                .append(String.format("%.2f", consultas / (duracion / 1_000_000_000.0))).append(" consultas/s\n");
+            estadisticas.append(cache.resumen());
+            System.out.println(estadisticas.toString());
+        } catch (Exception e) {
+            Bitacora.error("Error en ejecución con caché: " + e.getMessage(), e);
+        } finally {
+            cache.cerrar();
         }
     }
 
@@ -52,6 +406,7 @@ public class ClienteManager {
             System.out.println("Iniciando " + numClientes + " clientes concurrentes...");
 
             List<ClienteThread> clienteThreads = new ArrayList<>(numClientes);
+            long inicio = System.nanoTime();
 
             for (int i = 0; i < numClientes; i++) {
                 ClienteThread clienteThread = crearThreadCliente(i+1);
@@ -62,6 +417,7 @@ public class ClienteManager {
             for (ClienteThread clienteThread : clienteThreads) {
                 clienteThread.join();
             }
+            long duracion = System.nanoTime() - inicio;
 
             long tiempoTotalSimetrico = 0;
             long tiempoTotalAsimetrico = 0;
@@ -81,6 +437,9 @@ public class ClienteManager {
 
             if (clientesExitosos > 0) {
                 estadisticas.append("\nClientes exitosos: ").append(clientesExitosos).append("/").append(numClientes);
+                estadisticas.append("\nTiempo total: ").append(duracion / 1_000_000).append(" ms");
+                estadisticas.append("\nThroughput: ")
+                    .append(String.format("%.2f", clientesExitosos / (duracion / 1_000_000_000.0))).append(" clientes/s");
             } else{
                 estadisticas.append("\nNo se realizaron consultas exitosas.");
             }
@@ -88,8 +447,7 @@ public class ClienteManager {
             System.out.println(estadisticas.toString());
 
         } catch (Exception e){
-            System.out.println("Error inesperado en ejecución de clientes concurrentes: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error inesperado en ejecución de clientes concurrentes: " + e.getMessage(), e);
         }
     }
 
@@ -107,7 +465,7 @@ public class ClienteManager {
     }
 
     private ClienteThread crearThreadCliente(int id) {
-        return new ClienteThread(id, host, puerto, archivoClavePublica);
+        return new ClienteThread(id, host, puerto, archivoClavePublica, formato, suites, modosRegistro);
     }
 
 }
@@ -7,28 +7,39 @@ public class ClienteThread extends Thread {
     private String host;
     private int puerto;
     private String archivoClavePublica;
+    private String formato;
+    private String suites;
+    private String modosRegistro;
     
-    public ClienteThread(int id, String host, int puerto, String archivoClavePublica) {
+    public ClienteThread(int id, String host, int puerto, String archivoClavePublica, String formato, String suites,
+                         String modosRegistro) {
         this.id = id;
         this.host = host;
         this.puerto = puerto;
         this.archivoClavePublica = archivoClavePublica;
+        this.formato = formato;
+        this.suites = suites;
+        this.modosRegistro = modosRegistro;
     }
 
 
     public void run() {
         try{
             
-            System.out.println("Cliente "+id+" iniciado conexión.");
+            Bitacora.depuracion(() -> "Cliente "+id+" iniciado conexión.");
 
             cliente =  new Cliente(host, puerto);
+            cliente.setFormato(formato);
 
+            cliente.setSuites(SuiteCifrado.lista(suites));
+            cliente.setModosRegistro(ModoRegistro.lista(modosRegistro));
             cliente.cargarClavePublica(archivoClavePublica);
+            cliente.cargarClavesSuites(ClienteManager.directorioClaves(archivoClavePublica));
             
             //conecta con el servidor
             cliente.conectar();
 
-            System.out.println("Cliente "+id+" finalizado correctamente.");
+            Bitacora.depuracion(() -> "Cliente "+id+" finalizado correctamente.");
             
         } catch (Exception e) {
             String errorType;
@@ -39,8 +50,7 @@ public class ClienteThread extends Thread {
             } else {
                 errorType = "Error inesperado";
             }
-            System.err.println("Error en Cliente " + id + ": " + errorType + " - " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error en Cliente " + id + ": " + errorType + " - " + e.getMessage(), e);
         }
     }
 
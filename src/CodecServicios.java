@@ -0,0 +1,138 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Codificación binaria escrita a mano de la tabla de servicios y de InfoServicio,
+// usada en lugar de la serialización Java cuando el canal es binario.
+// Cadenas: [longitud: varint][UTF-8]. Tabla: [entradas: varint]([id][nombre])*
+// Lote (cuerpo de MensajeSesion.LOTE): [ids: varint]([id])*. Su respuesta: [resultados: varint]([InfoServicio])*,
+// en el orden de los ids; un id desconocido lleva la misma marca "Servicio no encontrado" que una consulta suelta.
+public class CodecServicios {
+
+    private CodecServicios() {
+    }
+
+    public static byte[] codificarTabla(Map<String, String> tabla) {
+        byte[][] cadenas = new byte[tabla.size() * 2][];
+        int tamano = CodecTramas.tamanoVarint(tabla.size());
+        int i = 0;
+        for (Map.Entry<String, String> entrada : tabla.entrySet()) {
+            cadenas[i] = entrada.getKey().getBytes(StandardCharsets.UTF_8);
+            cadenas[i + 1] = entrada.getValue().getBytes(StandardCharsets.UTF_8);
+            tamano += tamanoCadena(cadenas[i]) + tamanoCadena(cadenas[i + 1]);
+            i += 2;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(tamano);
+        CodecTramas.escribirVarint(buffer, tabla.size());
+        for (byte[] cadena : cadenas) {
+            escribirCadena(buffer, cadena);
+        }
+        return buffer.array();
+    }
+
+    public static Map<String, String> decodificarTabla(byte[] datos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(datos);
+        int entradas = leerLongitud(buffer);
+        Map<String, String> tabla = new HashMap<>(entradas * 2);
+        for (int i = 0; i < entradas; i++) {
+            String id = leerCadena(buffer);
+            String nombre = leerCadena(buffer);
+            tabla.put(id, nombre);
+        }
+        return tabla;
+    }
+
+    public static byte[] codificarInfoServicio(InfoServicio info) {
+        byte[] servicio = info.getServicio().getBytes(StandardCharsets.UTF_8);
+        byte[] ip = info.getIp().getBytes(StandardCharsets.UTF_8);
+        byte[] puerto = info.getPuerto().getBytes(StandardCharsets.UTF_8);
+
+        ByteBuffer buffer = ByteBuffer.allocate(tamanoCadena(servicio) + tamanoCadena(ip) + tamanoCadena(puerto));
+        escribirCadena(buffer, servicio);
+        escribirCadena(buffer, ip);
+        escribirCadena(buffer, puerto);
+        return buffer.array();
+    }
+
+    public static InfoServicio decodificarInfoServicio(byte[] datos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(datos);
+        String servicio = leerCadena(buffer);
+        String ip = leerCadena(buffer);
+        String puerto = leerCadena(buffer);
+        return new InfoServicio(servicio, ip, puerto);
+    }
+
+    public static byte[] codificarLote(List<String> ids) {
+        byte[][] cadenas = new byte[ids.size()][];
+        int tamano = CodecTramas.tamanoVarint(ids.size());
+        for (int i = 0; i < cadenas.length; i++) {
+            cadenas[i] = ids.get(i).getBytes(StandardCharsets.UTF_8);
+            tamano += tamanoCadena(cadenas[i]);
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(tamano);
+        CodecTramas.escribirVarint(buffer, cadenas.length);
+        for (byte[] cadena : cadenas) {
+            escribirCadena(buffer, cadena);
+        }
+        return buffer.array();
+    }
+
+    // Cada resultado ya codificado con codificarInfoServicio, que se delimita solo: basta concatenarlos
+    public static byte[] codificarResultadosLote(byte[][] resultados) {
+        int tamano = CodecTramas.tamanoVarint(resultados.length);
+        for (byte[] resultado : resultados) {
+            tamano += resultado.length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(tamano);
+        CodecTramas.escribirVarint(buffer, resultados.length);
+        for (byte[] resultado : resultados) {
+            buffer.put(resultado);
+        }
+        return buffer.array();
+    }
+
+    public static List<InfoServicio> decodificarResultadosLote(byte[] datos) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(datos);
+        int resultados = leerLongitud(buffer);
+        // Cada resultado ocupa al menos 3 bytes: no reservar más de lo que los datos pueden traer
+        List<InfoServicio> lista = new ArrayList<>(Math.min(resultados, datos.length / 3));
+        for (int i = 0; i < resultados; i++) {
+            lista.add(new InfoServicio(leerCadena(buffer), leerCadena(buffer), leerCadena(buffer)));
+        }
+        return lista;
+    }
+
+    private static int tamanoCadena(byte[] cadena) {
+        return CodecTramas.tamanoVarint(cadena.length) + cadena.length;
+    }
+
+    private static void escribirCadena(ByteBuffer buffer, byte[] cadena) {
+        CodecTramas.escribirVarint(buffer, cadena.length);
+        buffer.put(cadena);
+    }
+
+    private static String leerCadena(ByteBuffer buffer) throws IOException {
+        int longitud = leerLongitud(buffer);
+        if (longitud > buffer.remaining()) {
+            throw new IOException("Cadena truncada en datos de servicios");
+        }
+        String cadena = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), longitud, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + longitud);
+        return cadena;
+    }
+
+    private static int leerLongitud(ByteBuffer buffer) throws IOException {
+        int longitud = CodecTramas.leerVarint(buffer);
+        if (longitud < 0) {
+            throw new IOException("Datos de servicios truncados");
+        }
+        return longitud;
+    }
+}
@@ -0,0 +1,184 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+
+// Formato binario del protocolo.
+// Al abrir la conexión cada extremo envía un prefacio: [0xC3 'P'][versión: 1 byte]
+// Después cada mensaje es una trama: [tipo: 1 byte][longitud: varint][datos]
+public class CodecTramas {
+    public static final byte TIPO_BYTES = 1;
+    public static final byte TIPO_ENTERO = 2;
+    public static final byte TIPO_BIGINTEGER = 3;
+
+    public static final byte[] MAGIA = {(byte) 0xC3, (byte) 'P'};
+    public static final byte VERSION = 1;
+    public static final int TAMANO_PREFACIO = MAGIA.length + 1;
+
+    public static final int TAMANO_MAXIMO = 1 << 20;
+    // Un valor público DH de hasta 8192 bits más el byte de signo; el protocolo usa grupos de 1024
+    public static final int TAMANO_MAXIMO_BIGINTEGER = 8192 / 8 + 1;
+    // Tipo + varint de hasta 5 bytes
+    public static final int TAMANO_MAXIMO_CABECERA = 6;
+
+    private CodecTramas() {
+    }
+
+    public static byte[] prefacio() {
+        return new byte[]{MAGIA[0], MAGIA[1], VERSION};
+    }
+
+    public static boolean esMagia(int b0, int b1) {
+        return (byte) b0 == MAGIA[0] && (byte) b1 == MAGIA[1];
+    }
+
+    public static void validarPrefacio(byte[] prefacio) throws IOException {
+        if (!esMagia(prefacio[0], prefacio[1])) {
+            throw new IOException("Prefacio de protocolo binario inválido");
+        }
+        if (prefacio[2] != VERSION) {
+            throw new IOException("Versión de protocolo no soportada: " + prefacio[2]);
+        }
+    }
+
+    public static byte tipoDe(Object mensaje) {
+        if (mensaje instanceof byte[]) {
+            return TIPO_BYTES;
+        } else if (mensaje instanceof Integer) {
+            return TIPO_ENTERO;
+        } else if (mensaje instanceof BigInteger) {
+            return TIPO_BIGINTEGER;
+        }
+        throw new IllegalArgumentException("Tipo de mensaje no soportado: " + mensaje.getClass().getName());
+    }
+
+    public static byte[] datosDe(Object mensaje) {
+        if (mensaje instanceof byte[]) {
+            return (byte[]) mensaje;
+        } else if (mensaje instanceof Integer) {
+            return ByteBuffer.allocate(4).putInt((Integer) mensaje).array();
+        } else if (mensaje instanceof BigInteger) {
+            return ((BigInteger) mensaje).toByteArray();
+        }
+        throw new IllegalArgumentException("Tipo de mensaje no soportado: " + mensaje.getClass().getName());
+    }
+
+    public static Object decodificar(byte tipo, byte[] datos) throws IOException {
+        switch (tipo) {
+            case TIPO_BYTES:
+                return datos;
+            case TIPO_ENTERO:
+                if (datos.length != 4) {
+                    throw new IOException("Trama de entero con longitud inválida: " + datos.length);
+                }
+                return ByteBuffer.wrap(datos).getInt();
+            case TIPO_BIGINTEGER:
+                if (datos.length == 0 || datos.length > TAMANO_MAXIMO_BIGINTEGER) {
+                    throw new IOException("Trama de BigInteger con longitud inválida: " + datos.length);
+                }
+                return new BigInteger(datos);
+            default:
+                throw new IOException("Tipo de trama desconocido: " + tipo);
+        }
+    }
+
+    public static ByteBuffer codificar(Object mensaje) {
+        byte[] datos = datosDe(mensaje);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + tamanoVarint(datos.length) + datos.length);
+        buffer.put(tipoDe(mensaje));
+        escribirVarint(buffer, datos.length);
+        buffer.put(datos);
+        buffer.flip();
+        return buffer;
+    }
+
+    public static void escribir(DataOutputStream salida, Object mensaje) throws IOException {
+        byte[] datos = datosDe(mensaje);
+        salida.writeByte(tipoDe(mensaje));
+        int valor = datos.length;
+        while ((valor & ~0x7F) != 0) {
+            salida.writeByte((valor & 0x7F) | 0x80);
+            valor >>>= 7;
+        }
+        salida.writeByte(valor);
+        salida.write(datos);
+    }
+
+    public static Object leer(DataInputStream entrada) throws IOException {
+        byte tipo = entrada.readByte();
+        int longitud = 0;
+        for (int desplazamiento = 0; ; desplazamiento += 7) {
+            if (desplazamiento > 28) {
+                throw new IOException("Varint demasiado largo");
+            }
+            int b = entrada.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            if (desplazamiento == 28 && (b & 0xF0) != 0) {
+                throw new IOException("Varint fuera de rango");
+            }
+            longitud |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                break;
+            }
+        }
+        validarLongitud(longitud);
+        byte[] datos = new byte[longitud];
+        entrada.readFully(datos);
+        return decodificar(tipo, datos);
+    }
+
+    public static int tamanoVarint(int valor) {
+        int tamano = 1;
+        while ((valor & ~0x7F) != 0) {
+            valor >>>= 7;
+            tamano++;
+        }
+        return tamano;
+    }
+
+    public static void escribirVarint(ByteBuffer buffer, int valor) {
+        while ((valor & ~0x7F) != 0) {
+            buffer.put((byte) ((valor & 0x7F) | 0x80));
+            valor >>>= 7;
+        }
+        buffer.put((byte) valor);
+    }
+
+    // Lee un varint desde la posición actual; si todavía no llegaron todos sus bytes
+    // devuelve -1 y deja la posición del buffer sin cambios. Un valor que no entra en un int
+    // positivo es un error, nunca un -1
+    public static int leerVarint(ByteBuffer buffer) throws IOException {
+        int inicio = buffer.position();
+        int valor = 0;
+        for (int desplazamiento = 0; ; desplazamiento += 7) {
+            if (desplazamiento > 28) {
+                throw new IOException("Varint demasiado largo");
+            }
+            if (!buffer.hasRemaining()) {
+                buffer.position(inicio);
+                return -1;
+            }
+            int b = buffer.get() & 0xFF;
+            if (desplazamiento == 28 && (b & 0xF0) != 0) {
+                throw new IOException("Varint fuera de rango");
+            }
+            valor |= (b & 0x7F) << desplazamiento;
+            if ((b & 0x80) == 0) {
+                if (valor < 0) {
+                    throw new IOException("Varint negativo: " + valor);
+                }
+                return valor;
+            }
+        }
+    }
+
+    public static void validarLongitud(int longitud) throws IOException {
+        if (longitud < 0 || longitud > TAMANO_MAXIMO) {
+            throw new IOException("Longitud de trama inválida: " + longitud);
+        }
+    }
+}
@@ -0,0 +1,180 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+// Compila el registro de servicios a un catálogo mapeable (CatalogoMapeado).
+// Uso: java CompiladorCatalogo entrada.csv|entrada.json salida.cat
+//   CSV:  el mismo formato que TablaServicios.cargar (id,nombre,ip,puerto)
+//   JSON: [{"id": "S1", "servicio": "Consulta", "ip": "10.0.0.1", "puerto": 8080}, ...]
+// Los primeros servicios del archivo son los que el servidor lista en el handshake.
+// La salida se reemplaza de forma atómica, así que se puede recompilar sobre el archivo que vigila un servidor.
+public class CompiladorCatalogo {
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Uso: java CompiladorCatalogo entrada.csv|entrada.json salida.cat");
+            System.exit(2);
+        }
+        Path entrada = Paths.get(args[0]);
+        Path salida = Paths.get(args[1]);
+
+        long inicio = System.nanoTime();
+        Map<String, InfoServicio> servicios = new LinkedHashMap<>();
+        try {
+            if (entrada.getFileName().toString().toLowerCase().endsWith(".json")) {
+                new LectorJSON(entrada, new String(Files.readAllBytes(entrada), StandardCharsets.UTF_8)).leer(servicios);
+            } else {
+                TablaServicios.leerCSV(entrada, servicios);
+            }
+            CatalogoMapeado.escribir(servicios, salida);
+        } catch (IOException e) {
+            System.err.println("Error compilando el catálogo: " + e.getMessage());
+            System.exit(1);
+        }
+        long ms = (System.nanoTime() - inicio) / 1_000_000;
+        System.out.println("Catálogo " + salida + ": " + servicios.size() + " servicios, "
+                + Files.size(salida) + " bytes, " + ms + " ms");
+    }
+
+    // Lo justo de JSON para un arreglo de objetos planos con valores cadena o número
+    private static class LectorJSON {
+        private final Path ruta;
+        private final String texto;
+        private int posicion;
+
+        private LectorJSON(Path ruta, String texto) {
+            this.ruta = ruta;
+            this.texto = texto;
+        }
+
+        private void leer(Map<String, InfoServicio> servicios) throws IOException {
+            esperar('[');
+            if (!consumir(']')) {
+                do {
+                    leerServicio(servicios);
+                } while (consumir(','));
+                esperar(']');
+            }
+            saltarEspacios();
+            if (posicion < texto.length()) {
+                throw error("contenido después del arreglo");
+            }
+        }
+
+        private void leerServicio(Map<String, InfoServicio> servicios) throws IOException {
+            int inicio = posicion;
+            Map<String, String> campos = new LinkedHashMap<>();
+            esperar('{');
+            if (!consumir('}')) {
+                do {
+                    String clave = leerCadena();
+                    esperar(':');
+                    campos.put(clave, leerValor());
+                } while (consumir(','));
+                esperar('}');
+            }
+            String id = campos.get("id");
+            if (id == null || id.isEmpty() || !campos.containsKey("servicio")
+                    || !campos.containsKey("ip") || !campos.containsKey("puerto")) {
+                posicion = inicio;
+                throw error("se esperaba un objeto con id, servicio, ip y puerto");
+            }
+            servicios.put(id, new InfoServicio(campos.get("servicio"), campos.get("ip"), campos.get("puerto")));
+        }
+
+        private String leerValor() throws IOException {
+            saltarEspacios();
+            if (posicion < texto.length() && texto.charAt(posicion) == '"') {
+                return leerCadena();
+            }
+            int inicio = posicion;
+            while (posicion < texto.length() && "+-.0123456789eE".indexOf(texto.charAt(posicion)) >= 0) {
+                posicion++;
+            }
+            if (posicion == inicio) {
+                throw error("se esperaba una cadena o un número");
+            }
+            return texto.substring(inicio, posicion);
+        }
+
+        private String leerCadena() throws IOException {
+            esperar('"');
+            StringBuilder cadena = new StringBuilder();
+            while (true) {
+                if (posicion >= texto.length()) {
+                    throw error("cadena sin cerrar");
+                }
+                char c = texto.charAt(posicion++);
+                if (c == '"') {
+                    return cadena.toString();
+                }
+                if (c != '\\') {
+                    cadena.append(c);
+                    continue;
+                }
+                if (posicion >= texto.length()) {
+                    throw error("cadena sin cerrar");
+                }
+                char escape = texto.charAt(posicion++);
+                switch (escape) {
+                    case 'b': cadena.append('\b'); break;
+                    case 'f': cadena.append('\f'); break;
+                    case 'n': cadena.append('\n'); break;
+                    case 'r': cadena.append('\r'); break;
+                    case 't': cadena.append('\t'); break;
+                    case 'u':
+                        if (posicion + 4 > texto.length()) {
+                            throw error("escape \\u incompleto");
+                        }
+                        try {
+                            cadena.append((char) Integer.parseInt(texto.substring(posicion, posicion + 4), 16));
+                        } catch (NumberFormatException e) {
+                            throw error("escape \\u inválido");
+                        }
+                        posicion += 4;
+                        break;
+                    default: cadena.append(escape);
+                }
+            }
+        }
+
+        private void esperar(char c) throws IOException {
+            if (!consumir(c)) {
+                throw error("se esperaba '" + c + "'");
+            }
+        }
+
+        private boolean consumir(char c) {
+            saltarEspacios();
+            if (posicion < texto.length() && texto.charAt(posicion) == c) {
+                posicion++;
+                return true;
+            }
+            return false;
+        }
+
+        private void saltarEspacios() {
+            while (posicion < texto.length() && Character.isWhitespace(texto.charAt(posicion))) {
+                posicion++;
+            }
+        }
+
+        // Con línea y columna, como los errores del CSV
+        private IOException error(String mensaje) {
+            int linea = 1;
+            int columna = 1;
+            for (int i = 0; i < posicion && i < texto.length(); i++) {
+                if (texto.charAt(i) == '\n') {
+                    linea++;
+                    columna = 1;
+                } else {
+                    columna++;
+                }
+            }
+            return new IOException(ruta + ":" + linea + ":" + columna + ": " + mensaje);
+        }
+    }
+}
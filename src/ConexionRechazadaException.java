@@ -0,0 +1,20 @@
+import java.io.IOException;
+
+// El servidor no admitió la conexión (ControlAdmision) y respondió al hello con un rechazo, antes de gastar
+// nada en el handshake. Es una IOException para que quien ya reintenta ante fallos de red lo trate igual, pero
+// trae el tiempo que el servidor sugiere esperar antes de volver a intentar.
+public class ConexionRechazadaException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final long esperaSugerida;
+
+    public ConexionRechazadaException(String servidor, long esperaSugerida) {
+        super("El servidor " + servidor + " rechazó la conexión por carga; reintentar en " + esperaSugerida + " ms");
+        this.esperaSugerida = esperaSugerida;
+    }
+
+    // Milisegundos
+    public long getEsperaSugerida() {
+        return esperaSugerida;
+    }
+}
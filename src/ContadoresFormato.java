@@ -0,0 +1,61 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+// Totales por formato de canal ("objetos" o "binario") para comparar bytes por sesión y latencia de handshake
+public class ContadoresFormato {
+    private final String formato;
+    private final AtomicLong sesiones;
+    private final AtomicLong bytesEntrada;
+    private final AtomicLong bytesSalida;
+    private final AtomicLong handshakes;
+    private final AtomicLong tiempoTotalHandshake;
+
+    public ContadoresFormato(String formato) {
+        this.formato = formato;
+        this.sesiones = new AtomicLong(0);
+        this.bytesEntrada = new AtomicLong(0);
+        this.bytesSalida = new AtomicLong(0);
+        this.handshakes = new AtomicLong(0);
+        this.tiempoTotalHandshake = new AtomicLong(0);
+    }
+
+    public void registrarSesion(long entrada, long salida) {
+        sesiones.incrementAndGet();
+        bytesEntrada.addAndGet(entrada);
+        bytesSalida.addAndGet(salida);
+    }
+
+    public void registrarHandshake(long nanos) {
+        handshakes.incrementAndGet();
+        tiempoTotalHandshake.addAndGet(nanos);
+    }
+
+    public String resumen() {
+        long totalSesiones = sesiones.get();
+        long totalHandshakes = handshakes.get();
+        StringBuilder sb = new StringBuilder("Formato ").append(formato).append(" - sesiones: ").append(totalSesiones);
+        if (totalSesiones > 0) {
+            sb.append(", bytes/sesión entrada: ").append(bytesEntrada.get() / totalSesiones)
+              .append(", salida: ").append(bytesSalida.get() / totalSesiones);
+        }
+        if (totalHandshakes > 0) {
+            sb.append(", handshake promedio: ").append(tiempoTotalHandshake.get() / totalHandshakes).append(" ns");
+        }
+        return sb.toString();
+    }
+
+    public String getFormato() {
+        return formato;
+    }
+
+    public long getSesiones() {
+        return sesiones.get();
+    }
+
+    public long getBytesEntrada() {
+        return bytesEntrada.get();
+    }
+
+    public long getBytesSalida() {
+        return bytesSalida.get();
+    }
+}
@@ -0,0 +1,362 @@
+import java.lang.management.ManagementFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.management.ThreadMXBean;
+
+// Estado compartido por todas las conexiones, sin importar el transporte que las atienda
+public class ContextoServidor {
+    private static final ThreadMXBean HILOS = medidorAsignacion();
+
+    private final PrivateKey clavePrivadaServidor;
+    private final PublicKey clavePublicaServidor;
+    private final TablaServicios tablaServicios;
+    private final MetricasLatencia metricas;
+    private final PoolParametrosDH poolParametrosDH;
+    private final int tiempoInactividad;
+    private final int tiempoHandshake;
+    private final GestorTickets gestorTickets;
+    private final List<SuiteCifrado> suitesHabilitadas;
+    private final List<ModoRegistro> modosRegistro;
+    private final Map<ModoRegistro, AtomicLong> sesionesPorModoRegistro;
+    private final Map<SuiteCifrado, PrivateKey> clavesFirma;
+    private final Map<SuiteCifrado, HistogramaLatencia> handshakesPorSuite;
+    private final AtomicLong contadorConsultas;
+    private final AtomicInteger conexionesActivas;
+    private final AtomicLong conexionesFallidas;
+    private final AtomicLong fallosAutenticacion;
+    private final AtomicLong bytesRecibidos;
+    private final AtomicLong bytesEnviados;
+    private final AtomicLong tablasCompletas;
+    private final AtomicLong tablasSinCambios;
+    private final int maximoLote;
+    private final int maximoBytesLote;
+    private final AtomicLong lotes;
+    private final AtomicLong consultasEnLotes;
+    private final AtomicLong noEncontradosEnLotes;
+    private final AtomicLong lotesRechazados;
+    private final AtomicLong mensajesMedidos;
+    private final AtomicLong bytesAsignados;
+    private final ContadoresFormato contadoresObjetos;
+    private final ContadoresFormato contadoresBinario;
+    private final TrazaSesiones trazaSesiones;
+    private final ControlAdmision controlAdmision;
+
+    public ContextoServidor(PrivateKey clavePrivadaServidor, PublicKey clavePublicaServidor,
+                            TablaServicios tablaServicios, MetricasLatencia metricas,
+                            PoolParametrosDH poolParametrosDH, int tiempoInactividad, int tiempoHandshake,
+                            GestorTickets gestorTickets, List<SuiteCifrado> suitesHabilitadas,
+                            Map<SuiteCifrado, PrivateKey> clavesFirma, List<ModoRegistro> modosRegistro,
+                            int maximoLote, int maximoBytesLote, TrazaSesiones trazaSesiones,
+                            ControlAdmision controlAdmision) {
+        this.clavePrivadaServidor = clavePrivadaServidor;
+        this.clavePublicaServidor = clavePublicaServidor;
+        this.tablaServicios = tablaServicios;
+        this.metricas = metricas;
+        this.poolParametrosDH = poolParametrosDH;
+        this.tiempoInactividad = tiempoInactividad;
+        this.tiempoHandshake = tiempoHandshake;
+        this.gestorTickets = gestorTickets;
+        this.suitesHabilitadas = suitesHabilitadas;
+        this.clavesFirma = clavesFirma;
+        this.modosRegistro = modosRegistro;
+        this.maximoLote = maximoLote;
+        this.maximoBytesLote = maximoBytesLote;
+        this.trazaSesiones = trazaSesiones;
+        this.controlAdmision = controlAdmision;
+        this.sesionesPorModoRegistro = new EnumMap<>(ModoRegistro.class);
+        for (ModoRegistro modo : ModoRegistro.values()) {
+            sesionesPorModoRegistro.put(modo, new AtomicLong(0));
+        }
+        this.handshakesPorSuite = new EnumMap<>(SuiteCifrado.class);
+        for (SuiteCifrado suite : SuiteCifrado.values()) {
+            handshakesPorSuite.put(suite, new HistogramaLatencia());
+        }
+        this.contadorConsultas = new AtomicLong(0);
+        this.conexionesActivas = new AtomicInteger(0);
+        this.conexionesFallidas = new AtomicLong(0);
+        this.fallosAutenticacion = new AtomicLong(0);
+        this.bytesRecibidos = new AtomicLong(0);
+        this.bytesEnviados = new AtomicLong(0);
+        this.tablasCompletas = new AtomicLong(0);
+        this.tablasSinCambios = new AtomicLong(0);
+        this.lotes = new AtomicLong(0);
+        this.consultasEnLotes = new AtomicLong(0);
+        this.noEncontradosEnLotes = new AtomicLong(0);
+        this.lotesRechazados = new AtomicLong(0);
+        this.mensajesMedidos = new AtomicLong(0);
+        this.bytesAsignados = new AtomicLong(0);
+        this.contadoresObjetos = new ContadoresFormato("objetos");
+        this.contadoresBinario = new ContadoresFormato("binario");
+    }
+
+    public PrivateKey getClavePrivadaServidor() {
+        return clavePrivadaServidor;
+    }
+
+    public PublicKey getClavePublicaServidor() {
+        return clavePublicaServidor;
+    }
+
+    public TablaServicios getTablaServicios() {
+        return tablaServicios;
+    }
+
+    public MetricasLatencia getMetricas() {
+        return metricas;
+    }
+
+    public PoolParametrosDH getPoolParametrosDH() {
+        return poolParametrosDH;
+    }
+
+    // Milisegundos que una sesión establecida puede pasar sin recibir consultas antes de cerrarse
+    public int getTiempoInactividad() {
+        return tiempoInactividad;
+    }
+
+    // Milisegundos desde que se empieza a atender la conexión hasta tener la sesión establecida; <= 0 sin límite
+    public int getTiempoHandshake() {
+        return tiempoHandshake;
+    }
+
+    // null si no se pidió la traza por sesión (servidor.traza)
+    public TrazaSesiones getTrazaSesiones() {
+        return trazaSesiones;
+    }
+
+    // null si no hay control de admisión (servidor.admision)
+    public ControlAdmision getControlAdmision() {
+        return controlAdmision;
+    }
+
+    // Lo llama el transporte cuando la conexión deja de esperar un hilo
+    public void registrarEsperaCola(long nanos) {
+        metricas.registrar(FaseLatencia.COLA, nanos);
+        if (controlAdmision != null) {
+            controlAdmision.registrarEspera(nanos);
+        }
+    }
+
+    // null si la reanudación de sesiones está desactivada
+    public GestorTickets getGestorTickets() {
+        return gestorTickets;
+    }
+
+    // Habilitada en la configuración y con su clave de firma cargada
+    public boolean isSuiteHabilitada(SuiteCifrado suite) {
+        return suitesHabilitadas.contains(suite) && clavesFirma.containsKey(suite);
+    }
+
+    public boolean isModoRegistroHabilitado(ModoRegistro modo) {
+        return modosRegistro.contains(modo);
+    }
+
+    public void registrarModoRegistro(ModoRegistro modo) {
+        sesionesPorModoRegistro.get(modo).incrementAndGet();
+    }
+
+    public PrivateKey getClaveFirma(SuiteCifrado suite) {
+        return clavesFirma.get(suite);
+    }
+
+    public void registrarHandshake(boolean reanudado, boolean binario, SuiteCifrado suite, long nanos) {
+        getContadores(binario).registrarHandshake(nanos);
+        if (reanudado) {
+            metricas.registrar(FaseLatencia.HANDSHAKE_REANUDADO, nanos);
+        } else {
+            metricas.registrar(FaseLatencia.HANDSHAKE_COMPLETO, nanos);
+            handshakesPorSuite.get(suite).registrar(nanos);
+        }
+    }
+
+    public String resumenHandshakes() {
+        return "Handshakes completos: " + resumenCorto(metricas.instantanea(FaseLatencia.HANDSHAKE_COMPLETO))
+                + ", reanudados: " + resumenCorto(metricas.instantanea(FaseLatencia.HANDSHAKE_REANUDADO));
+    }
+
+    public String resumenSuites() {
+        StringBuilder sb = new StringBuilder("Handshakes completos por suite -");
+        for (SuiteCifrado suite : SuiteCifrado.values()) {
+            sb.append(" ").append(suite.getNombre()).append(": ")
+              .append(resumenCorto(handshakesPorSuite.get(suite).instantanea()));
+        }
+        sb.append("\nSesiones por modo de registro -");
+        for (ModoRegistro modo : ModoRegistro.values()) {
+            sb.append(" ").append(modo.getNombre()).append(": ").append(sesionesPorModoRegistro.get(modo).get());
+        }
+        return sb.toString();
+    }
+
+    private static String resumenCorto(HistogramaLatencia.Instantanea datos) {
+        if (datos.getTotal() == 0) {
+            return "0";
+        }
+        return datos.getTotal() + " (p50 " + HistogramaLatencia.formatear(datos.percentil(50))
+                + ", p99 " + HistogramaLatencia.formatear(datos.percentil(99)) + ")";
+    }
+
+    // Contadores en vivo para MetricasServidor; los de ContadoresFormato solo se actualizan al cerrar cada sesión
+    public void registrarConexionAbierta() {
+        conexionesActivas.incrementAndGet();
+    }
+
+    public void registrarConexionCerrada(boolean fallida) {
+        conexionesActivas.decrementAndGet();
+        if (fallida) {
+            conexionesFallidas.incrementAndGet();
+        }
+    }
+
+    // HMAC o tag AEAD inválido en una consulta
+    public void registrarFalloAutenticacion() {
+        fallosAutenticacion.incrementAndGet();
+    }
+
+    public void registrarBytes(long recibidos, long enviados) {
+        if (recibidos > 0) {
+            bytesRecibidos.addAndGet(recibidos);
+        }
+        if (enviados > 0) {
+            bytesEnviados.addAndGet(enviados);
+        }
+    }
+
+    public int getConexionesActivas() {
+        return conexionesActivas.get();
+    }
+
+    public long getConexionesFallidas() {
+        return conexionesFallidas.get();
+    }
+
+    public long getFallosAutenticacion() {
+        return fallosAutenticacion.get();
+    }
+
+    public long getBytesRecibidos() {
+        return bytesRecibidos.get();
+    }
+
+    public long getBytesEnviados() {
+        return bytesEnviados.get();
+    }
+
+    // sinCambios: el cliente ya tenía la versión actual y solo recibió la marca de MensajeTabla
+    public void registrarTablaEnviada(boolean sinCambios) {
+        (sinCambios ? tablasSinCambios : tablasCompletas).incrementAndGet();
+    }
+
+    public long getTablasCompletas() {
+        return tablasCompletas.get();
+    }
+
+    public long getTablasSinCambios() {
+        return tablasSinCambios.get();
+    }
+
+    // Ids por MensajeSesion.LOTE; un lote más grande cierra la sesión
+    public int getMaximoLote() {
+        return maximoLote;
+    }
+
+    // Bytes de la respuesta de un lote antes de cifrarla
+    public int getMaximoBytesLote() {
+        return maximoBytesLote;
+    }
+
+    public void registrarLote(int consultas, int noEncontrados, long nanos) {
+        lotes.incrementAndGet();
+        consultasEnLotes.addAndGet(consultas);
+        noEncontradosEnLotes.addAndGet(noEncontrados);
+        metricas.registrar(FaseLatencia.LOTE, nanos);
+    }
+
+    // Lote por encima de los límites
+    public void registrarLoteRechazado() {
+        lotesRechazados.incrementAndGet();
+    }
+
+    public long getLotes() {
+        return lotes.get();
+    }
+
+    public long getConsultasEnLotes() {
+        return consultasEnLotes.get();
+    }
+
+    public long getNoEncontradosEnLotes() {
+        return noEncontradosEnLotes.get();
+    }
+
+    public long getLotesRechazados() {
+        return lotesRechazados.get();
+    }
+
+    public String resumenLotes() {
+        long totalLotes = lotes.get();
+        return "Lotes: " + totalLotes + ", consultas en lotes: " + consultasEnLotes.get()
+                + (totalLotes > 0 ? String.format(" (%.1f por lote)", consultasEnLotes.get() / (double) totalLotes) : "")
+                + ", no encontradas: " + noEncontradosEnLotes.get() + ", rechazados: " + lotesRechazados.get()
+                + " (máximo " + maximoLote + " ids, " + maximoBytesLote + " bytes), latencia: "
+                + resumenCorto(metricas.instantanea(FaseLatencia.LOTE));
+    }
+
+    // Bytes de heap que asignó el hilo actual desde que arrancó, o -1 si la JVM no lo mide.
+    // Los transportes lo leen antes y después de pasarle mensajes al protocolo (ver registrarAsignacion)
+    public static long bytesAsignadosHilo() {
+        return HILOS != null ? HILOS.getCurrentThreadAllocatedBytes() : -1;
+    }
+
+    private static ThreadMXBean medidorAsignacion() {
+        try {
+            java.lang.management.ThreadMXBean hilos = ManagementFactory.getThreadMXBean();
+            if (hilos instanceof ThreadMXBean && ((ThreadMXBean) hilos).isThreadAllocatedMemorySupported()) {
+                ((ThreadMXBean) hilos).setThreadAllocatedMemoryEnabled(true);
+                return (ThreadMXBean) hilos;
+            }
+        } catch (RuntimeException e) {
+            // JVM sin la extensión de com.sun.management
+        }
+        return null;
+    }
+
+    // inicio: bytesAsignadosHilo() antes de procesar los mensajes, en el mismo hilo
+    public void registrarAsignacion(long inicio, int mensajes) {
+        if (inicio < 0 || mensajes == 0) {
+            return;
+        }
+        bytesAsignados.addAndGet(bytesAsignadosHilo() - inicio);
+        mensajesMedidos.addAndGet(mensajes);
+    }
+
+    public long getBytesAsignados() {
+        return bytesAsignados.get();
+    }
+
+    public long getMensajesMedidos() {
+        return mensajesMedidos.get();
+    }
+
+    public double getBytesAsignadosPorMensaje() {
+        long mensajes = mensajesMedidos.get();
+        return mensajes > 0 ? bytesAsignados.get() / (double) mensajes : 0;
+    }
+
+    public long getHandshakesPorSuite(SuiteCifrado suite) {
+        return handshakesPorSuite.get(suite).instantanea().getTotal();
+    }
+
+    public AtomicLong getContadorConsultas() {
+        return contadorConsultas;
+    }
+
+    public ContadoresFormato getContadores(boolean binario) {
+        return binario ? contadoresBinario : contadoresObjetos;
+    }
+}
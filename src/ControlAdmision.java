@@ -0,0 +1,278 @@
+import java.net.InetAddress;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Admisión de conexiones antes de gastar nada en ellas. Cada conexión aceptada le va a costar al servidor
+// parámetros DH o una clave efímera, una firma y un acuerdo de claves; aquí se decide en el momento del accept,
+// sin criptografía, si se atiende o se rechaza con un hello de rechazo (MensajeHello.RECHAZADO) que lleva el
+// tiempo sugerido antes de reintentar. En orden, del control más barato y más específico al más general:
+//   tasa_ip      cubo de fichas por dirección de origen (tasaPorIP handshakes/s, ráfaga rafagaPorIP)
+//   concurrencia handshakes admitidos y sin terminar (en cola del ejecutor o en curso), como mucho maximoEnVuelo
+//   demora       descarte adaptativo por la demora de cola observada (ver registrarEspera)
+//   tasa_global  cubo de fichas de todo el servidor (tasaGlobal handshakes/s, ráfaga rafagaGlobal)
+// Un valor <= 0 desactiva ese control. Un handshake admitido ocupa su lugar hasta terminarHandshake: el
+// transporte lo llama al establecerse la sesión o al cerrarse la conexión, lo que pase primero.
+public class ControlAdmision {
+    public enum Motivo {
+        TASA_IP("tasa_ip"), CONCURRENCIA("concurrencia"), DEMORA("demora"), TASA_GLOBAL("tasa_global");
+
+        private final String nombre;
+
+        Motivo(String nombre) {
+            this.nombre = nombre;
+        }
+
+        public String getNombre() {
+            return nombre;
+        }
+    }
+
+    // Tope duro de orígenes con cubo. Lleno el mapa se olvidan los cubos llenos (los de quien no se conectó en un
+    // rato), a lo sumo una vez por INTERVALO_BARRIDO; si no se libera lugar, los orígenes nuevos se rechazan
+    private static final int MAXIMO_ORIGENES = 65536;
+    private static final long INTERVALO_BARRIDO = 1_000_000_000L;
+    private static final double PASO_SUBIDA = 0.1;
+    private static final double PASO_BAJADA = 0.05;
+    private static final double DESCARTE_MAXIMO = 0.95;
+
+    private final double tasaPorIP;
+    private final int rafagaPorIP;
+    private final int maximoEnVuelo;
+    private final long demoraObjetivo;
+    private final long intervalo;
+
+    private final CuboFichas cuboGlobal;
+    private final ConcurrentHashMap<InetAddress, CuboFichas> cubosPorIP;
+    private final AtomicInteger enVuelo;
+    // Protegido por cubosPorIP
+    private long proximoBarrido;
+    private final AtomicLong admitidas;
+    private final Map<Motivo, AtomicLong> rechazadas;
+
+    // Estado del descarte adaptativo
+    private final AtomicLong esperaMinima;
+    private volatile long finIntervalo;
+    private volatile double probabilidadDescarte;
+
+    // Tiempos en milisegundos
+    public ControlAdmision(double tasaGlobal, int rafagaGlobal, double tasaPorIP, int rafagaPorIP, int maximoEnVuelo,
+                           long demoraObjetivo, long intervalo) {
+        this.tasaPorIP = tasaPorIP;
+        this.rafagaPorIP = Math.max(1, rafagaPorIP);
+        this.maximoEnVuelo = maximoEnVuelo;
+        this.demoraObjetivo = demoraObjetivo * 1_000_000L;
+        this.intervalo = Math.max(1, intervalo) * 1_000_000L;
+        this.cuboGlobal = tasaGlobal > 0 ? new CuboFichas(tasaGlobal, Math.max(1, rafagaGlobal)) : null;
+        this.cubosPorIP = new ConcurrentHashMap<>();
+        this.enVuelo = new AtomicInteger(0);
+        this.admitidas = new AtomicLong(0);
+        this.rechazadas = new EnumMap<>(Motivo.class);
+        for (Motivo motivo : Motivo.values()) {
+            rechazadas.put(motivo, new AtomicLong(0));
+        }
+        this.esperaMinima = new AtomicLong(Long.MAX_VALUE);
+        this.finIntervalo = System.nanoTime() + this.intervalo;
+        this.proximoBarrido = System.nanoTime();
+    }
+
+    // null si la conexión se atiende (y ocupa un lugar de handshake en vuelo); si no, por qué se rechaza
+    public Motivo admitir(InetAddress origen) {
+        long ahora = System.nanoTime();
+        if (probabilidadDescarte > 0 && ahora - finIntervalo >= 0) {
+            cerrarIntervalo();
+        }
+        if (tasaPorIP > 0) {
+            CuboFichas cubo = cubosPorIP.get(origen);
+            if (cubo == null) {
+                cubo = nuevoOrigen(origen, ahora);
+            }
+            if (cubo == null || !cubo.tomar(ahora)) {
+                return rechazar(Motivo.TASA_IP);
+            }
+        }
+        if (maximoEnVuelo > 0 && enVuelo.incrementAndGet() > maximoEnVuelo) {
+            enVuelo.decrementAndGet();
+            return rechazar(Motivo.CONCURRENCIA);
+        }
+        if (maximoEnVuelo <= 0) {
+            enVuelo.incrementAndGet();
+        }
+        double descarte = probabilidadDescarte;
+        if (descarte > 0 && ThreadLocalRandom.current().nextDouble() < descarte) {
+            enVuelo.decrementAndGet();
+            return rechazar(Motivo.DEMORA);
+        }
+        if (cuboGlobal != null && !cuboGlobal.tomar(ahora)) {
+            enVuelo.decrementAndGet();
+            return rechazar(Motivo.TASA_GLOBAL);
+        }
+        admitidas.incrementAndGet();
+        return null;
+    }
+
+    private Motivo rechazar(Motivo motivo) {
+        rechazadas.get(motivo).incrementAndGet();
+        return motivo;
+    }
+
+    public void terminarHandshake() {
+        enVuelo.decrementAndGet();
+    }
+
+    // Demora de cola de una conexión admitida: del accept hasta que un hilo empieza a atenderla (bloqueante) o
+    // de la llegada del hello hasta que el pool de cómputo lo toma (NIO). Como CoDel, mira la mínima de cada
+    // intervalo: si ni la conexión más afortunada bajó del objetivo, la cola no se está vaciando y se descarta
+    // una fracción más de las nuevas; si bajó, o si en todo el intervalo nadie esperó un hilo, la fracción se
+    // reduce de a poco.
+    // El histograma de estas demoras lo lleva MetricasLatencia (fase "cola").
+    public void registrarEspera(long nanos) {
+        esperaMinima.accumulateAndGet(nanos, Math::min);
+        if (demoraObjetivo > 0 && System.nanoTime() - finIntervalo >= 0) {
+            cerrarIntervalo();
+        }
+    }
+
+    private synchronized void cerrarIntervalo() {
+        long ahora = System.nanoTime();
+        if (ahora - finIntervalo < 0) {
+            return;
+        }
+        finIntervalo = ahora + intervalo;
+        long minima = esperaMinima.getAndSet(Long.MAX_VALUE);
+        double anterior = probabilidadDescarte;
+        double nueva = minima != Long.MAX_VALUE && minima > demoraObjetivo ? Math.min(DESCARTE_MAXIMO, anterior + PASO_SUBIDA)
+                : Math.max(0, anterior - PASO_BAJADA);
+        probabilidadDescarte = nueva;
+        if (anterior == 0 && nueva > 0) {
+            Bitacora.aviso("[ControlAdmision] Demora de cola " + HistogramaLatencia.formatear(minima)
+                    + " sobre el objetivo: se empiezan a descartar conexiones nuevas");
+        } else if (anterior > 0 && nueva == 0) {
+            Bitacora.info("[ControlAdmision] La demora de cola volvió bajo el objetivo: sin descarte");
+        }
+    }
+
+    // Milisegundos que el rechazo le sugiere esperar al cliente antes de reintentar
+    public long esperaSugerida(Motivo motivo, InetAddress origen) {
+        switch (motivo) {
+            case TASA_IP:
+                CuboFichas cubo = cubosPorIP.get(origen);
+                return cubo != null ? cubo.esperaFicha() : 1000;
+            case TASA_GLOBAL:
+                return cuboGlobal.esperaFicha();
+            default:
+                return Math.max(10, intervalo / 1_000_000L * 2);
+        }
+    }
+
+    // null si no hay lugar para otro origen. Durante una inundación desde muchas direcciones el mapa no crece
+    // más allá del tope y el barrido no se repite en cada accept
+    private CuboFichas nuevoOrigen(InetAddress origen, long ahora) {
+        synchronized (cubosPorIP) {
+            CuboFichas cubo = cubosPorIP.get(origen);
+            if (cubo != null) {
+                return cubo;
+            }
+            if (cubosPorIP.size() >= MAXIMO_ORIGENES) {
+                if (ahora - proximoBarrido < 0) {
+                    return null;
+                }
+                proximoBarrido = ahora + INTERVALO_BARRIDO;
+                cubosPorIP.values().removeIf(lleno -> lleno.isLleno(ahora));
+                if (cubosPorIP.size() >= MAXIMO_ORIGENES) {
+                    return null;
+                }
+            }
+            cubo = new CuboFichas(tasaPorIP, rafagaPorIP);
+            cubosPorIP.put(origen, cubo);
+            return cubo;
+        }
+    }
+
+    public long getAdmitidas() {
+        return admitidas.get();
+    }
+
+    public long getRechazadas(Motivo motivo) {
+        return rechazadas.get(motivo).get();
+    }
+
+    public long getRechazadas() {
+        long total = 0;
+        for (AtomicLong conteo : rechazadas.values()) {
+            total += conteo.get();
+        }
+        return total;
+    }
+
+    public int getEnVuelo() {
+        return enVuelo.get();
+    }
+
+    public double getProbabilidadDescarte() {
+        return probabilidadDescarte;
+    }
+
+    public int getOrigenes() {
+        return cubosPorIP.size();
+    }
+
+    public String resumen() {
+        StringBuilder sb = new StringBuilder("Admisión - admitidas: ").append(admitidas.get()).append(", rechazadas:");
+        for (Motivo motivo : Motivo.values()) {
+            sb.append(' ').append(motivo.getNombre()).append('=').append(rechazadas.get(motivo).get());
+        }
+        sb.append(", en vuelo: ").append(enVuelo.get());
+        if (maximoEnVuelo > 0) {
+            sb.append('/').append(maximoEnVuelo);
+        }
+        sb.append(String.format(", descarte: %.0f%%", probabilidadDescarte * 100))
+          .append(", orígenes: ").append(cubosPorIP.size());
+        return sb.toString();
+    }
+
+    // Cubo de fichas con reposición continua; la ráfaga es su capacidad
+    private static final class CuboFichas {
+        private final double fichasPorNano;
+        private final double capacidad;
+        private double fichas;
+        private long ultimaReposicion;
+
+        private CuboFichas(double porSegundo, int rafaga) {
+            this.fichasPorNano = porSegundo / 1_000_000_000.0;
+            this.capacidad = rafaga;
+            this.fichas = rafaga;
+            this.ultimaReposicion = System.nanoTime();
+        }
+
+        synchronized boolean tomar(long ahora) {
+            reponer(ahora);
+            if (fichas < 1) {
+                return false;
+            }
+            fichas -= 1;
+            return true;
+        }
+
+        synchronized boolean isLleno(long ahora) {
+            reponer(ahora);
+            return fichas >= capacidad;
+        }
+
+        synchronized long esperaFicha() {
+            reponer(System.nanoTime());
+            return fichas >= 1 ? 0 : (long) Math.ceil((1 - fichas) / fichasPorNano / 1_000_000.0);
+        }
+
+        private void reponer(long ahora) {
+            long transcurrido = ahora - ultimaReposicion;
+            if (transcurrido > 0) {
+                fichas = Math.min(capacidad, fichas + transcurrido * fichasPorNano);
+                ultimaReposicion = ahora;
+            }
+        }
+    }
+}
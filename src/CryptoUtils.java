@@ -1,23 +1,25 @@
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
+import java.security.KeyFactory;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
-import java.security.SecureRandom;
 import java.security.Signature;
 import java.security.SignatureException;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.X509EncodedKeySpec;
 
-import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyAgreement;
 import javax.crypto.Mac;
-import javax.crypto.NoSuchPaddingException;
 import javax.crypto.SecretKey;
 import javax.crypto.spec.DHParameterSpec;
 import javax.crypto.spec.IvParameterSpec;
@@ -28,32 +30,69 @@ public class CryptoUtils {
     public static boolean verificarFirma(byte[] parametrosSerializados, byte[] firmaParametros,
             PublicKey clavePublicaServidor) {
         try {
-            Signature firma = Signature.getInstance("SHA256withRSA");
+            Signature firma = MotorCripto.firma("SHA256withRSA");
             firma.initVerify(clavePublicaServidor);
             firma.update(parametrosSerializados);
             return firma.verify(firmaParametros);
         } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
-            System.err.println("Error al verificar la firma: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al verificar la firma: " + e.getMessage(), e);
             return false;
         }
     }
 
+    public static boolean verificarFirma(String algoritmo, byte[] datos, byte[] firmaDatos, PublicKey clavePublica) {
+        try {
+            Signature firma = MotorCripto.firma(algoritmo);
+            firma.initVerify(clavePublica);
+            firma.update(datos);
+            return firma.verify(firmaDatos);
+        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+            Bitacora.error("Error al verificar la firma " + algoritmo + ": " + e.getMessage(), e);
+            return false;
+        }
+    }
+
+    public static byte[] firmar(String algoritmo, byte[] datosFirmar, PrivateKey clavePrivada) {
+        try {
+            Signature firma = MotorCripto.firma(algoritmo);
+            firma.initSign(clavePrivada);
+            firma.update(datosFirmar);
+            return firma.sign();
+        } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
+            Bitacora.error("Error al firmar " + algoritmo + ": " + e.getMessage(), e);
+            throw new RuntimeException("Error al firmar " + algoritmo, e);
+        }
+    }
+
+    // Acuerdo de claves (DH, ECDH o XDH) con la clave pública del otro extremo codificada en X.509
+    public static byte[] acordarSecreto(SuiteCifrado suite, PrivateKey miClavePrivada, byte[] clavePublicaOtroCodificada) {
+        try {
+            KeyFactory keyFactory = MotorCripto.fabricaClaves(suite.getAlgoritmoClave());
+            PublicKey clavePublicaOtro = keyFactory.generatePublic(new X509EncodedKeySpec(clavePublicaOtroCodificada));
+            KeyAgreement acuerdo = MotorCripto.acuerdo(suite.getAlgoritmoAcuerdo());
+            acuerdo.init(miClavePrivada);
+            acuerdo.doPhase(clavePublicaOtro, true);
+            return acuerdo.generateSecret();
+        } catch (NoSuchAlgorithmException | InvalidKeySpecException | InvalidKeyException e) {
+            Bitacora.error("Error en el acuerdo de claves " + suite.getNombre() + ": " + e.getMessage(), e);
+            throw new RuntimeException("Error en el acuerdo de claves " + suite.getNombre(), e);
+        }
+    }
+
     public static KeyPair generarClavesDH(DHParameterSpec dhParams) {
         try {
-            KeyPairGenerator keyPairGen = KeyPairGenerator.getInstance("DH");
+            KeyPairGenerator keyPairGen = MotorCripto.generadorClaves("DH");
             keyPairGen.initialize(dhParams);
             return keyPairGen.generateKeyPair();
         } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
-            System.err.println("Error al generar claves DH: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al generar claves DH: " + e.getMessage(), e);
             throw new RuntimeException("Error al generar claves DH", e);
         }     
     }
 
     public static SecretKey[] generarClavesSesion(byte[] secretoCompartido) {
         try {
-            MessageDigest digest = MessageDigest.getInstance("SHA-512");
+            MessageDigest digest = MotorCripto.digest("SHA-512");
             byte[] hash = digest.digest(secretoCompartido);
 
             // Dividir para cifrado y para HMAC
@@ -69,8 +108,7 @@ public class CryptoUtils {
 
             return new SecretKey[]{claveCifrado, claveHMAC};
         } catch (NoSuchAlgorithmException e) {
-            System.err.println("Error al generar claves de sesión: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al generar claves de sesión: " + e.getMessage(), e);
             throw new RuntimeException("Error al generar claves de sesión", e);
         }
     }
@@ -89,106 +127,156 @@ public class CryptoUtils {
             }
             return resultado == 0;
         } catch (Exception e) {
-            System.err.println("Error al verificar HMAC: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al verificar HMAC: " + e.getMessage(), e);
             return false;
         }
     }
 
     public static byte[] descifrarAES(byte[] datosTablaServiciosCifrados, SecretKey claveCifrado, byte[] iV) {
         try {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            Cipher cipher = MotorCripto.cipher("AES/CBC/PKCS5Padding");
             cipher.init(Cipher.DECRYPT_MODE, claveCifrado, new IvParameterSpec(iV));
             return cipher.doFinal(datosTablaServiciosCifrados);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | 
-                InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-            System.err.println("Error al descifrar AES: " + e.getMessage());
-            e.printStackTrace();
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al descifrar AES: " + e.getMessage(), e);
             throw new RuntimeException("Error al descifrar AES", e);
         }
     }
 
     public static byte[] cifrarAES(byte[] datosPlanos, SecretKey claveCifrado, byte[] iV){
         try {
-            Cipher cipher = Cipher.getInstance("AES/CBC/PKCS5Padding");
+            Cipher cipher = MotorCripto.cipher("AES/CBC/PKCS5Padding");
             cipher.init(Cipher.ENCRYPT_MODE, claveCifrado, new IvParameterSpec(iV));
             return cipher.doFinal(datosPlanos);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | 
-                InvalidAlgorithmParameterException | IllegalBlockSizeException | BadPaddingException e) {
-            System.err.println("Error al cifrar AES: " + e.getMessage());
-            e.printStackTrace();
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al cifrar AES: " + e.getMessage(), e);
+            throw new RuntimeException("Error al cifrar AES", e);
+        }
+    }
+
+    // Variantes sobre buffers del llamador: no reservan arreglos nuevos y devuelven los bytes escritos en salida
+    public static int tamanoCifradoAES(int longitudPlana) {
+        return (longitudPlana / 16 + 1) * 16;
+    }
+
+    public static int cifrarAES(byte[] datos, int desplazamiento, int longitud, SecretKey claveCifrado, byte[] iV,
+                                byte[] salida, int desplazamientoSalida) {
+        try {
+            Cipher cipher = MotorCripto.cipher("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.ENCRYPT_MODE, claveCifrado, new IvParameterSpec(iV));
+            return cipher.doFinal(datos, desplazamiento, longitud, salida, desplazamientoSalida);
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al cifrar AES: " + e.getMessage(), e);
             throw new RuntimeException("Error al cifrar AES", e);
         }
     }
 
+    public static int descifrarAES(byte[] datos, int desplazamiento, int longitud, SecretKey claveCifrado, byte[] iV,
+                                   byte[] salida, int desplazamientoSalida) {
+        try {
+            Cipher cipher = MotorCripto.cipher("AES/CBC/PKCS5Padding");
+            cipher.init(Cipher.DECRYPT_MODE, claveCifrado, new IvParameterSpec(iV));
+            return cipher.doFinal(datos, desplazamiento, longitud, salida, desplazamientoSalida);
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al descifrar AES: " + e.getMessage(), e);
+            throw new RuntimeException("Error al descifrar AES", e);
+        }
+    }
+
+    // HMAC-SHA256 de varias partes sin concatenarlas antes; escribe los 32 bytes en salida
+    public static void generarHMAC(SecretKey claveHMAC, byte[] salida, int desplazamientoSalida, byte[]... partes) {
+        try {
+            Mac mac = MotorCripto.mac("HmacSHA256", claveHMAC);
+            for (byte[] parte : partes) {
+                mac.update(parte);
+            }
+            mac.doFinal(salida, desplazamientoSalida);
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al generar HMAC: " + e.getMessage(), e);
+            throw new RuntimeException("Error al generar HMAC", e);
+        }
+    }
+
     public static byte[] cifrarRSA(byte[] datosPlanos, PublicKey clavePublicaServidor) {
         try {
-            Cipher cipher = Cipher.getInstance("RSA");
+            Cipher cipher = MotorCripto.cipher("RSA");
             cipher.init(Cipher.ENCRYPT_MODE, clavePublicaServidor);
             return cipher.doFinal(datosPlanos);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | 
-                IllegalBlockSizeException | BadPaddingException e) {
-            System.err.println("Error al cifrar RSA: " + e.getMessage());
-            e.printStackTrace();
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al cifrar RSA: " + e.getMessage(), e);
             throw new RuntimeException("Error al cifrar RSA", e);
         }
     }
 
     public static byte[] descifrarRSA(byte[] datosCifrados, PrivateKey clavePrvicada){
         try {
-            Cipher cipher = Cipher.getInstance("RSA");
+            Cipher cipher = MotorCripto.cipher("RSA");
             cipher.init(Cipher.DECRYPT_MODE, clavePrvicada);
             return cipher.doFinal(datosCifrados);
-        } catch (NoSuchAlgorithmException | NoSuchPaddingException | InvalidKeyException | 
-                IllegalBlockSizeException | BadPaddingException e) {
-            System.err.println("Error al descifrar RSA: " + e.getMessage());
-            e.printStackTrace();
+        } catch (GeneralSecurityException e) {
+            Bitacora.error("Error al descifrar RSA: " + e.getMessage(), e);
             throw new RuntimeException("Error al descifrar RSA", e);
         }
     }
 
     public static byte[] generarHMAC(byte[] datosConsulta, SecretKey claveHMAC) {
         try {
-            Mac mac = Mac.getInstance("HmacSHA256");
-            mac.init(claveHMAC);
+            Mac mac = MotorCripto.mac("HmacSHA256", claveHMAC);
             return mac.doFinal(datosConsulta);
         } catch (NoSuchAlgorithmException | InvalidKeyException e) {
-            System.err.println("Error al generar HMAC: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al generar HMAC: " + e.getMessage(), e);
             throw new RuntimeException("Error al generar HMAC", e);
         }
     }
 
     public static byte[] firmarRSA(byte[] datosFirmar, PrivateKey clavePrivadaServidor) {
         try {
-            Signature firma = Signature.getInstance("SHA256withRSA");
+            Signature firma = MotorCripto.firma("SHA256withRSA");
             firma.initSign(clavePrivadaServidor);
             firma.update(datosFirmar);
             return firma.sign();
         } catch (NoSuchAlgorithmException | InvalidKeyException | SignatureException e) {
-            System.err.println("Error al firmar RSA: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al firmar RSA: " + e.getMessage(), e);
             throw new RuntimeException("Error al firmar RSA", e);
         }
     }
 
     public static byte[] generarIV() {
         byte[] iv = new byte[16]; // Tamaño del IV para AES
-        SecureRandom random = new SecureRandom();
-        random.nextBytes(iv);
+        MotorCripto.aleatorio().nextBytes(iv);
         return iv;
     }
 
+    public static byte[] generarNonce(int tamano) {
+        byte[] nonce = new byte[tamano];
+        MotorCripto.aleatorio().nextBytes(nonce);
+        return nonce;
+    }
+
+    // Secreto que se guarda en el ticket; se deriva de la clave HMAC para no reutilizar las claves de la sesión
+    public static byte[] derivarSecretoReanudacion(SecretKey claveHMAC) {
+        return generarHMAC("reanudacion-sesion".getBytes(StandardCharsets.UTF_8), claveHMAC);
+    }
+
+    // La transcripción de los hellos (MensajeHello.transcripcion) ya incluye los dos nonces
+    public static SecretKey[] generarClavesReanudacion(byte[] secretoReanudacion, byte[] transcripcion) {
+        byte[] material = new byte[secretoReanudacion.length + transcripcion.length];
+        System.arraycopy(secretoReanudacion, 0, material, 0, secretoReanudacion.length);
+        System.arraycopy(transcripcion, 0, material, secretoReanudacion.length, transcripcion.length);
+        return generarClavesSesion(material);
+    }
+
     public static byte[] serializarObjeto(Object obj) throws IOException {
         try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
              ObjectOutputStream oos = new ObjectOutputStream(baos)) {
             oos.writeObject(obj);
             byte[] result = baos.toByteArray();
-            System.out.println("Objeto serializado correctamente. Tipo: " + obj.getClass().getSimpleName() + ", Tamaño: " + result.length + " bytes");
+            if (Bitacora.depuracion()) {
+                Bitacora.depuracion("Objeto serializado correctamente. Tipo: " + obj.getClass().getSimpleName() + ", Tamaño: " + result.length + " bytes");
+            }
             return result;
         } catch (IOException e) {
-            System.err.println("Error al serializar objeto: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error al serializar objeto: " + e.getMessage(), e);
             throw e;
         }
     }
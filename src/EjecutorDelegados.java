@@ -0,0 +1,147 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Modelo de ejecución de los delegados:
+// "hilo"    -> un hilo de plataforma nuevo por conexión (comportamiento original, sin límite)
+// "pool"    -> ThreadPoolExecutor acotado con cola; si la cola está llena la conexión se rechaza. Cada delegado
+//              ocupa un hilo hasta que su sesión termina o vence la inactividad, así que los hilos acotan sesiones
+//              abiertas, no handshakes por segundo. Para que unas pocas sesiones persistentes no dejen a los
+//              handshakes nuevos en la cola, un delegado con la sesión inactiva cierra y cede su hilo en cuanto
+//              hay conexiones esperando (ver ServidorDelegado)
+// "virtual" -> un hilo virtual por conexión (requiere Java 21; en versiones anteriores usa "hilo")
+public class EjecutorDelegados {
+    private final String modo;
+    private final ExecutorService ejecutor;
+    private final ThreadPoolExecutor pool;
+    private final AtomicInteger activos;
+    private final AtomicLong completados;
+    private final AtomicLong rechazados;
+    private final int hilos;
+
+    public EjecutorDelegados(String modo, int hilos, int capacidadCola) {
+        this.activos = new AtomicInteger(0);
+        this.completados = new AtomicLong(0);
+        this.rechazados = new AtomicLong(0);
+        this.hilos = "pool".equals(modo) ? hilos : 0;
+
+        if ("pool".equals(modo)) {
+            this.pool = new ThreadPoolExecutor(hilos, hilos, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(capacidadCola), crearFabricaHilos(), (tarea, ejecutor) -> rechazar(tarea));
+            this.ejecutor = pool;
+            this.modo = modo;
+        } else if ("virtual".equals(modo)) {
+            ExecutorService virtual = crearEjecutorVirtual();
+            this.pool = null;
+            if (virtual != null) {
+                this.ejecutor = virtual;
+                this.modo = modo;
+            } else {
+                Bitacora.aviso("[EjecutorDelegados] Hilos virtuales no disponibles en esta JVM, se usa un hilo por conexión");
+                this.ejecutor = Executors.newCachedThreadPool(crearFabricaHilos());
+                this.modo = "hilo";
+            }
+        } else if ("hilo".equals(modo)) {
+            this.pool = null;
+            this.ejecutor = Executors.newCachedThreadPool(crearFabricaHilos());
+            this.modo = modo;
+        } else {
+            throw new IllegalArgumentException("Modo de ejecución no soportado: " + modo);
+        }
+    }
+
+    public void ejecutar(ServidorDelegado delegado) {
+        Runnable tarea = new TareaDelegado(delegado);
+        try {
+            ejecutor.execute(tarea);
+        } catch (RejectedExecutionException e) {
+            rechazar(tarea);
+        }
+    }
+
+    public void detener() {
+        ejecutor.shutdown();
+    }
+
+    private void rechazar(Runnable tarea) {
+        rechazados.incrementAndGet();
+        if (tarea instanceof TareaDelegado) {
+            ((TareaDelegado) tarea).delegado.rechazar();
+        }
+    }
+
+    private ThreadFactory crearFabricaHilos() {
+        AtomicInteger numero = new AtomicInteger(0);
+        return r -> new Thread(r, "delegado-" + numero.incrementAndGet());
+    }
+
+    // Se busca por reflexión para que el proyecto siga compilando con JDK anteriores a 21 (también lo usa GeneradorCarga)
+    static ExecutorService crearEjecutorVirtual() {
+        try {
+            Method metodo = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) metodo.invoke(null);
+        } catch (ReflectiveOperationException | UnsupportedOperationException e) {
+            return null;
+        }
+    }
+
+    // true en modo "pool": el único en que una sesión abierta puede dejar a otra conexión sin hilo
+    public boolean isAcotado() {
+        return pool != null;
+    }
+
+    public boolean hayConexionesEsperando() {
+        return pool != null && !pool.getQueue().isEmpty();
+    }
+
+    public String getModo() {
+        return modo;
+    }
+
+    // Tamaño del pool; 0 en los modos sin límite ("hilo" y "virtual")
+    public int getHilos() {
+        return hilos;
+    }
+
+    public int getActivos() {
+        return activos.get();
+    }
+
+    public int getEnCola() {
+        return pool != null ? pool.getQueue().size() : 0;
+    }
+
+    public long getCompletados() {
+        return completados.get();
+    }
+
+    public long getRechazados() {
+        return rechazados.get();
+    }
+
+    private class TareaDelegado implements Runnable {
+        private final ServidorDelegado delegado;
+
+        TareaDelegado(ServidorDelegado delegado) {
+            this.delegado = delegado;
+        }
+
+        @Override
+        public void run() {
+            activos.incrementAndGet();
+            try {
+                delegado.run();
+            } finally {
+                activos.decrementAndGet();
+                completados.incrementAndGet();
+            }
+        }
+    }
+}
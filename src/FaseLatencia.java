@@ -0,0 +1,35 @@
+// Fases del protocolo con histograma de latencia propio en MetricasLatencia
+public enum FaseLatencia {
+    GENERACION_DH("generacion-dh"),
+    FIRMA("firma"),
+    ACUERDO_CLAVES("acuerdo-claves"),
+    CIFRADO_TABLA("cifrado-tabla"),
+    VERIFICACION_CONSULTA("verificacion-consulta"),
+    CONSULTA("consulta"),
+    LOTE("lote"),
+    HANDSHAKE_COMPLETO("handshake-completo"),
+    HANDSHAKE_REANUDADO("handshake-reanudado"),
+    SESION("sesion"),
+    // Del accept (bloqueante) o de la llegada del hello (NIO) hasta que un hilo empieza a atender la conexión
+    COLA("cola"),
+    RECARGA_TABLA("recarga-tabla");
+
+    private final String nombre;
+
+    FaseLatencia(String nombre) {
+        this.nombre = nombre;
+    }
+
+    public static FaseLatencia porNombre(String nombre) {
+        for (FaseLatencia fase : values()) {
+            if (fase.nombre.equalsIgnoreCase(nombre.trim())) {
+                return fase;
+            }
+        }
+        throw new IllegalArgumentException("Fase de latencia desconocida: " + nombre);
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+}
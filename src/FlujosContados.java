@@ -0,0 +1,66 @@
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// Envoltorios que cuentan los bytes que pasan por el socket, para medir bytes por sesión
+public class FlujosContados {
+
+    private FlujosContados() {
+    }
+
+    public static class Entrada extends FilterInputStream {
+        private long bytes;
+
+        public Entrada(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                bytes++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int leidos = super.read(b, off, len);
+            if (leidos > 0) {
+                bytes += leidos;
+            }
+            return leidos;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+
+    public static class Salida extends FilterOutputStream {
+        private long bytes;
+
+        public Salida(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            bytes++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            bytes += len;
+        }
+
+        public long getBytes() {
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,14 @@
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+
+// De dónde saca CacheServicios lo que no tiene en memoria: un servidor (PoolSesiones) o un cluster (ClienteCluster)
+public interface FuenteServicios {
+    InfoServicio consultar(String idServicio) throws IOException, GeneralSecurityException,
+            ClassNotFoundException, InterruptedException;
+
+    // Ids y nombres de la tabla de servicios
+    Map<String, String> servicios() throws IOException, GeneralSecurityException, InterruptedException;
+
+    void cerrar();
+}
@@ -0,0 +1,404 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// Generador de carga contra el servidor, con latencias completas por fase en vez de promedios.
+// Modo "cerrado": 'concurrencia' clientes hacen una operación tras otra sin pausa (el throughput lo decide el servidor).
+// Modo "abierto": las operaciones se lanzan a 'tasa' por segundo sin importar cuánto tarden las anteriores, con
+// como mucho 'concurrencia' en vuelo. La latencia de "operacion" se mide desde el instante en que la operación debía
+// empezar según la tasa y no desde que empezó de verdad (corrección de omisión coordinada); "servicio" es la sin corregir.
+// Escenario "handshake": cada operación abre una sesión, hace una consulta y la cierra (escenarios 1 y 2 de la hoja).
+// Escenario "sesion": cada cliente mantiene su sesión abierta y cada operación es una consulta.
+// La rampa sube la tasa (abierto) o arranca los clientes (cerrado) de forma lineal; lo que empieza durante
+// el calentamiento no se registra.
+public class GeneradorCarga {
+    private static final String[] FASES = {"operacion", "servicio", "handshake-completo", "handshake-reanudado",
+            "consulta", "cifrado-simetrico", "cifrado-asimetrico"};
+
+    private final String host;
+    private final int puerto;
+    private final String archivoClavePublica;
+    private String formato;
+    private String suites;
+    private String modosRegistro;
+    private boolean reanudacion;
+    private String modo;
+    private String escenario;
+    private double tasa;
+    private int concurrencia;
+    private long duracionNanos;
+    private long calentamientoNanos;
+    private long rampaNanos;
+
+    private Map<String, HistogramaLatencia> histogramas;
+    private Map<String, AtomicLong> errores;
+    // Clientes sin usar en este momento; en el escenario "sesion" quedan con la sesión abierta
+    private Queue<Cliente> clientesLibres;
+    private AtomicLong completadas;
+    private AtomicLong lanzadas;
+    private AtomicLong fallidas;
+    private AtomicLong ultimoFin;
+    private long inicio;
+    private String tipoHilos;
+
+    public GeneradorCarga(String host, int puerto, String archivoClavePublica) {
+        this.host = host;
+        this.puerto = puerto;
+        this.archivoClavePublica = archivoClavePublica;
+        this.formato = "binario";
+        this.suites = "x25519,p256,dh";
+        this.modosRegistro = ModoRegistro.preferenciaPorDefecto();
+        this.reanudacion = true;
+        this.modo = "cerrado";
+        this.escenario = "handshake";
+        this.tasa = 100;
+        this.concurrencia = 4;
+        this.duracionNanos = TimeUnit.SECONDS.toNanos(30);
+        this.calentamientoNanos = TimeUnit.SECONDS.toNanos(5);
+        this.rampaNanos = 0;
+    }
+
+    public void setFormato(String formato) {
+        this.formato = formato;
+    }
+
+    public void setSuites(String suites) {
+        this.suites = suites;
+    }
+
+    public void setModosRegistro(String modosRegistro) {
+        this.modosRegistro = modosRegistro;
+    }
+
+    // Con reanudación cada Cliente reutilizado presenta el ticket de su sesión anterior
+    public void setReanudacion(boolean reanudacion) {
+        this.reanudacion = reanudacion;
+    }
+
+    // "cerrado" o "abierto"; la tasa solo se usa en modo abierto
+    public void setModo(String modo, double tasa, int concurrencia) {
+        if (!"cerrado".equals(modo) && !"abierto".equals(modo)) {
+            throw new IllegalArgumentException("Modo de carga no soportado: " + modo);
+        }
+        if (concurrencia <= 0 || ("abierto".equals(modo) && tasa <= 0)) {
+            throw new IllegalArgumentException("La concurrencia y la tasa deben ser positivas");
+        }
+        this.modo = modo;
+        this.tasa = tasa;
+        this.concurrencia = concurrencia;
+    }
+
+    // "handshake" o "sesion"
+    public void setEscenario(String escenario) {
+        if (!"handshake".equals(escenario) && !"sesion".equals(escenario)) {
+            throw new IllegalArgumentException("Escenario de carga no soportado: " + escenario);
+        }
+        this.escenario = escenario;
+    }
+
+    public void setTiempos(double duracionSegundos, double calentamientoSegundos, double rampaSegundos) {
+        this.duracionNanos = (long) (duracionSegundos * 1_000_000_000L);
+        this.calentamientoNanos = (long) (calentamientoSegundos * 1_000_000_000L);
+        this.rampaNanos = (long) (rampaSegundos * 1_000_000_000L);
+    }
+
+    // Ejecuta la carga e imprime el resumen; si 'archivo' no es null también lo guarda en formato csv o json
+    public void ejecutar(String archivo, String formatoSalida) throws IOException, InterruptedException {
+        if (!"csv".equals(formatoSalida) && !"json".equals(formatoSalida)) {
+            throw new IllegalArgumentException("Formato de salida no soportado: " + formatoSalida);
+        }
+        histogramas = new LinkedHashMap<>();
+        for (String fase : FASES) {
+            histogramas.put(fase, new HistogramaLatencia());
+        }
+        errores = new ConcurrentHashMap<>();
+        clientesLibres = new ConcurrentLinkedQueue<>();
+        completadas = new AtomicLong(0);
+        lanzadas = new AtomicLong(0);
+        fallidas = new AtomicLong(0);
+        ultimoFin = new AtomicLong(0);
+
+        ExecutorService ejecutor = EjecutorDelegados.crearEjecutorVirtual();
+        tipoHilos = "virtuales";
+        if (ejecutor == null) {
+            // Antes de Java 21: hilos de plataforma, como mucho 'concurrencia' ocupados a la vez
+            AtomicInteger numero = new AtomicInteger(0);
+            ejecutor = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "carga-" + numero.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            tipoHilos = "plataforma";
+        }
+
+        // Cliente deja en la bitácora cada handshake y consulta; bajo carga eso solo mide la consola, así que
+        // mientras dura se dejan pasar solo avisos y errores
+        Bitacora.Nivel nivelOriginal = Bitacora.getNivel();
+        if (Bitacora.activo(Bitacora.Nivel.INFO)) {
+            Bitacora.setNivel(Bitacora.Nivel.AVISO);
+        }
+        long duracionReal;
+        try {
+            inicio = System.nanoTime();
+            if ("abierto".equals(modo)) {
+                ejecutarAbierto(ejecutor);
+            } else {
+                ejecutarCerrado(ejecutor);
+            }
+            ejecutor.shutdown();
+            ejecutor.awaitTermination(30, TimeUnit.SECONDS);
+            // Si el servidor no da abasto, las operaciones medidas terminan después de la ventana: el throughput
+            // se calcula hasta la última de ellas y no con la tasa pedida
+            duracionReal = Math.max(duracionNanos, ultimoFin.get() - inicio - calentamientoNanos);
+            Cliente cliente;
+            while ((cliente = clientesLibres.poll()) != null) {
+                cliente.cerrarSesion();
+            }
+        } finally {
+            Bitacora.setNivel(nivelOriginal);
+        }
+
+        System.out.println(resumen(duracionReal));
+        if (archivo != null) {
+            try (PrintStream salida = new PrintStream(new FileOutputStream(archivo), true, "UTF-8")) {
+                salida.print("json".equals(formatoSalida) ? json(duracionReal) : csv(duracionReal));
+            }
+            System.out.println("Resultados de carga guardados en " + archivo);
+        }
+    }
+
+    private void ejecutarAbierto(ExecutorService ejecutor) throws InterruptedException {
+        Semaphore enVuelo = new Semaphore(concurrencia);
+        long fin = calentamientoNanos + duracionNanos;
+        for (long i = 0; ; i++) {
+            long previsto = instantePrevisto(i);
+            if (previsto >= fin) {
+                break;
+            }
+            long espera = inicio + previsto - System.nanoTime();
+            if (espera > 0) {
+                LockSupport.parkNanos(espera);
+            }
+            // Si ya hay 'concurrencia' operaciones en vuelo se espera aquí, pero la latencia sigue contando desde 'previsto'
+            enVuelo.acquire();
+            lanzadas.incrementAndGet();
+            ejecutor.execute(() -> {
+                try {
+                    operacion(inicio + previsto);
+                } finally {
+                    enVuelo.release();
+                }
+            });
+        }
+    }
+
+    // Instante (desde el inicio) en que debe empezar la operación i: la tasa sube lineal de 0 a 'tasa' durante la rampa
+    private long instantePrevisto(long i) {
+        double segundosRampa = rampaNanos / 1_000_000_000.0;
+        double operacionesRampa = tasa * segundosRampa / 2;
+        double segundos = i < operacionesRampa
+                ? Math.sqrt(2 * i * segundosRampa / tasa)
+                : i / tasa + segundosRampa / 2;
+        return (long) (segundos * 1_000_000_000L);
+    }
+
+    private void ejecutarCerrado(ExecutorService ejecutor) throws InterruptedException {
+        long fin = inicio + calentamientoNanos + duracionNanos;
+        for (int c = 0; c < concurrencia; c++) {
+            long retraso = rampaNanos * c / concurrencia;
+            ejecutor.execute(() -> {
+                LockSupport.parkNanos(inicio + retraso - System.nanoTime());
+                long ahora;
+                while ((ahora = System.nanoTime()) < fin) {
+                    lanzadas.incrementAndGet();
+                    operacion(ahora);
+                }
+            });
+        }
+        LockSupport.parkNanos(fin - System.nanoTime());
+    }
+
+    private void operacion(long previsto) {
+        long comienzo = System.nanoTime();
+        boolean registrar = previsto - inicio >= calentamientoNanos;
+        Cliente cliente = clientesLibres.poll();
+        try {
+            if (cliente == null) {
+                cliente = crearCliente();
+            }
+            long handshake = -1;
+            if (!cliente.isSesionAbierta()) {
+                cliente.abrirSesion();
+                handshake = cliente.getTiempoHandshake();
+            }
+            List<String> ids = new ArrayList<>(cliente.getServicios().keySet());
+            String idServicio = ids.get(ThreadLocalRandom.current().nextInt(ids.size()));
+
+            long inicioConsulta = System.nanoTime();
+            cliente.consultar(idServicio);
+            long consulta = System.nanoTime() - inicioConsulta;
+
+            if ("handshake".equals(escenario)) {
+                cliente.cerrarSesion();
+            }
+            long terminado = System.nanoTime();
+            completadas.incrementAndGet();
+            // Microbenchmark aparte: fuera de la ventana de la operación para no inflar operacion ni servicio
+            long asimetrico = "handshake".equals(escenario) ? cliente.medirCifradoRSA() : -1;
+
+            if (registrar) {
+                ultimoFin.accumulateAndGet(terminado, Math::max);
+                histogramas.get("operacion").registrar(terminado - previsto);
+                histogramas.get("servicio").registrar(terminado - comienzo);
+                if (handshake >= 0) {
+                    histogramas.get(cliente.isSesionReanudada() ? "handshake-reanudado" : "handshake-completo")
+                            .registrar(handshake);
+                }
+                histogramas.get("consulta").registrar(consulta);
+                histogramas.get("cifrado-simetrico").registrar(cliente.getTiempoCifradoSimetrico());
+                if (asimetrico >= 0) {
+                    histogramas.get("cifrado-asimetrico").registrar(asimetrico);
+                }
+            }
+        } catch (Exception e) {
+            if (cliente != null) {
+                cliente.cerrarSesion();
+            }
+            fallidas.incrementAndGet();
+            Bitacora.error("[GeneradorCarga] " + e);
+            if (registrar) {
+                errores.computeIfAbsent(e.getClass().getSimpleName(), k -> new AtomicLong()).incrementAndGet();
+            }
+        } finally {
+            // El Cliente se reutiliza: conserva las claves cargadas y el ticket para reanudar la próxima sesión
+            if (cliente != null) {
+                clientesLibres.add(cliente);
+            }
+        }
+    }
+
+    private Cliente crearCliente() throws IOException, GeneralSecurityException {
+        Cliente cliente = new Cliente(host, puerto);
+        cliente.setFormato(formato);
+        cliente.setSuites(SuiteCifrado.lista(suites));
+        cliente.setModosRegistro(ModoRegistro.lista(modosRegistro));
+        cliente.setReanudacion(reanudacion);
+        cliente.cargarClavePublica(archivoClavePublica);
+        cliente.cargarClavesSuites(ClienteManager.directorioClaves(archivoClavePublica));
+        return cliente;
+    }
+
+    private long totalErrores() {
+        long total = 0;
+        for (AtomicLong conteo : errores.values()) {
+            total += conteo.get();
+        }
+        return total;
+    }
+
+    private double operacionesPorSegundo(long duracion) {
+        long medidas = histogramas.get("operacion").instantanea().getTotal();
+        return duracion > 0 ? medidas * 1_000_000_000.0 / duracion : 0;
+    }
+
+    private String descripcion() {
+        return "escenario " + escenario + ", modo " + modo
+                + ("abierto".equals(modo) ? " (" + tasa + " op/s)" : "")
+                + ", concurrencia " + concurrencia + ", hilos " + tipoHilos
+                + ", formato " + formato + ", suites " + suites + ", registro " + modosRegistro;
+    }
+
+    private String resumen(long duracion) {
+        StringBuilder sb = new StringBuilder("\n=== Resultados de carga ===\n");
+        sb.append(descripcion()).append('\n');
+        sb.append("Operaciones lanzadas: ").append(lanzadas.get()).append(", completadas: ").append(completadas.get())
+          .append(", fallidas: ").append(fallidas.get()).append(" (").append(totalErrores()).append(" fuera del calentamiento)");
+        if (!errores.isEmpty()) {
+            sb.append(' ').append(new TreeMap<>(errores));
+        }
+        sb.append(String.format(Locale.ROOT, "%nThroughput medido: %.2f op/s en %.1f s", operacionesPorSegundo(duracion),
+                duracion / 1_000_000_000.0));
+        for (Map.Entry<String, HistogramaLatencia> entrada : histogramas.entrySet()) {
+            HistogramaLatencia.Instantanea datos = entrada.getValue().instantanea();
+            if (datos.getTotal() > 0) {
+                sb.append("\n  ").append(String.format("%-20s", entrada.getKey())).append(datos.resumen());
+            }
+        }
+        return sb.toString();
+    }
+
+    // Una fila por fase; las columnas de configuración se repiten para poder juntar varias corridas en una hoja
+    private String csv(long duracion) {
+        StringBuilder sb = new StringBuilder("escenario,modo,tasa_objetivo,concurrencia,duracion_s,formato,suites,registro,"
+                + "ops_por_segundo,errores,fase,n,media_ns,p50_ns,p90_ns,p99_ns,p999_ns,max_ns\n");
+        String comun = String.format(Locale.ROOT, "%s,%s,%s,%d,%.1f,%s,%s,%s,%.2f,%d,", escenario, modo,
+                "abierto".equals(modo) ? String.valueOf(tasa) : "", concurrencia, duracion / 1_000_000_000.0, formato,
+                suites.replace(',', ' '), modosRegistro.replace(',', ' '), operacionesPorSegundo(duracion), totalErrores());
+        for (Map.Entry<String, HistogramaLatencia> entrada : histogramas.entrySet()) {
+            HistogramaLatencia.Instantanea datos = entrada.getValue().instantanea();
+            sb.append(comun).append(entrada.getKey()).append(',').append(datos.getTotal()).append(',')
+              .append(datos.getMedia()).append(',').append(datos.percentil(50)).append(',')
+              .append(datos.percentil(90)).append(',').append(datos.percentil(99)).append(',')
+              .append(datos.percentil(99.9)).append(',').append(datos.getMaximo()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private String json(long duracion) {
+        StringBuilder sb = new StringBuilder("{");
+        sb.append("\"escenario\":\"").append(escenario).append("\",\"modo\":\"").append(modo).append('"');
+        if ("abierto".equals(modo)) {
+            sb.append(",\"tasa_objetivo\":").append(tasa);
+        }
+        sb.append(",\"concurrencia\":").append(concurrencia)
+          .append(",\"hilos\":\"").append(tipoHilos).append('"')
+          .append(",\"formato\":\"").append(formato).append('"')
+          .append(",\"suites\":\"").append(suites).append('"')
+          .append(",\"registro\":\"").append(modosRegistro).append('"')
+          .append(String.format(Locale.ROOT, ",\"duracion_s\":%.3f", duracion / 1_000_000_000.0))
+          .append(",\"lanzadas\":").append(lanzadas.get())
+          .append(",\"completadas\":").append(completadas.get())
+          .append(",\"fallidas\":").append(fallidas.get())
+          .append(String.format(Locale.ROOT, ",\"ops_por_segundo\":%.2f", operacionesPorSegundo(duracion)))
+          .append(",\"errores\":{");
+        boolean primero = true;
+        for (Map.Entry<String, AtomicLong> error : new TreeMap<>(errores).entrySet()) {
+            sb.append(primero ? "" : ",").append('"').append(error.getKey()).append("\":").append(error.getValue().get());
+            primero = false;
+        }
+        sb.append("},\"fases\":{");
+        primero = true;
+        for (Map.Entry<String, HistogramaLatencia> entrada : histogramas.entrySet()) {
+            HistogramaLatencia.Instantanea datos = entrada.getValue().instantanea();
+            sb.append(primero ? "\n" : ",\n").append('"').append(entrada.getKey()).append("\":{")
+              .append("\"n\":").append(datos.getTotal())
+              .append(",\"media_ns\":").append(datos.getMedia())
+              .append(",\"p50_ns\":").append(datos.percentil(50))
+              .append(",\"p90_ns\":").append(datos.percentil(90))
+              .append(",\"p99_ns\":").append(datos.percentil(99))
+              .append(",\"p999_ns\":").append(datos.percentil(99.9))
+              .append(",\"max_ns\":").append(datos.getMaximo()).append('}');
+            primero = false;
+        }
+        sb.append("\n}}\n");
+        return sb.toString();
+    }
+}
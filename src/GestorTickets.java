@@ -0,0 +1,240 @@
+import java.nio.ByteBuffer;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.SecretKeySpec;
+
+// Emite y valida tickets de reanudación de sesión.
+// Un ticket es opaco para el cliente: [id de clave: 4][IV: 16][AES(idTicket, expiración, secreto)][HMAC: 32]
+// Las claves de ticket rotan periódicamente; se aceptan tickets de la clave actual y de la anterior.
+// Cada ticket se puede usar una sola vez: los ya usados quedan en una caché acotada hasta que expiran. La caché se
+// agrupa en tramos por hora de expiración, así que purgar es descartar los tramos vencidos y no recorrer cada ticket.
+public class GestorTickets {
+    private static final int TAMANO_ID_TICKET = 16;
+    private static final int TAMANO_SECRETO = 32;
+    private static final int TAMANO_HMAC = 32;
+    private static final int TRAMOS_POR_VIDA = 16;
+
+    private final long vidaTicketMs;
+    private final long periodoRotacionSegundos;
+    private final int capacidadCache;
+    private final long anchoTramoMs;
+    // Tramo (expiración / anchoTramoMs) -> ids de los tickets usados que expiran en él
+    private final ConcurrentSkipListMap<Long, Set<String>> ticketsUsados;
+    // Lugares ocupados de la caché: se reservan antes de insertar, así handshakes simultáneos no pasan del tope
+    private final AtomicInteger usados;
+    private volatile ClaveTicket claveActual;
+    private volatile ClaveTicket claveAnterior;
+    private int siguienteIdClave;
+    private ScheduledExecutorService rotador;
+
+    private final AtomicLong emitidos;
+    private final AtomicLong aceptados;
+    private final AtomicLong rechazadosExpirados;
+    private final AtomicLong rechazadosRepetidos;
+    private final AtomicLong rechazadosInvalidos;
+    private final AtomicLong rechazadosCacheLlena;
+
+    public GestorTickets(long vidaTicketSegundos, long periodoRotacionSegundos, int capacidadCache) {
+        this.vidaTicketMs = vidaTicketSegundos * 1000;
+        this.periodoRotacionSegundos = periodoRotacionSegundos;
+        this.capacidadCache = capacidadCache;
+        this.anchoTramoMs = Math.max(1000, vidaTicketMs / TRAMOS_POR_VIDA);
+        this.ticketsUsados = new ConcurrentSkipListMap<>();
+        this.usados = new AtomicInteger(0);
+        this.emitidos = new AtomicLong(0);
+        this.aceptados = new AtomicLong(0);
+        this.rechazadosExpirados = new AtomicLong(0);
+        this.rechazadosRepetidos = new AtomicLong(0);
+        this.rechazadosInvalidos = new AtomicLong(0);
+        this.rechazadosCacheLlena = new AtomicLong(0);
+        rotar();
+    }
+
+    public void iniciar() {
+        if (periodoRotacionSegundos <= 0) {
+            return;
+        }
+        rotador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "rotacion-tickets");
+            t.setDaemon(true);
+            return t;
+        });
+        rotador.scheduleAtFixedRate(() -> {
+            rotar();
+            purgarExpirados(System.currentTimeMillis());
+        }, periodoRotacionSegundos, periodoRotacionSegundos, TimeUnit.SECONDS);
+    }
+
+    public void detener() {
+        if (rotador != null) {
+            rotador.shutdownNow();
+        }
+    }
+
+    public synchronized void rotar() {
+        byte[] cifrado = new byte[32];
+        byte[] hmac = new byte[32];
+        MotorCripto.aleatorio().nextBytes(cifrado);
+        MotorCripto.aleatorio().nextBytes(hmac);
+        claveAnterior = claveActual;
+        claveActual = new ClaveTicket(siguienteIdClave++, new SecretKeySpec(cifrado, "AES"),
+                new SecretKeySpec(hmac, "HmacSHA256"));
+    }
+
+    public byte[] emitir(byte[] secretoReanudacion) {
+        ClaveTicket clave = claveActual;
+        byte[] idTicket = new byte[TAMANO_ID_TICKET];
+        MotorCripto.aleatorio().nextBytes(idTicket);
+
+        ByteBuffer plano = ByteBuffer.allocate(TAMANO_ID_TICKET + 8 + TAMANO_SECRETO);
+        plano.put(idTicket).putLong(System.currentTimeMillis() + vidaTicketMs).put(secretoReanudacion, 0, TAMANO_SECRETO);
+
+        byte[] iv = CryptoUtils.generarIV();
+        byte[] cifrado = CryptoUtils.cifrarAES(plano.array(), clave.cifrado, iv);
+
+        ByteBuffer ticket = ByteBuffer.allocate(4 + iv.length + cifrado.length + TAMANO_HMAC);
+        ticket.putInt(clave.id).put(iv).put(cifrado);
+        byte[] hmac = CryptoUtils.generarHMAC(sinHMAC(ticket.array()), clave.hmac);
+        ticket.put(hmac);
+
+        emitidos.incrementAndGet();
+        return ticket.array();
+    }
+
+    // Devuelve el secreto de reanudación, o null si el ticket no sirve y hay que hacer el handshake completo
+    public byte[] validar(byte[] ticket) {
+        if (ticket == null || ticket.length < 4 + 16 + 16 + TAMANO_HMAC) {
+            rechazadosInvalidos.incrementAndGet();
+            return null;
+        }
+        int idClave = ByteBuffer.wrap(ticket, 0, 4).getInt();
+        ClaveTicket clave = buscarClave(idClave);
+        if (clave == null) {
+            rechazadosInvalidos.incrementAndGet();
+            return null;
+        }
+
+        byte[] datos = sinHMAC(ticket);
+        byte[] hmac = new byte[TAMANO_HMAC];
+        System.arraycopy(ticket, ticket.length - TAMANO_HMAC, hmac, 0, TAMANO_HMAC);
+        if (!CryptoUtils.verificarHMAC(datos, hmac, clave.hmac)) {
+            rechazadosInvalidos.incrementAndGet();
+            return null;
+        }
+
+        byte[] iv = new byte[16];
+        System.arraycopy(datos, 4, iv, 0, 16);
+        byte[] cifrado = new byte[datos.length - 20];
+        System.arraycopy(datos, 20, cifrado, 0, cifrado.length);
+        ByteBuffer plano;
+        try {
+            plano = ByteBuffer.wrap(CryptoUtils.descifrarAES(cifrado, clave.cifrado, iv));
+        } catch (RuntimeException e) {
+            rechazadosInvalidos.incrementAndGet();
+            return null;
+        }
+        if (plano.remaining() != TAMANO_ID_TICKET + 8 + TAMANO_SECRETO) {
+            rechazadosInvalidos.incrementAndGet();
+            return null;
+        }
+
+        byte[] idTicket = new byte[TAMANO_ID_TICKET];
+        plano.get(idTicket);
+        long expira = plano.getLong();
+        byte[] secreto = new byte[TAMANO_SECRETO];
+        plano.get(secreto);
+
+        long ahora = System.currentTimeMillis();
+        if (ahora > expira) {
+            rechazadosExpirados.incrementAndGet();
+            return null;
+        }
+
+        if (!reservarLugar(ahora)) {
+            // Sin espacio para recordar el ticket no se puede garantizar un solo uso
+            rechazadosCacheLlena.incrementAndGet();
+            return null;
+        }
+        Set<String> tramo = ticketsUsados.computeIfAbsent(expira / anchoTramoMs, t -> ConcurrentHashMap.newKeySet());
+        if (!tramo.add(Base64.getEncoder().encodeToString(idTicket))) {
+            usados.decrementAndGet();
+            rechazadosRepetidos.incrementAndGet();
+            return null;
+        }
+
+        aceptados.incrementAndGet();
+        return secreto;
+    }
+
+    private ClaveTicket buscarClave(int idClave) {
+        ClaveTicket actual = claveActual;
+        if (actual != null && actual.id == idClave) {
+            return actual;
+        }
+        ClaveTicket anterior = claveAnterior;
+        if (anterior != null && anterior.id == idClave) {
+            return anterior;
+        }
+        return null;
+    }
+
+    // Si la caché está llena se purga una vez y se vuelve a intentar
+    private boolean reservarLugar(long ahora) {
+        if (usados.incrementAndGet() <= capacidadCache) {
+            return true;
+        }
+        usados.decrementAndGet();
+        purgarExpirados(ahora);
+        if (usados.incrementAndGet() <= capacidadCache) {
+            return true;
+        }
+        usados.decrementAndGet();
+        return false;
+    }
+
+    // Solo tramos enteros: los tickets del tramo en curso esperan a que termine, pero validar ya los rechaza por
+    // expirados. Se deja un tramo de margen para no quitar uno en el que otro hilo, con un reloj un poco atrasado,
+    // todavía esté insertando: ese lugar no se descontaría nunca
+    private void purgarExpirados(long ahora) {
+        for (Long vencido : ticketsUsados.headMap((ahora - anchoTramoMs) / anchoTramoMs).keySet()) {
+            Set<String> tramo = ticketsUsados.remove(vencido);
+            if (tramo != null) {
+                usados.addAndGet(-tramo.size());
+            }
+        }
+    }
+
+    private static byte[] sinHMAC(byte[] ticket) {
+        byte[] datos = new byte[ticket.length - TAMANO_HMAC];
+        System.arraycopy(ticket, 0, datos, 0, datos.length);
+        return datos;
+    }
+
+    public String resumen() {
+        return "Tickets - emitidos: " + emitidos.get() + ", aceptados: " + aceptados.get()
+                + ", expirados: " + rechazadosExpirados.get() + ", repetidos: " + rechazadosRepetidos.get()
+                + ", inválidos: " + rechazadosInvalidos.get() + ", caché llena: " + rechazadosCacheLlena.get()
+                + ", en caché: " + usados.get();
+    }
+
+    private static class ClaveTicket {
+        private final int id;
+        private final SecretKey cifrado;
+        private final SecretKey hmac;
+
+        ClaveTicket(int id, SecretKey cifrado, SecretKey hmac) {
+            this.id = id;
+            this.cifrado = cifrado;
+            this.hmac = hmac;
+        }
+    }
+}
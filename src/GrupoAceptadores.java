@@ -0,0 +1,363 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+// Aceptadores del transporte bloqueante: N hilos, cada uno bloqueado en el accept() de su propio socket de escucha.
+// Con SO_REUSEPORT (Linux) los N ServerSocketChannel se ligan al mismo puerto y el kernel reparte las conexiones
+// nuevas entre ellos por hash de origen: cada uno tiene su propia cola de escucha de backlog entradas y ningún
+// accept() espera el candado de otro. Sin SO_REUSEPORT los hilos comparten un solo socket.
+// Por aceptador se cuentan las conexiones aceptadas y el tiempo fuera de accept() (configurar el socket y entregarlo
+// al ejecutor); si se acerca al 100% ese hilo es el cuello de botella. En Linux, si se pide un periodo de muestreo,
+// se lee /proc/net/tcp: para un socket en LISTEN, rx_queue es la cola de accept pendiente, así que se ve cuánto se
+// llena la de cada aceptador frente a su máximo (el backlog recortado a somaxconn). Leer y partir la tabla entera
+// cuesta en proporción a las conexiones del sistema, por eso va apagado por defecto. /proc/net/netstat da siempre
+// los desbordes (ListenOverflows) y descartes (ListenDrops), que el kernel solo cuenta para todo el sistema.
+public class GrupoAceptadores {
+    private static final int TIEMPO_ESPERA_ACCEPT = 300000;
+    private static final Path TCP = Paths.get("/proc/net/tcp");
+    private static final Path TCP6 = Paths.get("/proc/net/tcp6");
+    private static final Path NETSTAT = Paths.get("/proc/net/netstat");
+    private static final Path SOMAXCONN = Paths.get("/proc/sys/net/core/somaxconn");
+
+    private final int puerto;
+    private final OpcionesSocket opciones;
+    private final Aceptador[] aceptadores;
+    private final long periodoMuestreo;
+    private boolean reusePort;
+    private int backlogEfectivo;
+    private long[] desbordesIniciales;
+    private long inicio;
+    private ScheduledExecutorService muestreo;
+
+    // periodoMuestreo en ms; <= 0 no muestrea las colas de escucha
+    public GrupoAceptadores(int puerto, int cantidad, OpcionesSocket opciones, long periodoMuestreo) {
+        if (cantidad < 1) {
+            throw new IllegalArgumentException("Se necesita al menos un aceptador: " + cantidad);
+        }
+        this.puerto = puerto;
+        this.opciones = opciones;
+        this.aceptadores = new Aceptador[cantidad];
+        this.periodoMuestreo = periodoMuestreo;
+    }
+
+    public void abrir() throws IOException {
+        reusePort = aceptadores.length > 1;
+        backlogEfectivo = opciones.getBacklog();
+        try {
+            backlogEfectivo = Math.min(backlogEfectivo, Integer.parseInt(new String(Files.readAllBytes(SOMAXCONN),
+                    StandardCharsets.US_ASCII).trim()));
+        } catch (IOException | NumberFormatException e) {
+            // fuera de Linux queda el backlog pedido
+        }
+        desbordesIniciales = leerDesbordes();
+        Set<Long> inodos = new HashSet<>();
+        ServerSocketChannel compartido = null;
+        try {
+            for (int i = 0; i < aceptadores.length; i++) {
+                if (compartido != null) {
+                    aceptadores[i] = new Aceptador(i, compartido, aceptadores[0].inodo);
+                    continue;
+                }
+                ServerSocketChannel canal = ServerSocketChannel.open();
+                aceptadores[i] = new Aceptador(i, canal, -1);
+                opciones.aplicarEscucha(canal);
+                if (reusePort && OpcionesSocket.soporta(canal, StandardSocketOptions.SO_REUSEPORT)) {
+                    canal.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                } else if (reusePort) {
+                    Bitacora.aviso("SO_REUSEPORT no disponible: los " + aceptadores.length + " aceptadores comparten un socket");
+                    reusePort = false;
+                }
+                if (!reusePort) {
+                    compartido = canal;
+                }
+                canal.bind(new InetSocketAddress(puerto), opciones.getBacklog());
+                canal.socket().setSoTimeout(TIEMPO_ESPERA_ACCEPT);
+                if (periodoMuestreo > 0) {
+                    aceptadores[i].inodo = inodoNuevo(inodos);
+                }
+            }
+        } catch (IOException e) {
+            cerrar();
+            throw e;
+        }
+        inicio = System.nanoTime();
+    }
+
+    // Bloquea hasta que se cierren los sockets; atender recibe cada conexión ya configurada
+    public void ejecutar(Consumer<Socket> atender) throws InterruptedException {
+        if (periodoMuestreo > 0 && Files.isReadable(TCP)) {
+            muestreo = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "muestreo-escucha");
+                t.setDaemon(true);
+                return t;
+            });
+            muestreo.scheduleAtFixedRate(this::muestrear, periodoMuestreo, periodoMuestreo, TimeUnit.MILLISECONDS);
+        }
+        Thread[] hilos = new Thread[aceptadores.length];
+        for (int i = 0; i < aceptadores.length; i++) {
+            Aceptador aceptador = aceptadores[i];
+            hilos[i] = new Thread(() -> aceptador.aceptar(atender), "aceptador-" + i);
+            hilos[i].start();
+        }
+        for (Thread hilo : hilos) {
+            hilo.join();
+        }
+    }
+
+    public void cerrar() {
+        if (muestreo != null) {
+            muestreo.shutdownNow();
+        }
+        for (Aceptador aceptador : aceptadores) {
+            if (aceptador != null) {
+                try {
+                    aceptador.canal.close();
+                } catch (IOException e) {
+                    Bitacora.error("Error cerrando el socket de escucha " + aceptador.numero + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private class Aceptador {
+        private final int numero;
+        private final ServerSocketChannel canal;
+        private final AtomicLong aceptadas;
+        private final AtomicLong errores;
+        private final AtomicLong nanosOcupado;
+        // Inodo del socket en /proc/net/tcp, -1 si no se encontró; los campos de la cola los escribe el muestreo
+        private long inodo;
+        private volatile int cola;
+        private volatile int colaMaxima;
+        private final AtomicLong muestrasLlenas;
+
+        private Aceptador(int numero, ServerSocketChannel canal, long inodo) {
+            this.numero = numero;
+            this.canal = canal;
+            this.inodo = inodo;
+            this.aceptadas = new AtomicLong(0);
+            this.errores = new AtomicLong(0);
+            this.nanosOcupado = new AtomicLong(0);
+            this.muestrasLlenas = new AtomicLong(0);
+        }
+
+        private void aceptar(Consumer<Socket> atender) {
+            while (canal.isOpen()) {
+                Socket socket;
+                try {
+                    socket = canal.socket().accept();
+                } catch (SocketTimeoutException e) {
+                    if (numero == 0) {
+                        Bitacora.info("Esperando conexiones... (30s sin actividad)");
+                    }
+                    continue;
+                } catch (IOException e) {
+                    if (!canal.isOpen()) {
+                        break;
+                    }
+                    // Por ejemplo sin descriptores libres: se espera un poco en vez de girar sobre el error
+                    errores.incrementAndGet();
+                    Bitacora.error("[Aceptador " + numero + "] Error en accept: " + e.getMessage());
+                    dormir(10);
+                    continue;
+                }
+                long inicioAtencion = System.nanoTime();
+                aceptadas.incrementAndGet();
+                try {
+                    socket.setSoTimeout(TIEMPO_ESPERA_ACCEPT);
+                    opciones.aplicar(socket.getChannel());
+                    atender.accept(socket);
+                } catch (IOException e) {
+                    errores.incrementAndGet();
+                    Bitacora.error("[Aceptador " + numero + "] No se pudo configurar la conexión: " + e.getMessage());
+                    try {
+                        socket.close();
+                    } catch (IOException ignorada) {
+                        // ya se registró el error
+                    }
+                }
+                nanosOcupado.addAndGet(System.nanoTime() - inicioAtencion);
+            }
+        }
+    }
+
+    private static void dormir(long milisegundos) {
+        try {
+            Thread.sleep(milisegundos);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void muestrear() {
+        Map<Long, Integer> colas = leerColas(puerto);
+        for (Aceptador aceptador : aceptadores) {
+            Integer cola = colas.get(aceptador.inodo);
+            if (cola == null) {
+                continue;
+            }
+            aceptador.cola = cola;
+            if (cola > aceptador.colaMaxima) {
+                aceptador.colaMaxima = cola;
+            }
+            // El kernel admite backlog + 1 antes de desbordar
+            if (cola > backlogEfectivo) {
+                aceptador.muestrasLlenas.incrementAndGet();
+            }
+        }
+    }
+
+    // El socket que acaba de pasar a LISTEN es el único inodo del puerto que todavía no es de otro aceptador
+    private long inodoNuevo(Set<Long> conocidos) {
+        for (Long inodo : leerColas(puerto).keySet()) {
+            if (conocidos.add(inodo)) {
+                return inodo;
+            }
+        }
+        return -1;
+    }
+
+    // inodo -> conexiones esperando accept, de los sockets en LISTEN del puerto
+    private static Map<Long, Integer> leerColas(int puerto) {
+        Map<Long, Integer> colas = new HashMap<>();
+        for (Path archivo : new Path[]{TCP, TCP6}) {
+            List<String> lineas;
+            try {
+                lineas = Files.readAllLines(archivo, StandardCharsets.US_ASCII);
+            } catch (IOException e) {
+                continue;
+            }
+            for (int i = 1; i < lineas.size(); i++) {
+                String[] campos = lineas.get(i).trim().split("\\s+");
+                // sl local_address rem_address st tx_queue:rx_queue tr:tm->when retrnsmt uid timeout inode
+                if (campos.length < 10 || !"0A".equals(campos[3])) {
+                    continue;
+                }
+                String local = campos[1];
+                if (Integer.parseInt(local.substring(local.indexOf(':') + 1), 16) != puerto) {
+                    continue;
+                }
+                String colaRecepcion = campos[4].substring(campos[4].indexOf(':') + 1);
+                colas.put(Long.parseLong(campos[9]), Integer.parseInt(colaRecepcion, 16));
+            }
+        }
+        return colas;
+    }
+
+    // {ListenOverflows, ListenDrops} de TcpExt, o null fuera de Linux
+    private static long[] leerDesbordes() {
+        List<String> lineas;
+        try {
+            lineas = Files.readAllLines(NETSTAT, StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            return null;
+        }
+        for (int i = 0; i + 1 < lineas.size(); i++) {
+            if (!lineas.get(i).startsWith("TcpExt:") || !lineas.get(i + 1).startsWith("TcpExt:")) {
+                continue;
+            }
+            String[] nombres = lineas.get(i).split("\\s+");
+            String[] valores = lineas.get(i + 1).split("\\s+");
+            long[] desbordes = new long[2];
+            for (int j = 1; j < nombres.length && j < valores.length; j++) {
+                if ("ListenOverflows".equals(nombres[j])) {
+                    desbordes[0] = Long.parseLong(valores[j]);
+                } else if ("ListenDrops".equals(nombres[j])) {
+                    desbordes[1] = Long.parseLong(valores[j]);
+                }
+            }
+            return desbordes;
+        }
+        return null;
+    }
+
+    public int getCantidad() {
+        return aceptadores.length;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public long getAceptadas(int aceptador) {
+        return aceptadores[aceptador].aceptadas.get();
+    }
+
+    public long getErrores(int aceptador) {
+        return aceptadores[aceptador].errores.get();
+    }
+
+    // Conexiones en la cola de escucha en el último muestreo; -1 si no se puede leer
+    public int getCola(int aceptador) {
+        return aceptadores[aceptador].inodo >= 0 && muestreo != null ? aceptadores[aceptador].cola : -1;
+    }
+
+    // El backlog pedido recortado a net.core.somaxconn
+    public int getBacklogEfectivo() {
+        return backlogEfectivo;
+    }
+
+    public int getColaMaxima(int aceptador) {
+        return aceptadores[aceptador].colaMaxima;
+    }
+
+    // Muestreos en los que la cola estaba llena: las conexiones que llegaron entonces se perdieron o esperaron
+    public long getMuestrasLlenas(int aceptador) {
+        return aceptadores[aceptador].muestrasLlenas.get();
+    }
+
+    // Fracción del tiempo desde abrir() que el hilo pasó fuera de accept()
+    public double getOcupacion(int aceptador) {
+        long transcurrido = System.nanoTime() - inicio;
+        return transcurrido > 0 ? aceptadores[aceptador].nanosOcupado.get() / (double) transcurrido : 0;
+    }
+
+    // Desbordes de colas de escucha en todo el sistema desde abrir(); -1 fuera de Linux
+    public long getDesbordes() {
+        long[] actuales = leerDesbordes();
+        return actuales != null && desbordesIniciales != null ? actuales[0] - desbordesIniciales[0] : -1;
+    }
+
+    public long getDescartes() {
+        long[] actuales = leerDesbordes();
+        return actuales != null && desbordesIniciales != null ? actuales[1] - desbordesIniciales[1] : -1;
+    }
+
+    public String resumen() {
+        double segundos = (System.nanoTime() - inicio) / 1e9;
+        StringBuilder sb = new StringBuilder("Aceptadores: " + aceptadores.length
+                + (reusePort ? " con SO_REUSEPORT" : aceptadores.length > 1 ? " sobre un socket" : "")
+                + ", " + opciones.resumen());
+        for (int i = 0; i < aceptadores.length; i++) {
+            sb.append(String.format("%n  aceptador-%d: %d conexiones (%.1f/s), ocupado %.1f%%, errores %d", i,
+                    getAceptadas(i), segundos > 0 ? getAceptadas(i) / segundos : 0, 100 * getOcupacion(i), getErrores(i)));
+            if (getCola(i) >= 0) {
+                sb.append(", cola máxima ").append(getColaMaxima(i)).append(" de ").append(backlogEfectivo)
+                  .append(", muestras con la cola llena ").append(getMuestrasLlenas(i));
+            }
+        }
+        long desbordes = getDesbordes();
+        if (desbordes >= 0) {
+            sb.append("\n  colas de escucha del sistema - desbordes: ").append(desbordes)
+              .append(", descartes: ").append(getDescartes());
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,151 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+// Histograma de latencias en nanosegundos con cubetas log-lineales: exactas hasta 64 ns y después
+// 32 cubetas por potencia de dos (error relativo menor al 3 %), hasta unos 18 minutos.
+// Cada hilo registra en una de varias franjas elegida por su id, así que registrar es un incremento
+// casi sin contención; las franjas solo se suman al tomar una instantánea.
+public class HistogramaLatencia {
+    private static final int BITS_SUBCUBETA = 5;
+    private static final int SUBCUBETAS = 1 << BITS_SUBCUBETA;
+    private static final int LINEALES = SUBCUBETAS * 2;
+    private static final int BIT_MAXIMO = 40;
+    private static final long VALOR_MAXIMO = 1L << BIT_MAXIMO;
+    static final int CUBETAS = LINEALES + (BIT_MAXIMO - 1 - BITS_SUBCUBETA) * SUBCUBETAS;
+
+    // Cada franja guarda los conteos por cubeta y, en la última posición, la suma de nanosegundos
+    private final AtomicLongArray[] franjas;
+    private final int mascara;
+
+    public HistogramaLatencia() {
+        int procesadores = Runtime.getRuntime().availableProcessors();
+        int cantidad = Math.min(32, Integer.highestOneBit(Math.max(1, procesadores * 2 - 1)));
+        this.franjas = new AtomicLongArray[cantidad];
+        for (int i = 0; i < cantidad; i++) {
+            franjas[i] = new AtomicLongArray(CUBETAS + 1);
+        }
+        this.mascara = cantidad - 1;
+    }
+
+    public void registrar(long nanos) {
+        AtomicLongArray franja = franjas[(int) Thread.currentThread().getId() & mascara];
+        franja.incrementAndGet(indice(nanos));
+        franja.addAndGet(CUBETAS, nanos);
+    }
+
+    public Instantanea instantanea() {
+        long[] conteos = new long[CUBETAS];
+        long suma = 0;
+        for (AtomicLongArray franja : franjas) {
+            for (int i = 0; i < CUBETAS; i++) {
+                conteos[i] += franja.get(i);
+            }
+            suma += franja.get(CUBETAS);
+        }
+        return new Instantanea(conteos, suma);
+    }
+
+    static int indice(long nanos) {
+        if (nanos < LINEALES) {
+            return nanos < 0 ? 0 : (int) nanos;
+        }
+        if (nanos >= VALOR_MAXIMO) {
+            return CUBETAS - 1;
+        }
+        int desplazamiento = 63 - Long.numberOfLeadingZeros(nanos) - BITS_SUBCUBETA;
+        return LINEALES + (desplazamiento - 1) * SUBCUBETAS + (int) (nanos >>> desplazamiento) - SUBCUBETAS;
+    }
+
+    // Se informa el límite superior de la cubeta, así un percentil nunca queda por debajo del valor real
+    static long limiteSuperior(int indice) {
+        if (indice < LINEALES) {
+            return indice;
+        }
+        int desplazamiento = (indice - LINEALES) / SUBCUBETAS + 1;
+        long mantisa = (indice - LINEALES) % SUBCUBETAS + SUBCUBETAS;
+        return ((mantisa + 1) << desplazamiento) - 1;
+    }
+
+    // ns, µs, ms o s según la magnitud, para que una misma línea sirva para HMAC y para generar parámetros DH
+    public static String formatear(long nanos) {
+        if (nanos < 1_000_000L) {
+            return String.format(Locale.ROOT, "%.1f µs", nanos / 1_000.0);
+        }
+        if (nanos < 1_000_000_000L) {
+            return String.format(Locale.ROOT, "%.2f ms", nanos / 1_000_000.0);
+        }
+        return String.format(Locale.ROOT, "%.2f s", nanos / 1_000_000_000.0);
+    }
+
+    // Conteos acumulados en un momento dado; la resta de dos instantáneas da las muestras del intervalo
+    public static class Instantanea {
+        private final long[] conteos;
+        private final long suma;
+        private final long total;
+
+        private Instantanea(long[] conteos, long suma) {
+            this.conteos = conteos;
+            this.suma = suma;
+            long total = 0;
+            for (long conteo : conteos) {
+                total += conteo;
+            }
+            this.total = total;
+        }
+
+        public Instantanea menos(Instantanea anterior) {
+            long[] diferencia = new long[CUBETAS];
+            for (int i = 0; i < CUBETAS; i++) {
+                diferencia[i] = conteos[i] - anterior.conteos[i];
+            }
+            return new Instantanea(diferencia, suma - anterior.suma);
+        }
+
+        public long getTotal() {
+            return total;
+        }
+
+        public long getSuma() {
+            return suma;
+        }
+
+        public long getMedia() {
+            return total > 0 ? suma / total : 0;
+        }
+
+        // percentil entre 0 y 100
+        public long percentil(double percentil) {
+            if (total == 0) {
+                return 0;
+            }
+            long posicion = Math.max(1, (long) Math.ceil(percentil / 100.0 * total));
+            long acumulado = 0;
+            for (int i = 0; i < CUBETAS; i++) {
+                acumulado += conteos[i];
+                if (acumulado >= posicion) {
+                    return limiteSuperior(i);
+                }
+            }
+            return limiteSuperior(CUBETAS - 1);
+        }
+
+        public long getMaximo() {
+            for (int i = CUBETAS - 1; i >= 0; i--) {
+                if (conteos[i] > 0) {
+                    return limiteSuperior(i);
+                }
+            }
+            return 0;
+        }
+
+        public String resumen() {
+            return "n=" + total
+                    + " media=" + formatear(getMedia())
+                    + " p50=" + formatear(percentil(50))
+                    + " p90=" + formatear(percentil(90))
+                    + " p99=" + formatear(percentil(99))
+                    + " p999=" + formatear(percentil(99.9))
+                    + " max=" + formatear(getMaximo());
+        }
+    }
+}
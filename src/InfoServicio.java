@@ -1,9 +1,10 @@
 import java.io.Serializable;
 
+// Inmutable: la misma instancia se comparte entre todas las conexiones a través de TablaServicios
 public class InfoServicio implements Serializable {
-    private String servicio;
-    private String ip;
-    private String puerto;
+    private final String servicio;
+    private final String ip;
+    private final String puerto;
     
     public InfoServicio(String servicio, String ip, String puerto) {
         this.servicio = servicio;
@@ -15,26 +16,14 @@ public class InfoServicio implements Serializable {
         return servicio;
     }
 
-    public void setServicio(String servicio) {
-        this.servicio = servicio;
-    }
-
     public String getIp() {
         return ip;
     }
 
-    public void setIp(String ip) {
-        this.ip = ip;
-    }
-
     public String getPuerto() {
         return puerto;
     }
 
-    public void setPuerto(String puerto) {
-        this.puerto = puerto;
-    }
-
     @Override
     public String toString() {
         return "Servicio: " + servicio + ", IP: " + ip + ", Puerto: " + puerto;
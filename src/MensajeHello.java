@@ -0,0 +1,147 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Primer intercambio de la conexión, antes de cualquier acuerdo de claves.
+// Cliente -> servidor: [modo: 1 byte][n: 1 byte][suites ofrecidas: n bytes][m: 1 byte][modos de registro: m bytes]
+//                      [versión de tabla que ya tiene: 8 bytes, 0 si ninguna][nonce: 32 bytes][ticket (solo si pide reanudar)]
+// Servidor -> cliente: [modo aceptado: 1 byte][1][suite elegida: 1 byte][1][modo de registro elegido: 1 byte][0: 8 bytes]
+//                      [nonce: 32 bytes]
+// Si el servidor responde COMPLETO se sigue con el handshake de la suite elegida; si responde REANUDADO
+// ambos derivan las claves del secreto del ticket y de la transcripción y se pasa directo a la tabla.
+// La transcripción (SHA-256 de los dos hellos tal como viajaron) entra en la firma del servidor en todas las
+// suites y en las claves de una sesión reanudada: un intermediario que quite suites o modos de la oferta para
+// forzar uno más débil cambia la transcripción, y la firma o las claves dejan de coincidir.
+// Si responde RECHAZADO (ControlAdmision) no elige suite ni modo, el campo de versión lleva los milisegundos
+// sugeridos antes de reintentar, el nonce va en cero y el servidor cierra la conexión.
+public class MensajeHello {
+    public static final byte COMPLETO = 1;
+    public static final byte REANUDADO = 2;
+    public static final byte RECHAZADO = 3;
+
+    public static final int TAMANO_NONCE = 32;
+
+    private final byte modo;
+    private final byte[] suites;
+    private final byte[] modosRegistro;
+    private final long versionTabla;
+    private final byte[] nonce;
+    private final byte[] ticket;
+
+    public MensajeHello(byte modo, byte[] suites, byte[] modosRegistro, long versionTabla, byte[] nonce, byte[] ticket) {
+        this.modo = modo;
+        this.suites = suites;
+        this.modosRegistro = modosRegistro;
+        this.versionTabla = versionTabla;
+        this.nonce = nonce;
+        this.ticket = ticket;
+    }
+
+    public byte[] codificar() {
+        int tamanoTicket = ticket != null ? ticket.length : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(3 + suites.length + modosRegistro.length + 8 + TAMANO_NONCE + tamanoTicket);
+        buffer.put(modo).put((byte) suites.length).put(suites).put((byte) modosRegistro.length).put(modosRegistro)
+              .putLong(versionTabla).put(nonce);
+        if (ticket != null) {
+            buffer.put(ticket);
+        }
+        return buffer.array();
+    }
+
+    public static MensajeHello decodificar(byte[] datos) throws IOException {
+        if (datos.length < 2) {
+            throw new IOException("Mensaje hello demasiado corto: " + datos.length);
+        }
+        byte modo = datos[0];
+        if (modo != COMPLETO && modo != REANUDADO && modo != RECHAZADO) {
+            throw new IOException("Modo de hello desconocido: " + modo);
+        }
+        int numSuites = datos[1] & 0xFF;
+        if (datos.length < 3 + numSuites) {
+            throw new IOException("Mensaje hello demasiado corto: " + datos.length);
+        }
+        byte[] suites = new byte[numSuites];
+        System.arraycopy(datos, 2, suites, 0, numSuites);
+        int numModos = datos[2 + numSuites] & 0xFF;
+        int inicioVersion = 3 + numSuites + numModos;
+        int inicioNonce = inicioVersion + 8;
+        if (datos.length < inicioNonce + TAMANO_NONCE) {
+            throw new IOException("Mensaje hello demasiado corto: " + datos.length);
+        }
+        byte[] modosRegistro = new byte[numModos];
+        System.arraycopy(datos, 3 + numSuites, modosRegistro, 0, numModos);
+        long versionTabla = ByteBuffer.wrap(datos, inicioVersion, 8).getLong();
+        byte[] nonce = new byte[TAMANO_NONCE];
+        System.arraycopy(datos, inicioNonce, nonce, 0, TAMANO_NONCE);
+        byte[] ticket = null;
+        if (datos.length > inicioNonce + TAMANO_NONCE) {
+            ticket = new byte[datos.length - inicioNonce - TAMANO_NONCE];
+            System.arraycopy(datos, inicioNonce + TAMANO_NONCE, ticket, 0, ticket.length);
+        }
+        return new MensajeHello(modo, suites, modosRegistro, versionTabla, nonce, ticket);
+    }
+
+    // Respuesta del servidor a una conexión que no admite; no cuesta más que armar estos 43 bytes
+    public static MensajeHello rechazo(long esperaMilisegundos) {
+        return new MensajeHello(RECHAZADO, new byte[0], new byte[0], esperaMilisegundos, new byte[TAMANO_NONCE], null);
+    }
+
+    // Hello del cliente y respuesta del servidor codificados, cada uno con su longitud delante
+    public static byte[] transcripcion(byte[] helloCliente, byte[] helloServidor) {
+        try {
+            MessageDigest sha = MotorCripto.digest("SHA-256");
+            sha.update(ByteBuffer.allocate(4).putInt(helloCliente.length).array());
+            sha.update(helloCliente);
+            sha.update(ByteBuffer.allocate(4).putInt(helloServidor.length).array());
+            sha.update(helloServidor);
+            return sha.digest();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException("SHA-256 no disponible", e);
+        }
+    }
+
+    // Datos que firma el servidor: la transcripción más las claves públicas del acuerdo (la efímera del servidor
+    // en las suites de curva elíptica; la del servidor y la del cliente en DH_RSA)
+    public static byte[] datosFirmaHandshake(byte[] transcripcion, byte[]... clavesPublicas) {
+        int tamano = transcripcion.length;
+        for (byte[] clave : clavesPublicas) {
+            tamano += 4 + clave.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(tamano);
+        buffer.put(transcripcion);
+        for (byte[] clave : clavesPublicas) {
+            buffer.putInt(clave.length).put(clave);
+        }
+        return buffer.array();
+    }
+
+    public byte getModo() {
+        return modo;
+    }
+
+    public byte[] getSuites() {
+        return suites;
+    }
+
+    public byte[] getModosRegistro() {
+        return modosRegistro;
+    }
+
+    public long getVersionTabla() {
+        return versionTabla;
+    }
+
+    // Solo en un RECHAZADO
+    public long getEsperaSugerida() {
+        return versionTabla;
+    }
+
+    public byte[] getNonce() {
+        return nonce;
+    }
+
+    public byte[] getTicket() {
+        return ticket;
+    }
+}
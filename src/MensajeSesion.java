@@ -0,0 +1,54 @@
+import java.nio.ByteBuffer;
+
+// Mensajes autenticados que el cliente envía una vez establecida la sesión.
+// Formato (antes del HMAC, o en claro dentro del registro AEAD): [tipo: 1 byte][secuencia: 8 bytes][cuerpo]
+// La secuencia empieza en 1 y crece de uno en uno; el servidor rechaza cualquier salto o repetición.
+public class MensajeSesion {
+    public static final byte CONSULTA = 1;
+    public static final byte CIERRE = 2;
+    // Sin cuerpo; el servidor responde con una respuesta vacía (keep-alive y comprobación de la sesión)
+    public static final byte PING = 3;
+    // Varias consultas bajo un solo HMAC/tag; cuerpo y respuesta en CodecServicios (codificarLote)
+    public static final byte LOTE = 4;
+
+    public static final int TAMANO_CABECERA = 9;
+
+    private MensajeSesion() {
+    }
+
+    public static byte[] construir(byte tipo, long secuencia, byte[] cuerpo) {
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANO_CABECERA + cuerpo.length);
+        buffer.put(tipo).putLong(secuencia).put(cuerpo);
+        return buffer.array();
+    }
+
+    public static byte tipo(byte[] mensaje) {
+        return mensaje[0];
+    }
+
+    public static long secuencia(byte[] mensaje) {
+        return ByteBuffer.wrap(mensaje, 1, 8).getLong();
+    }
+
+    public static byte[] cuerpo(byte[] mensaje) {
+        byte[] cuerpo = new byte[mensaje.length - TAMANO_CABECERA];
+        System.arraycopy(mensaje, TAMANO_CABECERA, cuerpo, 0, cuerpo.length);
+        return cuerpo;
+    }
+
+    public static boolean esValido(byte[] mensaje) {
+        return mensaje != null && mensaje.length >= TAMANO_CABECERA;
+    }
+
+    // Datos cubiertos por el HMAC de una respuesta: la liga a la secuencia de la consulta y a su IV
+    public static byte[] datosHMACRespuesta(long secuencia, byte[] iv, byte[] cifrado) {
+        ByteBuffer buffer = ByteBuffer.allocate(8 + iv.length + cifrado.length);
+        buffer.putLong(secuencia).put(iv).put(cifrado);
+        return buffer.array();
+    }
+
+    // En los modos AEAD el nonce es implícito y solo la secuencia va como dato asociado de la respuesta
+    public static byte[] datosAsociadosRespuesta(long secuencia) {
+        return ByteBuffer.allocate(8).putLong(secuencia).array();
+    }
+}
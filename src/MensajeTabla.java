@@ -0,0 +1,51 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Tabla de servicios que el servidor envía tras el handshake (en claro dentro del cifrado de la sesión).
+// Formato: [estado: 1 byte][versión: 8 bytes][tabla codificada, solo si el estado es COMPLETA]
+// El cliente manda en el hello la versión que ya tiene; si coincide con la actual el servidor responde
+// SIN_CAMBIOS y el cliente sigue usando su copia.
+public class MensajeTabla {
+    public static final byte COMPLETA = 1;
+    public static final byte SIN_CAMBIOS = 2;
+
+    public static final int TAMANO_CABECERA = 9;
+
+    private MensajeTabla() {
+    }
+
+    public static byte[] construir(byte estado, long version, byte[] tabla) {
+        ByteBuffer buffer = ByteBuffer.allocate(TAMANO_CABECERA + tabla.length);
+        buffer.put(estado).putLong(version).put(tabla);
+        return buffer.array();
+    }
+
+    public static byte estado(byte[] mensaje) throws IOException {
+        if (mensaje.length < TAMANO_CABECERA) {
+            throw new IOException("Mensaje de tabla demasiado corto: " + mensaje.length);
+        }
+        byte estado = mensaje[0];
+        if (estado != COMPLETA && estado != SIN_CAMBIOS) {
+            throw new IOException("Estado de tabla desconocido: " + estado);
+        }
+        return estado;
+    }
+
+    public static long version(byte[] mensaje) {
+        return ByteBuffer.wrap(mensaje, 1, 8).getLong();
+    }
+
+    public static byte[] tabla(byte[] mensaje) {
+        byte[] tabla = new byte[mensaje.length - TAMANO_CABECERA];
+        System.arraycopy(mensaje, TAMANO_CABECERA, tabla, 0, tabla.length);
+        return tabla;
+    }
+
+    // En el modo CBC la cabecera (estado y versión) va en el primer bloque: el HMAC tiene que cubrir también el IV,
+    // o cambiándolo se alteran el estado y la versión sin que el cliente lo note
+    public static byte[] datosHMACTabla(byte[] iv, byte[] cifrado) {
+        ByteBuffer buffer = ByteBuffer.allocate(iv.length + cifrado.length);
+        buffer.put(iv).put(cifrado);
+        return buffer.array();
+    }
+}
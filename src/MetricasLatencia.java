@@ -0,0 +1,84 @@
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Un HistogramaLatencia por fase, compartido por el pool DH y todas las conexiones.
+// Además del resumen acumulado del cierre, puede imprimir periódicamente solo lo ocurrido en el último intervalo.
+public class MetricasLatencia {
+    private final Map<FaseLatencia, HistogramaLatencia> histogramas;
+    private final Map<FaseLatencia, HistogramaLatencia.Instantanea> anteriores;
+    private long inicioIntervalo;
+    private ScheduledExecutorService reporte;
+
+    public MetricasLatencia() {
+        this.histogramas = new EnumMap<>(FaseLatencia.class);
+        this.anteriores = new EnumMap<>(FaseLatencia.class);
+        for (FaseLatencia fase : FaseLatencia.values()) {
+            HistogramaLatencia histograma = new HistogramaLatencia();
+            histogramas.put(fase, histograma);
+            anteriores.put(fase, histograma.instantanea());
+        }
+        this.inicioIntervalo = System.nanoTime();
+    }
+
+    public void registrar(FaseLatencia fase, long nanos) {
+        histogramas.get(fase).registrar(nanos);
+    }
+
+    public HistogramaLatencia.Instantanea instantanea(FaseLatencia fase) {
+        return histogramas.get(fase).instantanea();
+    }
+
+    public String resumen() {
+        StringBuilder sb = new StringBuilder("Latencias por fase (acumulado):");
+        for (FaseLatencia fase : FaseLatencia.values()) {
+            agregarLinea(sb, fase, instantanea(fase));
+        }
+        return sb.toString();
+    }
+
+    // Muestras desde la llamada anterior; null si en el intervalo no pasó nada
+    public synchronized String resumenIntervalo() {
+        long ahora = System.nanoTime();
+        StringBuilder sb = new StringBuilder("Latencias por fase (últimos ")
+                .append((ahora - inicioIntervalo) / 1_000_000_000L).append(" s):");
+        boolean hayMuestras = false;
+        for (FaseLatencia fase : FaseLatencia.values()) {
+            HistogramaLatencia.Instantanea actual = instantanea(fase);
+            hayMuestras |= agregarLinea(sb, fase, actual.menos(anteriores.get(fase)));
+            anteriores.put(fase, actual);
+        }
+        inicioIntervalo = ahora;
+        return hayMuestras ? sb.toString() : null;
+    }
+
+    public void iniciarReporte(long periodoSegundos) {
+        reporte = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "reporte-metricas");
+            t.setDaemon(true);
+            return t;
+        });
+        reporte.scheduleAtFixedRate(() -> {
+            String resumen = resumenIntervalo();
+            if (resumen != null) {
+                System.out.println(resumen);
+            }
+        }, periodoSegundos, periodoSegundos, TimeUnit.SECONDS);
+    }
+
+    public void detener() {
+        if (reporte != null) {
+            reporte.shutdownNow();
+        }
+    }
+
+    private static boolean agregarLinea(StringBuilder sb, FaseLatencia fase, HistogramaLatencia.Instantanea datos) {
+        if (datos.getTotal() == 0) {
+            return false;
+        }
+        sb.append("\n  ").append(String.format("%-22s", fase.getNombre())).append(datos.resumen());
+        return true;
+    }
+}
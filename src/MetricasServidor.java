@@ -0,0 +1,460 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+// Métricas del servidor mientras corre, sin esperar a imprimirEstadisticas en el cierre:
+// como MBean en la plataforma JMX y, si se configura un puerto, en texto de Prometheus en http://127.0.0.1:<puerto>/metrics.
+// No guarda estado propio (salvo la ventana de la tasa de handshakes): cada lectura consulta el contexto,
+// el ejecutor de delegados o el ServidorNIO del ServidorPrincipal.
+public class MetricasServidor implements MetricasServidorMBean {
+    private static final long VENTANA_TASA = 5_000_000_000L;
+    private static final String[] CUANTILES = {"0.5", "0.9", "0.99", "0.999"};
+
+    private final ServidorPrincipal servidor;
+    private ObjectName nombreJMX;
+    private HttpServer http;
+    // Dos muestras {nanoTime, handshakes}: la tasa se calcula contra la más vieja, de 5 a 10 s atrás
+    private long[] muestraAnterior;
+    private long[] muestraActual;
+
+    public MetricasServidor(ServidorPrincipal servidor) {
+        this.servidor = servidor;
+    }
+
+    public void registrarJMX() {
+        try {
+            nombreJMX = new ObjectName("ServidorPrincipal:type=Metricas,puerto=" + servidor.getPuerto());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, nombreJMX);
+        } catch (JMException e) {
+            Bitacora.error("[MetricasServidor] No se pudo registrar el MBean: " + e.getMessage());
+            nombreJMX = null;
+        }
+    }
+
+    // Solo en loopback: el endpoint no tiene autenticación
+    public void iniciarHTTP(int puerto) {
+        try {
+            http = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), puerto), 0);
+            http.createContext("/metrics", this::atenderHTTP);
+            http.setExecutor(Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "metricas-http");
+                t.setDaemon(true);
+                return t;
+            }));
+            http.start();
+            System.out.println("Métricas en http://127.0.0.1:" + puerto + "/metrics");
+        } catch (IOException e) {
+            Bitacora.error("[MetricasServidor] No se pudo abrir el puerto de métricas " + puerto + ": " + e.getMessage());
+            http = null;
+        }
+    }
+
+    public void detener() {
+        if (http != null) {
+            http.stop(0);
+        }
+        if (nombreJMX != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(nombreJMX);
+            } catch (JMException e) {
+                Bitacora.error("[MetricasServidor] Error al quitar el MBean: " + e.getMessage());
+            }
+        }
+    }
+
+    private void atenderHTTP(HttpExchange intercambio) throws IOException {
+        try {
+            String metodo = intercambio.getRequestMethod();
+            if (!"GET".equals(metodo) && !"HEAD".equals(metodo)) {
+                intercambio.sendResponseHeaders(405, -1);
+                return;
+            }
+            byte[] cuerpo = textoPrometheus().getBytes(StandardCharsets.UTF_8);
+            intercambio.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            if ("HEAD".equals(metodo)) {
+                intercambio.sendResponseHeaders(200, -1);
+                return;
+            }
+            intercambio.sendResponseHeaders(200, cuerpo.length);
+            try (OutputStream salida = intercambio.getResponseBody()) {
+                salida.write(cuerpo);
+            }
+        } finally {
+            intercambio.close();
+        }
+    }
+
+    public String textoPrometheus() {
+        StringBuilder sb = new StringBuilder();
+        metrica(sb, "servidor_conexiones_aceptadas_total", "counter", "Conexiones aceptadas", getConexionesAceptadas());
+        metrica(sb, "servidor_conexiones_activas", "gauge", "Conexiones abiertas en este momento", getConexionesActivas());
+        metrica(sb, "servidor_conexiones_fallidas_total", "counter", "Conexiones terminadas por error o timeout",
+                getConexionesFallidas());
+        metrica(sb, "servidor_conexiones_rechazadas_total", "counter", "Conexiones rechazadas por saturación del ejecutor",
+                getConexionesRechazadas());
+        GrupoAceptadores grupo = servidor.getGrupoAceptadores();
+        if (grupo != null) {
+            cabecera(sb, "servidor_aceptadas_total", "counter", "Conexiones aceptadas por cada hilo aceptador");
+            for (int i = 0; i < grupo.getCantidad(); i++) {
+                sb.append("servidor_aceptadas_total{aceptador=\"").append(i).append("\"} ").append(grupo.getAceptadas(i)).append('\n');
+            }
+            cabecera(sb, "servidor_cola_escucha", "gauge", "Conexiones esperando accept en el último muestreo (-1 sin datos)");
+            for (int i = 0; i < grupo.getCantidad(); i++) {
+                sb.append("servidor_cola_escucha{aceptador=\"").append(i).append("\"} ").append(grupo.getCola(i)).append('\n');
+            }
+            cabecera(sb, "servidor_cola_escucha_llena_total", "counter", "Muestreos con la cola de escucha llena");
+            for (int i = 0; i < grupo.getCantidad(); i++) {
+                sb.append("servidor_cola_escucha_llena_total{aceptador=\"").append(i).append("\"} ")
+                  .append(grupo.getMuestrasLlenas(i)).append('\n');
+            }
+        }
+        // Un counter no puede ser negativo: sin datos del sistema la serie no se publica
+        long desbordes = getDesbordesColaEscucha();
+        if (desbordes >= 0) {
+            metrica(sb, "servidor_desbordes_cola_escucha_total", "counter",
+                    "ListenOverflows del sistema desde que arrancó el servidor", desbordes);
+        }
+        ControlAdmision admision = servidor.getControlAdmision();
+        if (admision != null) {
+            metrica(sb, "servidor_admision_admitidas_total", "counter", "Conexiones admitidas por el control de admisión",
+                    admision.getAdmitidas());
+            cabecera(sb, "servidor_admision_rechazadas_total", "counter", "Conexiones rechazadas antes del handshake por motivo");
+            for (ControlAdmision.Motivo motivo : ControlAdmision.Motivo.values()) {
+                sb.append("servidor_admision_rechazadas_total{motivo=\"").append(motivo.getNombre()).append("\"} ")
+                  .append(admision.getRechazadas(motivo)).append('\n');
+            }
+            metrica(sb, "servidor_admision_handshakes_en_vuelo", "gauge", "Handshakes admitidos sin terminar",
+                    admision.getEnVuelo());
+            cabecera(sb, "servidor_admision_probabilidad_descarte", "gauge",
+                    "Fracción de conexiones nuevas descartadas por demora de cola");
+            sb.append("servidor_admision_probabilidad_descarte ")
+              .append(String.format(Locale.ROOT, "%.2f", admision.getProbabilidadDescarte())).append('\n');
+        }
+
+        cabecera(sb, "servidor_handshakes_total", "counter", "Handshakes terminados");
+        sb.append("servidor_handshakes_total{tipo=\"completo\"} ").append(getHandshakesCompletos()).append('\n');
+        sb.append("servidor_handshakes_total{tipo=\"reanudado\"} ").append(getHandshakesReanudados()).append('\n');
+        cabecera(sb, "servidor_handshakes_suite_total", "counter", "Handshakes completos por suite de cifrado");
+        ContextoServidor contexto = servidor.getContexto();
+        for (SuiteCifrado suite : SuiteCifrado.values()) {
+            sb.append("servidor_handshakes_suite_total{suite=\"").append(suite.getNombre()).append("\"} ")
+              .append(contexto != null ? contexto.getHandshakesPorSuite(suite) : 0).append('\n');
+        }
+
+        metrica(sb, "servidor_consultas_total", "counter", "Consultas atendidas", getConsultas());
+        cabecera(sb, "servidor_bytes_total", "counter", "Bytes leídos y escritos en los sockets de clientes");
+        sb.append("servidor_bytes_total{direccion=\"entrada\"} ").append(getBytesRecibidos()).append('\n');
+        sb.append("servidor_bytes_total{direccion=\"salida\"} ").append(getBytesEnviados()).append('\n');
+        metrica(sb, "servidor_fallos_autenticacion_total", "counter", "Consultas con HMAC o tag AEAD inválido",
+                getFallosAutenticacion());
+
+        cabecera(sb, "servidor_tablas_enviadas_total", "counter", "Tablas de servicios enviadas tras el handshake");
+        sb.append("servidor_tablas_enviadas_total{tipo=\"completa\"} ").append(getTablasCompletas()).append('\n');
+        sb.append("servidor_tablas_enviadas_total{tipo=\"sin-cambios\"} ").append(getTablasSinCambios()).append('\n');
+        metrica(sb, "servidor_version_tabla", "gauge", "Versión actual de la tabla de servicios", getVersionTabla());
+        metrica(sb, "servidor_servicios_registrados", "gauge", "Servicios en la instantánea actual del registro",
+                getServiciosRegistrados());
+        metrica(sb, "servidor_tabla_bytes", "gauge", "Bytes de la tabla que se envía en el handshake",
+                servidor.getTablaServicios().getVersion().getTamanoMensaje());
+        cabecera(sb, "servidor_recargas_tabla_total", "counter", "Recargas del archivo de servicios");
+        sb.append("servidor_recargas_tabla_total{resultado=\"ok\"} ").append(getRecargasTabla()).append('\n');
+        sb.append("servidor_recargas_tabla_total{resultado=\"error\"} ").append(getRecargasTablaFallidas()).append('\n');
+
+        metrica(sb, "servidor_lotes_total", "counter", "Mensajes de lote respondidos", getLotes());
+        metrica(sb, "servidor_lotes_consultas_total", "counter", "Ids resueltos dentro de lotes", getConsultasEnLotes());
+        metrica(sb, "servidor_lotes_no_encontrados_total", "counter", "Ids de lotes sin servicio registrado",
+                getNoEncontradosEnLotes());
+        metrica(sb, "servidor_lotes_rechazados_total", "counter", "Lotes por encima de los límites configurados",
+                getLotesRechazados());
+
+        metrica(sb, "servidor_asignacion_bytes_total", "counter",
+                "Bytes de heap asignados al procesar mensajes de sesiones establecidas",
+                contexto != null ? contexto.getBytesAsignados() : 0);
+        metrica(sb, "servidor_asignacion_mensajes_total", "counter", "Mensajes de sesión con asignación medida",
+                contexto != null ? contexto.getMensajesMedidos() : 0);
+        cabecera(sb, "servidor_buffers_total", "counter", "Buffers prestados por el pool del transporte NIO");
+        sb.append("servidor_buffers_total{origen=\"reutilizado\"} ").append(getBuffersReutilizados()).append('\n');
+        sb.append("servidor_buffers_total{origen=\"creado\"} ").append(getBuffersCreados()).append('\n');
+
+        metrica(sb, "servidor_hilos_ocupados", "gauge", "Hilos del ejecutor atendiendo conexiones o mensajes",
+                getHilosOcupados());
+        metrica(sb, "servidor_hilos_disponibles", "gauge", "Tamaño del pool del ejecutor (0 = sin límite)",
+                getHilosDisponibles());
+        metrica(sb, "servidor_tareas_en_cola", "gauge", "Tareas esperando un hilo del ejecutor", getTareasEnCola());
+        metrica(sb, "servidor_hilos_jvm", "gauge", "Hilos vivos en la JVM", getHilosJVM());
+
+        cabecera(sb, "servidor_latencia_segundos", "summary", "Latencia por fase del protocolo");
+        MetricasLatencia metricas = servidor.getMetricas();
+        for (FaseLatencia fase : FaseLatencia.values()) {
+            HistogramaLatencia.Instantanea datos = metricas.instantanea(fase);
+            String etiqueta = "fase=\"" + fase.getNombre() + "\"";
+            for (String cuantil : CUANTILES) {
+                sb.append("servidor_latencia_segundos{").append(etiqueta).append(",quantile=\"").append(cuantil)
+                  .append("\"} ").append(segundos(datos.percentil(Double.parseDouble(cuantil) * 100))).append('\n');
+            }
+            sb.append("servidor_latencia_segundos_sum{").append(etiqueta).append("} ")
+              .append(segundos(datos.getSuma())).append('\n');
+            sb.append("servidor_latencia_segundos_count{").append(etiqueta).append("} ")
+              .append(datos.getTotal()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void cabecera(StringBuilder sb, String nombre, String tipo, String ayuda) {
+        sb.append("# HELP ").append(nombre).append(' ').append(ayuda).append('\n');
+        sb.append("# TYPE ").append(nombre).append(' ').append(tipo).append('\n');
+    }
+
+    private static void metrica(StringBuilder sb, String nombre, String tipo, String ayuda, long valor) {
+        cabecera(sb, nombre, tipo, ayuda);
+        sb.append(nombre).append(' ').append(valor).append('\n');
+    }
+
+    private static String segundos(long nanos) {
+        return String.format(Locale.ROOT, "%.9f", nanos / 1_000_000_000.0);
+    }
+
+    @Override
+    public long getConexionesAceptadas() {
+        return servidor.getContadorClientes();
+    }
+
+    @Override
+    public int getConexionesActivas() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getConexionesActivas() : 0;
+    }
+
+    @Override
+    public long getConexionesFallidas() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getConexionesFallidas() : 0;
+    }
+
+    @Override
+    public long getConexionesRechazadas() {
+        EjecutorDelegados ejecutor = servidor.getEjecutorDelegados();
+        return ejecutor != null ? ejecutor.getRechazados() : 0;
+    }
+
+    @Override
+    public long getAdmitidas() {
+        ControlAdmision admision = servidor.getControlAdmision();
+        return admision != null ? admision.getAdmitidas() : 0;
+    }
+
+    @Override
+    public long getRechazadasAdmision() {
+        ControlAdmision admision = servidor.getControlAdmision();
+        return admision != null ? admision.getRechazadas() : 0;
+    }
+
+    @Override
+    public int getHandshakesEnVuelo() {
+        ControlAdmision admision = servidor.getControlAdmision();
+        return admision != null ? admision.getEnVuelo() : 0;
+    }
+
+    @Override
+    public double getProbabilidadDescarte() {
+        ControlAdmision admision = servidor.getControlAdmision();
+        return admision != null ? admision.getProbabilidadDescarte() : 0;
+    }
+
+    @Override
+    public long getHandshakesCompletos() {
+        return servidor.getMetricas().instantanea(FaseLatencia.HANDSHAKE_COMPLETO).getTotal();
+    }
+
+    @Override
+    public long getHandshakesReanudados() {
+        return servidor.getMetricas().instantanea(FaseLatencia.HANDSHAKE_REANUDADO).getTotal();
+    }
+
+    @Override
+    public synchronized double getHandshakesPorSegundo() {
+        long ahora = System.nanoTime();
+        long handshakes = getHandshakesCompletos() + getHandshakesReanudados();
+        if (muestraActual == null) {
+            muestraAnterior = new long[]{ahora, handshakes};
+            muestraActual = muestraAnterior;
+        } else if (ahora - muestraActual[0] >= VENTANA_TASA) {
+            muestraAnterior = muestraActual;
+            muestraActual = new long[]{ahora, handshakes};
+        }
+        long transcurrido = ahora - muestraAnterior[0];
+        return transcurrido > 0 ? (handshakes - muestraAnterior[1]) * 1_000_000_000.0 / transcurrido : 0;
+    }
+
+    @Override
+    public long getConsultas() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getContadorConsultas().get() : 0;
+    }
+
+    @Override
+    public long getBytesRecibidos() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getBytesRecibidos() : 0;
+    }
+
+    @Override
+    public long getBytesEnviados() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getBytesEnviados() : 0;
+    }
+
+    @Override
+    public long getFallosAutenticacion() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getFallosAutenticacion() : 0;
+    }
+
+    @Override
+    public long getTablasCompletas() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getTablasCompletas() : 0;
+    }
+
+    @Override
+    public long getTablasSinCambios() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getTablasSinCambios() : 0;
+    }
+
+    @Override
+    public long getLotes() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getLotes() : 0;
+    }
+
+    @Override
+    public long getConsultasEnLotes() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getConsultasEnLotes() : 0;
+    }
+
+    @Override
+    public long getNoEncontradosEnLotes() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getNoEncontradosEnLotes() : 0;
+    }
+
+    @Override
+    public long getLotesRechazados() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getLotesRechazados() : 0;
+    }
+
+    @Override
+    public double getBytesAsignadosPorMensaje() {
+        ContextoServidor contexto = servidor.getContexto();
+        return contexto != null ? contexto.getBytesAsignadosPorMensaje() : 0;
+    }
+
+    @Override
+    public long getBuffersReutilizados() {
+        ServidorNIO nio = servidor.getServidorNIO();
+        return nio != null ? nio.getPoolBuffers().getReutilizados() : 0;
+    }
+
+    @Override
+    public long getBuffersCreados() {
+        ServidorNIO nio = servidor.getServidorNIO();
+        return nio != null ? nio.getPoolBuffers().getCreados() : 0;
+    }
+
+    @Override
+    public long getVersionTabla() {
+        return servidor.getTablaServicios().getVersion().getNumero();
+    }
+
+    @Override
+    public int getServiciosRegistrados() {
+        return servidor.getTablaServicios().getVersion().getTamano();
+    }
+
+    @Override
+    public long getRecargasTabla() {
+        return servidor.getTablaServicios().getRecargas();
+    }
+
+    @Override
+    public long getRecargasTablaFallidas() {
+        return servidor.getTablaServicios().getRecargasFallidas();
+    }
+
+    @Override
+    public String[] getAceptadores() {
+        GrupoAceptadores grupo = servidor.getGrupoAceptadores();
+        if (grupo == null) {
+            return new String[0];
+        }
+        String[] lineas = new String[grupo.getCantidad()];
+        for (int i = 0; i < lineas.length; i++) {
+            lineas[i] = String.format(Locale.ROOT, "aceptador-%d aceptadas=%d ocupado=%.3f cola=%d cola-maxima=%d llena=%d",
+                    i, grupo.getAceptadas(i), grupo.getOcupacion(i), grupo.getCola(i), grupo.getColaMaxima(i),
+                    grupo.getMuestrasLlenas(i));
+        }
+        return lineas;
+    }
+
+    @Override
+    public long getDesbordesColaEscucha() {
+        GrupoAceptadores grupo = servidor.getGrupoAceptadores();
+        return grupo != null ? grupo.getDesbordes() : -1;
+    }
+
+    // Transporte bloqueante: delegados ocupados; NIO: hilos del pool de cómputo ocupados
+    @Override
+    public int getHilosOcupados() {
+        EjecutorDelegados ejecutor = servidor.getEjecutorDelegados();
+        ServidorNIO nio = servidor.getServidorNIO();
+        return ejecutor != null ? ejecutor.getActivos() : nio != null ? nio.getHilosComputoActivos() : 0;
+    }
+
+    @Override
+    public int getHilosDisponibles() {
+        EjecutorDelegados ejecutor = servidor.getEjecutorDelegados();
+        ServidorNIO nio = servidor.getServidorNIO();
+        return ejecutor != null ? ejecutor.getHilos() : nio != null ? nio.getHilosComputo() : 0;
+    }
+
+    @Override
+    public int getTareasEnCola() {
+        EjecutorDelegados ejecutor = servidor.getEjecutorDelegados();
+        ServidorNIO nio = servidor.getServidorNIO();
+        return ejecutor != null ? ejecutor.getEnCola() : nio != null ? nio.getTareasComputoEnCola() : 0;
+    }
+
+    @Override
+    public int getHilosJVM() {
+        return ManagementFactory.getThreadMXBean().getThreadCount();
+    }
+
+    @Override
+    public String[] getLatenciasPorFase() {
+        FaseLatencia[] fases = FaseLatencia.values();
+        String[] lineas = new String[fases.length];
+        for (int i = 0; i < fases.length; i++) {
+            lineas[i] = fases[i].getNombre() + " " + servidor.getMetricas().instantanea(fases[i]).resumen();
+        }
+        return lineas;
+    }
+
+    @Override
+    public long percentilNanos(String fase, double percentil) {
+        return servidor.getMetricas().instantanea(FaseLatencia.porNombre(fase)).percentil(percentil);
+    }
+}
@@ -0,0 +1,77 @@
+// Vista JMX de MetricasServidor (jconsole / VisualVM: ServidorPrincipal:type=Metricas,puerto=...)
+public interface MetricasServidorMBean {
+    long getConexionesAceptadas();
+
+    int getConexionesActivas();
+
+    long getConexionesFallidas();
+
+    long getConexionesRechazadas();
+
+    // Control de admisión (servidor.admision); todo en 0 si está desactivado
+    long getAdmitidas();
+
+    long getRechazadasAdmision();
+
+    int getHandshakesEnVuelo();
+
+    double getProbabilidadDescarte();
+
+    long getHandshakesCompletos();
+
+    long getHandshakesReanudados();
+
+    double getHandshakesPorSegundo();
+
+    long getConsultas();
+
+    long getBytesRecibidos();
+
+    long getBytesEnviados();
+
+    long getFallosAutenticacion();
+
+    long getTablasCompletas();
+
+    long getTablasSinCambios();
+
+    long getVersionTabla();
+
+    int getServiciosRegistrados();
+
+    long getRecargasTabla();
+
+    long getRecargasTablaFallidas();
+
+    long getLotes();
+
+    long getConsultasEnLotes();
+
+    long getNoEncontradosEnLotes();
+
+    long getLotesRechazados();
+
+    double getBytesAsignadosPorMensaje();
+
+    long getBuffersReutilizados();
+
+    long getBuffersCreados();
+
+    // Transporte bloqueante; en NIO las conexiones aceptadas se ven en getConexionesAceptadas
+    String[] getAceptadores();
+
+    long getDesbordesColaEscucha();
+
+    int getHilosOcupados();
+
+    int getHilosDisponibles();
+
+    int getTareasEnCola();
+
+    int getHilosJVM();
+
+    String[] getLatenciasPorFase();
+
+    // fase: nombre de FaseLatencia ("firma", "consulta", ...); percentil entre 0 y 100
+    long percentilNanos(String fase, double percentil);
+}
@@ -0,0 +1,133 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.UnaryOperator;
+
+// Nodos del cluster y su anillo. El origen es un archivo con un nodo por línea o una lista separada por comas
+// (ver AnilloConsistente.leerNodos). Con archivo, vigilar lo relee cuando cambia, igual que TablaServicios con
+// el registro: así un nodo entra o sale editando el archivo que comparten servidores y clientes, y cada uno
+// rearma su anillo y avisa a quien esté escuchando.
+public class MiembrosCluster {
+    private final String origen;
+    private final Path archivo;
+    private final int nodosVirtuales;
+    private final List<Consumer<AnilloConsistente>> oyentes;
+    private final AtomicLong cambios;
+    private volatile AnilloConsistente anillo;
+    private ScheduledExecutorService vigilancia;
+    private long modificacionCargada;
+    private long tamanoCargado;
+
+    public MiembrosCluster(String origen, int nodosVirtuales) throws IOException {
+        this.origen = origen;
+        Path ruta = Paths.get(origen);
+        this.archivo = Files.isRegularFile(ruta) ? ruta : null;
+        this.nodosVirtuales = nodosVirtuales;
+        this.oyentes = new CopyOnWriteArrayList<>();
+        this.cambios = new AtomicLong();
+        if (archivo != null) {
+            BasicFileAttributes atributos = Files.readAttributes(archivo, BasicFileAttributes.class);
+            modificacionCargada = atributos.lastModifiedTime().toMillis();
+            tamanoCargado = atributos.size();
+        }
+        List<String> nodos = AnilloConsistente.leerNodos(origen);
+        if (nodos.isEmpty()) {
+            throw new IOException("El cluster " + origen + " no tiene nodos");
+        }
+        this.anillo = new AnilloConsistente(nodos, nodosVirtuales);
+    }
+
+    public AnilloConsistente getAnillo() {
+        return anillo;
+    }
+
+    // Se llama con el anillo nuevo cada vez que cambian los nodos, desde el hilo que hizo el cambio
+    public void alCambiar(Consumer<AnilloConsistente> oyente) {
+        oyentes.add(oyente);
+    }
+
+    public void agregar(String nodo) {
+        cambiar(actual -> actual.con(nodo));
+    }
+
+    public void quitar(String nodo) {
+        cambiar(actual -> actual.sin(nodo));
+    }
+
+    // El anillo nuevo se arma dentro del lock a partir del vigente: dos cambios a la vez no pueden partir del
+    // mismo anillo viejo y pisarse
+    private void cambiar(UnaryOperator<AnilloConsistente> cambio) {
+        AnilloConsistente nuevo;
+        synchronized (this) {
+            nuevo = cambio.apply(anillo);
+            if (nuevo.getNodos().equals(anillo.getNodos())) {
+                return;
+            }
+            anillo = nuevo;
+        }
+        cambios.incrementAndGet();
+        Bitacora.info("[Cluster] " + nuevo.resumen());
+        for (Consumer<AnilloConsistente> oyente : oyentes) {
+            oyente.accept(nuevo);
+        }
+    }
+
+    public synchronized void vigilar(long periodoMilisegundos) {
+        if (archivo == null || vigilancia != null) {
+            return;
+        }
+        vigilancia = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "recarga-cluster");
+            t.setDaemon(true);
+            return t;
+        });
+        vigilancia.scheduleWithFixedDelay(this::revisarArchivo, periodoMilisegundos, periodoMilisegundos,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void detener() {
+        if (vigilancia != null) {
+            vigilancia.shutdownNow();
+        }
+    }
+
+    private void revisarArchivo() {
+        try {
+            BasicFileAttributes atributos = Files.readAttributes(archivo, BasicFileAttributes.class);
+            synchronized (this) {
+                if (atributos.lastModifiedTime().toMillis() == modificacionCargada && atributos.size() == tamanoCargado) {
+                    return;
+                }
+                modificacionCargada = atributos.lastModifiedTime().toMillis();
+                tamanoCargado = atributos.size();
+            }
+            List<String> nodos = AnilloConsistente.leerNodos(archivo.toString());
+            if (nodos.isEmpty()) {
+                throw new IOException("el archivo quedó sin nodos");
+            }
+            AnilloConsistente leido = new AnilloConsistente(nodos, nodosVirtuales);
+            cambiar(actual -> leido);
+        } catch (IOException | RuntimeException e) {
+            // Como con el registro: se sigue con el anillo anterior hasta que el archivo vuelva a cambiar
+            Bitacora.error("[Cluster] No se pudo releer " + archivo + ", se mantienen "
+                    + anillo.getNodos().size() + " nodos: " + e.getMessage());
+        }
+    }
+
+    public long getCambios() {
+        return cambios.get();
+    }
+
+    public String resumen() {
+        return "Cluster " + origen + " - " + anillo.resumen() + ", cambios: " + cambios.get();
+    }
+}
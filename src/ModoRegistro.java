@@ -0,0 +1,82 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.sun.management.HotSpotDiagnosticMXBean;
+
+// Protección de los mensajes cifrados de la sesión (tabla, consultas y respuestas), negociada en el hello.
+// CBC_HMAC es el esquema original: AES-CBC y después una segunda pasada con HMAC-SHA256.
+// Los modos AEAD cifran y autentican en una sola pasada, con nonce implícito derivado de un contador (ver CifradoAEAD).
+public enum ModoRegistro {
+    CBC_HMAC((byte) 1, "cbc", null),
+    AES_GCM((byte) 2, "gcm", "AES/GCM/NoPadding"),
+    CHACHA20_POLY1305((byte) 3, "chacha20", "ChaCha20-Poly1305");
+
+    private final byte id;
+    private final String nombre;
+    private final String transformacion;
+
+    ModoRegistro(byte id, String nombre, String transformacion) {
+        this.id = id;
+        this.nombre = nombre;
+        this.transformacion = transformacion;
+    }
+
+    public static ModoRegistro porId(byte id) {
+        for (ModoRegistro modo : values()) {
+            if (modo.id == id) {
+                return modo;
+            }
+        }
+        return null;
+    }
+
+    public static ModoRegistro porNombre(String nombre) {
+        for (ModoRegistro modo : values()) {
+            if (modo.nombre.equalsIgnoreCase(nombre.trim())) {
+                return modo;
+            }
+        }
+        throw new IllegalArgumentException("Modo de registro desconocido: " + nombre);
+    }
+
+    // "gcm,chacha20,cbc" -> lista en ese orden de preferencia
+    public static List<ModoRegistro> lista(String nombres) {
+        List<ModoRegistro> modos = new ArrayList<>();
+        for (String nombre : nombres.split(",")) {
+            if (!nombre.trim().isEmpty()) {
+                modos.add(porNombre(nombre));
+            }
+        }
+        return modos;
+    }
+
+    // Sin instrucciones AES en la CPU (la JVM no activa UseAESIntrinsics) ChaCha20-Poly1305 es más rápido que GCM
+    public static String preferenciaPorDefecto() {
+        try {
+            HotSpotDiagnosticMXBean diagnostico = ManagementFactory.getPlatformMXBean(HotSpotDiagnosticMXBean.class);
+            if (diagnostico != null && "false".equals(diagnostico.getVMOption("UseAESIntrinsics").getValue())) {
+                return "chacha20,gcm,cbc";
+            }
+        } catch (RuntimeException e) {
+            // JVM sin la opción de diagnóstico: se asume AES por hardware
+        }
+        return "gcm,chacha20,cbc";
+    }
+
+    public boolean isAEAD() {
+        return this != CBC_HMAC;
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public String getTransformacion() {
+        return transformacion;
+    }
+}
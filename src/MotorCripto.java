@@ -0,0 +1,125 @@
+import java.security.GeneralSecurityException;
+import java.security.InvalidKeyException;
+import java.security.KeyFactory;
+import java.security.KeyPairGenerator;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyAgreement;
+import javax.crypto.Mac;
+import javax.crypto.SecretKey;
+
+// Instancias de Cipher, Mac, Signature, KeyFactory, KeyAgreement, KeyPairGenerator y MessageDigest reutilizadas por hilo.
+// getInstance() busca el proveedor y reserva objetos en cada llamada; aquí se hace una vez por hilo y
+// algoritmo y después solo se reinicializa con la clave. Los objetos devueltos no se deben guardar
+// ni pasar a otro hilo: el siguiente uso en el mismo hilo los reinicializa.
+public final class MotorCripto {
+    private static final ThreadLocal<MotorCripto> POR_HILO = ThreadLocal.withInitial(MotorCripto::new);
+
+    private final Map<String, Cipher> ciphers = new HashMap<>();
+    private final Map<String, Mac> macs = new HashMap<>();
+    private final Map<String, SecretKey> clavesMac = new HashMap<>();
+    private final Map<String, Signature> firmas = new HashMap<>();
+    private final Map<String, KeyFactory> fabricasClaves = new HashMap<>();
+    private final Map<String, KeyAgreement> acuerdos = new HashMap<>();
+    private final Map<String, KeyPairGenerator> generadores = new HashMap<>();
+    private final Map<String, MessageDigest> digests = new HashMap<>();
+    // Un SecureRandom por hilo: se siembra una sola vez y no hay contención entre hilos
+    private final SecureRandom aleatorio = new SecureRandom();
+
+    private MotorCripto() {
+    }
+
+    private static MotorCripto actual() {
+        return POR_HILO.get();
+    }
+
+    public static Cipher cipher(String transformacion) throws GeneralSecurityException {
+        Map<String, Cipher> ciphers = actual().ciphers;
+        Cipher cipher = ciphers.get(transformacion);
+        if (cipher == null) {
+            cipher = Cipher.getInstance(transformacion);
+            ciphers.put(transformacion, cipher);
+        }
+        return cipher;
+    }
+
+    // Mac ya inicializado con la clave; si es la misma que en el uso anterior no se repite el init
+    // (doFinal deja el Mac listo para otro mensaje con la misma clave)
+    public static Mac mac(String algoritmo, SecretKey clave) throws NoSuchAlgorithmException, InvalidKeyException {
+        MotorCripto motor = actual();
+        Mac mac = motor.macs.get(algoritmo);
+        if (mac == null) {
+            mac = Mac.getInstance(algoritmo);
+            motor.macs.put(algoritmo, mac);
+        }
+        if (motor.clavesMac.get(algoritmo) != clave) {
+            mac.init(clave);
+            motor.clavesMac.put(algoritmo, clave);
+        } else {
+            mac.reset();
+        }
+        return mac;
+    }
+
+    public static Signature firma(String algoritmo) throws NoSuchAlgorithmException {
+        Map<String, Signature> firmas = actual().firmas;
+        Signature firma = firmas.get(algoritmo);
+        if (firma == null) {
+            firma = Signature.getInstance(algoritmo);
+            firmas.put(algoritmo, firma);
+        }
+        return firma;
+    }
+
+    public static KeyFactory fabricaClaves(String algoritmo) throws NoSuchAlgorithmException {
+        Map<String, KeyFactory> fabricas = actual().fabricasClaves;
+        KeyFactory fabrica = fabricas.get(algoritmo);
+        if (fabrica == null) {
+            fabrica = KeyFactory.getInstance(algoritmo);
+            fabricas.put(algoritmo, fabrica);
+        }
+        return fabrica;
+    }
+
+    public static KeyAgreement acuerdo(String algoritmo) throws NoSuchAlgorithmException {
+        Map<String, KeyAgreement> acuerdos = actual().acuerdos;
+        KeyAgreement acuerdo = acuerdos.get(algoritmo);
+        if (acuerdo == null) {
+            acuerdo = KeyAgreement.getInstance(algoritmo);
+            acuerdos.put(algoritmo, acuerdo);
+        }
+        return acuerdo;
+    }
+
+    // Quien lo use debe llamar a initialize() con sus parámetros antes de generar, salvo algoritmos sin parámetros (X25519)
+    public static KeyPairGenerator generadorClaves(String algoritmo) throws NoSuchAlgorithmException {
+        Map<String, KeyPairGenerator> generadores = actual().generadores;
+        KeyPairGenerator generador = generadores.get(algoritmo);
+        if (generador == null) {
+            generador = KeyPairGenerator.getInstance(algoritmo);
+            generadores.put(algoritmo, generador);
+        }
+        return generador;
+    }
+
+    public static MessageDigest digest(String algoritmo) throws NoSuchAlgorithmException {
+        Map<String, MessageDigest> digests = actual().digests;
+        MessageDigest digest = digests.get(algoritmo);
+        if (digest == null) {
+            digest = MessageDigest.getInstance(algoritmo);
+            digests.put(algoritmo, digest);
+        }
+        digest.reset();
+        return digest;
+    }
+
+    public static SecureRandom aleatorio() {
+        return actual().aleatorio;
+    }
+}
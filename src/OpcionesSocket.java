@@ -0,0 +1,58 @@
+import java.io.IOException;
+import java.net.SocketOption;
+import java.net.StandardSocketOptions;
+import java.nio.channels.NetworkChannel;
+
+// Opciones de los sockets del servidor, las mismas para los dos transportes.
+// backlog: largo de la cola de conexiones ya establecidas que esperan su accept() (el kernel lo recorta a
+// net.core.somaxconn). Los buffers en bytes; 0 deja el valor del sistema. El de recepción se pone en el socket
+// de escucha y lo heredan las conexiones aceptadas: tiene que estar antes del handshake TCP para que la ventana
+// anunciada lo use.
+public class OpcionesSocket {
+    private final int backlog;
+    private final int bufferEnvio;
+    private final int bufferRecepcion;
+
+    public OpcionesSocket(int backlog, int bufferEnvio, int bufferRecepcion) {
+        this.backlog = backlog;
+        this.bufferEnvio = bufferEnvio;
+        this.bufferRecepcion = bufferRecepcion;
+    }
+
+    public int getBacklog() {
+        return backlog;
+    }
+
+    public int getBufferEnvio() {
+        return bufferEnvio;
+    }
+
+    public int getBufferRecepcion() {
+        return bufferRecepcion;
+    }
+
+    // Antes de bind
+    public void aplicarEscucha(NetworkChannel canal) throws IOException {
+        canal.setOption(StandardSocketOptions.SO_REUSEADDR, true);
+        if (bufferRecepcion > 0) {
+            canal.setOption(StandardSocketOptions.SO_RCVBUF, bufferRecepcion);
+        }
+    }
+
+    // Conexión recién aceptada
+    public void aplicar(NetworkChannel canal) throws IOException {
+        canal.setOption(StandardSocketOptions.TCP_NODELAY, true);
+        if (bufferEnvio > 0) {
+            canal.setOption(StandardSocketOptions.SO_SNDBUF, bufferEnvio);
+        }
+    }
+
+    public static boolean soporta(NetworkChannel canal, SocketOption<?> opcion) {
+        return canal.supportedOptions().contains(opcion);
+    }
+
+    public String resumen() {
+        return "backlog " + backlog + ", buffer de envío " + (bufferEnvio > 0 ? bufferEnvio + " bytes" : "del sistema")
+                + ", de recepción " + (bufferRecepcion > 0 ? bufferRecepcion + " bytes" : "del sistema");
+    }
+}
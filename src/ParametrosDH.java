@@ -0,0 +1,35 @@
+import java.security.AlgorithmParameterGenerator;
+import java.security.AlgorithmParameters;
+import java.security.GeneralSecurityException;
+
+import javax.crypto.spec.DHParameterSpec;
+
+// Parámetros DH (p, g, l) ya generados. No llevan firma propia: los autentica la firma de la transcripción
+// en cada handshake, porque p y g van dentro de la codificación de las dos claves públicas firmadas.
+// Es inmutable, así que un mismo conjunto se puede entregar a varios delegados a la vez.
+public class ParametrosDH {
+    private final DHParameterSpec spec;
+    private final long tiempoGeneracion;
+
+    private ParametrosDH(DHParameterSpec spec, long tiempoGeneracion) {
+        this.spec = spec;
+        this.tiempoGeneracion = tiempoGeneracion;
+    }
+
+    public static ParametrosDH generar(int bits) throws GeneralSecurityException {
+        long inicioGeneracion = System.nanoTime();
+        AlgorithmParameterGenerator paramGen = AlgorithmParameterGenerator.getInstance("DH");
+        paramGen.init(bits);
+        AlgorithmParameters params = paramGen.generateParameters();
+        DHParameterSpec spec = params.getParameterSpec(DHParameterSpec.class);
+        return new ParametrosDH(spec, System.nanoTime() - inicioGeneracion);
+    }
+
+    public DHParameterSpec getSpec() {
+        return spec;
+    }
+
+    public long getTiempoGeneracion() {
+        return tiempoGeneracion;
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Mantiene varios conjuntos de parámetros DH generados en segundo plano,
+// para que la búsqueda del primo seguro no quede en el camino de cada conexión.
+public class PoolParametrosDH {
+    private final int bits;
+    private final long periodoRotacionSegundos;
+    private final AtomicReferenceArray<ParametrosDH> conjuntos;
+    private final AtomicInteger siguienteRotacion;
+    private ScheduledExecutorService generador;
+
+    private final AtomicLong contadorGenerados;
+    private final AtomicLong contadorEntregados;
+    private final AtomicLong contadorGeneradosEnLinea;
+    private final MetricasLatencia metricas;
+
+    public PoolParametrosDH(int tamano, int bits, long periodoRotacionSegundos, MetricasLatencia metricas) {
+        if (tamano <= 0) {
+            throw new IllegalArgumentException("El tamaño del pool DH debe ser positivo");
+        }
+        this.bits = bits;
+        this.periodoRotacionSegundos = periodoRotacionSegundos;
+        this.conjuntos = new AtomicReferenceArray<>(tamano);
+        this.siguienteRotacion = new AtomicInteger(0);
+        this.contadorGenerados = new AtomicLong(0);
+        this.contadorEntregados = new AtomicLong(0);
+        this.contadorGeneradosEnLinea = new AtomicLong(0);
+        this.metricas = metricas;
+    }
+
+    public void iniciar() {
+        generador = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-parametros-dh");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // Llenado inicial: el primer conjunto se espera para que el servidor nunca arranque vacío
+        ParametrosDH primero = generarConjunto();
+        if (primero != null) {
+            conjuntos.set(0, primero);
+        }
+        for (int i = 1; i < conjuntos.length(); i++) {
+            final int indice = i;
+            generador.execute(() -> {
+                ParametrosDH conjunto = generarConjunto();
+                if (conjunto != null) {
+                    conjuntos.set(indice, conjunto);
+                }
+            });
+        }
+
+        if (periodoRotacionSegundos > 0) {
+            generador.scheduleWithFixedDelay(this::rotar, periodoRotacionSegundos, periodoRotacionSegundos,
+                    TimeUnit.SECONDS);
+        }
+        Bitacora.info("Pool de parámetros DH iniciado: " + conjuntos.length() + " conjuntos de " + bits
+                + " bits, rotación cada " + periodoRotacionSegundos + " s");
+    }
+
+    public void detener() {
+        if (generador != null) {
+            generador.shutdownNow();
+        }
+    }
+
+    // Nunca bloquea esperando al generador; si todavía no hay conjuntos listos genera uno en línea
+    public ParametrosDH obtener() {
+        int tamano = conjuntos.length();
+        int inicio = ThreadLocalRandom.current().nextInt(tamano);
+        for (int i = 0; i < tamano; i++) {
+            ParametrosDH conjunto = conjuntos.get((inicio + i) % tamano);
+            if (conjunto != null) {
+                contadorEntregados.incrementAndGet();
+                return conjunto;
+            }
+        }
+
+        contadorGeneradosEnLinea.incrementAndGet();
+        ParametrosDH conjunto = generarConjunto();
+        if (conjunto == null) {
+            throw new IllegalStateException("No fue posible generar parámetros DH");
+        }
+        conjuntos.compareAndSet(0, null, conjunto);
+        contadorEntregados.incrementAndGet();
+        return conjunto;
+    }
+
+    private void rotar() {
+        int indice = Math.floorMod(siguienteRotacion.getAndIncrement(), conjuntos.length());
+        ParametrosDH conjunto = generarConjunto();
+        if (conjunto != null) {
+            conjuntos.set(indice, conjunto);
+        }
+    }
+
+    private ParametrosDH generarConjunto() {
+        try {
+            ParametrosDH conjunto = ParametrosDH.generar(bits);
+            contadorGenerados.incrementAndGet();
+            metricas.registrar(FaseLatencia.GENERACION_DH, conjunto.getTiempoGeneracion());
+            return conjunto;
+        } catch (Exception e) {
+            Bitacora.error("[PoolParametrosDH] Error al generar parámetros DH: " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    public long getContadorGenerados() {
+        return contadorGenerados.get();
+    }
+
+    public long getContadorEntregados() {
+        return contadorEntregados.get();
+    }
+
+    public long getContadorGeneradosEnLinea() {
+        return contadorGeneradosEnLinea.get();
+    }
+}
@@ -0,0 +1,369 @@
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Sesiones de Cliente ya autenticadas contra un servidor, prestadas a los hilos de la aplicación.
+// Como mucho maxSesiones a la vez; quien pide una de más espera hasta esperaMaxima. Las sesiones libres se
+// reutilizan en orden LIFO, así las que sobran quedan al fondo y caducan por inactividad.
+// Un hilo de mantenimiento cierra las libres inactivas, envía ping a las que llevan intervaloPing sin uso
+// (el servidor cierra una sesión tras su tiempo de inactividad) y renueva las que superan vidaMaxima:
+// con reanudación la sesión nueva sale del ticket de la anterior, con claves nuevas y sin Diffie-Hellman.
+public class PoolSesiones implements FuenteServicios {
+    private final String host;
+    private final int puerto;
+    private final String archivoClavePublica;
+    private String formato;
+    private String suites;
+    private String modosRegistro;
+    private int maxSesiones;
+    private long esperaMaxima;
+    private long inactividadMaxima;
+    private long intervaloPing;
+    private long vidaMaxima;
+
+    private final LinkedBlockingDeque<Sesion> libres = new LinkedBlockingDeque<>();
+    private Semaphore permisos;
+    private ScheduledExecutorService mantenimiento;
+    private volatile boolean cerrado;
+
+    private final AtomicInteger abiertas = new AtomicInteger();
+    private final AtomicLong aciertos = new AtomicLong();
+    private final AtomicLong fallos = new AtomicLong();
+    private final AtomicLong esperasAgotadas = new AtomicLong();
+    private final AtomicLong descartadas = new AtomicLong();
+    private final AtomicLong renovadas = new AtomicLong();
+    private final AtomicLong cerradasInactivas = new AtomicLong();
+    private final AtomicLong pings = new AtomicLong();
+    private final AtomicLong reintentos = new AtomicLong();
+    private final HistogramaLatencia esperaPrestamo = new HistogramaLatencia();
+
+    public PoolSesiones(String host, int puerto, String archivoClavePublica) {
+        this.host = host;
+        this.puerto = puerto;
+        this.archivoClavePublica = archivoClavePublica;
+        this.formato = "binario";
+        this.suites = "x25519,p256,dh";
+        this.modosRegistro = ModoRegistro.preferenciaPorDefecto();
+        this.maxSesiones = 8;
+        this.esperaMaxima = 5000;
+        this.inactividadMaxima = 60000;
+        this.intervaloPing = 20000;
+        this.vidaMaxima = 600000;
+    }
+
+    public void setFormato(String formato) {
+        this.formato = formato;
+    }
+
+    public void setSuites(String suites) {
+        this.suites = suites;
+    }
+
+    public void setModosRegistro(String modosRegistro) {
+        this.modosRegistro = modosRegistro;
+    }
+
+    // Sesiones abiertas como máximo (prestadas más libres) y milisegundos que espera quien pide una de más
+    public void setLimites(int maxSesiones, long esperaMaxima) {
+        this.maxSesiones = maxSesiones;
+        this.esperaMaxima = esperaMaxima;
+    }
+
+    // Milisegundos. intervaloPing debe quedar por debajo del tiempo de inactividad del servidor (30 s por defecto);
+    // 0 desactiva los ping, la caducidad por inactividad o la renovación
+    public void setTiempos(long inactividadMaxima, long intervaloPing, long vidaMaxima) {
+        this.inactividadMaxima = inactividadMaxima;
+        this.intervaloPing = intervaloPing;
+        this.vidaMaxima = vidaMaxima;
+    }
+
+    public synchronized void iniciar() {
+        if (permisos != null) {
+            throw new IllegalStateException("El pool ya fue iniciado");
+        }
+        permisos = new Semaphore(maxSesiones, true);
+        mantenimiento = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "pool-sesiones-mantenimiento");
+            t.setDaemon(true);
+            return t;
+        });
+        long periodo = 1000;
+        for (long intervalo : new long[]{inactividadMaxima, intervaloPing, vidaMaxima}) {
+            if (intervalo > 0) {
+                periodo = Math.min(periodo, Math.max(100, intervalo / 4));
+            }
+        }
+        mantenimiento.scheduleWithFixedDelay(this::mantener, periodo, periodo, TimeUnit.MILLISECONDS);
+    }
+
+    // Presta una sesión libre o, si no hay, abre una nueva. Hay que devolverla con devolver o descartar.
+    public Sesion prestar() throws IOException, GeneralSecurityException, InterruptedException {
+        if (permisos == null) {
+            throw new IllegalStateException("El pool no está iniciado");
+        }
+        // Quien lo cierra (ClienteCluster al dar un nodo por caído) no sabe qué hilos ya lo tenían en la mano:
+        // para ellos es un fallo de conexión más y pasan a la réplica siguiente
+        if (cerrado) {
+            throw new IOException("El pool de " + host + ":" + puerto + " está cerrado");
+        }
+        long inicio = System.nanoTime();
+        if (!permisos.tryAcquire(esperaMaxima, TimeUnit.MILLISECONDS)) {
+            esperasAgotadas.incrementAndGet();
+            throw new IOException("No hubo sesión libre en " + esperaMaxima + " ms (" + maxSesiones + " sesiones prestadas)");
+        }
+        esperaPrestamo.registrar(System.nanoTime() - inicio);
+        if (cerrado) {
+            permisos.release();
+            throw new IOException("El pool de " + host + ":" + puerto + " está cerrado");
+        }
+        try {
+            Sesion sesion = libres.pollFirst();
+            if (sesion != null && !sesion.isVigente(System.currentTimeMillis()) && !renovar(sesion)) {
+                sesion = null;
+            }
+            if (sesion != null) {
+                aciertos.incrementAndGet();
+                return sesion;
+            }
+            fallos.incrementAndGet();
+            return abrir();
+        } catch (IOException | GeneralSecurityException | RuntimeException e) {
+            permisos.release();
+            throw e;
+        }
+    }
+
+    public void devolver(Sesion sesion) {
+        sesion.ultimoUso = System.currentTimeMillis();
+        if (cerrado || !sesion.cliente.isSesionAbierta()) {
+            cerrar(sesion);
+        } else {
+            libres.offerFirst(sesion);
+        }
+        permisos.release();
+    }
+
+    // Para una sesión que falló: su canal quedó en un estado desconocido y no vuelve al pool
+    public void descartar(Sesion sesion) {
+        descartadas.incrementAndGet();
+        cerrar(sesion);
+        permisos.release();
+    }
+
+    // Consulta con una sesión prestada. Si la sesión resulta estar caída (el servidor la cerró o se reinició),
+    // el mismo Cliente reconecta con su ticket y repite la consulta una vez, sin volver a la cola de préstamo;
+    // repetirla es seguro porque una consulta no cambia nada en el servidor
+    @Override
+    public InfoServicio consultar(String idServicio) throws IOException, GeneralSecurityException,
+            ClassNotFoundException, InterruptedException {
+        Sesion sesion = prestar();
+        try {
+            InfoServicio info;
+            try {
+                info = sesion.cliente.consultar(idServicio);
+            } catch (IOException e) {
+                reintentos.incrementAndGet();
+                Bitacora.aviso("[PoolSesiones] Sesión caída, reconectando: " + e);
+                sesion.cliente.cerrarSesion();
+                sesion.cliente.abrirSesion();
+                sesion.creacion = System.currentTimeMillis();
+                info = sesion.cliente.consultar(idServicio);
+            }
+            devolver(sesion);
+            return info;
+        } catch (IOException | GeneralSecurityException | ClassNotFoundException | RuntimeException e) {
+            descartar(sesion);
+            throw e;
+        }
+    }
+
+    // Tabla que recibió en el handshake una sesión del pool (copia: la de la sesión cambia si se renueva)
+    @Override
+    public Map<String, String> servicios() throws IOException, GeneralSecurityException, InterruptedException {
+        Sesion sesion = prestar();
+        Map<String, String> servicios = new HashMap<>(sesion.cliente.getServicios());
+        devolver(sesion);
+        return servicios;
+    }
+
+    @Override
+    public void cerrar() {
+        cerrado = true;
+        if (mantenimiento != null) {
+            mantenimiento.shutdownNow();
+        }
+        Sesion sesion;
+        while ((sesion = libres.pollFirst()) != null) {
+            cerrar(sesion);
+        }
+    }
+
+    private Sesion abrir() throws IOException, GeneralSecurityException {
+        Cliente cliente = new Cliente(host, puerto);
+        cliente.setFormato(formato);
+        cliente.setSuites(SuiteCifrado.lista(suites));
+        cliente.setModosRegistro(ModoRegistro.lista(modosRegistro));
+        cliente.cargarClavePublica(archivoClavePublica);
+        cliente.cargarClavesSuites(ClienteManager.directorioClaves(archivoClavePublica));
+        try {
+            cliente.abrirSesion();
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Respuesta inválida del servidor: " + e.getMessage(), e);
+        }
+        abiertas.incrementAndGet();
+        return new Sesion(cliente);
+    }
+
+    private void cerrar(Sesion sesion) {
+        if (sesion.cliente.isSesionAbierta()) {
+            sesion.cliente.cerrarSesion();
+        }
+        abiertas.decrementAndGet();
+    }
+
+    // Revisa las sesiones libres de a una, de la usada hace más tiempo a la más reciente. Solo saca del pool la que
+    // necesita renovación, cierre o ping, y mientras la tiene ocupa un permiso como si estuviera prestada: así prestar()
+    // no abre otra en su lugar y el pool no pasa de maxSesiones. Sin permisos libres la revisión espera a la próxima vuelta.
+    private void mantener() {
+        long ahora = System.currentTimeMillis();
+        List<Sesion> candidatas = new ArrayList<>(libres);
+        for (int i = candidatas.size() - 1; i >= 0 && !cerrado; i--) {
+            Sesion sesion = candidatas.get(i);
+            boolean vencida = !sesion.isVigente(ahora);
+            boolean inactiva = inactividadMaxima > 0 && ahora - sesion.ultimoUso >= inactividadMaxima;
+            boolean sinPing = intervaloPing > 0 && ahora - sesion.ultimoUso >= intervaloPing;
+            if (!vencida && !inactiva && !sinPing) {
+                continue;
+            }
+            if (!permisos.tryAcquire()) {
+                return;
+            }
+            try {
+                // Si ya no está, alguien la prestó entre la copia y ahora
+                if (libres.removeLastOccurrence(sesion)) {
+                    revisar(sesion, vencida, inactiva, ahora);
+                }
+            } finally {
+                permisos.release();
+            }
+        }
+    }
+
+    private void revisar(Sesion sesion, boolean vencida, boolean inactiva, long ahora) {
+        if (vencida) {
+            if (!renovar(sesion)) {
+                return;
+            }
+        } else if (inactiva) {
+            cerradasInactivas.incrementAndGet();
+            cerrar(sesion);
+            return;
+        } else {
+            try {
+                sesion.cliente.ping();
+                pings.incrementAndGet();
+                sesion.ultimoUso = ahora;
+            } catch (IOException | GeneralSecurityException | RuntimeException e) {
+                Bitacora.aviso("[PoolSesiones] Sesión caída en el ping: " + e.getMessage());
+                descartadas.incrementAndGet();
+                cerrar(sesion);
+                return;
+            }
+        }
+        // Vuelve al final, entre las usadas hace más tiempo, como estaba
+        if (cerrado) {
+            cerrar(sesion);
+        } else {
+            libres.offerLast(sesion);
+        }
+    }
+
+    // Cambio de claves de una sesión que superó vidaMaxima (o que el servidor ya cerró): el mismo Cliente
+    // reconecta presentando el ticket de la sesión anterior. Devuelve false si no pudo y la sesión quedó cerrada.
+    private boolean renovar(Sesion sesion) {
+        if (sesion.cliente.isSesionAbierta()) {
+            sesion.cliente.cerrarSesion();
+        }
+        try {
+            sesion.cliente.abrirSesion();
+            sesion.creacion = System.currentTimeMillis();
+            renovadas.incrementAndGet();
+            return true;
+        } catch (IOException | GeneralSecurityException | ClassNotFoundException | RuntimeException e) {
+            Bitacora.aviso("[PoolSesiones] No se pudo renovar la sesión: " + e.getMessage());
+            descartadas.incrementAndGet();
+            abiertas.decrementAndGet();
+            return false;
+        }
+    }
+
+    public int getSesionesAbiertas() {
+        return abiertas.get();
+    }
+
+    public int getSesionesLibres() {
+        return libres.size();
+    }
+
+    public long getAciertos() {
+        return aciertos.get();
+    }
+
+    public long getFallos() {
+        return fallos.get();
+    }
+
+    public HistogramaLatencia.Instantanea getEsperaPrestamo() {
+        return esperaPrestamo.instantanea();
+    }
+
+    public String resumen() {
+        long prestamos = aciertos.get() + fallos.get();
+        StringBuilder sb = new StringBuilder("=== Pool de sesiones ").append(host).append(':').append(puerto).append(" ===\n");
+        sb.append("Sesiones abiertas: ").append(abiertas.get()).append(" (libres ").append(libres.size())
+          .append(", máximo ").append(maxSesiones).append(")\n");
+        sb.append("Préstamos: ").append(prestamos).append(" (aciertos ").append(aciertos.get())
+          .append(", fallos ").append(fallos.get());
+        if (prestamos > 0) {
+            sb.append(String.format(", %.1f %% de aciertos", aciertos.get() * 100.0 / prestamos));
+        }
+        sb.append(")\n");
+        sb.append("Espera de préstamo: ").append(esperaPrestamo.instantanea().resumen()).append("\n");
+        sb.append("Esperas agotadas: ").append(esperasAgotadas.get()).append(", reintentos: ").append(reintentos.get())
+          .append(", descartadas: ").append(descartadas.get()).append("\n");
+        sb.append("Renovadas: ").append(renovadas.get()).append(", cerradas por inactividad: ")
+          .append(cerradasInactivas.get()).append(", pings: ").append(pings.get());
+        return sb.toString();
+    }
+
+    // Sesión prestada: el Cliente es de uso exclusivo de quien la tiene hasta devolverla
+    public class Sesion {
+        private final Cliente cliente;
+        private volatile long creacion;
+        private volatile long ultimoUso;
+
+        private Sesion(Cliente cliente) {
+            this.cliente = cliente;
+            this.creacion = System.currentTimeMillis();
+            this.ultimoUso = creacion;
+        }
+
+        public Cliente getCliente() {
+            return cliente;
+        }
+
+        private boolean isVigente(long ahora) {
+            return cliente.isSesionAbierta() && (vidaMaxima <= 0 || ahora - creacion < vidaMaxima);
+        }
+    }
+}
@@ -0,0 +1,567 @@
+import java.io.IOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+
+import javax.crypto.SecretKey;
+import javax.crypto.spec.DHParameterSpec;
+
+// Lado servidor del protocolo como máquina de estados por conexión.
+// No lee del socket: el transporte (ServidorDelegado o ServidorNIO) le entrega cada mensaje recibido
+// y los mensajes de respuesta se escriben en la SalidaMensajes que le pasen.
+public class ProtocoloServidor {
+    private static final InfoServicio NO_ENCONTRADO = new InfoServicio("Servicio no encontrado", "-1", "-1");
+    private static final byte[] NO_ENCONTRADO_BINARIO = CodecServicios.codificarInfoServicio(NO_ENCONTRADO);
+
+    private static final int INICIO = 0;
+    private static final int ESPERANDO_HELLO = 1;
+    private static final int ESPERANDO_CLAVE_DH = 2;
+    private static final int ESPERANDO_CONSULTA = 3;
+    private static final int ESPERANDO_HMAC_CONSULTA = 4;
+    private static final int TERMINADO = 5;
+
+    private final ContextoServidor contexto;
+    private final boolean binario;
+    private volatile int estado;
+    private SecretKey claveCifrado;
+    private SecretKey claveHMAC;
+    private KeyPair serverDHKeyPair;
+    private SuiteCifrado suite;
+    private ModoRegistro modoRegistro;
+    private CifradoAEAD aead;
+    private long versionTablaCliente;
+    // Hash de los dos hellos; lo firma el servidor (o entra en las claves, si se reanuda)
+    private byte[] transcripcion;
+    private long inicioHandshake;
+    private byte[] datosConsulta;
+    // Consulta AEAD descifrada; se reutiliza entre mensajes de la sesión
+    private byte[] bufferConsulta = new byte[0];
+    private ByteBuffer vistaConsulta = ByteBuffer.wrap(bufferConsulta);
+    private long ultimaSecuencia;
+    // Para TrazaSesiones
+    private boolean reanudada;
+    private long nanosHandshake;
+    private long nanosConsultas;
+    private long consultas;
+    private long lotes;
+
+    public ProtocoloServidor(ContextoServidor contexto, boolean binario) {
+        this.contexto = contexto;
+        this.binario = binario;
+        this.estado = INICIO;
+    }
+
+    // El cliente habla primero (MensajeHello), así que por ahora no hay nada que enviar
+    public void iniciar(SalidaMensajes salida) throws Exception {
+        if (estado != INICIO) {
+            throw new IllegalStateException("El protocolo ya fue iniciado");
+        }
+        estado = ESPERANDO_HELLO;
+    }
+
+    public void procesar(Object mensaje, SalidaMensajes salida) throws Exception {
+        switch (estado) {
+            case ESPERANDO_HELLO:
+                byte[] datosHello = comoBytes(mensaje);
+                if (procesarHello(MensajeHello.decodificar(datosHello), datosHello, salida)) {
+                    enviarTablaServicios(salida);
+                    enviarTicket(salida);
+                    estado = ESPERANDO_CONSULTA;
+                } else {
+                    if (suite.isCurvaEliptica()) {
+                        enviarClaveEfimeraFirmada(salida);
+                    } else {
+                        enviarParametrosDH(salida);
+                    }
+                    estado = ESPERANDO_CLAVE_DH;
+                }
+                break;
+            case ESPERANDO_CLAVE_DH:
+                completarClavesSeguras(comoBytes(mensaje), salida);
+                enviarTablaServicios(salida);
+                enviarTicket(salida);
+                estado = ESPERANDO_CONSULTA;
+                break;
+            case ESPERANDO_CONSULTA:
+                if (aead != null) {
+                    // AEAD: consulta cifrada y autenticada en una sola trama
+                    int longitud = abrirConsultaAEAD(mensaje);
+                    boolean continuar = procesarConsulta(bufferConsulta, longitud, salida);
+                    estado = continuar ? ESPERANDO_CONSULTA : TERMINADO;
+                } else {
+                    datosConsulta = comoBytes(mensaje);
+                    estado = ESPERANDO_HMAC_CONSULTA;
+                }
+                break;
+            case ESPERANDO_HMAC_CONSULTA:
+                byte[] mensajeSesion = datosConsulta;
+                datosConsulta = null;
+                verificarConsultaHMAC(mensajeSesion, comoBytes(mensaje));
+                boolean continuar = procesarConsulta(mensajeSesion, mensajeSesion.length, salida);
+                estado = continuar ? ESPERANDO_CONSULTA : TERMINADO;
+                break;
+            default:
+                throw new IOException("Mensaje inesperado en el estado " + estado);
+        }
+    }
+
+    public boolean isTerminado() {
+        return estado == TERMINADO;
+    }
+
+    // Sesión establecida y sin consulta a medias: el cliente puede irse o quedar inactivo sin que sea un error
+    public boolean isEsperandoConsulta() {
+        return estado == ESPERANDO_CONSULTA;
+    }
+
+    // Handshake terminado: lo que llega son consultas (o su HMAC)
+    public boolean isSesionEstablecida() {
+        return estado == ESPERANDO_CONSULTA || estado == ESPERANDO_HMAC_CONSULTA;
+    }
+
+    // null hasta recibir el hello
+    public SuiteCifrado getSuite() {
+        return suite;
+    }
+
+    public ModoRegistro getModoRegistro() {
+        return modoRegistro;
+    }
+
+    public boolean isReanudada() {
+        return reanudada;
+    }
+
+    // 0 si el handshake no terminó
+    public long getNanosHandshake() {
+        return nanosHandshake;
+    }
+
+    // Tiempo dentro de procesarConsulta (consultas, lotes y pings), sin contar la espera entre mensajes
+    public long getNanosConsultas() {
+        return nanosConsultas;
+    }
+
+    // Ids consultados, sueltos o en lotes
+    public long getConsultas() {
+        return consultas;
+    }
+
+    public long getLotes() {
+        return lotes;
+    }
+
+    // ServidorNIO entrega las tramas de bytes en buffers del pool que recupera al volver de procesar:
+    // no se guardan, se copian
+    private byte[] comoBytes(Object mensaje) throws IOException {
+        if (mensaje instanceof ByteBuffer) {
+            ByteBuffer buffer = ((ByteBuffer) mensaje).duplicate();
+            byte[] datos = new byte[buffer.remaining()];
+            buffer.get(datos);
+            return datos;
+        }
+        if (!(mensaje instanceof byte[])) {
+            throw new IOException("Se esperaba byte[] y se recibió "
+                    + (mensaje == null ? "null" : mensaje.getClass().getSimpleName()));
+        }
+        return (byte[]) mensaje;
+    }
+
+    // Devuelve true si el ticket del cliente es válido y la sesión quedó reanudada sin Diffie-Hellman
+    private boolean procesarHello(MensajeHello hello, byte[] datosHello, SalidaMensajes salida) throws IOException {
+        if (hello.getModo() == MensajeHello.RECHAZADO) {
+            throw new IOException("Hello de rechazo recibido de un cliente");
+        }
+        inicioHandshake = System.nanoTime();
+        versionTablaCliente = hello.getVersionTabla();
+        byte[] nonceServidor = CryptoUtils.generarNonce(MensajeHello.TAMANO_NONCE);
+        suite = elegirSuite(hello.getSuites());
+        modoRegistro = elegirModoRegistro(hello.getModosRegistro());
+        byte[] suiteElegida = {suite.getId()};
+        byte[] modoElegido = {modoRegistro.getId()};
+
+        GestorTickets gestorTickets = contexto.getGestorTickets();
+        byte[] secretoReanudacion = null;
+        if (hello.getModo() == MensajeHello.REANUDADO && gestorTickets != null) {
+            secretoReanudacion = gestorTickets.validar(hello.getTicket());
+        }
+
+        byte modo = secretoReanudacion == null ? MensajeHello.COMPLETO : MensajeHello.REANUDADO;
+        byte[] respuesta = new MensajeHello(modo, suiteElegida, modoElegido, 0, nonceServidor, null).codificar();
+        transcripcion = MensajeHello.transcripcion(datosHello, respuesta);
+        salida.enviar(respuesta);
+        if (secretoReanudacion == null) {
+            return false;
+        }
+
+        establecerClaves(CryptoUtils.generarClavesReanudacion(secretoReanudacion, transcripcion));
+
+        reanudada = true;
+        nanosHandshake = System.nanoTime() - inicioHandshake;
+        contexto.registrarHandshake(true, binario, suite, nanosHandshake);
+        Bitacora.depuracion("[ServidorDelegado] Sesión reanudada con ticket.");
+        return true;
+    }
+
+    // La primera suite ofrecida por el cliente que el servidor tenga habilitada; sin lista, el protocolo original
+    private SuiteCifrado elegirSuite(byte[] ofrecidas) throws IOException {
+        if (ofrecidas.length == 0) {
+            ofrecidas = new byte[]{SuiteCifrado.DH_RSA.getId()};
+        }
+        for (byte id : ofrecidas) {
+            SuiteCifrado candidata = SuiteCifrado.porId(id);
+            if (candidata != null && contexto.isSuiteHabilitada(candidata)) {
+                return candidata;
+            }
+        }
+        throw new IOException("No hay una suite de cifrado común con el cliente");
+    }
+
+    // Igual que con las suites, manda el orden del cliente; sin lista se usa CBC+HMAC como antes
+    private ModoRegistro elegirModoRegistro(byte[] ofrecidos) throws IOException {
+        if (ofrecidos.length == 0) {
+            return ModoRegistro.CBC_HMAC;
+        }
+        for (byte id : ofrecidos) {
+            ModoRegistro candidato = ModoRegistro.porId(id);
+            if (candidato != null && contexto.isModoRegistroHabilitado(candidato)) {
+                return candidato;
+            }
+        }
+        throw new IOException("No hay un modo de registro común con el cliente");
+    }
+
+    private void establecerClaves(SecretKey[] claves) {
+        claveCifrado = claves[0];
+        claveHMAC = claves[1];
+        if (modoRegistro.isAEAD()) {
+            aead = new CifradoAEAD(modoRegistro, claveCifrado, true);
+        }
+        contexto.registrarModoRegistro(modoRegistro);
+    }
+
+    // Suites de curva elíptica: clave efímera del servidor firmada junto con la transcripción de los hellos
+    private void enviarClaveEfimeraFirmada(SalidaMensajes salida) throws IOException {
+        serverDHKeyPair = suite.generarParEfimero();
+        byte[] clavePublica = serverDHKeyPair.getPublic().getEncoded();
+
+        long inicioFirma = System.nanoTime();
+        byte[] firma = CryptoUtils.firmar(suite.getAlgoritmoFirma(),
+                MensajeHello.datosFirmaHandshake(transcripcion, clavePublica),
+                contexto.getClaveFirma(suite));
+        contexto.getMetricas().registrar(FaseLatencia.FIRMA, System.nanoTime() - inicioFirma);
+
+        salida.enviar(clavePublica);
+        salida.enviar(firma);
+        salida.flush();
+    }
+
+    // Ticket para la próxima conexión; vacío si la reanudación está desactivada
+    private void enviarTicket(SalidaMensajes salida) throws IOException {
+        GestorTickets gestorTickets = contexto.getGestorTickets();
+        byte[] ticket = gestorTickets != null
+                ? gestorTickets.emitir(CryptoUtils.derivarSecretoReanudacion(claveHMAC))
+                : new byte[0];
+        salida.enviar(ticket);
+        salida.flush();
+    }
+
+    private void enviarParametrosDH(SalidaMensajes salida) throws Exception {
+        try {
+            ParametrosDH parametros;
+            PoolParametrosDH poolParametrosDH = contexto.getPoolParametrosDH();
+            if (poolParametrosDH != null) {
+                // Parámetros ya generados en segundo plano por el pool
+                parametros = poolParametrosDH.obtener();
+            } else {
+                Bitacora.depuracion("[ServidorDelegado] Generando parámetros DH...");
+                parametros = ParametrosDH.generar(1024);
+                contexto.getMetricas().registrar(FaseLatencia.GENERACION_DH, parametros.getTiempoGeneracion());
+            }
+            DHParameterSpec dhParamsSpec = parametros.getSpec();
+
+            Bitacora.depuracion("[ServidorDelegado] Enviando parámetros DH...");
+
+            // Enviar p, g y l separados
+            BigInteger p = dhParamsSpec.getP();
+            BigInteger g = dhParamsSpec.getG();
+            int l = dhParamsSpec.getL();
+
+            salida.enviar(p);
+            salida.enviar(g);
+            salida.enviar(l);
+            salida.flush();
+
+            Bitacora.depuracion("[ServidorDelegado] Parámetros enviados exitosamente.");
+
+            serverDHKeyPair = CryptoUtils.generarClavesDH(dhParamsSpec);
+        } catch (Exception e) {
+            Bitacora.error("[ServidorDelegado] Error al establecer claves seguras: " + e);
+            throw e;
+        }
+    }
+
+    private void completarClavesSeguras(byte[] clientDHPublicKeyBytes, SalidaMensajes salida) throws Exception {
+        try {
+            if (!suite.isCurvaEliptica()) {
+                // En DH_RSA la clave pública del servidor va después de la del cliente, como en el protocolo original.
+                // Es la única firma de la suite: liga la transcripción y las dos claves públicas (cuya codificación
+                // incluye p y g) a esta conexión, así que los parámetros del pool no necesitan una firma propia
+                byte[] clavePublica = serverDHKeyPair.getPublic().getEncoded();
+                long inicioFirma = System.nanoTime();
+                byte[] firma = CryptoUtils.firmarRSA(
+                        MensajeHello.datosFirmaHandshake(transcripcion, clavePublica, clientDHPublicKeyBytes),
+                        contexto.getClavePrivadaServidor());
+                contexto.getMetricas().registrar(FaseLatencia.FIRMA, System.nanoTime() - inicioFirma);
+                salida.enviar(clavePublica);
+                salida.enviar(firma);
+                salida.flush();
+            }
+
+            long inicioAcuerdo = System.nanoTime();
+            byte[] secretoCompartido = CryptoUtils.acordarSecreto(suite, serverDHKeyPair.getPrivate(), clientDHPublicKeyBytes);
+            contexto.getMetricas().registrar(FaseLatencia.ACUERDO_CLAVES, System.nanoTime() - inicioAcuerdo);
+            serverDHKeyPair = null;
+
+            establecerClaves(CryptoUtils.generarClavesSesion(secretoCompartido));
+
+            nanosHandshake = System.nanoTime() - inicioHandshake;
+            contexto.registrarHandshake(false, binario, suite, nanosHandshake);
+            Bitacora.depuracion("[ServidorDelegado] Claves de sesión establecidas.");
+        } catch (Exception e) {
+            Bitacora.error("[ServidorDelegado] Error al establecer claves seguras: " + e);
+            throw e;
+        }
+    }
+
+    private void enviarTablaServicios(SalidaMensajes salida) throws IOException {
+        try { 
+            byte[] datosTablaServicios = contexto.getTablaServicios().getVersion().mensaje(binario, versionTablaCliente);
+            contexto.registrarTablaEnviada(MensajeTabla.estado(datosTablaServicios) == MensajeTabla.SIN_CAMBIOS);
+
+            if (aead != null) {
+                long inicioCifrado = System.nanoTime();
+                byte[] tablaSellada = aead.cifrar(datosTablaServicios, null);
+                contexto.getMetricas().registrar(FaseLatencia.CIFRADO_TABLA, System.nanoTime() - inicioCifrado);
+                salida.enviar(tablaSellada);
+                Bitacora.depuracion("Tabla de servicios enviada al cliente.");
+                return;
+            }
+
+            byte[] iV = CryptoUtils.generarIV();
+
+            long inicioCifrado = System.nanoTime();
+            byte[] datosTablaServiciosCifrados = CryptoUtils.cifrarAES(datosTablaServicios, claveCifrado, iV);
+            byte[] HMACTabla = CryptoUtils.generarHMAC(MensajeTabla.datosHMACTabla(iV, datosTablaServiciosCifrados), claveHMAC);
+            long finCifrado = System.nanoTime();
+            contexto.getMetricas().registrar(FaseLatencia.CIFRADO_TABLA, finCifrado - inicioCifrado);
+
+            // Sin flush: el ticket va siempre a continuación y sale en la misma escritura
+            salida.enviar(iV);
+            salida.enviar(datosTablaServiciosCifrados);
+            salida.enviar(HMACTabla);
+
+            Bitacora.depuracion("Tabla de servicios enviada al cliente.");
+        } catch (Exception e) {
+            Bitacora.error("Error al enviar la tabla de servicios: " + e.getMessage());
+            throw new IOException("Error al enviar la tabla de servicios", e);
+        }
+    }
+
+    private void verificarConsultaHMAC(byte[] mensajeSesion, byte[] HMACConsulta) {
+        long inicioVerificacion = System.nanoTime();
+        boolean hmacVerificado = CryptoUtils.verificarHMAC(mensajeSesion, HMACConsulta, claveHMAC);
+        long finVerificacion = System.nanoTime();
+        contexto.getMetricas().registrar(FaseLatencia.VERIFICACION_CONSULTA, finVerificacion - inicioVerificacion);
+
+        if (!hmacVerificado || !MensajeSesion.esValido(mensajeSesion)) {
+            contexto.registrarFalloAutenticacion();
+            Bitacora.aviso("Error de seguridad: HMAC de consulta inválido.");
+            throw new SecurityException("Error en la consulta: HMAC inválido.");
+        }
+    }
+
+    // Descifra en bufferConsulta, sin arreglos por mensaje; devuelve la longitud del MensajeSesion
+    private int abrirConsultaAEAD(Object mensaje) throws IOException {
+        ByteBuffer consultaSellada = mensaje instanceof ByteBuffer ? (ByteBuffer) mensaje : ByteBuffer.wrap(comoBytes(mensaje));
+        int longitud = consultaSellada.remaining() - CifradoAEAD.TAMANO_TAG;
+        if (longitud < MensajeSesion.TAMANO_CABECERA) {
+            throw new SecurityException("Error en la consulta: mensaje de sesión inválido.");
+        }
+        if (bufferConsulta.length < longitud) {
+            bufferConsulta = new byte[Math.max(longitud, 2 * bufferConsulta.length)];
+            vistaConsulta = ByteBuffer.wrap(bufferConsulta);
+        }
+        vistaConsulta.clear();
+        long inicioVerificacion = System.nanoTime();
+        try {
+            longitud = aead.descifrar(consultaSellada, vistaConsulta, null);
+        } catch (SecurityException e) {
+            contexto.registrarFalloAutenticacion();
+            throw e;
+        } finally {
+            contexto.getMetricas().registrar(FaseLatencia.VERIFICACION_CONSULTA, System.nanoTime() - inicioVerificacion);
+        }
+        return longitud;
+    }
+
+    // Recibe el mensaje de sesión ya autenticado; devuelve false cuando el cliente pidió cerrar la sesión
+    // mensajeSesion puede ser más largo que el mensaje (bufferConsulta): solo cuentan los primeros longitud bytes
+    private boolean procesarConsulta(byte[] mensajeSesion, int longitud, SalidaMensajes salida) throws IOException {
+        long inicioConsulta = System.nanoTime();
+        try {
+            long secuencia = MensajeSesion.secuencia(mensajeSesion);
+            if (secuencia != ultimaSecuencia + 1) {
+                Bitacora.aviso("Error de seguridad: secuencia de consulta inesperada " + secuencia);
+                throw new SecurityException("Error en la consulta: mensaje repetido o fuera de orden.");
+            }
+            ultimaSecuencia = secuencia;
+
+            if (MensajeSesion.tipo(mensajeSesion) == MensajeSesion.CIERRE) {
+                if (Bitacora.depuracion()) {
+                    Bitacora.depuracion("El cliente cerró la sesión tras " + (secuencia - 1) + " consultas.");
+                }
+                return false;
+            }
+            if (MensajeSesion.tipo(mensajeSesion) == MensajeSesion.PING) {
+                // Keep-alive de PoolSesiones: respuesta vacía con la misma protección que una consulta
+                enviarRespuesta(secuencia, ByteBuffer.allocate(0), salida);
+                salida.flush();
+                return true;
+            }
+            if (MensajeSesion.tipo(mensajeSesion) == MensajeSesion.LOTE) {
+                procesarLote(secuencia, mensajeSesion, longitud, salida);
+                return true;
+            }
+            if (MensajeSesion.tipo(mensajeSesion) != MensajeSesion.CONSULTA) {
+                throw new IOException("Tipo de mensaje de sesión desconocido: " + MensajeSesion.tipo(mensajeSesion));
+            }
+            contexto.getContadorConsultas().incrementAndGet();
+            consultas++;
+
+            int longitudId = longitud - MensajeSesion.TAMANO_CABECERA;
+            // En binario el id solo se decodifica si se va a registrar
+            String idServicio = !binario || Bitacora.depuracion()
+                    ? new String(mensajeSesion, MensajeSesion.TAMANO_CABECERA, longitudId, "UTF-8") : null;
+            if (Bitacora.depuracion()) {
+                Bitacora.depuracion("Consulta recibida para servicio: " + idServicio);
+            }
+
+            TablaServicios.Version tabla = contexto.getTablaServicios().getVersion();
+            ByteBuffer datosRespuesta;
+            if (binario) {
+                // Con catálogo mapeado la respuesta se cifra directamente desde el archivo
+                datosRespuesta = tabla.valorCodificado(mensajeSesion, MensajeSesion.TAMANO_CABECERA, longitudId);
+                if (datosRespuesta == null) {
+                    datosRespuesta = ByteBuffer.wrap(NO_ENCONTRADO_BINARIO);
+                }
+            } else {
+                InfoServicio infoServicio = tabla.buscar(idServicio);
+                datosRespuesta = ByteBuffer.wrap(CryptoUtils.serializarObjeto(infoServicio != null ? infoServicio : NO_ENCONTRADO));
+            }
+            enviarRespuesta(secuencia, datosRespuesta, salida);
+            salida.flush();
+            contexto.getMetricas().registrar(FaseLatencia.CONSULTA, System.nanoTime() - inicioConsulta);
+
+            if (Bitacora.depuracion()) {
+                Bitacora.depuracion("Respuesta enviada al cliente para servicio: " + idServicio);
+            }
+            return true;
+        } catch (Exception e) {
+            if (e instanceof SecurityException) {
+                throw e;
+            }
+
+            Bitacora.error("Error al procesar la consulta: " + e.getMessage());
+            throw new IOException("Error al procesar la consulta", e);
+        } finally {
+            nanosConsultas += System.nanoTime() - inicioConsulta;
+        }
+    }
+
+    // Todos los ids se resuelven contra la misma versión de la tabla y vuelven en una sola respuesta
+    private void procesarLote(long secuencia, byte[] mensajeSesion, int longitud, SalidaMensajes salida) throws IOException {
+        long inicio = System.nanoTime();
+        ByteBuffer cuerpo = ByteBuffer.wrap(mensajeSesion, MensajeSesion.TAMANO_CABECERA,
+                longitud - MensajeSesion.TAMANO_CABECERA);
+        int ids = CodecTramas.leerVarint(cuerpo);
+        if (ids < 0) {
+            throw new IOException("Lote truncado");
+        }
+        if (ids > contexto.getMaximoLote()) {
+            contexto.registrarLoteRechazado();
+            throw new IOException("Lote de " + ids + " consultas, el máximo es " + contexto.getMaximoLote());
+        }
+
+        TablaServicios.Version tabla = contexto.getTablaServicios().getVersion();
+        byte[][] codificados = binario ? new byte[ids][] : null;
+        InfoServicio[] resultados = binario ? null : new InfoServicio[ids];
+        int noEncontrados = 0;
+        int tamano = 0;
+        for (int i = 0; i < ids; i++) {
+            int longitudId = CodecTramas.leerVarint(cuerpo);
+            if (longitudId < 0 || longitudId > cuerpo.remaining()) {
+                throw new IOException("Lote truncado");
+            }
+            if (binario) {
+                byte[] codificado = tabla.buscarCodificado(mensajeSesion, cuerpo.position(), longitudId);
+                if (codificado == null) {
+                    codificado = NO_ENCONTRADO_BINARIO;
+                    noEncontrados++;
+                }
+                codificados[i] = codificado;
+                tamano += codificado.length;
+                if (tamano > contexto.getMaximoBytesLote()) {
+                    contexto.registrarLoteRechazado();
+                    throw new IOException("La respuesta del lote pasa de " + contexto.getMaximoBytesLote() + " bytes");
+                }
+            } else {
+                InfoServicio info = tabla.buscar(new String(mensajeSesion, cuerpo.position(), longitudId, "UTF-8"));
+                if (info == null) {
+                    info = NO_ENCONTRADO;
+                    noEncontrados++;
+                }
+                resultados[i] = info;
+            }
+            cuerpo.position(cuerpo.position() + longitudId);
+        }
+        if (cuerpo.hasRemaining()) {
+            throw new IOException("Datos sobrantes al final del lote");
+        }
+
+        byte[] datosRespuesta = binario ? CodecServicios.codificarResultadosLote(codificados)
+                : CryptoUtils.serializarObjeto(resultados);
+        if (datosRespuesta.length > contexto.getMaximoBytesLote()) {
+            contexto.registrarLoteRechazado();
+            throw new IOException("La respuesta del lote pasa de " + contexto.getMaximoBytesLote() + " bytes");
+        }
+        contexto.getContadorConsultas().addAndGet(ids);
+        consultas += ids;
+        lotes++;
+        enviarRespuesta(secuencia, ByteBuffer.wrap(datosRespuesta), salida);
+        salida.flush();
+        contexto.registrarLote(ids, noEncontrados, System.nanoTime() - inicio);
+        if (Bitacora.depuracion()) {
+            Bitacora.depuracion("Lote de " + ids + " consultas respondido (" + noEncontrados + " no encontradas)");
+        }
+    }
+
+    private void enviarRespuesta(long secuencia, ByteBuffer respuesta, SalidaMensajes salida) throws IOException {
+        if (aead != null) {
+            salida.enviarCifrado(aead, respuesta, MensajeSesion.datosAsociadosRespuesta(secuencia));
+        } else {
+            byte[] datosRespuesta = new byte[respuesta.remaining()];
+            respuesta.get(datosRespuesta);
+            byte[] iVRespuesta = CryptoUtils.generarIV();
+            byte[] respuestaCifrada = CryptoUtils.cifrarAES(datosRespuesta, claveCifrado, iVRespuesta);
+            // Mismos bytes que MensajeSesion.datosHMACRespuesta, pero sin concatenarlos en un arreglo nuevo
+            byte[] HMACRespuesta = new byte[32];
+            CryptoUtils.generarHMAC(claveHMAC, HMACRespuesta, 0,
+                    MensajeSesion.datosAsociadosRespuesta(secuencia), iVRespuesta, respuestaCifrada);
+
+            salida.enviar(iVRespuesta);
+            salida.enviar(respuestaCifrada);
+            salida.enviar(HMACRespuesta);
+        }
+    }
+}
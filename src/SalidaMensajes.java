@@ -0,0 +1,17 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+// Destino de los mensajes del protocolo (BigInteger, Integer o byte[]), independiente del transporte
+public interface SalidaMensajes {
+    void enviar(Object mensaje) throws IOException;
+
+    void flush() throws IOException;
+
+    // Envía como byte[] lo que queda en plano cifrado con aead. ServidorNIO lo sobreescribe para cifrar
+    // directamente dentro de la trama de salida, sin el arreglo intermedio
+    default void enviarCifrado(CifradoAEAD aead, ByteBuffer plano, byte[] datosAsociados) throws IOException {
+        byte[] datos = new byte[plano.remaining()];
+        plano.get(datos);
+        enviar(aead.cifrar(datos, datosAsociados));
+    }
+}
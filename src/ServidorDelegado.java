@@ -1,220 +1,227 @@
 import java.io.*;
-import java.math.BigInteger;
 import java.net.*;
-import java.security.*;
-import java.security.spec.*;
-import javax.crypto.*;
-import javax.crypto.spec.*;
 
-import java.util.HashMap;
-import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+public class ServidorDelegado implements Runnable {
+    // Para leer el hello de una conexión rechazada
+    private static final int TIEMPO_RECHAZO = 1000;
+    // Cada cuánto una sesión inactiva en el pool acotado mira si hay conexiones esperando su hilo
+    private static final int INTERVALO_CESION = 1000;
 
-public class ServidorDelegado extends Thread {
     private Socket clientSocket;
-    private ObjectInputStream entrada;
-    private ObjectOutputStream salida;
-    private SecretKey claveCifrado;
-    private SecretKey claveHMAC;
-    private PrivateKey clavePrivadaServidor;
-    private PublicKey clavePublicaServidor;
-    private Map<String, InfoServicio> tablaServicios;
-    private AtomicLong tiempoTotalFirma;
-    private AtomicLong tiempoTotalCifradoTabla;
-    private AtomicLong tiempoTotalVerificarConsulta;
-    
-    public ServidorDelegado(Socket clientSocket, PrivateKey clavePrivadaServidor, PublicKey clavePublicaServidor, Map<String, InfoServicio> tablaServicios,
-                           AtomicLong tiempoTotalFirma, AtomicLong tiempoTotalCifradoTabla, AtomicLong tiempoTotalVerificarConsulta) {
+    private Canal canal;
+    private ContextoServidor contexto;
+    private final EjecutorDelegados ejecutor;
+    private long bytesLeidosRegistrados;
+    private long bytesEscritosRegistrados;
+    private final long aceptada;
+
+    // Se crea en el momento del accept: desde ahí se mide la espera en la cola del ejecutor
+    public ServidorDelegado(Socket clientSocket, ContextoServidor contexto, EjecutorDelegados ejecutor) {
         this.clientSocket = clientSocket;
-        this.clavePrivadaServidor = clavePrivadaServidor;
-        this.clavePublicaServidor = clavePublicaServidor;
-        this.tablaServicios = tablaServicios;
-        this.tiempoTotalFirma = tiempoTotalFirma;
-        this.tiempoTotalCifradoTabla = tiempoTotalCifradoTabla;
-        this.tiempoTotalVerificarConsulta = tiempoTotalVerificarConsulta;
+        this.contexto = contexto;
+        this.ejecutor = ejecutor;
+        this.aceptada = System.nanoTime();
     }
 
     @Override
 public void run() {
+    long inicioSesion = System.nanoTime();
+    boolean fallida = false;
+    String resultado = "cierre";
+    ProtocoloServidor protocolo = null;
+    contexto.registrarConexionAbierta();
+    contexto.registrarEsperaCola(inicioSesion - aceptada);
+    // Lugar de handshake en vuelo que ocupa esta conexión en ControlAdmision, hasta establecer la sesión
+    ControlAdmision admision = contexto.getControlAdmision();
+    boolean handshakePendiente = admision != null;
+    int tiempoHandshake = contexto.getTiempoHandshake();
+    int tiempoInactividad = contexto.getTiempoInactividad();
+    // Con el pool acotado una sesión inactiva no retiene su hilo mientras haya conexiones en la cola
+    boolean cedible = ejecutor != null && ejecutor.isAcotado();
+    long ultimaConsulta = 0;
     try {
-        salida = new ObjectOutputStream(clientSocket.getOutputStream());
-        salida.flush(); // Este flush es importante
-        entrada = new ObjectInputStream(clientSocket.getInputStream());
-
-        System.out.println("ServidorDelegado: Streams inicializados para cliente " + clientSocket.getInetAddress().getHostAddress());
+        // El read timeout heredado del aceptador son minutos: hasta el handshake manda el plazo de handshake
+        if (tiempoHandshake > 0) {
+            clientSocket.setSoTimeout(tiempoHandshake);
+        }
+        canal = abrirCanal();
+
+        Bitacora.depuracion(() -> "ServidorDelegado: Streams inicializados para cliente " + clientSocket.getInetAddress().getHostAddress()
+                + " (formato " + (canal.isBinario() ? "binario" : "objetos") + ")");
+
+        protocolo = new ProtocoloServidor(contexto, canal.isBinario());
+        protocolo.iniciar(canal);
+        // Si el cliente encadena consultas, el flush de cada respuesta se deja para cuando ya no quede
+        // otra consulta en el buffer: varias respuestas salen juntas en una sola escritura al socket
+        SalidaMensajes salida = new SalidaMensajes() {
+            @Override
+            public void enviar(Object mensaje) throws IOException {
+                canal.enviar(mensaje);
+            }
 
-        establecerClavesSeguras();
-        enviarTablaServicios();
-        procesarConsulta();
+            @Override
+            public void flush() throws IOException {
+                if (!canal.hayDatosPendientes()) {
+                    canal.flush();
+                }
+            }
+        };
+        boolean sesionEstablecida = false;
+        while (!protocolo.isTerminado()) {
+            if (!sesionEstablecida && protocolo.isEsperandoConsulta()) {
+                clientSocket.setSoTimeout(cedible ? plazoCesion(tiempoInactividad, 0) : tiempoInactividad);
+                sesionEstablecida = true;
+                ultimaConsulta = System.nanoTime();
+                if (handshakePendiente) {
+                    admision.terminarHandshake();
+                    handshakePendiente = false;
+                }
+            }
+            if (!sesionEstablecida && tiempoHandshake > 0) {
+                // Plazo total y no por lectura: un cliente que manda de a poco no lo estira
+                long restante = tiempoHandshake - (System.nanoTime() - inicioSesion) / 1_000_000L;
+                if (restante <= 0) {
+                    throw new SocketTimeoutException("Handshake sin terminar en " + tiempoHandshake + " ms");
+                }
+                clientSocket.setSoTimeout((int) restante);
+            }
+            // Solo se puede volver a leer tras un timeout si la lectura no consumió nada de una trama
+            boolean reintentable = cedible && sesionEstablecida && !canal.hayDatosPendientes();
+            long leidosAntes = canal.getBytesLeidos();
+            Object mensaje;
+            try {
+                mensaje = canal.leer();
+            } catch (EOFException | SocketTimeoutException e) {
+                if (protocolo.isEsperandoConsulta()) {
+                    boolean esperando = cedible && ejecutor.hayConexionesEsperando();
+                    if (e instanceof SocketTimeoutException && reintentable && !esperando
+                            && canal.getBytesLeidos() == leidosAntes) {
+                        long inactiva = (System.nanoTime() - ultimaConsulta) / 1_000_000L;
+                        if (tiempoInactividad <= 0 || inactiva < tiempoInactividad) {
+                            clientSocket.setSoTimeout(plazoCesion(tiempoInactividad, inactiva));
+                            continue;
+                        }
+                    }
+                    // Cliente de una sola consulta que cerró el socket, sesión inactiva o hilo cedido a la cola
+                    resultado = e instanceof EOFException ? "desconectado" : esperando ? "cedida" : "inactividad";
+                    String detalle = e instanceof EOFException ? "cliente desconectado"
+                            : esperando ? "hilo cedido a una conexión en cola" : "inactividad";
+                    Bitacora.depuracion(() -> "ServidorDelegado: Sesión finalizada (" + detalle + ")");
+                    break;
+                }
+                throw e;
+            }
+            ultimaConsulta = System.nanoTime();
+            long asignadoAntes = protocolo.isSesionEstablecida() ? ContextoServidor.bytesAsignadosHilo() : -1;
+            protocolo.procesar(mensaje, salida);
+            contexto.registrarAsignacion(asignadoAntes, 1);
+            registrarBytes();
+        }
     } catch (SocketTimeoutException e) {
-        System.err.println("Tiempo en comunicación con el cliente: "+ e.getMessage());
+        fallida = true;
+        resultado = "error:" + e.getClass().getSimpleName();
+        Bitacora.aviso("Tiempo en comunicación con el cliente: "+ e.getMessage());
     }catch (Exception e) {
-        System.err.println("[ServidorDelegado] Error en comunicación con cliente: " + e);
-        e.printStackTrace(System.err);
+        fallida = true;
+        resultado = "error:" + e.getClass().getSimpleName();
+        Bitacora.error("[ServidorDelegado] Error en comunicación con cliente: " + e, e);
         
     } finally {
+        if (handshakePendiente) {
+            admision.terminarHandshake();
+        }
         try {
-            if (entrada != null) {
-                System.out.println("ServidorDelegado: Cerrando entrada...");
-                entrada.close();
-            }
-            if (salida != null) {
-                System.out.println("ServidorDelegado: Cerrando salida...");
-                salida.close();
+            if (canal != null) {
+                Bitacora.depuracion("ServidorDelegado: Cerrando canal...");
+                long nanosSesion = System.nanoTime() - inicioSesion;
+                contexto.getContadores(canal.isBinario()).registrarSesion(canal.getBytesLeidos(), canal.getBytesEscritos());
+                contexto.getMetricas().registrar(FaseLatencia.SESION, nanosSesion);
+                registrarBytes();
+                TrazaSesiones traza = contexto.getTrazaSesiones();
+                if (traza != null && protocolo != null) {
+                    traza.registrar(protocolo, "bloqueante", clientSocket.getInetAddress().getHostAddress(),
+                            canal.isBinario(), canal.getBytesLeidos(), canal.getBytesEscritos(), nanosSesion, resultado);
+                }
+                canal.close();
             }
             if (clientSocket != null && !clientSocket.isClosed()) {
-                System.out.println("ServidorDelegado: Cerrando socket...");
+                Bitacora.depuracion("ServidorDelegado: Cerrando socket...");
                 clientSocket.close();
             }
         } catch (IOException e) {
-            System.err.println("Error cerrando recursos: " + e.getMessage());
-            e.printStackTrace();
+            Bitacora.error("Error cerrando recursos: " + e.getMessage(), e);
         }
+        contexto.registrarConexionCerrada(fallida);
     }
 }
 
-    private void establecerClavesSeguras() throws Exception {
-    try {
-        System.out.println("[ServidorDelegado] Generando parámetros DH...");
-        AlgorithmParameterGenerator paramGen = AlgorithmParameterGenerator.getInstance("DH");
-        paramGen.init(1024);
-        AlgorithmParameters params = paramGen.generateParameters();
-        DHParameterSpec dhParamsSpec = params.getParameterSpec(DHParameterSpec.class);
-
-        System.out.println("[ServidorDelegado] Enviando parámetros DH...");
-
-        // Enviar p, g y l separados
-        BigInteger p = dhParamsSpec.getP();
-        BigInteger g = dhParamsSpec.getG();
-        int l = dhParamsSpec.getL();
-
-        salida.writeObject(p);
-        salida.writeObject(g);
-        salida.writeObject(l);
-        salida.flush();
-
-        // Crear datos serializados para firmar
-        ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ObjectOutputStream oos = new ObjectOutputStream(baos);
-        oos.writeObject(p);
-        oos.writeObject(g);
-        oos.writeObject(l);
-        oos.flush();
-        byte[] parametrosSerializados = baos.toByteArray();
-
-        long inicioFirma = System.nanoTime();
-        byte[] firmaParametros = CryptoUtils.firmarRSA(parametrosSerializados, clavePrivadaServidor);
-        long finFirma = System.nanoTime();
-        tiempoTotalFirma.addAndGet(finFirma - inicioFirma);
-
-        salida.writeObject(firmaParametros);
-        salida.flush();
-
-        System.out.println("[ServidorDelegado] Parámetros y firma enviados exitosamente.");
-
-        // Continuar con Diffie-Hellman
-        KeyPair serverDHKeyPair = CryptoUtils.generarClavesDH(dhParamsSpec);
-
-        byte[] clientDHPublicKeyBytes = (byte[]) entrada.readObject();
-        KeyFactory keyFactory = KeyFactory.getInstance("DH");
-        X509EncodedKeySpec x509KeySpec = new X509EncodedKeySpec(clientDHPublicKeyBytes);
-        PublicKey clientDHPublicKey = keyFactory.generatePublic(x509KeySpec);
-
-        salida.writeObject(serverDHKeyPair.getPublic().getEncoded());
-        salida.flush();
-
-        KeyAgreement serverKeyAgreement = KeyAgreement.getInstance("DH");
-        serverKeyAgreement.init(serverDHKeyPair.getPrivate());
-        serverKeyAgreement.doPhase(clientDHPublicKey, true);
-        byte[] secretoCompartido = serverKeyAgreement.generateSecret();
-
-        SecretKey[] claves = CryptoUtils.generarClavesSesion(secretoCompartido);
-        claveCifrado = claves[0];
-        claveHMAC = claves[1];
-
-        System.out.println("[ServidorDelegado] Claves de sesión establecidas.");
-    } catch (Exception e) {
-        System.err.println("[ServidorDelegado] Error al establecer claves seguras: " + e);
-        throw e;
+    // Timeout de lectura de una sesión cedible: lo que falte del tiempo de inactividad, a lo sumo INTERVALO_CESION
+    private static int plazoCesion(int tiempoInactividad, long inactiva) {
+        if (tiempoInactividad <= 0) {
+            return INTERVALO_CESION;
         }
+        return (int) Math.max(1, Math.min(INTERVALO_CESION, tiempoInactividad - inactiva));
     }
 
+    // Lleva a los contadores en vivo del contexto lo que el canal contó desde la última vez
+    private void registrarBytes() {
+        long leidos = canal.getBytesLeidos();
+        long escritos = canal.getBytesEscritos();
+        contexto.registrarBytes(leidos - bytesLeidosRegistrados, escritos - bytesEscritosRegistrados);
+        bytesLeidosRegistrados = leidos;
+        bytesEscritosRegistrados = escritos;
+    }
 
-    private void enviarTablaServicios() throws IOException {
-        try { 
-            Map<String, String> nombresServicios = new HashMap<>();
-            for (Map.Entry<String, InfoServicio> entrada : tablaServicios.entrySet()) {
-                String nombreServicio = entrada.getKey();
-                InfoServicio infoServicio = entrada.getValue();
-                nombresServicios.put(nombreServicio, infoServicio.getServicio());
-            }
-
-            byte[] datosTablaServicios = CryptoUtils.serializarObjeto(nombresServicios);
-
-            byte[] iV = CryptoUtils.generarIV();
-
-            long inicioCifrado = System.nanoTime();
-            byte[] datosTablaServiciosCifrados = CryptoUtils.cifrarAES(datosTablaServicios, claveCifrado, iV);
-            long finCifrado = System.nanoTime();
-            tiempoTotalCifradoTabla.addAndGet(finCifrado - inicioCifrado);
-
-            byte[] HMACTabla = CryptoUtils.generarHMAC(datosTablaServiciosCifrados, claveHMAC);
-
-            salida.writeObject(iV);
-            salida.writeObject(datosTablaServiciosCifrados);
-            salida.writeObject(HMACTabla);
-            salida.flush();
-
-            System.out.println("Tabla de servicios enviada al cliente.");
-        } catch (Exception e) {
-            System.err.println("Error al enviar la tabla de servicios: " + e.getMessage());
-            throw new IOException("Error al enviar la tabla de servicios", e);
+    // El cliente escribe primero la cabecera de su stream: 0xACED para ObjectOutputStream
+    // o el prefacio de CodecTramas para el formato binario
+    private Canal abrirCanal() throws IOException {
+        BufferedInputStream in = new BufferedInputStream(clientSocket.getInputStream());
+        in.mark(2);
+        int b0 = in.read();
+        int b1 = in.read();
+        in.reset();
+        if (b0 < 0 || b1 < 0) {
+            throw new EOFException("El cliente cerró la conexión antes de enviar la cabecera");
+        }
+        if (CodecTramas.esMagia(b0, b1)) {
+            return new CanalTramas(in, clientSocket.getOutputStream());
         }
+        return new CanalObjetos(in, clientSocket.getOutputStream());
     }
 
-    private void procesarConsulta() throws IOException, ClassNotFoundException {
+    // Llamado cuando el ejecutor no tiene capacidad: se cierra la conexión sin atenderla
+    public void rechazar() {
+        Bitacora.aviso("[ServidorDelegado] Conexión rechazada por saturación: " + clientSocket.getInetAddress().getHostAddress());
+        if (contexto.getControlAdmision() != null) {
+            contexto.getControlAdmision().terminarHandshake();
+        }
         try {
-            byte[] datosConsulta = (byte[]) entrada.readObject();
-            byte[] HMACConsulta = (byte[]) entrada.readObject();
-
-            long inicioVerificacion = System.nanoTime();
-            boolean hmacVerificado = CryptoUtils.verificarHMAC(datosConsulta, HMACConsulta, claveHMAC);
-            long finVerificacion = System.nanoTime();
-            tiempoTotalVerificarConsulta.addAndGet(finVerificacion - inicioVerificacion);
-
-            if (!hmacVerificado) {
-                System.err.println("Error de seguridad: HMAC de consulta inválido.");
-                throw new SecurityException("Error en la consulta: HMAC inválido.");
-            }
-
-            String idServicio = new String(datosConsulta, "UTF-8");
-            System.out.println("Consulta recibida para servicio: " + idServicio);
-
-            InfoServicio infoServicio;
-            if(tablaServicios.containsKey(idServicio)) {
-                infoServicio = tablaServicios.get(idServicio);
-            } else {
-                infoServicio = new InfoServicio("Servicio no encontrado", "-1","-1");
-            }
-
-            byte[] datosRespuesta = CryptoUtils.serializarObjeto(infoServicio);
-            byte[] iVRespuesta = CryptoUtils.generarIV();
-            byte[] respuestaCifrada = CryptoUtils.cifrarAES(datosRespuesta, claveCifrado, iVRespuesta);
-            byte[] HMACRespuesta = CryptoUtils.generarHMAC(respuestaCifrada, claveHMAC);
-
-            salida.writeObject(iVRespuesta);
-            salida.writeObject(respuestaCifrada);
-            salida.writeObject(HMACRespuesta);
-            salida.flush();
+            clientSocket.close();
+        } catch (IOException e) {
+            Bitacora.error("Error cerrando socket rechazado: " + e.getMessage());
+        }
+    }
 
-            System.out.println("Respuesta enviada al cliente para servicio: " + idServicio);            
-        } catch (Exception e) {
-            if (e instanceof SecurityException) {
-                throw e;
+    // Conexión que ControlAdmision no admitió. Se lee el hello antes de contestar: cerrar con datos sin leer
+    // manda un RST, y el cliente podría perder el rechazo antes de leerlo. Ninguna operación criptográfica
+    public void responderRechazo(long esperaMilisegundos) {
+        try {
+            clientSocket.setSoTimeout(TIEMPO_RECHAZO);
+            canal = abrirCanal();
+            canal.leer();
+            canal.enviar(MensajeHello.rechazo(esperaMilisegundos).codificar());
+            canal.flush();
+        } catch (IOException e) {
+            Bitacora.depuracion(() -> "ServidorDelegado: No se pudo entregar el rechazo: " + e);
+        } finally {
+            try {
+                if (canal != null) {
+                    canal.close();
+                }
+                clientSocket.close();
+            } catch (IOException e) {
+                Bitacora.depuracion(() -> "ServidorDelegado: Error cerrando conexión rechazada: " + e);
             }
-
-            System.err.println("Error al procesar la consulta: " + e.getMessage());
-            throw new IOException("Error al procesar la consulta", e);
         }
-    } 
-}
\ No newline at end of file
+    }
+}
@@ -0,0 +1,575 @@
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Transporte no bloqueante: un hilo con Selector atiende todos los sockets y el trabajo
+// criptográfico (firma, acuerdo DH, cifrado) se ejecuta en un pool pequeño de cómputo.
+// Cada conexión avanza su ProtocoloServidor con los mensajes completos que va recibiendo.
+// Solo habla el formato binario de CodecTramas, no la serialización de objetos Java.
+// La capa de registro trabaja con buffers de PoolBuffers: el socket se lee a un buffer del pool, cada
+// trama de bytes pasa al pool de cómputo en otro buffer del pool (el protocolo la descifra desde ahí), y las
+// respuestas se cifran dentro de su trama de salida (enviarCifrado) y se escriben con un write agrupado.
+// En régimen estable ningún buffer se asigna por mensaje.
+// Contrapresión: si una conexión acumula demasiadas tramas sin procesar o demasiadas respuestas sin escribir (un
+// cliente que encadena consultas y no lee), se deja de leer su socket hasta que el cómputo o el socket se pongan al día.
+public class ServidorNIO {
+    // Lo que se espera el hello de una conexión rechazada
+    private static final long TIEMPO_RECHAZO = 1000;
+
+    private final int puerto;
+    private final ContextoServidor contexto;
+    private final AtomicLong contadorClientes;
+    private final ThreadPoolExecutor poolComputo;
+    private final Queue<ConexionNIO> pendientes;
+    private final AtomicInteger conexionesAbiertas;
+    private final PoolBuffers poolBuffers;
+    private final OpcionesSocket opciones;
+    private Selector selector;
+
+    public ServidorNIO(int puerto, ContextoServidor contexto, AtomicLong contadorClientes, int hilosComputo,
+                       PoolBuffers poolBuffers, OpcionesSocket opciones) {
+        this.puerto = puerto;
+        this.opciones = opciones;
+        this.poolBuffers = poolBuffers;
+        this.contexto = contexto;
+        this.contadorClientes = contadorClientes;
+        AtomicInteger numero = new AtomicInteger(0);
+        this.poolComputo = (ThreadPoolExecutor) Executors.newFixedThreadPool(hilosComputo, r -> {
+            Thread t = new Thread(r, "computo-nio-" + numero.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.pendientes = new ConcurrentLinkedQueue<>();
+        this.conexionesAbiertas = new AtomicInteger(0);
+    }
+
+    public void iniciar() throws IOException {
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open();
+             Selector selector = Selector.open()) {
+            this.selector = selector;
+            serverChannel.configureBlocking(false);
+            opciones.aplicarEscucha(serverChannel);
+            serverChannel.bind(new InetSocketAddress(puerto), opciones.getBacklog());
+            serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+            System.out.println("Servidor principal (NIO) iniciado en puerto " + puerto);
+            System.out.println("Esperando conexiones de clientes...");
+
+            long ultimaRevision = System.currentTimeMillis();
+            while (!Thread.currentThread().isInterrupted()) {
+                selector.select(1000);
+                atenderPendientes();
+
+                long ahora = System.currentTimeMillis();
+                if (ahora - ultimaRevision >= 1000) {
+                    cerrarInactivas(ahora);
+                    ultimaRevision = ahora;
+                }
+
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    try {
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            aceptar(serverChannel);
+                        } else {
+                            ConexionNIO conexion = (ConexionNIO) key.attachment();
+                            if (key.isReadable()) {
+                                conexion.leer();
+                            }
+                            if (key.isValid() && key.isWritable()) {
+                                conexion.escribir();
+                            }
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        // Una trama mal formada de un cliente cierra solo su conexión, nunca el bucle del selector
+                        Object adjunto = key.attachment();
+                        if (adjunto instanceof ConexionNIO) {
+                            ((ConexionNIO) adjunto).cerrar("error:" + e.getClass().getSimpleName());
+                        } else {
+                            Bitacora.error("[ServidorNIO] Error en el selector: " + e.getMessage(), e);
+                        }
+                    }
+                }
+            }
+        } finally {
+            poolComputo.shutdownNow();
+        }
+    }
+
+    public int getConexionesAbiertas() {
+        return conexionesAbiertas.get();
+    }
+
+    public int getHilosComputo() {
+        return poolComputo.getMaximumPoolSize();
+    }
+
+    public int getHilosComputoActivos() {
+        return poolComputo.getActiveCount();
+    }
+
+    public int getTareasComputoEnCola() {
+        return poolComputo.getQueue().size();
+    }
+
+    public PoolBuffers getPoolBuffers() {
+        return poolBuffers;
+    }
+
+    private void aceptar(ServerSocketChannel serverChannel) throws IOException {
+        SocketChannel canal = serverChannel.accept();
+        if (canal == null) {
+            return;
+        }
+        canal.configureBlocking(false);
+        opciones.aplicar(canal);
+        ControlAdmision admision = contexto.getControlAdmision();
+        ControlAdmision.Motivo motivo = admision != null ? admision.admitir(canal.socket().getInetAddress()) : null;
+        ConexionNIO conexion = new ConexionNIO(canal, admision != null && motivo == null);
+        if (motivo != null) {
+            // No llega al pool de cómputo: el selector contesta el hello con el rechazo y cierra
+            conexion.esperaRechazo = admision.esperaSugerida(motivo, canal.socket().getInetAddress());
+            Bitacora.depuracion(() -> "Conexión de " + canal.socket().getInetAddress().getHostAddress()
+                    + " rechazada (" + motivo.getNombre() + ")");
+        } else {
+            contadorClientes.incrementAndGet();
+            conexionesAbiertas.incrementAndGet();
+            contexto.registrarConexionAbierta();
+        }
+        conexion.key = canal.register(selector, SelectionKey.OP_READ, conexion);
+        conexion.escribir();
+        if (motivo == null) {
+            conexion.programar();
+        }
+    }
+
+    private void cerrarInactivas(long ahora) {
+        for (SelectionKey key : selector.keys()) {
+            Object adjunto = key.attachment();
+            if (adjunto instanceof ConexionNIO) {
+                ConexionNIO conexion = (ConexionNIO) adjunto;
+                if (conexion.isInactiva(ahora)) {
+                    if (conexion.esperaRechazo < 0 && !conexion.protocolo.isSesionEstablecida()) {
+                        // Venció el plazo de handshake: cuenta como conexión fallida, igual que en el bloqueante
+                        conexion.fallida = true;
+                        conexion.resultado = "error:plazo-handshake";
+                    }
+                    conexion.cerrar("inactividad");
+                }
+            }
+        }
+    }
+
+    // Cambios de interés pedidos desde el pool de cómputo; solo el hilo del selector toca las SelectionKey
+    private void atenderPendientes() {
+        ConexionNIO conexion;
+        while ((conexion = pendientes.poll()) != null) {
+            try {
+                conexion.escribir();
+            } catch (IOException | RuntimeException e) {
+                conexion.cerrar("error:" + e.getClass().getSimpleName());
+            }
+        }
+    }
+
+    private class ConexionNIO implements SalidaMensajes {
+        // Tramas por write agrupado
+        private static final int MAXIMO_LOTE_ESCRITURA = 64;
+        // Límites de la contrapresión
+        private static final int MAXIMO_TRAMAS_ENTRANTES = 32;
+        private static final long MAXIMO_BYTES_PENDIENTES = 256 * 1024;
+
+        private final SocketChannel canal;
+        private final ProtocoloServidor protocolo;
+        private SelectionKey key;
+        private ByteBuffer bufferLectura;
+        // byte[] de las tramas de tipo bytes van en un ByteBuffer del pool; los demás tipos ya decodificados
+        private final Queue<Object> entrantes;
+        private final AtomicInteger tramasEntrantes;
+        // Las llena el hilo de cómputo; el del selector las pasa a enEscritura y las devuelve al pool ya escritas
+        private final Queue<ByteBuffer> salientes;
+        private final ArrayDeque<ByteBuffer> enEscritura;
+        // Bytes en salientes y enEscritura todavía sin escribir
+        private final AtomicLong bytesPendientes;
+        private volatile boolean lecturaPausada;
+        private final ByteBuffer[] loteEscritura;
+        private final AtomicBoolean programada;
+        // Lugar en ControlAdmision que ocupa el handshake hasta establecer la sesión o cerrar
+        private final AtomicBoolean handshakeEnVuelo;
+        // >= 0 si ControlAdmision no la admitió: milisegundos que se sugieren en el rechazo
+        private long esperaRechazo = -1;
+        // Llegada del hello al selector, para medir cuánto espera al pool de cómputo
+        private long llegadaHello;
+        private volatile boolean iniciada;
+        private volatile boolean cerrarTrasEscribir;
+        private volatile boolean cerrada;
+        private volatile boolean fallida;
+        private volatile String resultado;
+        private boolean prefacioRecibido;
+        private long bytesLeidos;
+        private long bytesEscritos;
+        private long ultimaActividad;
+        private final long inicioSesion;
+        private final long aceptada;
+
+        ConexionNIO(SocketChannel canal, boolean admitida) {
+            this.canal = canal;
+            this.handshakeEnVuelo = new AtomicBoolean(admitida);
+            this.protocolo = new ProtocoloServidor(contexto, true);
+            this.bufferLectura = poolBuffers.tomar(1024);
+            this.entrantes = new ConcurrentLinkedQueue<>();
+            this.tramasEntrantes = new AtomicInteger(0);
+            this.salientes = new ConcurrentLinkedQueue<>();
+            this.enEscritura = new ArrayDeque<>();
+            this.bytesPendientes = new AtomicLong(CodecTramas.TAMANO_PREFACIO);
+            this.loteEscritura = new ByteBuffer[MAXIMO_LOTE_ESCRITURA];
+            this.programada = new AtomicBoolean(false);
+            this.salientes.add(ByteBuffer.wrap(CodecTramas.prefacio()));
+            this.ultimaActividad = System.currentTimeMillis();
+            this.inicioSesion = System.nanoTime();
+            this.aceptada = ultimaActividad;
+        }
+
+        boolean isInactiva(long ahora) {
+            if (esperaRechazo >= 0) {
+                return ahora - ultimaActividad > TIEMPO_RECHAZO;
+            }
+            // Plazo de handshake contado desde el accept, haya tráfico o no
+            int tiempoHandshake = contexto.getTiempoHandshake();
+            if (tiempoHandshake > 0 && !protocolo.isSesionEstablecida() && !protocolo.isTerminado()
+                    && !programada.get() && ahora - aceptada > tiempoHandshake) {
+                return true;
+            }
+            return protocolo.isEsperandoConsulta() && !programada.get() && entrantes.isEmpty() && salientes.isEmpty()
+                    && enEscritura.isEmpty() && ahora - ultimaActividad > contexto.getTiempoInactividad();
+        }
+
+        void leer() throws IOException {
+            int leidos = canal.read(bufferLectura);
+            if (leidos < 0) {
+                cerrar("desconectado");
+                return;
+            }
+            bytesLeidos += leidos;
+            contexto.registrarBytes(leidos, 0);
+            ultimaActividad = System.currentTimeMillis();
+            bufferLectura.flip();
+            if (!prefacioRecibido) {
+                if (bufferLectura.remaining() < CodecTramas.TAMANO_PREFACIO) {
+                    bufferLectura.compact();
+                    return;
+                }
+                byte[] prefacio = new byte[CodecTramas.TAMANO_PREFACIO];
+                bufferLectura.get(prefacio);
+                CodecTramas.validarPrefacio(prefacio);
+                prefacioRecibido = true;
+            }
+            boolean hayMensajes = false;
+            while (bufferLectura.hasRemaining()) {
+                int posicion = bufferLectura.position();
+                byte tipo = bufferLectura.get();
+                int longitud = CodecTramas.leerVarint(bufferLectura);
+                if (longitud != -1) {
+                    CodecTramas.validarLongitud(longitud);
+                }
+                if (longitud == -1 || bufferLectura.remaining() < longitud) {
+                    int tamanoTrama = longitud == -1 ? CodecTramas.TAMANO_MAXIMO_CABECERA
+                            : bufferLectura.position() - posicion + longitud;
+                    bufferLectura.position(posicion);
+                    if (bufferLectura.capacity() < tamanoTrama) {
+                        ByteBuffer mayor = poolBuffers.tomar(tamanoTrama);
+                        mayor.put(bufferLectura);
+                        mayor.flip();
+                        poolBuffers.devolver(bufferLectura);
+                        bufferLectura = mayor;
+                    }
+                    break;
+                }
+                if (tipo == CodecTramas.TIPO_BYTES) {
+                    // Copia directa a directa; el protocolo descifra desde este buffer y ConexionNIO lo devuelve
+                    ByteBuffer trama = poolBuffers.tomar(longitud);
+                    int limite = bufferLectura.limit();
+                    bufferLectura.limit(bufferLectura.position() + longitud);
+                    trama.put(bufferLectura);
+                    bufferLectura.limit(limite);
+                    trama.flip();
+                    entrantes.add(trama);
+                } else {
+                    byte[] datos = new byte[longitud];
+                    bufferLectura.get(datos);
+                    entrantes.add(CodecTramas.decodificar(tipo, datos));
+                }
+                tramasEntrantes.incrementAndGet();
+                hayMensajes = true;
+            }
+            bufferLectura.compact();
+            // Lo que ya quedó en el buffer se procesa igual; lo que siga en el socket espera a que se reanude
+            if (saturada()) {
+                lecturaPausada = true;
+                key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+            }
+            if (hayMensajes && esperaRechazo >= 0) {
+                responderRechazo();
+            } else if (hayMensajes) {
+                if (llegadaHello == 0) {
+                    llegadaHello = System.nanoTime();
+                }
+                programar();
+            }
+        }
+
+        // Ya se leyó el hello, así que cerrar no manda un RST que se lleve el rechazo por delante
+        private void responderRechazo() throws IOException {
+            Object mensaje;
+            while ((mensaje = tomarEntrante()) != null) {
+                if (mensaje instanceof ByteBuffer) {
+                    poolBuffers.devolver((ByteBuffer) mensaje);
+                }
+            }
+            if (cerrarTrasEscribir) {
+                return;
+            }
+            enviar(MensajeHello.rechazo(esperaRechazo).codificar());
+            cerrarTrasEscribir = true;
+            escribir();
+        }
+
+        // Garantiza que como mucho una tarea de cómputo avance el protocolo de esta conexión a la vez
+        void programar() {
+            if (programada.compareAndSet(false, true)) {
+                poolComputo.execute(this::procesar);
+            }
+        }
+
+        private void procesar() {
+            try {
+                if (!iniciada) {
+                    protocolo.iniciar(this);
+                    iniciada = true;
+                }
+                if (llegadaHello > 0 && !protocolo.isSesionEstablecida() && !entrantes.isEmpty()) {
+                    contexto.registrarEsperaCola(System.nanoTime() - llegadaHello);
+                    llegadaHello = -1;
+                }
+                Object mensaje;
+                while (!cerrada && (mensaje = tomarEntrante()) != null) {
+                    long asignadoAntes = protocolo.isSesionEstablecida() ? ContextoServidor.bytesAsignadosHilo() : -1;
+                    try {
+                        protocolo.procesar(mensaje, this);
+                    } finally {
+                        if (mensaje instanceof ByteBuffer) {
+                            poolBuffers.devolver((ByteBuffer) mensaje);
+                        }
+                    }
+                    contexto.registrarAsignacion(asignadoAntes, 1);
+                }
+                if (protocolo.isSesionEstablecida()) {
+                    terminarHandshake();
+                }
+                if (protocolo.isTerminado()) {
+                    cerrarTrasEscribir = true;
+                    flush();
+                }
+            } catch (Exception e) {
+                Bitacora.error("[ServidorNIO] Error en comunicación con cliente: " + e);
+                fallida = true;
+                resultado = "error:" + e.getClass().getSimpleName();
+                cerrarTrasEscribir = true;
+                // La conexión ya no responde nada más: ni las respuestas pendientes ni lo que quede por procesar
+                devolverTodas(salientes);
+                descartarEntrantes();
+                solicitarEscritura();
+            } finally {
+                programada.set(false);
+                if (!entrantes.isEmpty() && !cerrada) {
+                    programar();
+                } else if (lecturaPausada && !cerrada && !saturada()) {
+                    // El selector vuelve a pedir OP_READ en escribir()
+                    solicitarEscritura();
+                }
+            }
+        }
+
+        @Override
+        public void enviar(Object mensaje) {
+            byte[] datos = CodecTramas.datosDe(mensaje);
+            ByteBuffer trama = poolBuffers.tomar(1 + CodecTramas.tamanoVarint(datos.length) + datos.length);
+            trama.put(CodecTramas.tipoDe(mensaje));
+            CodecTramas.escribirVarint(trama, datos.length);
+            trama.put(datos);
+            trama.flip();
+            bytesPendientes.addAndGet(trama.remaining());
+            salientes.add(trama);
+        }
+
+        // Cifra directamente dentro de la trama: ni el arreglo del cifrado ni la copia a la trama
+        @Override
+        public void enviarCifrado(CifradoAEAD aead, ByteBuffer plano, byte[] datosAsociados) {
+            int longitud = plano.remaining() + CifradoAEAD.TAMANO_TAG;
+            ByteBuffer trama = poolBuffers.tomar(1 + CodecTramas.tamanoVarint(longitud) + longitud);
+            trama.put(CodecTramas.TIPO_BYTES);
+            CodecTramas.escribirVarint(trama, longitud);
+            aead.cifrar(plano, trama, datosAsociados);
+            trama.flip();
+            bytesPendientes.addAndGet(trama.remaining());
+            salientes.add(trama);
+        }
+
+        @Override
+        public void flush() {
+            solicitarEscritura();
+        }
+
+        private void solicitarEscritura() {
+            pendientes.add(this);
+            selector.wakeup();
+        }
+
+        void escribir() throws IOException {
+            if (cerrada) {
+                return;
+            }
+            ByteBuffer trama;
+            while ((trama = salientes.poll()) != null) {
+                enEscritura.addLast(trama);
+            }
+            // Escritura agrupada: las tramas de una respuesta salen en un solo write en vez de varios segmentos pequeños
+            while (!enEscritura.isEmpty()) {
+                int n = 0;
+                for (ByteBuffer buffer : enEscritura) {
+                    if (n == loteEscritura.length) {
+                        break;
+                    }
+                    loteEscritura[n++] = buffer;
+                }
+                long escritos = canal.write(loteEscritura, 0, n);
+                bytesEscritos += escritos;
+                bytesPendientes.addAndGet(-escritos);
+                contexto.registrarBytes(0, escritos);
+                boolean socketLleno = loteEscritura[n - 1].hasRemaining();
+                for (int i = 0; i < n; i++) {
+                    loteEscritura[i] = null;
+                }
+                while (!enEscritura.isEmpty() && !enEscritura.peekFirst().hasRemaining()) {
+                    poolBuffers.devolver(enEscritura.pollFirst());
+                }
+                if (socketLleno) {
+                    key.interestOps(interesLectura() | SelectionKey.OP_WRITE);
+                    return;
+                }
+            }
+            if (cerrarTrasEscribir) {
+                cerrar("cierre");
+            } else {
+                key.interestOps(interesLectura());
+            }
+        }
+
+        // motivo para TrazaSesiones; mandan el error que haya dejado procesar y el CIERRE del cliente, que puede
+        // llegar junto con el fin del stream
+        void cerrar(String motivo) {
+            if (cerrada) {
+                return;
+            }
+            cerrada = true;
+            if (esperaRechazo >= 0) {
+                // Nunca contó como conexión atendida
+                try {
+                    key.cancel();
+                    canal.close();
+                } catch (IOException e) {
+                    Bitacora.depuracion(() -> "Error cerrando conexión rechazada: " + e.getMessage());
+                }
+                poolBuffers.devolver(bufferLectura);
+                bufferLectura = null;
+                devolverTodas(enEscritura);
+                devolverTodas(salientes);
+                return;
+            }
+            terminarHandshake();
+            conexionesAbiertas.decrementAndGet();
+            long nanosSesion = System.nanoTime() - inicioSesion;
+            contexto.getContadores(true).registrarSesion(bytesLeidos, bytesEscritos);
+            contexto.getMetricas().registrar(FaseLatencia.SESION, nanosSesion);
+            contexto.registrarConexionCerrada(fallida);
+            TrazaSesiones traza = contexto.getTrazaSesiones();
+            if (traza != null) {
+                traza.registrar(protocolo, "nio", canal.socket().getInetAddress().getHostAddress(), true,
+                        bytesLeidos, bytesEscritos, nanosSesion,
+                        resultado != null ? resultado : protocolo.isTerminado() ? "cierre" : motivo);
+            }
+            try {
+                key.cancel();
+                canal.close();
+            } catch (IOException e) {
+                Bitacora.error("Error cerrando conexión NIO: " + e.getMessage());
+            }
+            poolBuffers.devolver(bufferLectura);
+            bufferLectura = null;
+            devolverTodas(enEscritura);
+            devolverTodas(salientes);
+            descartarEntrantes();
+        }
+
+        // Solo los buffers todavía en la cola: el que esté procesando el hilo de cómputo lo devuelve él
+        private void descartarEntrantes() {
+            Object mensaje;
+            while ((mensaje = tomarEntrante()) != null) {
+                if (mensaje instanceof ByteBuffer) {
+                    poolBuffers.devolver((ByteBuffer) mensaje);
+                }
+            }
+        }
+
+        private Object tomarEntrante() {
+            Object mensaje = entrantes.poll();
+            if (mensaje != null) {
+                tramasEntrantes.decrementAndGet();
+            }
+            return mensaje;
+        }
+
+        private boolean saturada() {
+            return tramasEntrantes.get() >= MAXIMO_TRAMAS_ENTRANTES || bytesPendientes.get() >= MAXIMO_BYTES_PENDIENTES;
+        }
+
+        // Solo desde el hilo del selector
+        private int interesLectura() {
+            lecturaPausada = saturada();
+            return lecturaPausada ? 0 : SelectionKey.OP_READ;
+        }
+
+        private void terminarHandshake() {
+            if (handshakeEnVuelo.compareAndSet(true, false)) {
+                contexto.getControlAdmision().terminarHandshake();
+            }
+        }
+
+        // Lo que quede sin escribir de cada trama sale de bytesPendientes: si no, la contrapresión seguiría
+        // contándolo y dejaría de leer la conexión
+        private void devolverTodas(Queue<ByteBuffer> tramas) {
+            ByteBuffer trama;
+            while ((trama = tramas.poll()) != null) {
+                bytesPendientes.addAndGet(-trama.remaining());
+                poolBuffers.devolver(trama);
+            }
+        }
+    }
+}
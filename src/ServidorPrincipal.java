@@ -5,42 +5,139 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.net.ServerSocket;
 import java.net.Socket;
-import java.net.SocketTimeoutException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
 import java.security.KeyPair;
 import java.security.KeyPairGenerator;
 import java.security.NoSuchAlgorithmException;
 import java.security.PrivateKey;
 import java.security.PublicKey;
+import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class ServidorPrincipal {
     private int puerto;
     private PrivateKey clavePrivadaRSA;
     private PublicKey clavePublicaRSA;
-    private Map<String, InfoServicio> tablaServicios;
-    private AtomicLong tiempoTotalFirma;
-    private AtomicLong tiempoTotalCifradoTabla;
-    private AtomicLong tiempoTotalVerificarConsulta;
+    private TablaServicios tablaServicios;
+    private MetricasLatencia metricas;
+    private long intervaloMetricas;
+    private int puertoMetricas;
+    private MetricasServidor metricasServidor;
     private AtomicLong contadorClientes;
+    private String modoParametrosDH;
+    private int tamanoPoolDH;
+    private long periodoRotacionDH;
+    private PoolParametrosDH poolParametrosDH;
+    private String modoEjecucion;
+    private int hilosDelegados;
+    private int capacidadCola;
+    private volatile EjecutorDelegados ejecutorDelegados;
+    private String transporte;
+    private int hilosComputoNIO;
+    private long bytesPoolBuffers;
+    private boolean buffersDirectos;
+    private volatile ServidorNIO servidorNIO;
+    private volatile ContextoServidor contexto;
+    private int tiempoInactividad;
+    private int tiempoHandshake;
+    private long vidaTickets;
+    private long rotacionTickets;
+    private int capacidadCacheTickets;
+    private GestorTickets gestorTickets;
+    private List<SuiteCifrado> suites;
+    private Map<SuiteCifrado, PrivateKey> clavesFirma;
+    private List<ModoRegistro> modosRegistro;
+    private int maximoLote;
+    private int maximoBytesLote;
+    private String rutaTrazaSesiones;
+    private int aceptadores;
+    private int backlog;
+    private long muestreoAceptadores;
+    private int bufferEnvio;
+    private int bufferRecepcion;
+    private volatile GrupoAceptadores grupoAceptadores;
+    private volatile TrazaSesiones trazaSesiones;
+    private MiembrosCluster miembrosCluster;
+    private ControlAdmision controlAdmision;
+    private String nodoCluster;
+    private int replicasCluster;
 
     public ServidorPrincipal(int puerto){ 
         this.puerto = puerto;
-        this.tablaServicios = new HashMap<String, InfoServicio>();
-        this.tiempoTotalFirma = new AtomicLong(0);
-        this.tiempoTotalCifradoTabla = new AtomicLong(0);
-        this.tiempoTotalVerificarConsulta = new AtomicLong(0);
+        this.modoParametrosDH = "pool";
+        this.tamanoPoolDH = 4;
+        this.periodoRotacionDH = 300;
+        this.modoEjecucion = "pool";
+        this.hilosDelegados = Runtime.getRuntime().availableProcessors() * 2;
+        this.capacidadCola = 256;
+        this.transporte = "bloqueante";
+        this.tiempoInactividad = 30000;
+        this.tiempoHandshake = 5000;
+        this.vidaTickets = 600;
+        this.rotacionTickets = 3600;
+        this.capacidadCacheTickets = 100000;
+        this.hilosComputoNIO = Runtime.getRuntime().availableProcessors();
+        this.bytesPoolBuffers = 4L << 20;
+        this.suites = SuiteCifrado.lista("x25519,p256,dh");
+        this.clavesFirma = new EnumMap<>(SuiteCifrado.class);
+        this.modosRegistro = ModoRegistro.lista("gcm,chacha20,cbc");
+        this.maximoLote = 256;
+        this.maximoBytesLote = 256 * 1024;
+        this.aceptadores = 1;
+        this.backlog = 1024;
+        this.metricas = new MetricasLatencia();
+        this.tablaServicios = new TablaServicios(metricas);
+        this.intervaloMetricas = 60;
         this.contadorClientes = new AtomicLong(0);
     }
 
+    // "pool": parámetros DH pre-generados en segundo plano
+    // "conexion": cada delegado genera y firma sus propios parámetros (comportamiento original)
+    public void setModoParametrosDH(String modo) {
+        if (!"pool".equals(modo) && !"conexion".equals(modo)) {
+            throw new IllegalArgumentException("Modo de parámetros DH no soportado: " + modo);
+        }
+        this.modoParametrosDH = modo;
+    }
+
+    public void setPoolDH(int tamano, long periodoRotacionSegundos) {
+        this.tamanoPoolDH = tamano;
+        this.periodoRotacionDH = periodoRotacionSegundos;
+    }
+
     public void inicializarTablaServicios(){
-        tablaServicios.put("S1", new InfoServicio("Estado vuelo", "IPS1", "PS1"));
-        tablaServicios.put("S2", new InfoServicio("Disponibilidad vuelos", "IPS2", "PS2"));
-        tablaServicios.put("S3", new InfoServicio("Costo de un vuelo", "IPS3", "PS3"));
-        //tablaServicios.put("S4", new InfoServicio("Venta de tiquete", "IPS4", "PS4"));
+        Map<String, InfoServicio> servicios = new HashMap<>();
+        servicios.put("S1", new InfoServicio("Estado vuelo", "IPS1", "PS1"));
+        servicios.put("S2", new InfoServicio("Disponibilidad vuelos", "IPS2", "PS2"));
+        servicios.put("S3", new InfoServicio("Costo de un vuelo", "IPS3", "PS3"));
+        //servicios.put("S4", new InfoServicio("Venta de tiquete", "IPS4", "PS4"));
+        tablaServicios.reemplazar(servicios);
+    }
+
+    // Ver TablaServicios.cargar para el formato; con periodoRecarga > 0 (ms) se recarga cuando el archivo cambia
+    public void cargarTablaServicios(String archivo, long periodoRecarga) throws IOException {
+        tablaServicios.cargar(archivo);
+        if (periodoRecarga > 0) {
+            tablaServicios.vigilar(periodoRecarga);
+        }
+    }
+
+    public TablaServicios getTablaServicios() {
+        return tablaServicios;
     }
 
     public void cargarClaves(String archivoClavePrivada, String archivoClavePublica) 
@@ -91,49 +188,480 @@ public class ServidorPrincipal {
         System.out.println("Tamaño del archivo: " + new File(archivoClavePublica).length() + " bytes");
     }
 
+    // Claves de larga duración de una suite de curva elíptica (Ed25519 o ECDSA P-256), mismo formato que las RSA.
+    // Firman el handshake, así que no se versionan: cada instalación genera las suyas al arrancar la primera vez
+    // y la privada queda legible solo por el dueño. Un par que coincide con uno publicado en el historial del
+    // repositorio se descarta y se genera otro
+    public void cargarOGenerarClavesFirma(SuiteCifrado suite, String archivoClavePrivada, String archivoClavePublica)
+        throws IOException, ClassNotFoundException, NoSuchAlgorithmException {
+        File privada = new File(archivoClavePrivada);
+        File publica = new File(archivoClavePublica);
+        if (privada.exists() && publica.exists() && isClaveComprometida(publica)) {
+            Bitacora.aviso("Las claves " + suite.getNombre() + " de " + publica.getPath()
+                    + " se publicaron en el repositorio: se generan unas nuevas");
+        } else if (privada.exists() && publica.exists()) {
+            try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(privada))) {
+                Object obj = ois.readObject();
+                if (!(obj instanceof PrivateKey)) {
+                    throw new ClassCastException("El archivo no contiene una clave privada válida");
+                }
+                clavesFirma.put(suite, (PrivateKey) obj);
+            }
+            System.out.println("Claves " + suite.getNombre() + " cargadas exitosamente.");
+            return;
+        }
+
+        KeyPair keyPair = suite.generarParFirma();
+        clavesFirma.put(suite, keyPair.getPrivate());
+        Path rutaPrivada = crearArchivoPrivado(privada.toPath());
+        try (ObjectOutputStream oosPriv = new ObjectOutputStream(Files.newOutputStream(rutaPrivada))) {
+            oosPriv.writeObject(keyPair.getPrivate());
+        }
+        try (ObjectOutputStream oosPub = new ObjectOutputStream(new FileOutputStream(publica))) {
+            oosPub.writeObject(keyPair.getPublic());
+        }
+        System.out.println("Claves " + suite.getNombre() + " generadas en: " + publica.getAbsolutePath());
+    }
+
+    // SHA-256 de la codificación X.509 de cada clave pública cuyo par privado estuvo versionado
+    private static final Set<String> CLAVES_COMPROMETIDAS = new HashSet<>(Arrays.asList(
+            "093dc12e8faa5239c891179c69c887fef3adc0125fc09341518fe50f5934cfab",
+            "ae8a373e458b3579692571531fa4438fce3264715d77ac2ad4a8407207916a82"));
+
+    private static boolean isClaveComprometida(File publica) throws IOException, ClassNotFoundException,
+            NoSuchAlgorithmException {
+        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(publica))) {
+            Object obj = ois.readObject();
+            if (!(obj instanceof PublicKey)) {
+                throw new ClassCastException("El archivo no contiene una clave pública válida");
+            }
+            byte[] huella = MotorCripto.digest("SHA-256").digest(((PublicKey) obj).getEncoded());
+            StringBuilder hex = new StringBuilder();
+            for (byte b : huella) {
+                hex.append(String.format("%02x", b));
+            }
+            return CLAVES_COMPROMETIDAS.contains(hex.toString());
+        }
+    }
+
+    // Crea el archivo vacío ya con permisos solo para el dueño, antes de escribir nada en él. Si quedó uno de un
+    // arranque anterior (sin la pública) se reemplaza: sus permisos pueden no ser los correctos
+    private static Path crearArchivoPrivado(Path ruta) throws IOException {
+        Files.deleteIfExists(ruta);
+        try {
+            return Files.createFile(ruta, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) {
+            // sistema de archivos sin permisos POSIX: se restringe apenas creado, todavía vacío
+            Files.createFile(ruta);
+            File archivo = ruta.toFile();
+            if (!(archivo.setReadable(false, false) && archivo.setReadable(true, true)
+                    && archivo.setWritable(false, false) && archivo.setWritable(true, true))) {
+                Files.delete(ruta);
+                throw new IOException("No se pudo restringir el acceso a " + ruta);
+            }
+            return ruta;
+        }
+    }
+
+    // Suites aceptadas en el hello, en orden de preferencia del servidor: "x25519,p256,dh"
+    public void setSuites(List<SuiteCifrado> suites) {
+        this.suites = suites;
+    }
+
+    // Modos de registro aceptados en el hello: "gcm,chacha20,cbc"; ver ModoRegistro
+    public void setModosRegistro(List<ModoRegistro> modosRegistro) {
+        this.modosRegistro = modosRegistro;
+    }
+
+    // "hilo", "pool" o "virtual"; ver EjecutorDelegados. Por defecto "pool": acota los hilos, y las sesiones
+    // inactivas ceden el suyo cuando hay conexiones en la cola
+    public void setModoEjecucion(String modo, int hilos, int capacidadCola) {
+        this.modoEjecucion = modo;
+        this.hilosDelegados = hilos;
+        this.capacidadCola = capacidadCola;
+    }
+
+    // "bloqueante": GrupoAceptadores + un delegado por conexión (formato binario u objetos, detectado por conexión)
+    // "nio": ServidorNIO con Selector y pool de cómputo (solo formato binario, ver CodecTramas)
+    public void setTransporte(String transporte, int hilosComputo) {
+        if (!"bloqueante".equals(transporte) && !"nio".equals(transporte)) {
+            throw new IllegalArgumentException("Transporte no soportado: " + transporte);
+        }
+        this.transporte = transporte;
+        this.hilosComputoNIO = hilosComputo;
+    }
+
+    // Memoria que PoolBuffers guarda libre por cada clase de tamaño, y si son buffers directos (solo transporte NIO)
+    public void setPoolBuffers(long bytesPorClase, boolean directos) {
+        this.bytesPoolBuffers = bytesPorClase;
+        this.buffersDirectos = directos;
+    }
+
+    // Hilos aceptando conexiones (transporte bloqueante), cada uno con su socket de escucha y SO_REUSEPORT, y el
+    // largo de cada cola de escucha (también para NIO); muestreo es cada cuántos ms se lee la ocupación de las colas
+    // en /proc/net/tcp, 0 para no leerla
+    public void setAceptadores(int cantidad, int backlog, long muestreo) {
+        if (cantidad < 1) {
+            throw new IllegalArgumentException("Se necesita al menos un aceptador: " + cantidad);
+        }
+        this.aceptadores = cantidad;
+        this.backlog = backlog;
+        this.muestreoAceptadores = muestreo;
+    }
+
+    // SO_SNDBUF y SO_RCVBUF de las conexiones en bytes; 0 deja los del sistema
+    public void setBuffersSocket(int envio, int recepcion) {
+        this.bufferEnvio = envio;
+        this.bufferRecepcion = recepcion;
+    }
+
+    // Control de admisión delante de los handshakes (ver ControlAdmision): tasas en handshakes/s, demora objetivo
+    // e intervalo en ms; un valor <= 0 desactiva ese control
+    public void setAdmision(double tasaGlobal, int rafagaGlobal, double tasaPorIP, int rafagaPorIP, int maximoEnVuelo,
+                            long demoraObjetivo, long intervalo) {
+        this.controlAdmision = new ControlAdmision(tasaGlobal, rafagaGlobal, tasaPorIP, rafagaPorIP, maximoEnVuelo,
+                demoraObjetivo, intervalo);
+    }
+
+    public ControlAdmision getControlAdmision() {
+        return controlAdmision;
+    }
+
+    public void setTiempoInactividad(int milisegundos) {
+        this.tiempoInactividad = milisegundos;
+    }
+
+    // Plazo para terminar el handshake: pasado, se cierra la conexión y libera su lugar en ControlAdmision.
+    // Sin él, clientes callados retienen lugares de handshake en vuelo hasta dejar afuera a todos los demás
+    public void setTiempoHandshake(int milisegundos) {
+        this.tiempoHandshake = milisegundos;
+    }
+
+    // vidaSegundos <= 0 desactiva la reanudación de sesiones
+    public void setTickets(long vidaSegundos, long rotacionSegundos, int capacidadCache) {
+        this.vidaTickets = vidaSegundos;
+        this.rotacionTickets = rotacionSegundos;
+        this.capacidadCacheTickets = capacidadCache;
+    }
+
+    // Límites de MensajeSesion.LOTE: ids por lote y bytes de la respuesta. La respuesta cifrada tiene que
+    // caber en una trama, así que los bytes se recortan a CodecTramas.TAMANO_MAXIMO menos un margen
+    public void setLimitesLote(int maximoConsultas, int maximoBytes) {
+        this.maximoLote = maximoConsultas;
+        this.maximoBytesLote = Math.min(maximoBytes, CodecTramas.TAMANO_MAXIMO - 1024);
+    }
+
+    // Archivo CSV donde TrazaSesiones deja una línea por sesión; null la desactiva
+    public void setTrazaSesiones(String ruta) {
+        this.rutaTrazaSesiones = ruta;
+    }
+
+    // Este servidor como nodo de un cluster (ver MiembrosCluster para el origen): de la tabla de servicios solo
+    // guarda los ids de los que es dueño o una de las primeras replicas-1 réplicas. Si el origen es un archivo se
+    // vigila cada periodoRecarga ms y, cuando cambian los nodos, la tabla se vuelve a filtrar con el anillo nuevo
+    public void setCluster(String origen, String nodo, int replicas, int nodosVirtuales, long periodoRecarga) throws IOException {
+        MiembrosCluster miembros = new MiembrosCluster(origen, nodosVirtuales);
+        if (!miembros.getAnillo().contiene(nodo)) {
+            Bitacora.aviso("[Cluster] " + nodo + " no está entre los nodos de " + origen + ": no le toca ningún servicio");
+        }
+        this.miembrosCluster = miembros;
+        this.nodoCluster = nodo;
+        this.replicasCluster = replicas;
+        filtrarTablaCluster(miembros.getAnillo());
+        miembros.alCambiar(anillo -> {
+            try {
+                filtrarTablaCluster(anillo);
+            } catch (IOException e) {
+                Bitacora.error("[Cluster] No se pudo refiltrar la tabla de servicios: " + e.getMessage());
+            }
+        });
+        if (periodoRecarga > 0) {
+            miembros.vigilar(periodoRecarga);
+        }
+        Bitacora.info("[Cluster] Nodo " + nodo + ", " + replicas + " réplicas. " + miembros.getAnillo().resumen());
+    }
+
+    private void filtrarTablaCluster(AnilloConsistente anillo) throws IOException {
+        tablaServicios.setFiltro(id -> anillo.esReplica(nodoCluster, id, replicasCluster));
+    }
+
+    public MiembrosCluster getMiembrosCluster() {
+        return miembrosCluster;
+    }
+
+    // Cada cuántos segundos se imprimen las latencias del último intervalo; <= 0 solo las imprime al cerrar
+    public void setIntervaloMetricas(long segundos) {
+        this.intervaloMetricas = segundos;
+    }
+
+    // Puerto local del endpoint HTTP de métricas (formato Prometheus); 0 lo desactiva. El MBean se registra siempre
+    public void setPuertoMetricas(int puerto) {
+        this.puertoMetricas = puerto;
+    }
+
+    public int getPuerto() {
+        return puerto;
+    }
+
+    public long getContadorClientes() {
+        return contadorClientes.get();
+    }
+
+    public MetricasLatencia getMetricas() {
+        return metricas;
+    }
+
+    // null hasta que iniciar() crea el contexto
+    public ContextoServidor getContexto() {
+        return contexto;
+    }
+
+    // Solo con transporte bloqueante
+    public EjecutorDelegados getEjecutorDelegados() {
+        return ejecutorDelegados;
+    }
+
+    // Solo con transporte bloqueante
+    public GrupoAceptadores getGrupoAceptadores() {
+        return grupoAceptadores;
+    }
+
+    // Solo con transporte NIO
+    public ServidorNIO getServidorNIO() {
+        return servidorNIO;
+    }
+
     public void iniciar() {
-        try (ServerSocket serverSocket = new ServerSocket(puerto)) {
-            serverSocket.setSoTimeout(300000);
-            System.out.println("Servidor principal iniciado en puerto " + puerto);
+        if (intervaloMetricas > 0) {
+            metricas.iniciarReporte(intervaloMetricas);
+        }
+        if ("pool".equals(modoParametrosDH)) {
+            poolParametrosDH = new PoolParametrosDH(tamanoPoolDH, 1024, periodoRotacionDH, metricas);
+            poolParametrosDH.iniciar();
+        }
+        if (vidaTickets > 0) {
+            gestorTickets = new GestorTickets(vidaTickets, rotacionTickets, capacidadCacheTickets);
+            gestorTickets.iniciar();
+        }
+        if (rutaTrazaSesiones != null) {
+            try {
+                trazaSesiones = new TrazaSesiones(Paths.get(rutaTrazaSesiones));
+            } catch (IOException e) {
+                Bitacora.error("No se pudo abrir la traza de sesiones " + rutaTrazaSesiones + ": " + e.getMessage());
+            }
+        }
+        clavesFirma.put(SuiteCifrado.DH_RSA, clavePrivadaRSA);
+        contexto = new ContextoServidor(clavePrivadaRSA, clavePublicaRSA, tablaServicios, metricas, poolParametrosDH,
+                tiempoInactividad, tiempoHandshake, gestorTickets, suites, clavesFirma, modosRegistro, maximoLote, maximoBytesLote,
+                trazaSesiones, controlAdmision);
+        metricasServidor = new MetricasServidor(this);
+        metricasServidor.registrarJMX();
+        if (puertoMetricas > 0) {
+            metricasServidor.iniciarHTTP(puertoMetricas);
+        }
+
+        try {
+            if ("nio".equals(transporte)) {
+                servidorNIO = new ServidorNIO(puerto, contexto, contadorClientes, hilosComputoNIO,
+                        new PoolBuffers(bytesPoolBuffers, buffersDirectos), opcionesSocket());
+                servidorNIO.iniciar();
+            } else {
+                iniciarBloqueante();
+            }
+        } catch (IOException e) {
+            Bitacora.error("Error en el servidor principal: " + e.getMessage(), e);
+        } finally {
+            if (poolParametrosDH != null) {
+                poolParametrosDH.detener();
+            }
+            if (gestorTickets != null) {
+                gestorTickets.detener();
+            }
+            tablaServicios.detener();
+            metricas.detener();
+            metricasServidor.detener();
+            cerrarTrazaSesiones();
+        }
+    }
+
+    // Escribe los registros pendientes de la traza; también al cerrar el proceso con Ctrl+C
+    public void cerrarTrazaSesiones() {
+        if (trazaSesiones != null) {
+            trazaSesiones.cerrar();
+        }
+    }
+
+    private void iniciarBloqueante() throws IOException {
+        ejecutorDelegados = new EjecutorDelegados(modoEjecucion, hilosDelegados, capacidadCola);
+        System.out.println("Modo de ejecución de delegados: " + ejecutorDelegados.getModo());
+
+        // Los rechazos se contestan fuera del aceptador y de los delegados; si se acumulan más que esto, las
+        // conexiones rechazadas se cierran sin respuesta
+        ThreadPoolExecutor rechazos = controlAdmision == null ? null : new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(1024), r -> {
+                    Thread t = new Thread(r, "rechazos");
+                    t.setDaemon(true);
+                    return t;
+                });
+        GrupoAceptadores grupo = new GrupoAceptadores(puerto, aceptadores, opcionesSocket(), muestreoAceptadores);
+        grupo.abrir();
+        grupoAceptadores = grupo;
+        try {
+            System.out.println("Servidor principal iniciado en puerto " + puerto + " (" + aceptadores + " aceptador"
+                    + (aceptadores > 1 ? "es" : "") + (grupo.isReusePort() ? " con SO_REUSEPORT" : "") + ")");
             System.out.println("Esperando conexiones de clientes...");
-            
-            while (true) {
-                try{
-                Socket clientSocket = serverSocket.accept();
-                clientSocket.setSoTimeout(300000);
-    
-                contadorClientes.incrementAndGet();
-                System.out.println("Nuevo cliente conectado: " + clientSocket.getInetAddress().getHostAddress());
-                
-                ServidorDelegado delegado = new ServidorDelegado(clientSocket, clavePrivadaRSA, clavePublicaRSA, tablaServicios, tiempoTotalFirma, 
-                tiempoTotalCifradoTabla, tiempoTotalVerificarConsulta);
-
-                delegado.start();
-                } catch (SocketTimeoutException e) {
-                    System.err.println("Esperando conexiones... (30s sin actividad)");
+
+            grupo.ejecutar(clientSocket -> {
+                ServidorDelegado delegado = new ServidorDelegado(clientSocket, contexto, ejecutorDelegados);
+                ControlAdmision.Motivo motivo = controlAdmision != null
+                        ? controlAdmision.admitir(clientSocket.getInetAddress()) : null;
+                if (motivo != null) {
+                    responderRechazo(rechazos, delegado, clientSocket, motivo);
+                    return;
                 }
+                contadorClientes.incrementAndGet();
+                Bitacora.depuracion(() -> "Nuevo cliente conectado: " + clientSocket.getInetAddress().getHostAddress());
+
+                ejecutorDelegados.ejecutar(delegado);
+            });
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            grupo.cerrar();
+            ejecutorDelegados.detener();
+            if (rechazos != null) {
+                rechazos.shutdownNow();
+            }
+        }
+    }
+
+    private OpcionesSocket opcionesSocket() {
+        return new OpcionesSocket(backlog, bufferEnvio, bufferRecepcion);
+    }
+
+    private void responderRechazo(ThreadPoolExecutor rechazos, ServidorDelegado delegado, Socket socket,
+                                  ControlAdmision.Motivo motivo) {
+        long espera = controlAdmision.esperaSugerida(motivo, socket.getInetAddress());
+        Bitacora.depuracion(() -> "Conexión de " + socket.getInetAddress().getHostAddress() + " rechazada ("
+                + motivo.getNombre() + ")");
+        try {
+            rechazos.execute(() -> delegado.responderRechazo(espera));
+        } catch (RejectedExecutionException e) {
+            try {
+                socket.close();
+            } catch (IOException ignorada) {
+                // Ya se estaba descartando
             }
-        } catch (IOException e) {
-            System.err.println("Error en el servidor principal: " + e.getMessage());
-            e.printStackTrace();
         }
     }
 
     public void imprimirEstadisticas() {
+        // Que los mensajes encolados no se mezclen con el resumen
+        Bitacora.vaciar();
         long totalClientes = contadorClientes.get();
         if (totalClientes > 0) {
             System.out.println("\n=== Estadísticas del Servidor ===");
             System.out.println("Clientes atendidos: " + totalClientes);
-            System.out.println("Tiempo promedio de firma: " + (tiempoTotalFirma.get() / totalClientes) + " ns");
-            System.out.println("Tiempo promedio de cifrado de tabla: " + (tiempoTotalCifradoTabla.get() / totalClientes) + " ns");
-            System.out.println("Tiempo promedio de verificación de consulta: " + (tiempoTotalVerificarConsulta.get() / totalClientes) + " ns");
+            System.out.println("Consultas atendidas: " + contexto.getContadorConsultas().get());
+            System.out.println("Modo de parámetros DH: " + modoParametrosDH);
+        }
+        System.out.println(metricas.resumen());
+        if (ejecutorDelegados != null) {
+            System.out.println("Ejecutor (" + ejecutorDelegados.getModo() + ") - activos: " + ejecutorDelegados.getActivos()
+                    + ", en cola: " + ejecutorDelegados.getEnCola()
+                    + ", completados: " + ejecutorDelegados.getCompletados()
+                    + ", rechazados: " + ejecutorDelegados.getRechazados());
+        }
+        if (contexto != null) {
+            System.out.println(contexto.getContadores(false).resumen());
+            System.out.println(contexto.getContadores(true).resumen());
+            System.out.println(contexto.resumenHandshakes());
+            System.out.println(contexto.resumenSuites());
+            System.out.println(tablaServicios.resumen() + ", enviadas completas: " + contexto.getTablasCompletas()
+                    + ", sin cambios: " + contexto.getTablasSinCambios());
+            System.out.println(contexto.resumenLotes());
+        }
+        if (gestorTickets != null) {
+            System.out.println(gestorTickets.resumen());
+        }
+        if (controlAdmision != null) {
+            System.out.println(controlAdmision.resumen());
+        }
+        if (miembrosCluster != null) {
+            System.out.println(miembrosCluster.resumen() + ", este nodo: " + nodoCluster);
+        }
+        if (grupoAceptadores != null) {
+            System.out.println(grupoAceptadores.resumen());
+        }
+        if (servidorNIO != null) {
+            System.out.println("Servidor NIO - conexiones abiertas: " + servidorNIO.getConexionesAbiertas());
+            System.out.println(servidorNIO.getPoolBuffers().resumen());
+        }
+        if (contexto != null && contexto.getMensajesMedidos() > 0) {
+            System.out.println(String.format("Asignación de heap por mensaje de sesión: %.0f bytes (%d mensajes)",
+                    contexto.getBytesAsignadosPorMensaje(), contexto.getMensajesMedidos()));
+        }
+        if (trazaSesiones != null) {
+            System.out.println(trazaSesiones.resumen());
+        }
+        System.out.println("Bitácora (" + Bitacora.getNivel().name().toLowerCase() + ") - escritas: " + Bitacora.getEscritas()
+                + ", descartadas: " + Bitacora.getDescartadas());
+        if (poolParametrosDH != null) {
+            System.out.println("Pool DH - conjuntos generados: " + poolParametrosDH.getContadorGenerados()
+                    + ", entregados: " + poolParametrosDH.getContadorEntregados()
+                    + ", generados en línea: " + poolParametrosDH.getContadorGeneradosEnLinea());
         }
     }
 
     public static void main(String[] args) throws FileNotFoundException, ClassNotFoundException, IOException, NoSuchAlgorithmException {
-        int puerto = 8001;
+        int puerto = Integer.getInteger("servidor.puerto", 8001);
+        Bitacora.setNivel(Bitacora.Nivel.porNombre(System.getProperty("bitacora.nivel", "info")));
+        Bitacora.setAsincrona(Boolean.parseBoolean(System.getProperty("bitacora.asincrona", "true")));
         ServidorPrincipal servidor = new ServidorPrincipal(puerto);
-        servidor.inicializarTablaServicios();
+        String archivoServicios = System.getProperty("servidor.servicios");
+        if (archivoServicios != null) {
+            servidor.cargarTablaServicios(archivoServicios, Long.getLong("servidor.servicios.recarga", 2000L));
+        } else {
+            servidor.inicializarTablaServicios();
+        }
+        String cluster = System.getProperty("servidor.cluster");
+        if (cluster != null) {
+            servidor.setCluster(cluster, System.getProperty("servidor.nodo", "localhost:" + puerto),
+                    Integer.getInteger("servidor.cluster.replicas", 2), Integer.getInteger("servidor.cluster.virtuales", 128),
+                    Long.getLong("servidor.cluster.recarga", 2000L));
+        }
+        servidor.setModoParametrosDH(System.getProperty("servidor.dh.modo", "pool"));
+        servidor.setModoEjecucion(System.getProperty("servidor.ejecucion", "pool"),
+                Integer.getInteger("servidor.hilos", Runtime.getRuntime().availableProcessors() * 2),
+                Integer.getInteger("servidor.cola", 256));
+        servidor.setTransporte(System.getProperty("servidor.transporte", "bloqueante"),
+                Integer.getInteger("servidor.hilos.computo", Runtime.getRuntime().availableProcessors()));
+        servidor.setPoolBuffers(Long.getLong("servidor.nio.buffers", 4096L) * 1024,
+                Boolean.parseBoolean(System.getProperty("servidor.nio.buffers.directos", "false")));
+        servidor.setAceptadores(Integer.getInteger("servidor.aceptadores", 1), Integer.getInteger("servidor.backlog", 1024),
+                Long.getLong("servidor.aceptadores.muestreo.ms", 0L));
+        servidor.setBuffersSocket(Integer.getInteger("servidor.socket.envio", 0), Integer.getInteger("servidor.socket.recepcion", 0));
+        if (Boolean.parseBoolean(System.getProperty("servidor.admision", "false"))) {
+            int procesadores = Runtime.getRuntime().availableProcessors();
+            servidor.setAdmision(Double.parseDouble(System.getProperty("servidor.admision.tasa", "0")),
+                    Integer.getInteger("servidor.admision.rafaga", 100),
+                    Double.parseDouble(System.getProperty("servidor.admision.tasa.ip", "50")),
+                    Integer.getInteger("servidor.admision.rafaga.ip", 20),
+                    Integer.getInteger("servidor.admision.en.vuelo", 32 * procesadores),
+                    Long.getLong("servidor.admision.demora", 100L), Long.getLong("servidor.admision.intervalo", 100L));
+        }
+        servidor.setTiempoInactividad(Integer.getInteger("servidor.inactividad", 30000));
+        servidor.setTiempoHandshake(Integer.getInteger("servidor.handshake.ms", 5000));
+        servidor.setTickets(Long.getLong("servidor.tickets.vida", 600L), Long.getLong("servidor.tickets.rotacion", 3600L),
+                Integer.getInteger("servidor.tickets.cache", 100000));
+        servidor.setPoolDH(Integer.getInteger("servidor.dh.pool", 4), Long.getLong("servidor.dh.rotacion", 300L));
+        servidor.setSuites(SuiteCifrado.lista(System.getProperty("servidor.suites", "x25519,p256,dh")));
+        servidor.setModosRegistro(ModoRegistro.lista(System.getProperty("servidor.registro", "gcm,chacha20,cbc")));
+        servidor.setLimitesLote(Integer.getInteger("servidor.lote.maximo", 256),
+                Integer.getInteger("servidor.lote.bytes", 256 * 1024));
+        servidor.setIntervaloMetricas(Long.getLong("servidor.metricas.intervalo", 60L));
+        servidor.setPuertoMetricas(Integer.getInteger("servidor.metricas.puerto", 0));
+        servidor.setTrazaSesiones(System.getProperty("servidor.traza"));
 
         File clavePrivada = new File("servidor_privada.key");
         File clavePublica = new File("servidor_publica.key");
@@ -145,8 +673,11 @@ public class ServidorPrincipal {
             servidor.generarClaves("servidor_privada.key", "servidor_publica.key");
             System.out.println("Claves RSA generadas y guardadas.");
         }
+        servidor.cargarOGenerarClavesFirma(SuiteCifrado.X25519_ED25519, "servidor_ed25519_privada.key", "servidor_ed25519_publica.key");
+        servidor.cargarOGenerarClavesFirma(SuiteCifrado.P256_ECDSA, "servidor_ecdsa_privada.key", "servidor_ecdsa_publica.key");
 
         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            servidor.cerrarTrazaSesiones();
             servidor.imprimirEstadisticas(); // Para que salgan resultados, cierre el servidor con Ctrl+C    
             System.out.println("Servidor principal cerrado.");
         }));
@@ -0,0 +1,113 @@
+import java.security.InvalidAlgorithmParameterException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.ECGenParameterSpec;
+import java.util.ArrayList;
+import java.util.List;
+
+// Combinaciones de acuerdo de claves y firma del handshake completo que se pueden negociar en el hello.
+// DH_RSA es el protocolo original (DH-1024 con la clave pública del servidor firmada con RSA) y queda como respaldo.
+public enum SuiteCifrado {
+    DH_RSA((byte) 1, "dh", "DH", "DH", "SHA256withRSA", "RSA"),
+    X25519_ED25519((byte) 2, "x25519", "XDH", "X25519", "Ed25519", "Ed25519"),
+    P256_ECDSA((byte) 3, "p256", "ECDH", "EC", "SHA256withECDSA", "EC");
+
+    private final byte id;
+    private final String nombre;
+    private final String algoritmoAcuerdo;
+    private final String algoritmoClave;
+    private final String algoritmoFirma;
+    private final String algoritmoClaveFirma;
+
+    SuiteCifrado(byte id, String nombre, String algoritmoAcuerdo, String algoritmoClave,
+                 String algoritmoFirma, String algoritmoClaveFirma) {
+        this.id = id;
+        this.nombre = nombre;
+        this.algoritmoAcuerdo = algoritmoAcuerdo;
+        this.algoritmoClave = algoritmoClave;
+        this.algoritmoFirma = algoritmoFirma;
+        this.algoritmoClaveFirma = algoritmoClaveFirma;
+    }
+
+    public static SuiteCifrado porId(byte id) {
+        for (SuiteCifrado suite : values()) {
+            if (suite.id == id) {
+                return suite;
+            }
+        }
+        return null;
+    }
+
+    public static SuiteCifrado porNombre(String nombre) {
+        for (SuiteCifrado suite : values()) {
+            if (suite.nombre.equalsIgnoreCase(nombre.trim())) {
+                return suite;
+            }
+        }
+        throw new IllegalArgumentException("Suite de cifrado desconocida: " + nombre);
+    }
+
+    // "x25519,p256,dh" -> lista en ese orden de preferencia
+    public static List<SuiteCifrado> lista(String nombres) {
+        List<SuiteCifrado> suites = new ArrayList<>();
+        for (String nombre : nombres.split(",")) {
+            if (!nombre.trim().isEmpty()) {
+                suites.add(porNombre(nombre));
+            }
+        }
+        return suites;
+    }
+
+    public boolean isCurvaEliptica() {
+        return this != DH_RSA;
+    }
+
+    // Par efímero para el acuerdo de claves; DH_RSA usa en cambio los parámetros del pool
+    public KeyPair generarParEfimero() {
+        try {
+            KeyPairGenerator generador = MotorCripto.generadorClaves(algoritmoClave);
+            if (this == P256_ECDSA) {
+                generador.initialize(new ECGenParameterSpec("secp256r1"));
+            }
+            return generador.generateKeyPair();
+        } catch (NoSuchAlgorithmException | InvalidAlgorithmParameterException e) {
+            throw new RuntimeException("Error al generar claves efímeras " + nombre, e);
+        }
+    }
+
+    // Par de larga duración con el que el servidor firma el handshake de esta suite
+    public KeyPair generarParFirma() throws NoSuchAlgorithmException {
+        KeyPairGenerator generador = KeyPairGenerator.getInstance(algoritmoClaveFirma);
+        if (this == P256_ECDSA) {
+            try {
+                generador.initialize(new ECGenParameterSpec("secp256r1"));
+            } catch (InvalidAlgorithmParameterException e) {
+                throw new NoSuchAlgorithmException("Curva secp256r1 no disponible", e);
+            }
+        } else if (this == DH_RSA) {
+            generador.initialize(1024);
+        }
+        return generador.generateKeyPair();
+    }
+
+    public byte getId() {
+        return id;
+    }
+
+    public String getNombre() {
+        return nombre;
+    }
+
+    public String getAlgoritmoAcuerdo() {
+        return algoritmoAcuerdo;
+    }
+
+    public String getAlgoritmoClave() {
+        return algoritmoClave;
+    }
+
+    public String getAlgoritmoFirma() {
+        return algoritmoFirma;
+    }
+}
@@ -0,0 +1,369 @@
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// Registro de servicios del servidor con versión. Cada cambio arma una instantánea inmutable (copia al escribir)
+// con el mapa y los mensajes de tabla ya codificados, así el handshake solo tiene que cifrarlos en vez de
+// recorrer la tabla y serializarla para cada cliente. Las lecturas solo leen la referencia volatile a la
+// instantánea actual: una recarga, por grande que sea, se arma aparte y nunca detiene una consulta.
+// Puede cargarse de un archivo y vigilarlo para recargarlo cuando cambie: un CSV que se lee al heap o un
+// catálogo compilado con CompiladorCatalogo, que se mapea en memoria sin cargarlo (ver CatalogoMapeado).
+// En un cluster (ver setFiltro) cada nodo se queda solo con los ids que le tocan.
+public class TablaServicios {
+    // La tabla del handshake viaja en una sola trama (ver CodecTramas.TAMANO_MAXIMO); con registros más grandes
+    // se envía solo una parte, las consultas siguen resolviendo cualquier id del registro
+    private static final int TAMANO_MAXIMO_TABLA = CodecTramas.TAMANO_MAXIMO - 4096;
+
+    private final MetricasLatencia metricas;
+    private volatile Version actual;
+    private ScheduledExecutorService vigilancia;
+    private Path archivo;
+    private long modificacionCargada;
+    private long tamanoCargado;
+    private Predicate<String> filtro;
+    private Map<String, InfoServicio> sinFiltrar;
+    private final AtomicLong recargas = new AtomicLong();
+    private final AtomicLong recargasFallidas = new AtomicLong();
+
+    // La numeración arranca del reloj: un servidor reiniciado, quizá con otra tabla, no repite la versión
+    // que un cliente guardó de la ejecución anterior
+    public TablaServicios(MetricasLatencia metricas) {
+        this.metricas = metricas;
+        this.actual = new Version(System.currentTimeMillis() << 16, new HashMap<>());
+    }
+
+    public InfoServicio buscar(String idServicio) {
+        return actual.buscar(idServicio);
+    }
+
+    public Version getVersion() {
+        return actual;
+    }
+
+    // Como reemplazar, los cambios sueltos se aplican a lo sin filtrar: un refiltrado posterior no los deshace y el
+    // nodo no publica ids que no le tocan
+    public synchronized void publicar(String idServicio, InfoServicio info) {
+        Map<String, InfoServicio> servicios = copiaSinFiltrar();
+        servicios.put(idServicio, info);
+        sinFiltrar = servicios;
+        actual = new Version(actual.numero + 1, filtrar(sinFiltrar));
+    }
+
+    public synchronized void quitar(String idServicio) {
+        Map<String, InfoServicio> servicios = copiaSinFiltrar();
+        if (servicios.remove(idServicio) != null) {
+            sinFiltrar = servicios;
+            actual = new Version(actual.numero + 1, filtrar(sinFiltrar));
+        }
+    }
+
+    // Si nunca se llamó a reemplazar, o se cargó un archivo después, se parte de la tabla actual
+    private Map<String, InfoServicio> copiaSinFiltrar() {
+        return new HashMap<>(sinFiltrar != null ? sinFiltrar : actual.serviciosEditables());
+    }
+
+    // Cambia todos los servicios de una vez, con una sola versión nueva
+    public synchronized void reemplazar(Map<String, InfoServicio> nuevos) {
+        sinFiltrar = new HashMap<>(nuevos);
+        actual = new Version(actual.numero + 1, filtrar(sinFiltrar));
+    }
+
+    // Solo se guardan los ids que cumplen el filtro (el fragmento del registro de este nodo). Se aplica a lo que
+    // se cargue después y a lo que ya hay: se relee el archivo, o se refiltra lo último que se pasó a reemplazar.
+    // Un catálogo mapeado no se filtra: no ocupa heap y los nodos de una misma máquina comparten sus páginas.
+    public void setFiltro(Predicate<String> nuevo) throws IOException {
+        Path ruta;
+        synchronized (this) {
+            filtro = nuevo;
+            ruta = archivo;
+            if (ruta == null && sinFiltrar != null) {
+                actual = new Version(actual.numero + 1, filtrar(sinFiltrar));
+            }
+        }
+        if (ruta != null) {
+            cargar(ruta.toString());
+        }
+    }
+
+    private Map<String, InfoServicio> filtrar(Map<String, InfoServicio> servicios) {
+        if (filtro == null) {
+            return servicios;
+        }
+        Map<String, InfoServicio> propios = new HashMap<>();
+        for (Map.Entry<String, InfoServicio> entrada : servicios.entrySet()) {
+            if (filtro.test(entrada.getKey())) {
+                propios.put(entrada.getKey(), entrada.getValue());
+            }
+        }
+        return propios;
+    }
+
+    // Un catálogo compilado (CatalogoMapeado) se reconoce por su magia y se mapea; si no, CSV con una línea
+    // por servicio: id,nombre,ip,puerto. El nombre puede tener comas; # empieza un comentario.
+    // Si el archivo tiene un error no se cambia nada y se lanza IOException con la línea.
+    public void cargar(String rutaArchivo) throws IOException {
+        Path ruta = Paths.get(rutaArchivo);
+        BasicFileAttributes atributos = Files.readAttributes(ruta, BasicFileAttributes.class);
+        long inicio = System.nanoTime();
+        CatalogoMapeado catalogo = CatalogoMapeado.esCatalogo(ruta) ? CatalogoMapeado.abrir(ruta) : null;
+        Map<String, InfoServicio> servicios = null;
+        if (catalogo == null) {
+            servicios = new HashMap<>();
+            leerCSV(ruta, servicios);
+        }
+        Version nueva;
+        int leidos = servicios != null ? servicios.size() : 0;
+        synchronized (this) {
+            nueva = catalogo != null ? new Version(actual.numero + 1, catalogo) : new Version(actual.numero + 1, filtrar(servicios));
+            actual = nueva;
+            // Lo último que se pasó a reemplazar ya no vale: publicar y quitar parten de lo recién cargado, y
+            // setFiltro relee el archivo
+            sinFiltrar = null;
+            archivo = ruta;
+            modificacionCargada = atributos.lastModifiedTime().toMillis();
+            tamanoCargado = atributos.size();
+        }
+        long duracion = System.nanoTime() - inicio;
+        metricas.registrar(FaseLatencia.RECARGA_TABLA, duracion);
+        recargas.incrementAndGet();
+        Bitacora.info("Tabla de servicios v" + nueva.numero + (catalogo != null ? " mapeada de " : " cargada de ")
+                + ruta + ": " + nueva.getTamano()
+                + (catalogo == null && leidos > nueva.getTamano() ? " de " + leidos : "")
+                + " servicios, " + nueva.getTamanoMensaje() + " bytes en el handshake"
+                + (nueva.getServiciosEnTabla() < nueva.getTamano() ? " (" + nueva.getServiciosEnTabla() + " listados)" : "")
+                + ", " + HistogramaLatencia.formatear(duracion));
+    }
+
+    // Revisa la fecha y el tamaño del archivo cargado cada periodo; conviene reemplazarlo con un rename
+    // para que nunca se lea a medio escribir
+    public synchronized void vigilar(long periodoMilisegundos) {
+        if (archivo == null) {
+            throw new IllegalStateException("No hay un archivo de servicios cargado");
+        }
+        if (vigilancia != null) {
+            return;
+        }
+        vigilancia = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "recarga-servicios");
+            t.setDaemon(true);
+            return t;
+        });
+        vigilancia.scheduleWithFixedDelay(this::revisarArchivo, periodoMilisegundos, periodoMilisegundos,
+                TimeUnit.MILLISECONDS);
+    }
+
+    public void detener() {
+        if (vigilancia != null) {
+            vigilancia.shutdownNow();
+        }
+    }
+
+    private void revisarArchivo() {
+        Path ruta;
+        synchronized (this) {
+            ruta = archivo;
+        }
+        try {
+            BasicFileAttributes atributos = Files.readAttributes(ruta, BasicFileAttributes.class);
+            synchronized (this) {
+                if (atributos.lastModifiedTime().toMillis() == modificacionCargada && atributos.size() == tamanoCargado) {
+                    return;
+                }
+            }
+            cargar(ruta.toString());
+        } catch (IOException | RuntimeException e) {
+            recargasFallidas.incrementAndGet();
+            Bitacora.error("[TablaServicios] No se pudo recargar " + ruta + ", se mantiene la versión "
+                    + actual.numero + ": " + e.getMessage());
+            // No se reintenta hasta que el archivo vuelva a cambiar
+            try {
+                BasicFileAttributes atributos = Files.readAttributes(ruta, BasicFileAttributes.class);
+                synchronized (this) {
+                    modificacionCargada = atributos.lastModifiedTime().toMillis();
+                    tamanoCargado = atributos.size();
+                }
+            } catch (IOException ignorada) {
+                // El archivo desapareció; se vuelve a intentar en la próxima revisión
+            }
+        }
+    }
+
+    // También lo usa CompiladorCatalogo
+    static void leerCSV(Path ruta, Map<String, InfoServicio> servicios) throws IOException {
+        try (BufferedReader lector = Files.newBufferedReader(ruta, StandardCharsets.UTF_8)) {
+            String linea;
+            int numero = 0;
+            while ((linea = lector.readLine()) != null) {
+                numero++;
+                linea = linea.trim();
+                if (linea.isEmpty() || linea.startsWith("#")) {
+                    continue;
+                }
+                int primera = linea.indexOf(',');
+                int ultima = linea.lastIndexOf(',');
+                int penultima = ultima > 0 ? linea.lastIndexOf(',', ultima - 1) : -1;
+                if (primera < 0 || penultima <= primera) {
+                    throw new IOException(ruta + ":" + numero + ": se esperaba id,nombre,ip,puerto");
+                }
+                String id = linea.substring(0, primera).trim();
+                if (id.isEmpty()) {
+                    throw new IOException(ruta + ":" + numero + ": id vacío");
+                }
+                servicios.put(id, new InfoServicio(linea.substring(primera + 1, penultima).trim(),
+                        linea.substring(penultima + 1, ultima).trim(), linea.substring(ultima + 1).trim()));
+            }
+        }
+    }
+
+    public long getRecargas() {
+        return recargas.get();
+    }
+
+    public long getRecargasFallidas() {
+        return recargasFallidas.get();
+    }
+
+    public String resumen() {
+        Version version = actual;
+        return "Tabla de servicios v" + version.numero + " - servicios: " + version.getTamano()
+                + ", listados en el handshake: " + version.getServiciosEnTabla()
+                + " (" + version.getTamanoMensaje() + " bytes)"
+                + ", recargas: " + recargas.get() + ", fallidas: " + recargasFallidas.get();
+    }
+
+    public static class Version {
+        private final long numero;
+        // Uno de los dos: servicios en el heap o catálogo mapeado
+        private final Map<String, InfoServicio> servicios;
+        private final CatalogoMapeado catalogo;
+        private final Map<String, String> nombres;
+        private final byte[] mensajeBinario;
+        private final byte[] sinCambios;
+        // Solo lo piden los clientes del formato objetos; se arma la primera vez (una carrera solo lo arma dos veces)
+        private volatile byte[] mensajeObjetos;
+
+        private Version(long numero, Map<String, InfoServicio> servicios) {
+            this.numero = numero;
+            this.servicios = Collections.unmodifiableMap(servicios);
+            this.catalogo = null;
+            this.nombres = new HashMap<>();
+            int tamano = 8;
+            for (Map.Entry<String, InfoServicio> entrada : servicios.entrySet()) {
+                String nombre = entrada.getValue().getServicio();
+                tamano += tamanoCadena(entrada.getKey()) + tamanoCadena(nombre);
+                if (tamano > TAMANO_MAXIMO_TABLA) {
+                    break;
+                }
+                nombres.put(entrada.getKey(), nombre);
+            }
+            this.mensajeBinario = MensajeTabla.construir(MensajeTabla.COMPLETA, numero, CodecServicios.codificarTabla(nombres));
+            this.sinCambios = MensajeTabla.construir(MensajeTabla.SIN_CAMBIOS, numero, new byte[0]);
+        }
+
+        private Version(long numero, CatalogoMapeado catalogo) throws IOException {
+            this.numero = numero;
+            this.servicios = null;
+            this.catalogo = catalogo;
+            this.nombres = catalogo.nombres(TAMANO_MAXIMO_TABLA);
+            this.mensajeBinario = MensajeTabla.construir(MensajeTabla.COMPLETA, numero, CodecServicios.codificarTabla(nombres));
+            this.sinCambios = MensajeTabla.construir(MensajeTabla.SIN_CAMBIOS, numero, new byte[0]);
+        }
+
+        public InfoServicio buscar(String idServicio) {
+            if (servicios != null) {
+                return servicios.get(idServicio);
+            }
+            try {
+                return catalogo.buscar(idServicio);
+            } catch (IOException e) {
+                throw new RuntimeException("Registro dañado en el catálogo " + catalogo.getRuta(), e);
+            }
+        }
+
+        // id en UTF-8 dentro de un arreglo; devuelve la respuesta del formato binario (CodecServicios) o null.
+        // Con catálogo mapeado no crea el String del id ni el InfoServicio.
+        public byte[] buscarCodificado(byte[] datos, int desde, int longitud) {
+            if (catalogo != null) {
+                return catalogo.buscarCodificado(datos, desde, longitud);
+            }
+            InfoServicio info = servicios.get(new String(datos, desde, longitud, StandardCharsets.UTF_8));
+            return info != null ? CodecServicios.codificarInfoServicio(info) : null;
+        }
+
+        // Para cifrar la respuesta sin copiarla: con catálogo mapeado es una vista del archivo
+        public ByteBuffer valorCodificado(byte[] datos, int desde, int longitud) {
+            if (catalogo != null) {
+                return catalogo.valorCodificado(datos, desde, longitud);
+            }
+            byte[] codificado = buscarCodificado(datos, desde, longitud);
+            return codificado != null ? ByteBuffer.wrap(codificado) : null;
+        }
+
+        private Map<String, InfoServicio> serviciosEditables() {
+            if (servicios == null) {
+                throw new IllegalStateException("El registro viene de un catálogo mapeado; para cambiarlo hay que recompilarlo");
+            }
+            return servicios;
+        }
+
+        // Lo que ocupa la cadena en CodecServicios, sin codificarla (un par sustituto cuenta 6 en vez de 4)
+        private static int tamanoCadena(String cadena) {
+            int bytes = 0;
+            for (int i = 0; i < cadena.length(); i++) {
+                char c = cadena.charAt(i);
+                bytes += c < 0x80 ? 1 : c < 0x800 ? 2 : 3;
+            }
+            return CodecTramas.tamanoVarint(bytes) + bytes;
+        }
+
+        public long getNumero() {
+            return numero;
+        }
+
+        public int getTamano() {
+            return servicios != null ? servicios.size() : catalogo.getRegistros();
+        }
+
+        public boolean isMapeada() {
+            return catalogo != null;
+        }
+
+        public int getServiciosEnTabla() {
+            return nombres.size();
+        }
+
+        public int getTamanoMensaje() {
+            return mensajeBinario.length;
+        }
+
+        // Mensaje listo para cifrar; compartido entre sesiones, no se debe modificar.
+        // versionCliente 0: el cliente no tiene tabla
+        public byte[] mensaje(boolean binario, long versionCliente) throws IOException {
+            if (versionCliente != 0 && versionCliente == numero) {
+                return sinCambios;
+            }
+            if (binario) {
+                return mensajeBinario;
+            }
+            byte[] mensaje = mensajeObjetos;
+            if (mensaje == null) {
+                mensaje = MensajeTabla.construir(MensajeTabla.COMPLETA, numero, CryptoUtils.serializarObjeto(new HashMap<>(nombres)));
+                mensajeObjetos = mensaje;
+            }
+            return mensaje;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Traza compacta por sesión: una línea CSV por conexión cerrada, con los tiempos de cada fase, los bytes y cómo
+// terminó. Igual que Bitacora, el transporte solo deja el registro en una cola acotada y un hilo lo escribe al
+// archivo por lotes (cuando junta LOTE registros o cada segundo); si la cola se llena el registro se descarta
+// y se cuenta. Columnas (tiempos en microsegundos):
+//   fin,transporte,cliente,formato,suite,registro,reanudada,handshake_us,consultas_us,sesion_us,consultas,lotes,
+//   bytes_leidos,bytes_escritos,resultado
+// resultado: cierre (el cliente mandó CIERRE), desconectado, inactividad, cedida (sesión inactiva que dejó su hilo
+// del pool a una conexión en cola) o error:<excepción>.
+public class TrazaSesiones {
+    private static final String CABECERA = "fin,transporte,cliente,formato,suite,registro,reanudada,handshake_us,"
+            + "consultas_us,sesion_us,consultas,lotes,bytes_leidos,bytes_escritos,resultado";
+    private static final int CAPACIDAD = 16384;
+    private static final int LOTE = 512;
+
+    private final Path ruta;
+    private final BufferedWriter salida;
+    private final ArrayBlockingQueue<Registro> pendientes;
+    private final AtomicLong escritos;
+    private final AtomicLong descartados;
+    private final Thread escritor;
+    private volatile boolean cerrada;
+
+    public TrazaSesiones(Path ruta) throws IOException {
+        this.ruta = ruta;
+        boolean nueva = !Files.exists(ruta) || Files.size(ruta) == 0;
+        this.salida = Files.newBufferedWriter(ruta, StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        if (nueva) {
+            salida.write(CABECERA);
+            salida.newLine();
+            salida.flush();
+        }
+        this.pendientes = new ArrayBlockingQueue<>(CAPACIDAD);
+        this.escritos = new AtomicLong(0);
+        this.descartados = new AtomicLong(0);
+        this.escritor = new Thread(this::escribirPendientes, "traza-sesiones");
+        escritor.setDaemon(true);
+        escritor.start();
+    }
+
+    // Lo llama el transporte al cerrar la conexión, con el protocolo ya quieto
+    public void registrar(ProtocoloServidor protocolo, String transporte, String cliente, boolean binario,
+                          long bytesLeidos, long bytesEscritos, long nanosSesion, String resultado) {
+        if (cerrada) {
+            return;
+        }
+        SuiteCifrado suite = protocolo.getSuite();
+        ModoRegistro modo = protocolo.getModoRegistro();
+        Registro registro = new Registro(System.currentTimeMillis(), transporte, cliente, binario,
+                suite != null ? suite.getNombre() : "-", modo != null ? modo.getNombre() : "-",
+                protocolo.isReanudada(), protocolo.getNanosHandshake(), protocolo.getNanosConsultas(), nanosSesion,
+                protocolo.getConsultas(), protocolo.getLotes(), bytesLeidos, bytesEscritos, resultado);
+        if (!pendientes.offer(registro)) {
+            descartados.incrementAndGet();
+        }
+    }
+
+    private void escribirPendientes() {
+        List<Registro> lote = new ArrayList<>(LOTE);
+        while (!cerrada) {
+            try {
+                Registro primero = pendientes.poll(1, TimeUnit.SECONDS);
+                if (primero == null) {
+                    continue;
+                }
+                lote.add(primero);
+                // Espera un poco a que se junte un lote más grande antes de tocar el archivo
+                if (pendientes.size() < LOTE - 1) {
+                    Thread.sleep(100);
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            pendientes.drainTo(lote, LOTE - 1);
+            escribir(lote);
+            lote.clear();
+        }
+    }
+
+    private synchronized void escribir(List<Registro> lote) {
+        try {
+            StringBuilder lineas = new StringBuilder(lote.size() * 128);
+            for (Registro registro : lote) {
+                registro.formatear(lineas);
+            }
+            salida.write(lineas.toString());
+            salida.flush();
+            escritos.addAndGet(lote.size());
+        } catch (IOException e) {
+            descartados.addAndGet(lote.size());
+            Bitacora.error("[TrazaSesiones] No se pudo escribir en " + ruta + ": " + e.getMessage());
+        }
+    }
+
+    // Escribe lo pendiente y cierra el archivo; los registros que lleguen después se ignoran.
+    // Sin interrupt: interrumpir al escritor a mitad de un write cerraría el canal del archivo
+    public void cerrar() {
+        cerrada = true;
+        try {
+            escritor.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Registro> resto = new ArrayList<>();
+        pendientes.drainTo(resto);
+        synchronized (this) {
+            if (!resto.isEmpty()) {
+                escribir(resto);
+            }
+            try {
+                salida.close();
+            } catch (IOException e) {
+                Bitacora.error("[TrazaSesiones] Error cerrando " + ruta + ": " + e.getMessage());
+            }
+        }
+    }
+
+    public long getEscritos() {
+        return escritos.get();
+    }
+
+    public long getDescartados() {
+        return descartados.get();
+    }
+
+    public String resumen() {
+        return "Traza de sesiones " + ruta + " - escritas: " + escritos.get() + ", descartadas: " + descartados.get();
+    }
+
+    private static final class Registro {
+        private final long fin;
+        private final String transporte;
+        private final String cliente;
+        private final boolean binario;
+        private final String suite;
+        private final String modoRegistro;
+        private final boolean reanudada;
+        private final long nanosHandshake;
+        private final long nanosConsultas;
+        private final long nanosSesion;
+        private final long consultas;
+        private final long lotes;
+        private final long bytesLeidos;
+        private final long bytesEscritos;
+        private final String resultado;
+
+        private Registro(long fin, String transporte, String cliente, boolean binario, String suite, String modoRegistro,
+                         boolean reanudada, long nanosHandshake, long nanosConsultas, long nanosSesion, long consultas,
+                         long lotes, long bytesLeidos, long bytesEscritos, String resultado) {
+            this.fin = fin;
+            this.transporte = transporte;
+            this.cliente = cliente;
+            this.binario = binario;
+            this.suite = suite;
+            this.modoRegistro = modoRegistro;
+            this.reanudada = reanudada;
+            this.nanosHandshake = nanosHandshake;
+            this.nanosConsultas = nanosConsultas;
+            this.nanosSesion = nanosSesion;
+            this.consultas = consultas;
+            this.lotes = lotes;
+            this.bytesLeidos = bytesLeidos;
+            this.bytesEscritos = bytesEscritos;
+            this.resultado = resultado;
+        }
+
+        private void formatear(StringBuilder linea) {
+            linea.append(fin).append(',').append(transporte).append(',').append(cliente).append(',')
+                 .append(binario ? "binario" : "objetos").append(',').append(suite).append(',').append(modoRegistro)
+                 .append(',').append(reanudada ? 1 : 0).append(',').append(nanosHandshake / 1000)
+                 .append(',').append(nanosConsultas / 1000).append(',').append(nanosSesion / 1000)
+                 .append(',').append(consultas).append(',').append(lotes).append(',').append(bytesLeidos)
+                 .append(',').append(bytesEscritos).append(',').append(resultado).append('\n');
+        }
+    }
+}